@@ -0,0 +1,172 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.unomi.api;
+
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The daily counts of the events matching the past event conditions for a profile, kept up to date as the events are
+ * received, so that the number of events that occurred during the last days can be computed without aggregating the
+ * events again. The identifier of this item is the identifier of the profile.
+ *
+ * The counts of a past event condition are stored under its generated property key, in a flat array of UTC epoch days
+ * and event counts sorted by day: [day0, count0, day1, count1, ...].
+ *
+ * The last N days of a past event condition are the N UTC days that end with the current day, so that the number of
+ * events can be computed from the daily counts alone, without counting the events of a partial day.
+ */
+public class PastEventCounters extends Item {
+
+    /**
+     * The PastEventCounters ITEM_TYPE.
+     *
+     * @see Item for a discussion of ITEM_TYPE
+     */
+    public static final String ITEM_TYPE = "pastEventCounters";
+    private static final long serialVersionUID = 1L;
+
+    private Map<String, long[]> dailyCounts = new HashMap<>();
+
+    public PastEventCounters() {
+    }
+
+    public PastEventCounters(String profileId) {
+        super(profileId);
+    }
+
+    /**
+     * Retrieves the daily counts of all the past event conditions.
+     *
+     * @return a Map of the flat arrays of days and counts, indexed by the generated property key of the conditions
+     */
+    public Map<String, long[]> getDailyCounts() {
+        return dailyCounts;
+    }
+
+    public void setDailyCounts(Map<String, long[]> dailyCounts) {
+        this.dailyCounts = dailyCounts;
+    }
+
+    /**
+     * Determines whether the counts of a past event condition were initialized for the profile.
+     *
+     * @param key the generated property key of the condition
+     * @return {@code true} if the counts were initialized, even if no event was counted
+     */
+    public boolean hasCounts(String key) {
+        return dailyCounts.containsKey(key);
+    }
+
+    /**
+     * Adds events to the count of a day, initializing the counts of the condition if needed.
+     *
+     * @param key      the generated property key of the condition
+     * @param epochDay the UTC day of the events, as a number of days since the epoch
+     * @param count    the number of events to add
+     */
+    public void increment(String key, long epochDay, long count) {
+        long[] counts = dailyCounts.get(key);
+        if (counts == null) {
+            counts = new long[0];
+        }
+        int i = 0;
+        while (i < counts.length && counts[i] < epochDay) {
+            i += 2;
+        }
+        if (i < counts.length && counts[i] == epochDay) {
+            counts[i + 1] += count;
+        } else {
+            long[] newCounts = new long[counts.length + 2];
+            System.arraycopy(counts, 0, newCounts, 0, i);
+            newCounts[i] = epochDay;
+            newCounts[i + 1] = count;
+            System.arraycopy(counts, i, newCounts, i + 2, counts.length - i);
+            counts = newCounts;
+        }
+        dailyCounts.put(key, counts);
+    }
+
+    /**
+     * Computes the number of events of a past event condition between two days.
+     *
+     * @param key          the generated property key of the condition
+     * @param fromEpochDay the first day to count, inclusive
+     * @param toEpochDay   the last day to count, inclusive
+     * @return the number of events
+     */
+    public long getCount(String key, long fromEpochDay, long toEpochDay) {
+        long[] counts = dailyCounts.get(key);
+        long total = 0;
+        if (counts != null) {
+            for (int i = 0; i < counts.length; i += 2) {
+                if (counts[i] >= fromEpochDay && counts[i] <= toEpochDay) {
+                    total += counts[i + 1];
+                }
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Retrieves the UTC day of a date.
+     *
+     * @param date the date
+     * @return the day, as a number of days since the epoch
+     */
+    public static long getEpochDay(Date date) {
+        return date.toInstant().atZone(ZoneOffset.UTC).toLocalDate().toEpochDay();
+    }
+
+    /**
+     * Retrieves the first UTC day of the last days of a past event condition.
+     *
+     * @param now          the current date
+     * @param numberOfDays the number of days of the condition, including the current day
+     * @return the first day, as a number of days since the epoch
+     */
+    public static long getFirstDay(Date now, int numberOfDays) {
+        return getEpochDay(now) - numberOfDays + 1;
+    }
+
+    /**
+     * Removes the counts of a past event condition that are older than a day, as they are no longer needed.
+     *
+     * @param key      the generated property key of the condition
+     * @param epochDay the first day to keep
+     * @return {@code true} if some counts were removed
+     */
+    public boolean removeCountsBefore(String key, long epochDay) {
+        long[] counts = dailyCounts.get(key);
+        if (counts == null) {
+            return false;
+        }
+        int i = 0;
+        while (i < counts.length && counts[i] < epochDay) {
+            i += 2;
+        }
+        if (i == 0) {
+            return false;
+        }
+        dailyCounts.put(key, Arrays.copyOfRange(counts, i, counts.length));
+        return true;
+    }
+}
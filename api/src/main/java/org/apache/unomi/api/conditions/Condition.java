@@ -32,6 +32,7 @@ public class Condition implements Serializable {
     ConditionType conditionType;
     String conditionTypeId;
     Map<String, Object> parameterValues = new HashMap<String, Object>();
+    private transient volatile Object compiledForm;
 
     /**
      * Instantiates a new Condition.
@@ -104,6 +105,7 @@ public class Condition implements Serializable {
      */
     public void setParameterValues(Map<String, Object> parameterValues) {
         this.parameterValues = parameterValues;
+        this.compiledForm = null;
     }
 
     /**
@@ -135,6 +137,28 @@ public class Condition implements Serializable {
      */
     public void setParameter(String name, Object value) {
         parameterValues.put(name, value);
+        this.compiledForm = null;
+    }
+
+    /**
+     * Retrieves the compiled form of this condition, attached by the evaluator of the condition so that it doesn't need
+     * to be compiled or looked up again the next time this instance is evaluated. It is not serialized, and is dropped
+     * when the parameters are set with {@link #setParameter(String, Object)} or {@link #setParameterValues(Map)}.
+     *
+     * @return the compiled form of this condition, or {@code null} if it wasn't compiled yet
+     */
+    @XmlTransient
+    public Object getCompiledForm() {
+        return compiledForm;
+    }
+
+    /**
+     * Attaches the compiled form of this condition.
+     *
+     * @param compiledForm the compiled form of this condition, which must not depend on anything else than the condition
+     */
+    public void setCompiledForm(Object compiledForm) {
+        this.compiledForm = compiledForm;
     }
 
     @Override
@@ -41,6 +41,10 @@ public class RuleStatistics extends Item {
     private long localConditionsTime = 0;
     private long actionsTime = 0;
     private long localActionsTime = 0;
+    private long conditionsTimeP50 = 0;
+    private long conditionsTimeP99 = 0;
+    private long actionsTimeP50 = 0;
+    private long actionsTimeP99 = 0;
     private Date lastSyncDate;
 
     public RuleStatistics() {
@@ -150,6 +154,74 @@ public class RuleStatistics extends Item {
         this.localActionsTime = localActionsTime;
     }
 
+    /**
+     * Retrieve the median time spent evaluating the rule's conditions, as measured on this node during the last
+     * statistics sync period. This value is not synced with the cluster
+     * @return a long representing the time in nanoseconds
+     */
+    public long getConditionsTimeP50() {
+        return conditionsTimeP50;
+    }
+
+    /**
+     * Sets the median time spent evaluating the rule's conditions
+     * @param conditionsTimeP50 a long representing the time in nanoseconds
+     */
+    public void setConditionsTimeP50(long conditionsTimeP50) {
+        this.conditionsTimeP50 = conditionsTimeP50;
+    }
+
+    /**
+     * Retrieve the 99th percentile of the time spent evaluating the rule's conditions, as measured on this node
+     * during the last statistics sync period. This value is not synced with the cluster
+     * @return a long representing the time in nanoseconds
+     */
+    public long getConditionsTimeP99() {
+        return conditionsTimeP99;
+    }
+
+    /**
+     * Sets the 99th percentile of the time spent evaluating the rule's conditions
+     * @param conditionsTimeP99 a long representing the time in nanoseconds
+     */
+    public void setConditionsTimeP99(long conditionsTimeP99) {
+        this.conditionsTimeP99 = conditionsTimeP99;
+    }
+
+    /**
+     * Retrieve the median time spent executing the rule's actions, as measured on this node during the last
+     * statistics sync period. This value is not synced with the cluster
+     * @return a long representing the time in nanoseconds
+     */
+    public long getActionsTimeP50() {
+        return actionsTimeP50;
+    }
+
+    /**
+     * Sets the median time spent executing the rule's actions
+     * @param actionsTimeP50 a long representing the time in nanoseconds
+     */
+    public void setActionsTimeP50(long actionsTimeP50) {
+        this.actionsTimeP50 = actionsTimeP50;
+    }
+
+    /**
+     * Retrieve the 99th percentile of the time spent executing the rule's actions, as measured on this node
+     * during the last statistics sync period. This value is not synced with the cluster
+     * @return a long representing the time in nanoseconds
+     */
+    public long getActionsTimeP99() {
+        return actionsTimeP99;
+    }
+
+    /**
+     * Sets the 99th percentile of the time spent executing the rule's actions
+     * @param actionsTimeP99 a long representing the time in nanoseconds
+     */
+    public void setActionsTimeP99(long actionsTimeP99) {
+        this.actionsTimeP99 = actionsTimeP99;
+    }
+
     /**
      * Retrieve the last sync date
      * @return a date that was set the last time the statistics were synchronized with the cluster
@@ -23,6 +23,8 @@ import org.apache.unomi.api.MetadataItem;
 import org.apache.unomi.api.Profile;
 import org.apache.unomi.api.conditions.Condition;
 
+import java.util.Date;
+
 /**
  * A dynamically evaluated group of similar profiles in order to categorize the associated users. To be considered part of a given segment, users must satisfies
  * the segment’s condition. If they match, users are automatically added to the segment. Similarly, if at any given point during, they cease to satisfy the segment’s condition,
@@ -38,6 +40,7 @@ public class Segment extends MetadataItem {
     public static final String ITEM_TYPE = "segment";
     private static final long serialVersionUID = -1384533444860961296L;
     private Condition condition;
+    private Date profilesUpdateDate;
 
     /**
      * Instantiates a new Segment.
@@ -72,4 +75,23 @@ public class Segment extends MetadataItem {
         this.condition = condition;
     }
 
+    /**
+     * Retrieves the date at which the last update of the membership of existing profiles to this Segment started. Profiles that were not modified since then
+     * only need to be evaluated again if the condition of the Segment changes.
+     *
+     * @return the start date of the last update of the profiles of this Segment, or {@code null} if they were never updated
+     */
+    public Date getProfilesUpdateDate() {
+        return profilesUpdateDate;
+    }
+
+    /**
+     * Sets the date at which the last update of the membership of existing profiles to this Segment started.
+     *
+     * @param profilesUpdateDate the start date of the last update of the profiles of this Segment
+     */
+    public void setProfilesUpdateDate(Date profilesUpdateDate) {
+        this.profilesUpdateDate = profilesUpdateDate;
+    }
+
 }
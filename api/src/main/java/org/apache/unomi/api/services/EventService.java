@@ -28,6 +28,7 @@ import org.apache.unomi.api.query.Query;
 
 import java.util.List;
 import java.util.Set;
+import java.util.function.IntConsumer;
 
 /**
  * A service to publish events, notably issued from user interactions with tracked entities, in the context server.
@@ -61,6 +62,34 @@ public interface EventService {
      */
     int send(Event event);
 
+    /**
+     * Checks if the events can be propagated asynchronously using {@link #sendAsync(List, IntConsumer)}, which is
+     * disabled by default.
+     *
+     * @return {@code true} if asynchronous event ingestion is enabled
+     */
+    default boolean isAsyncIngestionEnabled() {
+        return false;
+    }
+
+    /**
+     * Queues the specified events to be propagated asynchronously, as {@link #send(Event)} would do. The events are
+     * processed in order, and lists of events of the same profile are processed in the order they were queued. If an
+     * event replaces the profile, the following events of the list are updated to use the new profile. As other events of
+     * the profile may be processed between the submission and the processing of the events, the profile and the session
+     * of the events are replaced by their current version before they are processed. Persistent events are saved in
+     * batches, so they may be visible in the persistence backend with a small delay.
+     *
+     * @param events   the events to propagate, which must all belong to the same profile
+     * @param callback called once all the events were propagated, with the result of the event handling as
+     *                 combination of EventService flags, may be null. It is called on an ingestion worker thread.
+     * @return {@code true} if the events were queued, {@code false} if asynchronous ingestion is disabled or its queue
+     * is full, in which case the client should retry later
+     */
+    default boolean sendAsync(List<Event> events, IntConsumer callback) {
+        return false;
+    }
+
     /**
      * Check if the sender is allowed to sent the speecified event. Restricted event must be explicitely allowed for a sender.
      *
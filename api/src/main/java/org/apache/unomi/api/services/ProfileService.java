@@ -21,8 +21,11 @@ import org.apache.unomi.api.*;
 import org.apache.unomi.api.conditions.Condition;
 import org.apache.unomi.api.query.Query;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URL;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * A service to access and operate on {@link Profile}s, {@link Session}s and {@link Persona}s.
@@ -64,6 +67,18 @@ public interface ProfileService {
      */
     String exportProfilesPropertiesToCsv(Query query);
 
+    /**
+     * Writes a comma-separated values (CSV) formatted version of the profiles matching the specified query to a stream.
+     * Unlike {@link #exportProfilesPropertiesToCsv(Query)}, the profiles are read from the persistence service with a
+     * scroll and written as they are read, so the export isn't limited by the available memory. All the matching profiles
+     * are exported unless the query has a limit, and its sort order is ignored except for full text queries.
+     *
+     * @param query        the query specifying which profiles to export
+     * @param outputStream the stream the UTF-8 encoded CSV is written to, which is flushed but not closed
+     * @throws IOException if the CSV couldn't be written to the stream
+     */
+    void exportProfilesPropertiesToCsv(Query query, OutputStream outputStream) throws IOException;
+
     /**
      * Find profiles which have the specified property with the specified value, ordered according to the specified {@code sortBy} String and paged: only
      * {@code size} of them are retrieved, starting with the {@code offset}-th one.
@@ -150,6 +165,16 @@ public interface ProfileService {
      */
     Session loadSession(String sessionId, Date dateHint);
 
+    /**
+     * Starts retrieving the session identified by the specified identifier without blocking the calling thread, so that other lookups can be performed while it is
+     * loaded. Unlike {@link #loadSession(String, Date)}, the loaded session is not cached for the current request.
+     *
+     * @param sessionId the identifier of the session to be retrieved
+     * @param dateHint  a Date helping in identifying where the item is located
+     * @return a future completed with the session identified by the specified identifier, or {@code null} if it doesn't exist
+     */
+    CompletableFuture<Session> loadSessionAsync(String sessionId, Date dateHint);
+
     /**
      * Saves the specified session.
      *
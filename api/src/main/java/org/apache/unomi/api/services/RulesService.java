@@ -113,6 +113,16 @@ public interface RulesService {
      */
     public Set<Rule> getMatchingRules(Event event);
 
+    /**
+     * Checks if the rules that may match the specified event have actions reading the HTTP request or response attached
+     * to it ({@link Event#HTTP_REQUEST_ATTRIBUTE}, {@link Event#HTTP_RESPONSE_ATTRIBUTE}). These actions are the actions
+     * whose type has the {@code httpRequest} system tag. Such an event must be processed while the request is handled.
+     *
+     * @param event the event to check
+     * @return {@code true} if the event may trigger actions using the HTTP request or response, {@code false} otherwise
+     */
+    boolean isRequestRequired(Event event);
+
     /**
      * Refresh the rules for this instance by reloading them from the persistence backend
      */
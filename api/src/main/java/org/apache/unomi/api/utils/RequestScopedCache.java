@@ -0,0 +1,152 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.unomi.api.utils;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * A cache of lookups bound to the current thread for the duration of a request, so that the same item is not loaded
+ * several times from the persistence backend while processing the events of a request. Outside of a scope opened with
+ * {@link #open()}, lookups are not cached.
+ *
+ * The services that cache lookups must also invalidate them when they modify the corresponding items.
+ */
+public final class RequestScopedCache implements AutoCloseable {
+
+    public static final String PROFILES = "profiles";
+    public static final String SESSIONS = "sessions";
+    public static final String SOURCES = "sources";
+    public static final String EVENTS = "events";
+    public static final String RAISED_EVENTS = "raisedEvents";
+
+    private static final ThreadLocal<Scope> currentScope = new ThreadLocal<>();
+    private static final Object NULL_VALUE = new Object();
+
+    private final Scope scope;
+    private final boolean owner;
+
+    private RequestScopedCache(Scope scope, boolean owner) {
+        this.scope = scope;
+        this.owner = owner;
+    }
+
+    /**
+     * Opens a scope for the current thread, which must be closed once the request is processed. If a scope is already
+     * open, it is reused and will only be closed by its owner.
+     *
+     * @return the opened scope
+     */
+    public static RequestScopedCache open() {
+        Scope scope = currentScope.get();
+        if (scope != null) {
+            return new RequestScopedCache(scope, false);
+        }
+        scope = new Scope();
+        currentScope.set(scope);
+        return new RequestScopedCache(scope, true);
+    }
+
+    /**
+     * @return {@code true} if a scope is open for the current thread
+     */
+    public static boolean isActive() {
+        return currentScope.get() != null;
+    }
+
+    /**
+     * Retrieves a value from the cache of the current scope, loading it if it is not cached yet. {@code null} values
+     * are cached as well.
+     *
+     * @param region the region of the cache, usually the type of item
+     * @param key    the key of the value in the region
+     * @param loader the function loading the value if it is not cached or if there is no open scope
+     * @param <T>    the type of the value
+     * @return the cached or loaded value
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T get(String region, Object key, Supplier<T> loader) {
+        Scope scope = currentScope.get();
+        if (scope == null || key == null) {
+            return loader.get();
+        }
+        Map<Object, Object> values = scope.getRegion(region);
+        Object value = values.get(key);
+        if (value == null) {
+            T loadedValue = loader.get();
+            values.put(key, loadedValue != null ? loadedValue : NULL_VALUE);
+            return loadedValue;
+        }
+        return value == NULL_VALUE ? null : (T) value;
+    }
+
+    /**
+     * Replaces a value in the cache of the current scope, if there is one.
+     *
+     * @param region the region of the cache
+     * @param key    the key of the value in the region
+     * @param value  the new value
+     */
+    public static void put(String region, Object key, Object value) {
+        Scope scope = currentScope.get();
+        if (scope != null && key != null) {
+            scope.getRegion(region).put(key, value != null ? value : NULL_VALUE);
+        }
+    }
+
+    /**
+     * Removes a value from the cache of the current scope, if there is one.
+     *
+     * @param region the region of the cache
+     * @param key    the key of the value in the region
+     */
+    public static void invalidate(String region, Object key) {
+        Scope scope = currentScope.get();
+        if (scope != null && key != null) {
+            scope.getRegion(region).remove(key);
+        }
+    }
+
+    /**
+     * Removes all the values of a region from the cache of the current scope, if there is one.
+     *
+     * @param region the region of the cache
+     */
+    public static void invalidateAll(String region) {
+        Scope scope = currentScope.get();
+        if (scope != null) {
+            scope.regions.remove(region);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (owner && currentScope.get() == scope) {
+            currentScope.remove();
+        }
+    }
+
+    private static class Scope {
+        private final Map<String, Map<Object, Object>> regions = new HashMap<>();
+
+        private Map<Object, Object> getRegion(String region) {
+            return regions.computeIfAbsent(region, name -> new HashMap<>());
+        }
+    }
+}
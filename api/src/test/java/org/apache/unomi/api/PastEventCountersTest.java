@@ -0,0 +1,77 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.unomi.api;
+
+import org.junit.Test;
+
+import java.time.Instant;
+import java.util.Date;
+
+import static org.junit.Assert.*;
+
+public class PastEventCountersTest {
+
+    @Test
+    public void testIncrementKeepsDaysSorted() {
+        PastEventCounters counters = new PastEventCounters("profile");
+        assertFalse(counters.hasCounts("key"));
+        counters.increment("key", 12, 1);
+        counters.increment("key", 10, 2);
+        counters.increment("key", 14, 3);
+        counters.increment("key", 12, 4);
+        assertTrue(counters.hasCounts("key"));
+        assertArrayEquals(new long[]{10, 2, 12, 5, 14, 3}, counters.getDailyCounts().get("key"));
+    }
+
+    @Test
+    public void testGetCountIncludesBothDays() {
+        PastEventCounters counters = new PastEventCounters("profile");
+        counters.increment("key", 10, 2);
+        counters.increment("key", 12, 5);
+        counters.increment("key", 14, 3);
+        assertEquals(10, counters.getCount("key", 10, 14));
+        assertEquals(8, counters.getCount("key", 11, 14));
+        assertEquals(5, counters.getCount("key", 12, 12));
+        assertEquals(0, counters.getCount("key", 15, 20));
+        assertEquals(0, counters.getCount("otherKey", 10, 14));
+    }
+
+    @Test
+    public void testRemoveCountsBefore() {
+        PastEventCounters counters = new PastEventCounters("profile");
+        counters.increment("key", 10, 2);
+        counters.increment("key", 12, 5);
+        assertFalse(counters.removeCountsBefore("key", 10));
+        assertFalse(counters.removeCountsBefore("otherKey", 20));
+        assertTrue(counters.removeCountsBefore("key", 11));
+        assertArrayEquals(new long[]{12, 5}, counters.getDailyCounts().get("key"));
+        assertTrue(counters.removeCountsBefore("key", 20));
+        assertTrue(counters.hasCounts("key"));
+        assertEquals(0, counters.getDailyCounts().get("key").length);
+    }
+
+    @Test
+    public void testLastDaysAreWholeDaysEndingToday() {
+        Date now = Date.from(Instant.parse("2020-03-10T15:30:00Z"));
+        long today = PastEventCounters.getEpochDay(now);
+        assertEquals(Instant.parse("2020-03-10T00:00:00Z").getEpochSecond() / 86400, today);
+        assertEquals(today, PastEventCounters.getEpochDay(Date.from(Instant.parse("2020-03-10T23:59:59Z"))));
+        assertEquals(today, PastEventCounters.getFirstDay(now, 1));
+        assertEquals(today - 29, PastEventCounters.getFirstDay(now, 30));
+    }
+}
@@ -44,6 +44,8 @@ public interface RouterConstants {
     String HEADER_FAILED_MESSAGE = "failedMessage";
     String HEADER_IMPORT_CONFIG_ONESHOT = "importConfigOneShot";
 
+    String PROPERTY_IMPORT_LINE_INDEXES = "importLineIndexes";
+
     String IMPORT_ONESHOT_ROUTE_ID = "ONE_SHOT_ROUTE";
     String IMPORT_ONESHOT_UPLOAD_DIR = "oneshotImportUploadDir";
 
@@ -20,7 +20,10 @@ import org.apache.unomi.api.Profile;
 import org.apache.unomi.api.PropertyType;
 import org.apache.unomi.router.api.ExportConfiguration;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.util.Collection;
+import java.util.stream.Stream;
 
 /**
  * Created by amidani on 30/06/2017.
@@ -29,6 +32,27 @@ public interface ProfileExportService {
 
     String extractProfilesBySegment(ExportConfiguration exportConfiguration);
 
+    /**
+     * Writes the CSV lines of the profiles of the segment of an export configuration, without loading the whole
+     * segment in memory: the profiles are scrolled page by page and their lines are formatted in parallel and written
+     * by chunks. An execution entry is added to the export configuration once all the lines are written.
+     *
+     * @param exportConfiguration the export configuration
+     * @param writer              the writer the lines are written to, which is not closed
+     * @return the number of exported profiles
+     * @throws IOException if the lines couldn't be written
+     */
+    long writeProfilesBySegment(ExportConfiguration exportConfiguration, Writer writer) throws IOException;
+
+    /**
+     * Retrieves the profiles of a segment as a stream, page by page. The stream must be closed to release the
+     * resources of the underlying scroll if it is not fully consumed.
+     *
+     * @param segmentId the identifier of the segment
+     * @return a sequential stream of the profiles of the segment
+     */
+    Stream<Profile> streamProfilesBySegment(String segmentId);
+
     String convertProfileToCSVLine(Profile profile, ExportConfiguration exportConfiguration);
 
 }
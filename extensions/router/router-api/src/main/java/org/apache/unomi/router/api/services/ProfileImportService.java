@@ -19,6 +19,7 @@ package org.apache.unomi.router.api.services;
 import org.apache.unomi.router.api.ProfileToImport;
 
 import java.lang.reflect.InvocationTargetException;
+import java.util.List;
 
 /**
  * Created by amidani on 20/05/2017.
@@ -26,4 +27,14 @@ import java.lang.reflect.InvocationTargetException;
 public interface ProfileImportService {
 
     boolean saveMergeDeleteImportedProfile(ProfileToImport profileToImport) throws InvocationTargetException, IllegalAccessException;
+
+    /**
+     * Saves, merges or deletes a batch of imported profiles, the same way as {@link #saveMergeDeleteImportedProfile(ProfileToImport)}
+     * but resolving the existing profiles with one query per merging property and saving them with a single bulk request.
+     * Profiles of the batch sharing the same merging property value are merged in order.
+     *
+     * @param profilesToImport the profiles to import
+     * @return for each profile to import, in the same order, {@code true} if it was saved or deleted, {@code false} otherwise
+     */
+    List<Boolean> saveMergeDeleteImportedProfiles(List<ProfileToImport> profilesToImport) throws InvocationTargetException, IllegalAccessException;
 }
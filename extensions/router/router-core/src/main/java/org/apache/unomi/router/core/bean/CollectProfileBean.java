@@ -17,22 +17,70 @@
 package org.apache.unomi.router.core.bean;
 
 import org.apache.unomi.api.Profile;
-import org.apache.unomi.persistence.spi.PersistenceService;
+import org.apache.unomi.router.api.services.ProfileExportService;
 
-import java.util.List;
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.stream.Stream;
 
 /**
  * Created by amidani on 28/06/2017.
  */
 public class CollectProfileBean {
 
-    private PersistenceService persistenceService;
+    private ProfileExportService profileExportService;
 
-    public List<Profile> extractProfileBySegment(String segment) {
-        return persistenceService.query("segments", segment,null, Profile.class);
+    /**
+     * Scrolls the profiles of a segment instead of loading them all at once, the route splitting them as they come.
+     *
+     * @param segment the identifier of the segment
+     * @return an iterator over the profiles of the segment, which releases the scroll once it is exhausted or closed
+     */
+    public Iterator<Profile> extractProfileBySegment(String segment) {
+        return new ProfileStreamIterator(profileExportService.streamProfilesBySegment(segment));
     }
 
-    public void setPersistenceService(PersistenceService persistenceService) {
-        this.persistenceService = persistenceService;
+    public void setProfileExportService(ProfileExportService profileExportService) {
+        this.profileExportService = profileExportService;
+    }
+
+    private static class ProfileStreamIterator implements Iterator<Profile>, Closeable {
+        private final Stream<Profile> stream;
+        private final Iterator<Profile> iterator;
+        private boolean closed;
+
+        private ProfileStreamIterator(Stream<Profile> stream) {
+            this.stream = stream;
+            this.iterator = stream.iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (closed) {
+                return false;
+            }
+            if (!iterator.hasNext()) {
+                close();
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public Profile next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return iterator.next();
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                stream.close();
+            }
+        }
     }
 }
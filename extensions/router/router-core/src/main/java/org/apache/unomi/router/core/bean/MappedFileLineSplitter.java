@@ -0,0 +1,312 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.router.core.bean;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.util.IOHelper;
+import org.apache.unomi.api.PropertyType;
+import org.apache.unomi.router.api.ImportConfiguration;
+import org.apache.unomi.router.api.ProfileToImport;
+import org.apache.unomi.router.api.RouterConstants;
+import org.apache.unomi.router.api.exceptions.BadProfileDataFormatException;
+import org.apache.unomi.router.core.processor.ProfileLineParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Splits an import file in parsed lines without loading it in memory: the file is memory-mapped and cut in chunks
+ * ending at a line separator, which are decoded and parsed in parallel. The lines are returned in the order of the file,
+ * and only a few chunks are parsed ahead of the consumed line so that the memory used doesn't depend on the file size.
+ *
+ * The chunks are parsed by the threads of the splitter, which are started on demand and stopped by {@link #stop()}
+ * when the route using the splitter stops. Files in a charset where a line separator can't be found by comparing bytes
+ * (UTF-16 for example) are parsed in a single chunk.
+ */
+public class MappedFileLineSplitter {
+
+    private static final Logger logger = LoggerFactory.getLogger(MappedFileLineSplitter.class.getName());
+
+    private static final int CHUNK_SIZE = 4 * 1024 * 1024;
+    private static final int SEPARATOR_SEARCH_WINDOW = 64 * 1024;
+    private static final int MAX_PENDING_CHUNKS = 4;
+
+    private final Collection<PropertyType> profilePropertyTypes;
+    private final int chunkSize;
+    private final int separatorSearchWindow;
+    private final int parallelism;
+    private ThreadPoolExecutor executor;
+
+    public MappedFileLineSplitter(Collection<PropertyType> profilePropertyTypes) {
+        this(profilePropertyTypes, CHUNK_SIZE, SEPARATOR_SEARCH_WINDOW);
+    }
+
+    MappedFileLineSplitter(Collection<PropertyType> profilePropertyTypes, int chunkSize, int separatorSearchWindow) {
+        this.profilePropertyTypes = profilePropertyTypes;
+        this.chunkSize = chunkSize;
+        this.separatorSearchWindow = separatorSearchWindow;
+        this.parallelism = Math.min(Runtime.getRuntime().availableProcessors(), MAX_PENDING_CHUNKS);
+    }
+
+    /**
+     * @param exchange the exchange of the import file, with the one shot import configuration in its headers
+     * @return an iterator over the parsed lines of the file, which must be closed if it is not fully consumed
+     * @throws IOException if the file can't be opened
+     */
+    public Iterator<ParsedLine> split(Exchange exchange) throws IOException {
+        ImportConfiguration importConfiguration = (ImportConfiguration) exchange.getIn().getHeader(RouterConstants.HEADER_IMPORT_CONFIG_ONESHOT);
+        return split(exchange.getIn().getBody(File.class), Charset.forName(IOHelper.getCharsetName(exchange)), importConfiguration);
+    }
+
+    ParsedLineIterator split(File file, Charset charset, ImportConfiguration importConfiguration) throws IOException {
+        return new ParsedLineIterator(file, charset, importConfiguration.getLineSeparator(), importConfiguration.isHasHeader(),
+                ProfileLineParser.fromImportConfiguration(importConfiguration, profilePropertyTypes));
+    }
+
+    /**
+     * Stops the threads parsing the chunks, the chunks not parsed yet are cancelled.
+     */
+    public synchronized void stop() {
+        if (executor != null) {
+            for (Runnable pendingChunk : executor.shutdownNow()) {
+                ((Future<?>) pendingChunk).cancel(false);
+            }
+            executor = null;
+        }
+    }
+
+    private synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            AtomicInteger threadCount = new AtomicInteger();
+            // the queue can't grow beyond the chunks read ahead by the files being split, the caller parses the chunks
+            // that would exceed it
+            executor = new ThreadPoolExecutor(parallelism, parallelism, 60L, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(MAX_PENDING_CHUNKS * 2), runnable -> {
+                Thread thread = new Thread(runnable, "unomi-import-line-splitter-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }, (runnable, rejectingExecutor) -> {
+                if (rejectingExecutor.isShutdown()) {
+                    throw new RejectedExecutionException("The import line splitter is stopped");
+                }
+                runnable.run();
+            });
+            executor.allowCoreThreadTimeOut(true);
+        }
+        return executor;
+    }
+
+    /**
+     * @return whether a line separator can be found in the bytes of a file by comparing them with the bytes of the
+     * separator, which is the case for UTF-8 and the single-byte charsets
+     */
+    private static boolean isSplittable(Charset charset) {
+        return StandardCharsets.UTF_8.equals(charset) || charset.newEncoder().maxBytesPerChar() == 1;
+    }
+
+    /**
+     * A line of an import file, either parsed as a profile to import, or with the error that prevented its parsing.
+     */
+    public static class ParsedLine {
+        private final String line;
+        private final boolean header;
+        private final ProfileToImport profileToImport;
+        private final BadProfileDataFormatException error;
+
+        ParsedLine(String line, boolean header, ProfileToImport profileToImport, BadProfileDataFormatException error) {
+            this.line = line;
+            this.header = header;
+            this.profileToImport = profileToImport;
+            this.error = error;
+        }
+
+        public String getLine() {
+            return line;
+        }
+
+        public boolean isHeader() {
+            return header;
+        }
+
+        public ProfileToImport getProfileToImport() {
+            return profileToImport;
+        }
+
+        public BadProfileDataFormatException getError() {
+            return error;
+        }
+    }
+
+    class ParsedLineIterator implements Iterator<ParsedLine>, Closeable {
+        private final FileChannel channel;
+        private final Charset charset;
+        private final String lineSeparator;
+        private final byte[] separatorBytes;
+        private final boolean splittable;
+        private final boolean hasHeader;
+        private final ProfileLineParser parser;
+
+        private final Deque<Future<List<ParsedLine>>> pendingChunks = new ArrayDeque<>();
+        private Iterator<ParsedLine> currentChunk = Collections.emptyIterator();
+        private long nextChunkStart;
+        private boolean firstChunk = true;
+        private boolean closed;
+
+        ParsedLineIterator(File file, Charset charset, String lineSeparator, boolean hasHeader, ProfileLineParser parser) throws IOException {
+            this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            this.charset = charset;
+            this.lineSeparator = lineSeparator;
+            this.separatorBytes = lineSeparator.getBytes(charset);
+            this.splittable = isSplittable(charset);
+            this.hasHeader = hasHeader;
+            this.parser = parser;
+            try {
+                fillPendingChunks();
+            } catch (IOException | RuntimeException e) {
+                close();
+                throw e;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!currentChunk.hasNext()) {
+                Future<List<ParsedLine>> nextChunk = pendingChunks.poll();
+                if (nextChunk == null) {
+                    close();
+                    return false;
+                }
+                try {
+                    currentChunk = nextChunk.get().iterator();
+                    fillPendingChunks();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    close();
+                    throw new IllegalStateException("Interrupted while reading the import file", e);
+                } catch (ExecutionException | CancellationException | RejectedExecutionException | IOException e) {
+                    close();
+                    throw new IllegalStateException("Error reading the import file", e.getCause() != null ? e.getCause() : e);
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public ParsedLine next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return currentChunk.next();
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                // the chunks read ahead are not parsed if they didn't start yet
+                for (Future<List<ParsedLine>> pendingChunk : pendingChunks) {
+                    pendingChunk.cancel(false);
+                }
+                pendingChunks.clear();
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    logger.warn("Error closing the import file", e);
+                }
+            }
+        }
+
+        private void fillPendingChunks() throws IOException {
+            long size = channel.size();
+            while (!closed && pendingChunks.size() < MAX_PENDING_CHUNKS && nextChunkStart < size) {
+                long start = nextChunkStart;
+                long end = splittable ? findChunkEnd(start, size) : size;
+                boolean skipHeader = firstChunk && hasHeader;
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+                pendingChunks.add(getExecutor().submit(() -> parseChunk(buffer, skipHeader)));
+                nextChunkStart = end;
+                firstChunk = false;
+            }
+        }
+
+        /**
+         * @return the position following the first line separator found after the chunk size, or the end of the file
+         */
+        private long findChunkEnd(long start, long size) throws IOException {
+            long position = start + chunkSize;
+            while (position < size) {
+                // the window overlaps the previous one so that a separator isn't missed when it is cut
+                long windowStart = Math.max(start, position - separatorBytes.length + 1);
+                int windowSize = (int) Math.min(separatorSearchWindow, size - windowStart);
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowSize);
+                for (int i = 0; i <= windowSize - separatorBytes.length; i++) {
+                    if (matchesSeparator(window, i)) {
+                        return windowStart + i + separatorBytes.length;
+                    }
+                }
+                position = windowStart + windowSize;
+            }
+            return size;
+        }
+
+        private boolean matchesSeparator(MappedByteBuffer buffer, int index) {
+            for (int j = 0; j < separatorBytes.length; j++) {
+                if (buffer.get(index + j) != separatorBytes[j]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private List<ParsedLine> parseChunk(MappedByteBuffer buffer, boolean skipHeader) {
+            String content = charset.decode(buffer).toString();
+            List<ParsedLine> lines = new ArrayList<>();
+            int start = 0;
+            while (start < content.length()) {
+                int end = content.indexOf(lineSeparator, start);
+                if (end < 0) {
+                    end = content.length();
+                }
+                String line = content.substring(start, end);
+                if (skipHeader && lines.isEmpty()) {
+                    lines.add(new ParsedLine(line, true, null, null));
+                } else {
+                    // the index of the line is only known once the previous chunks are consumed, the split index is
+                    // added to the error message by the line split processor
+                    try {
+                        lines.add(new ParsedLine(line, false, parser.parse(line, -1), null));
+                    } catch (BadProfileDataFormatException e) {
+                        lines.add(new ParsedLine(line, false, null, e));
+                    }
+                }
+                start = end + lineSeparator.length();
+            }
+            return lines;
+        }
+    }
+}
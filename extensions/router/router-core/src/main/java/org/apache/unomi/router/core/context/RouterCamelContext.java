@@ -67,6 +67,7 @@ public class RouterCamelContext implements SynchronousBundleListener, IRouterCam
     private String uploadDir;
     private String execHistorySize;
     private String execErrReportSize;
+    private int importBatchSize = 1;
     private Map<String, String> kafkaProps;
     private String configType;
     private String allowedEndpoints;
@@ -86,6 +87,10 @@ public class RouterCamelContext implements SynchronousBundleListener, IRouterCam
         this.execErrReportSize = execErrReportSize;
     }
 
+    public void setImportBatchSize(int importBatchSize) {
+        this.importBatchSize = importBatchSize;
+    }
+
     public void setBundleContext(BundleContext bundleContext) {
         this.bundleContext = bundleContext;
     }
@@ -134,6 +139,7 @@ public class RouterCamelContext implements SynchronousBundleListener, IRouterCam
         ProfileImportToUnomiRouteBuilder builderProcessor = new ProfileImportToUnomiRouteBuilder(kafkaProps, configType);
         builderProcessor.setUnomiStorageProcessor(unomiStorageProcessor);
         builderProcessor.setImportRouteCompletionProcessor(importRouteCompletionProcessor);
+        builderProcessor.setImportBatchSize(importBatchSize);
         builderProcessor.setJacksonDataFormat(jacksonDataFormat);
         builderProcessor.setContext(camelContext);
         camelContext.addRoutes(builderProcessor);
@@ -144,6 +150,7 @@ public class RouterCamelContext implements SynchronousBundleListener, IRouterCam
         ProfileExportCollectRouteBuilder profileExportCollectRouteBuilder = new ProfileExportCollectRouteBuilder(kafkaProps, configType);
         profileExportCollectRouteBuilder.setExportConfigurationService(exportConfigurationService);
         profileExportCollectRouteBuilder.setPersistenceService(persistenceService);
+        profileExportCollectRouteBuilder.setProfileExportService(profileExportService);
         profileExportCollectRouteBuilder.setAllowedEndpoints(allowedEndpoints);
         profileExportCollectRouteBuilder.setJacksonDataFormat(jacksonDataFormat);
         profileExportCollectRouteBuilder.setContext(camelContext);
@@ -231,6 +238,7 @@ public class RouterCamelContext implements SynchronousBundleListener, IRouterCam
             profileExportCollectRouteBuilder.setExportConfigurationList(Arrays.asList(exportConfiguration));
             profileExportCollectRouteBuilder.setExportConfigurationService(exportConfigurationService);
             profileExportCollectRouteBuilder.setPersistenceService(persistenceService);
+            profileExportCollectRouteBuilder.setProfileExportService(profileExportService);
             profileExportCollectRouteBuilder.setAllowedEndpoints(allowedEndpoints);
             profileExportCollectRouteBuilder.setJacksonDataFormat(jacksonDataFormat);
             profileExportCollectRouteBuilder.setContext(camelContext);
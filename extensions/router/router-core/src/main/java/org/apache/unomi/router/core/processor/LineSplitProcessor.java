@@ -16,20 +16,16 @@
  */
 package org.apache.unomi.router.core.processor;
 
-import com.opencsv.RFC4180Parser;
-import com.opencsv.RFC4180ParserBuilder;
 import org.apache.camel.Exchange;
 import org.apache.camel.Processor;
 import org.apache.camel.component.kafka.KafkaConstants;
-import org.apache.commons.lang3.BooleanUtils;
-import org.apache.commons.lang3.StringUtils;
 import org.apache.unomi.api.PropertyType;
 import org.apache.unomi.api.services.ProfileService;
 import org.apache.unomi.router.api.ImportConfiguration;
 import org.apache.unomi.router.api.ProfileToImport;
 import org.apache.unomi.router.api.RouterConstants;
-import org.apache.unomi.router.api.RouterUtils;
 import org.apache.unomi.router.api.exceptions.BadProfileDataFormatException;
+import org.apache.unomi.router.core.bean.MappedFileLineSplitter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -55,118 +51,50 @@ public class LineSplitProcessor implements Processor {
 
     private Collection<PropertyType> profilePropertyTypes;
 
+    private volatile ProfileLineParser profileLineParser;
+
     @Override
     public void process(Exchange exchange) throws Exception {
-
-        //In case of one shot import we check the header and overwrite import config
-        ImportConfiguration importConfigOneShot = (ImportConfiguration) exchange.getIn().getHeader(RouterConstants.HEADER_IMPORT_CONFIG_ONESHOT);
         String configType = (String) exchange.getIn().getHeader(RouterConstants.HEADER_CONFIG_TYPE);
-        if (importConfigOneShot != null) {
-            fieldsMapping = (Map<String, Integer>) importConfigOneShot.getProperties().get("mapping");
-            propertiesToOverwrite = importConfigOneShot.getPropertiesToOverwrite();
-            mergingProperty = importConfigOneShot.getMergingProperty();
-            overwriteExistingProfiles = importConfigOneShot.isOverwriteExistingProfiles();
-            columnSeparator = importConfigOneShot.getColumnSeparator();
-            hasHeader = importConfigOneShot.isHasHeader();
-            hasDeleteColumn = importConfigOneShot.isHasDeleteColumn();
-            multiValueSeparator = importConfigOneShot.getMultiValueSeparator();
-            multiValueDelimiter = importConfigOneShot.getMultiValueDelimiter();
-        }
-
-        if ((Integer) exchange.getProperty("CamelSplitIndex") == 0 && hasHeader) {
-            exchange.setProperty(Exchange.ROUTE_STOP, Boolean.TRUE);
-            return;
-        }
-
-        RFC4180Parser rfc4180Parser = new RFC4180ParserBuilder()
-                .withSeparator(columnSeparator.charAt(0))
-                .build();
-
-        logger.debug("$$$$ : LineSplitProcessor : BODY : " + (String) exchange.getIn().getBody());
-
-        String[] profileData = rfc4180Parser.parseLine(((String) exchange.getIn().getBody()));
-
-        ProfileToImport profileToImport = new ProfileToImport();
-        profileToImport.setItemId(UUID.randomUUID().toString());
-        profileToImport.setItemType("profile");
-        profileToImport.setScope(RouterConstants.SYSTEM_SCOPE);
-
-        if (profileData.length > 0 && StringUtils.isNotBlank(profileData[0])) {
-            if ((hasDeleteColumn && (fieldsMapping.size() > (profileData.length - 1)))
-                    || (!hasDeleteColumn && (fieldsMapping.size() > (profileData.length)))
-                    ) {
-                throw new BadProfileDataFormatException("The mapping does not match the number of column : line [" + ((Integer) exchange.getProperty("CamelSplitIndex") + 1) + "]", new Throwable("MAPPING_COLUMN_MATCH"));
-            }
-            logger.debug("$$$$ : LineSplitProcessor : MAPPING : " + fieldsMapping.keySet());
-            Map<String, Object> properties = new HashMap<>();
-            for (String fieldMappingKey : fieldsMapping.keySet()) {
-                PropertyType propertyType = RouterUtils.getPropertyTypeById(profilePropertyTypes, fieldMappingKey);
-
-                if (fieldMappingKey != null && fieldsMapping.get(fieldMappingKey) != null && profileData != null && profileData[fieldsMapping.get(fieldMappingKey)] != null) {
-                    logger.debug("$$$$ : LineSplitProcessor : PropType value : {}", profileData[fieldsMapping.get(fieldMappingKey)].trim());
-                } else {
-                    logger.debug("$$$$ : LineSplitProcessor : no profileData found for fieldMappingKey=" + fieldMappingKey);
-                }
-
-                if (profileData.length > fieldsMapping.get(fieldMappingKey)) {
-                    try {
-                        if (propertyType == null) {
-                            logger.error("No valid property type found for propertyTypeId=" + fieldMappingKey);
-                        } else {
-                            if (propertyType.getValueTypeId() == null) {
-                                logger.error("No value type id found for property type " + propertyType.getItemId());
-                            }
-                        }
-                        if (propertyType.getValueTypeId().equals("string") || propertyType.getValueTypeId().equals("email") ||
-                                propertyType.getValueTypeId().equals("date")) {
-                            if (BooleanUtils.isTrue(propertyType.isMultivalued())) {
-                                String multivalueArray = profileData[fieldsMapping.get(fieldMappingKey)].trim();
-                                if (StringUtils.isNotBlank(multiValueDelimiter) && multiValueDelimiter.length() == 2) {
-                                    multivalueArray = multivalueArray.replaceAll("\\" + multiValueDelimiter.charAt(0), "").replaceAll("\\" + multiValueDelimiter.charAt(1), "");
-                                }
-                                if(multivalueArray.contains(multiValueSeparator)) {
-                                    String[] valuesArray = multivalueArray.split("\\" + multiValueSeparator);
-                                    properties.put(fieldMappingKey, valuesArray);
-                                } else {
-                                    if(StringUtils.isNotBlank(multivalueArray)) {
-                                        properties.put(fieldMappingKey, new String[]{multivalueArray});
-                                    } else {
-                                        properties.put(fieldMappingKey, new String[]{});
-                                    }
-                                }
-                            } else {
-                                String singleValue = profileData[fieldsMapping.get(fieldMappingKey)].trim();
-                                properties.put(fieldMappingKey, singleValue);
-                            }
-                        } else if (propertyType.getValueTypeId().equals("boolean")) {
-                            properties.put(fieldMappingKey, new Boolean(profileData[fieldsMapping.get(fieldMappingKey)].trim()));
-                        } else if (propertyType.getValueTypeId().equals("integer")) {
-                            properties.put(fieldMappingKey, new Integer(profileData[fieldsMapping.get(fieldMappingKey)].trim()));
-                        } else if (propertyType.getValueTypeId().equals("long")) {
-                            properties.put(fieldMappingKey, new Long(profileData[fieldsMapping.get(fieldMappingKey)].trim()));
-                        }
-                    } catch (Throwable t) {
-                        logger.error("Error converting profileData", t);
-                        if (fieldMappingKey != null && fieldsMapping.get(fieldMappingKey) != null && profileData != null && profileData[fieldsMapping.get(fieldMappingKey)] != null) {
-                            throw new BadProfileDataFormatException("Unable to convert '" + profileData[fieldsMapping.get(fieldMappingKey)].trim() + "' to " + propertyType!=null?propertyType.getValueTypeId():"Null propertyType ", new Throwable("DATA_TYPE"));
-                        } else {
-                            throw new BadProfileDataFormatException("Unable to find profile data for key " + fieldMappingKey, new Throwable("DATA_TYPE"));
-                        }
-                    }
-
-                }
+        int lineIndex = (Integer) exchange.getProperty("CamelSplitIndex");
+
+        ProfileToImport profileToImport;
+        Object body = exchange.getIn().getBody();
+        if (body instanceof MappedFileLineSplitter.ParsedLine) {
+            // the line was already parsed while splitting the file
+            MappedFileLineSplitter.ParsedLine parsedLine = (MappedFileLineSplitter.ParsedLine) body;
+            if (parsedLine.isHeader()) {
+                exchange.setProperty(Exchange.ROUTE_STOP, Boolean.TRUE);
+                return;
             }
-            profileToImport.setProperties(properties);
-            profileToImport.setMergingProperty(mergingProperty);
-            profileToImport.setPropertiesToOverwrite(propertiesToOverwrite);
-            profileToImport.setOverwriteExistingProfiles(overwriteExistingProfiles);
-            if (hasDeleteColumn && StringUtils.isNotBlank(profileData[profileData.length - 1]) &&
-                    Boolean.parseBoolean(profileData[profileData.length - 1].trim())) {
-                profileToImport.setProfileToDelete(true);
+            if (parsedLine.getError() != null) {
+                exchange.getIn().setBody(parsedLine.getLine(), String.class);
+                throw new BadProfileDataFormatException(parsedLine.getError().getMessage() + ProfileLineParser.getLineSuffix(lineIndex), parsedLine.getError().getCause());
             }
+            profileToImport = parsedLine.getProfileToImport();
         } else {
-            throw new BadProfileDataFormatException("Empty line : line [" + ((Integer) exchange.getProperty("CamelSplitIndex") + 1) + "]", new Throwable("EMPTY_LINE"));
+            //In case of one shot import we check the header and overwrite import config
+            ImportConfiguration importConfigOneShot = (ImportConfiguration) exchange.getIn().getHeader(RouterConstants.HEADER_IMPORT_CONFIG_ONESHOT);
+            ProfileLineParser parser;
+            boolean hasHeader;
+            if (importConfigOneShot != null) {
+                parser = ProfileLineParser.fromImportConfiguration(importConfigOneShot, profilePropertyTypes);
+                hasHeader = importConfigOneShot.isHasHeader();
+            } else {
+                parser = getProfileLineParser();
+                hasHeader = this.hasHeader;
+            }
+
+            if (lineIndex == 0 && hasHeader) {
+                exchange.setProperty(Exchange.ROUTE_STOP, Boolean.TRUE);
+                return;
+            }
+
+            logger.debug("$$$$ : LineSplitProcessor : BODY : " + (String) exchange.getIn().getBody());
+
+            profileToImport = parser.parse((String) exchange.getIn().getBody(), lineIndex);
         }
+
         exchange.getIn().setBody(profileToImport, ProfileToImport.class);
         if (RouterConstants.CONFIG_TYPE_KAFKA.equals(configType)) {
             exchange.getIn().setHeader(KafkaConstants.PARTITION_KEY, 0);
@@ -174,6 +102,19 @@ public class LineSplitProcessor implements Processor {
         }
     }
 
+    /**
+     * The parser of the configured import is immutable, it is only built again when the configuration changes.
+     */
+    private ProfileLineParser getProfileLineParser() {
+        ProfileLineParser parser = profileLineParser;
+        if (parser == null) {
+            parser = new ProfileLineParser(fieldsMapping, propertiesToOverwrite, mergingProperty, overwriteExistingProfiles,
+                    hasDeleteColumn, columnSeparator, multiValueSeparator, multiValueDelimiter, profilePropertyTypes);
+            profileLineParser = parser;
+        }
+        return parser;
+    }
+
     /**
      * Setter of fieldsMapping
      *
@@ -181,14 +122,17 @@ public class LineSplitProcessor implements Processor {
      */
     public void setFieldsMapping(Map<String, Integer> fieldsMapping) {
         this.fieldsMapping = fieldsMapping;
+        this.profileLineParser = null;
     }
 
     public void setPropertiesToOverwrite(List<String> propertiesToOverwrite) {
         this.propertiesToOverwrite = propertiesToOverwrite;
+        this.profileLineParser = null;
     }
 
     public void setOverwriteExistingProfiles(boolean overwriteExistingProfiles) {
         this.overwriteExistingProfiles = overwriteExistingProfiles;
+        this.profileLineParser = null;
     }
 
     public void setHasHeader(boolean hasHeader) {
@@ -197,6 +141,7 @@ public class LineSplitProcessor implements Processor {
 
     public void setHasDeleteColumn(boolean hasDeleteColumn) {
         this.hasDeleteColumn = hasDeleteColumn;
+        this.profileLineParser = null;
     }
 
     /**
@@ -206,6 +151,7 @@ public class LineSplitProcessor implements Processor {
      */
     public void setMergingProperty(String mergingProperty) {
         this.mergingProperty = mergingProperty;
+        this.profileLineParser = null;
     }
 
     /**
@@ -215,6 +161,7 @@ public class LineSplitProcessor implements Processor {
      */
     public void setColumnSeparator(String columnSeparator) {
         this.columnSeparator = columnSeparator;
+        this.profileLineParser = null;
     }
 
     /**
@@ -224,6 +171,7 @@ public class LineSplitProcessor implements Processor {
      */
     public void setMultiValueSeparator(String multiValueSeparator) {
         this.multiValueSeparator = multiValueSeparator;
+        this.profileLineParser = null;
     }
 
     /**
@@ -233,6 +181,7 @@ public class LineSplitProcessor implements Processor {
      */
     public void setMultiValueDelimiter(String multiValueDelimiter) {
         this.multiValueDelimiter = multiValueDelimiter;
+        this.profileLineParser = null;
     }
 
     /**
@@ -241,5 +190,6 @@ public class LineSplitProcessor implements Processor {
      */
     public void setProfilePropertyTypes(Collection<PropertyType> profilePropertyTypes) {
         this.profilePropertyTypes = profilePropertyTypes;
+        this.profileLineParser = null;
     }
 }
@@ -0,0 +1,216 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.router.core.processor;
+
+import org.apache.commons.lang3.BooleanUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.unomi.api.PropertyType;
+import org.apache.unomi.router.api.ImportConfiguration;
+import org.apache.unomi.router.api.ProfileToImport;
+import org.apache.unomi.router.api.RouterConstants;
+import org.apache.unomi.router.api.exceptions.BadProfileDataFormatException;
+
+import java.util.*;
+
+/**
+ * Converts the lines of an import file to profiles to import, according to the mapping of an import configuration. The
+ * columns are parsed as RFC 4180 fields and the multi-valued properties are split without regular expressions. A parser
+ * is immutable, so the same instance can be used to parse lines concurrently.
+ */
+public class ProfileLineParser {
+
+    private final Map<String, Integer> fieldsMapping;
+    private final List<String> propertiesToOverwrite;
+    private final String mergingProperty;
+    private final boolean overwriteExistingProfiles;
+    private final boolean hasDeleteColumn;
+    private final char columnSeparator;
+    private final String multiValueSeparator;
+    private final String multiValueDelimiter;
+    private final Map<String, PropertyType> profilePropertyTypes = new HashMap<>();
+
+    public ProfileLineParser(Map<String, Integer> fieldsMapping, List<String> propertiesToOverwrite, String mergingProperty,
+                             boolean overwriteExistingProfiles, boolean hasDeleteColumn, String columnSeparator,
+                             String multiValueSeparator, String multiValueDelimiter, Collection<PropertyType> profilePropertyTypes) {
+        this.fieldsMapping = fieldsMapping;
+        this.propertiesToOverwrite = propertiesToOverwrite;
+        this.mergingProperty = mergingProperty;
+        this.overwriteExistingProfiles = overwriteExistingProfiles;
+        this.hasDeleteColumn = hasDeleteColumn;
+        this.columnSeparator = columnSeparator.charAt(0);
+        this.multiValueSeparator = multiValueSeparator;
+        this.multiValueDelimiter = multiValueDelimiter;
+        if (profilePropertyTypes != null) {
+            for (PropertyType propertyType : profilePropertyTypes) {
+                this.profilePropertyTypes.putIfAbsent(propertyType.getMetadata().getId(), propertyType);
+            }
+        }
+    }
+
+    /**
+     * @param importConfiguration  the import configuration
+     * @param profilePropertyTypes the profile property types used for the field mappings
+     * @return a parser for the lines of the files of the import configuration
+     */
+    public static ProfileLineParser fromImportConfiguration(ImportConfiguration importConfiguration, Collection<PropertyType> profilePropertyTypes) {
+        return new ProfileLineParser((Map<String, Integer>) importConfiguration.getProperties().get("mapping"),
+                importConfiguration.getPropertiesToOverwrite(), importConfiguration.getMergingProperty(),
+                importConfiguration.isOverwriteExistingProfiles(), importConfiguration.isHasDeleteColumn(),
+                importConfiguration.getColumnSeparator(), importConfiguration.getMultiValueSeparator(),
+                importConfiguration.getMultiValueDelimiter(), profilePropertyTypes);
+    }
+
+    /**
+     * @param line      the line to parse
+     * @param lineIndex the index of the line in the file, starting at 0, or -1 if it isn't known yet
+     * @return the profile to import
+     * @throws BadProfileDataFormatException if the line is empty or doesn't match the mapping, the cause message being
+     *                                       the error code
+     */
+    public ProfileToImport parse(String line, int lineIndex) throws BadProfileDataFormatException {
+        List<String> profileData = parseFields(line, columnSeparator);
+
+        ProfileToImport profileToImport = new ProfileToImport();
+        profileToImport.setItemId(UUID.randomUUID().toString());
+        profileToImport.setItemType("profile");
+        profileToImport.setScope(RouterConstants.SYSTEM_SCOPE);
+
+        if (profileData.size() == 0 || StringUtils.isBlank(profileData.get(0))) {
+            throw new BadProfileDataFormatException("Empty line" + getLineSuffix(lineIndex), new Throwable("EMPTY_LINE"));
+        }
+        if ((hasDeleteColumn && (fieldsMapping.size() > (profileData.size() - 1)))
+                || (!hasDeleteColumn && (fieldsMapping.size() > (profileData.size())))) {
+            throw new BadProfileDataFormatException("The mapping does not match the number of column" + getLineSuffix(lineIndex), new Throwable("MAPPING_COLUMN_MATCH"));
+        }
+
+        Map<String, Object> properties = new HashMap<>();
+        for (Map.Entry<String, Integer> fieldMapping : fieldsMapping.entrySet()) {
+            int column = fieldMapping.getValue();
+            if (profileData.size() > column) {
+                Object value = convertValue(fieldMapping.getKey(), profileData.get(column));
+                if (value != null) {
+                    properties.put(fieldMapping.getKey(), value);
+                }
+            }
+        }
+        profileToImport.setProperties(properties);
+        profileToImport.setMergingProperty(mergingProperty);
+        profileToImport.setPropertiesToOverwrite(propertiesToOverwrite);
+        profileToImport.setOverwriteExistingProfiles(overwriteExistingProfiles);
+        String deleteColumn = profileData.get(profileData.size() - 1);
+        if (hasDeleteColumn && StringUtils.isNotBlank(deleteColumn) && Boolean.parseBoolean(deleteColumn.trim())) {
+            profileToImport.setProfileToDelete(true);
+        }
+        return profileToImport;
+    }
+
+    /**
+     * @param lineIndex the index of a line, or -1 if it isn't known
+     * @return the suffix of the error messages about the line
+     */
+    public static String getLineSuffix(int lineIndex) {
+        return lineIndex >= 0 ? " : line [" + (lineIndex + 1) + "]" : "";
+    }
+
+    private Object convertValue(String propertyName, String data) throws BadProfileDataFormatException {
+        PropertyType propertyType = profilePropertyTypes.get(propertyName);
+        if (propertyType == null || propertyType.getValueTypeId() == null) {
+            throw new BadProfileDataFormatException("No valid property type found for " + propertyName, new Throwable("DATA_TYPE"));
+        }
+        String valueTypeId = propertyType.getValueTypeId();
+        String value = data.trim();
+        try {
+            switch (valueTypeId) {
+                case "string":
+                case "email":
+                case "date":
+                    return BooleanUtils.isTrue(propertyType.isMultivalued()) ? splitMultiValue(value) : value;
+                case "boolean":
+                    return Boolean.valueOf(value);
+                case "integer":
+                    return Integer.valueOf(value);
+                case "long":
+                    return Long.valueOf(value);
+                default:
+                    return null;
+            }
+        } catch (NumberFormatException e) {
+            throw new BadProfileDataFormatException("Unable to convert '" + value + "' to " + valueTypeId, new Throwable("DATA_TYPE"));
+        }
+    }
+
+    private String[] splitMultiValue(String value) {
+        if (StringUtils.isNotBlank(multiValueDelimiter) && multiValueDelimiter.length() == 2) {
+            value = StringUtils.remove(StringUtils.remove(value, multiValueDelimiter.charAt(0)), multiValueDelimiter.charAt(1));
+        }
+        if (StringUtils.isNotEmpty(multiValueSeparator) && value.contains(multiValueSeparator)) {
+            // same as String.split, without the regular expression: the trailing empty values are removed
+            List<String> values = new ArrayList<>();
+            int start = 0;
+            int end;
+            while ((end = value.indexOf(multiValueSeparator, start)) >= 0) {
+                values.add(value.substring(start, end));
+                start = end + multiValueSeparator.length();
+            }
+            values.add(value.substring(start));
+            int size = values.size();
+            while (size > 0 && values.get(size - 1).isEmpty()) {
+                size--;
+            }
+            return values.subList(0, size).toArray(new String[0]);
+        }
+        return StringUtils.isNotBlank(value) ? new String[]{value} : new String[]{};
+    }
+
+    /**
+     * Splits a line in RFC 4180 fields: a field may be enclosed in double quotes, in which case it may contain the
+     * separator, and a double quote inside a quoted field is escaped by another double quote.
+     */
+    static List<String> parseFields(String line, char separator) {
+        List<String> fields = new ArrayList<>();
+        int length = line.length();
+        int i = 0;
+        while (true) {
+            StringBuilder field = new StringBuilder();
+            if (i < length && line.charAt(i) == '"') {
+                i++;
+                while (i < length) {
+                    char c = line.charAt(i++);
+                    if (c != '"') {
+                        field.append(c);
+                    } else if (i < length && line.charAt(i) == '"') {
+                        field.append('"');
+                        i++;
+                    } else {
+                        break;
+                    }
+                }
+            }
+            // the characters up to the next separator, after the closing quote of a quoted field, are kept as is
+            int end = line.indexOf(separator, i);
+            if (end < 0) {
+                end = length;
+            }
+            field.append(line, i, end);
+            fields.add(field.toString());
+            if (end == length) {
+                return fields;
+            }
+            i = end + 1;
+        }
+    }
+}
@@ -21,9 +21,15 @@ import org.apache.camel.Message;
 import org.apache.camel.Processor;
 import org.apache.unomi.api.segments.SegmentsAndScores;
 import org.apache.unomi.api.services.SegmentService;
+import org.apache.unomi.router.api.ImportLineError;
 import org.apache.unomi.router.api.ProfileToImport;
+import org.apache.unomi.router.api.RouterConstants;
 import org.apache.unomi.router.api.services.ProfileImportService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -32,6 +38,8 @@ import java.util.Set;
  */
 public class UnomiStorageProcessor implements Processor {
 
+    private static final Logger logger = LoggerFactory.getLogger(UnomiStorageProcessor.class.getName());
+
     private ProfileImportService profileImportService;
     private SegmentService segmentService;
 
@@ -41,21 +49,79 @@ public class UnomiStorageProcessor implements Processor {
         if (exchange.getIn() != null) {
             Message message = exchange.getIn();
 
+            if (message.getBody() instanceof List) {
+                processBatch(exchange, message.getBody(List.class));
+                return;
+            }
+
             ProfileToImport profileToImport = (ProfileToImport) message.getBody();
 
-            if (!profileToImport.isProfileToDelete()) {
-                SegmentsAndScores segmentsAndScoringForProfile = segmentService.getSegmentsAndScoresForProfile(profileToImport);
-                Set<String> segments = segmentsAndScoringForProfile.getSegments();
-                if (!segments.equals(profileToImport.getSegments())) {
-                    profileToImport.setSegments(segments);
-                }
-                Map<String, Integer> scores = segmentsAndScoringForProfile.getScores();
-                if (!scores.equals(profileToImport.getScores())) {
-                    profileToImport.setScores(scores);
+            updateSegmentsAndScores(profileToImport);
+
+            profileImportService.saveMergeDeleteImportedProfile(profileToImport);
+        }
+    }
+
+    /**
+     * Processes a batch of aggregated lines: the segments of the profiles are computed in parallel, and the profiles are
+     * saved at once. The lines that couldn't be imported are replaced by import line errors, the lines that already
+     * failed are left as is.
+     */
+    private void processBatch(Exchange exchange, List<Object> lines) throws Exception {
+        List<Integer> lineIndexes = exchange.getProperty(RouterConstants.PROPERTY_IMPORT_LINE_INDEXES, List.class);
+        List<ProfileToImport> profilesToImport = new ArrayList<>();
+        List<Integer> profileLines = new ArrayList<>();
+        for (int i = 0; i < lines.size(); i++) {
+            if (lines.get(i) instanceof ProfileToImport) {
+                profilesToImport.add((ProfileToImport) lines.get(i));
+                profileLines.add(i);
+            }
+        }
+        if (profilesToImport.isEmpty()) {
+            return;
+        }
+
+        profilesToImport.parallelStream().forEach(this::updateSegmentsAndScores);
+
+        List<Boolean> results;
+        String errorCode = "PROFILE_NOT_SAVED";
+        try {
+            results = profileImportService.saveMergeDeleteImportedProfiles(profilesToImport);
+        } catch (Exception e) {
+            logger.error("Error importing a batch of {} profiles", profilesToImport.size(), e);
+            Throwable rootCause = e;
+            while (rootCause.getCause() != null) {
+                rootCause = rootCause.getCause();
+            }
+            errorCode = rootCause.getMessage();
+            results = null;
+        }
+
+        for (int i = 0; i < profilesToImport.size(); i++) {
+            if (results == null || !results.get(i)) {
+                int line = profileLines.get(i);
+                ImportLineError importLineError = new ImportLineError();
+                importLineError.setErrorCode(errorCode);
+                importLineError.setLineContent(String.valueOf(profilesToImport.get(i).getProperties()));
+                if (lineIndexes != null && lineIndexes.get(line) != null) {
+                    importLineError.setLineNb(lineIndexes.get(line) + 1);
                 }
+                lines.set(line, importLineError);
             }
+        }
+    }
 
-            profileImportService.saveMergeDeleteImportedProfile(profileToImport);
+    private void updateSegmentsAndScores(ProfileToImport profileToImport) {
+        if (!profileToImport.isProfileToDelete()) {
+            SegmentsAndScores segmentsAndScoringForProfile = segmentService.getSegmentsAndScoresForProfile(profileToImport);
+            Set<String> segments = segmentsAndScoringForProfile.getSegments();
+            if (!segments.equals(profileToImport.getSegments())) {
+                profileToImport.setSegments(segments);
+            }
+            Map<String, Integer> scores = segmentsAndScoringForProfile.getScores();
+            if (!scores.equals(profileToImport.getScores())) {
+                profileToImport.setScores(scores);
+            }
         }
     }
 
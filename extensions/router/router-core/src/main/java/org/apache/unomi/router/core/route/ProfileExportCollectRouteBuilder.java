@@ -24,6 +24,7 @@ import org.apache.unomi.persistence.spi.PersistenceService;
 import org.apache.unomi.router.api.ExportConfiguration;
 import org.apache.unomi.router.api.RouterConstants;
 import org.apache.unomi.router.api.services.ImportExportConfigurationService;
+import org.apache.unomi.router.api.services.ProfileExportService;
 import org.apache.unomi.router.core.bean.CollectProfileBean;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -41,6 +42,7 @@ public class ProfileExportCollectRouteBuilder extends RouterAbstractRouteBuilder
     private List<ExportConfiguration> exportConfigurationList;
     private ImportExportConfigurationService<ExportConfiguration> exportConfigurationService;
     private PersistenceService persistenceService;
+    private ProfileExportService profileExportService;
 
     public ProfileExportCollectRouteBuilder(Map<String, String> kafkaProps, String configType) {
         super(kafkaProps, configType);
@@ -55,7 +57,7 @@ public class ProfileExportCollectRouteBuilder extends RouterAbstractRouteBuilder
         }
 
         CollectProfileBean collectProfileBean = new CollectProfileBean();
-        collectProfileBean.setPersistenceService(persistenceService);
+        collectProfileBean.setProfileExportService(profileExportService);
 
 
         //Loop on multiple export configuration
@@ -73,7 +75,7 @@ public class ProfileExportCollectRouteBuilder extends RouterAbstractRouteBuilder
                                 .routeId(exportConfiguration.getItemId())// This allow identification of the route for manual start/stop
                                 .autoStartup(exportConfiguration.isActive())
                                 .bean(collectProfileBean, "extractProfileBySegment(" + exportConfiguration.getProperties().get("segment") + ")")
-                                .split(body())
+                                .split(body()).streaming()
                                 .marshal(jacksonDataFormat)
                                 .convertBodyTo(String.class)
                                 .setHeader(RouterConstants.HEADER_EXPORT_CONFIG, constant(exportConfiguration))
@@ -107,4 +109,8 @@ public class ProfileExportCollectRouteBuilder extends RouterAbstractRouteBuilder
         this.persistenceService = persistenceService;
     }
 
+    public void setProfileExportService(ProfileExportService profileExportService) {
+        this.profileExportService = profileExportService;
+    }
+
 }
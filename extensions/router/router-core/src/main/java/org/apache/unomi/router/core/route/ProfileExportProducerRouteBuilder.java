@@ -16,6 +16,7 @@
  */
 package org.apache.unomi.router.core.route;
 
+import org.apache.camel.Exchange;
 import org.apache.camel.component.kafka.KafkaEndpoint;
 import org.apache.camel.model.RouteDefinition;
 import org.apache.unomi.router.api.RouterConstants;
@@ -61,11 +62,14 @@ public class ProfileExportProducerRouteBuilder extends RouterAbstractRouteBuilde
 
         LineBuildProcessor processor = new LineBuildProcessor(profileExportService);
 
+        // the profiles are split in streaming mode, so the split size is only known once the last profile is
+        // received: the aggregation strategy keeps it on the aggregated exchange, which lets the lines be built in
+        // parallel and aggregated in any order
         rtDef.unmarshal(jacksonDataFormat)
+                .threads(Runtime.getRuntime().availableProcessors())
                 .process(processor)
                 .aggregate(constant(true), new StringLinesAggregationStrategy())
-                .completionPredicate(exchangeProperty("CamelSplitSize").isEqualTo(exchangeProperty("CamelAggregatedSize")))
-                .eagerCheckCompletion()
+                .completionPredicate(exchangeProperty(Exchange.SPLIT_SIZE).isEqualTo(exchangeProperty(Exchange.AGGREGATED_SIZE)))
                 .process(exportRouteCompletionProcessor)
                 .toD("${in.header.exportConfig.getProperty('destination')}");
 
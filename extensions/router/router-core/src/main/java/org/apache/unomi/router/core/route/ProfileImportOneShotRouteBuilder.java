@@ -17,16 +17,21 @@
 package org.apache.unomi.router.core.route;
 
 import org.apache.camel.LoggingLevel;
+import org.apache.camel.Route;
 import org.apache.camel.component.kafka.KafkaEndpoint;
 import org.apache.camel.model.ProcessorDefinition;
+import org.apache.camel.support.RoutePolicySupport;
+import org.apache.unomi.api.PropertyType;
 import org.apache.unomi.router.api.RouterConstants;
 import org.apache.unomi.router.api.exceptions.BadProfileDataFormatException;
+import org.apache.unomi.router.core.bean.MappedFileLineSplitter;
 import org.apache.unomi.router.core.processor.ImportConfigByFileNameProcessor;
 import org.apache.unomi.router.core.processor.LineSplitFailureHandler;
 import org.apache.unomi.router.core.processor.LineSplitProcessor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collection;
 import java.util.Map;
 
 /**
@@ -61,14 +66,29 @@ public class ProfileImportOneShotRouteBuilder extends RouterAbstractRouteBuilder
             prDefErr.to((String) getEndpointURI(RouterConstants.DIRECTION_FROM, RouterConstants.DIRECT_IMPORT_DEPOSIT_BUFFER));
         }
 
+        Collection<PropertyType> profilePropertyTypes = profileService.getTargetPropertyTypes("profiles");
         LineSplitProcessor lineSplitProcessor = new LineSplitProcessor();
-        lineSplitProcessor.setProfilePropertyTypes(profileService.getTargetPropertyTypes("profiles"));
+        lineSplitProcessor.setProfilePropertyTypes(profilePropertyTypes);
+
+        // the file is split and parsed in parallel by chunks, the parsed lines being streamed in the order of the file
+        MappedFileLineSplitter mappedFileLineSplitter = new MappedFileLineSplitter(profilePropertyTypes);
 
         ProcessorDefinition prDef = from("file://" + uploadDir + "?moveFailed=.error&include=.*.csv&consumer.delay=1m")
                 .routeId(RouterConstants.IMPORT_ONESHOT_ROUTE_ID)
                 .autoStartup(true)
+                .routePolicy(new RoutePolicySupport() {
+                    @Override
+                    public void onStop(Route route) {
+                        mappedFileLineSplitter.stop();
+                    }
+
+                    @Override
+                    public void onRemove(Route route) {
+                        mappedFileLineSplitter.stop();
+                    }
+                })
                 .process(importConfigByFileNameProcessor)
-                .split(bodyAs(String.class).tokenize("${in.header.importConfigOneShot.getLineSeparator}"))
+                .split(method(mappedFileLineSplitter, "split")).streaming()
                 .setHeader(RouterConstants.HEADER_CONFIG_TYPE, constant(configType))
                 .process(lineSplitProcessor)
                 .to("log:org.apache.unomi.router?level=DEBUG")
@@ -23,6 +23,7 @@ import org.apache.unomi.router.api.RouterConstants;
 import org.apache.unomi.router.core.processor.ImportRouteCompletionProcessor;
 import org.apache.unomi.router.core.processor.UnomiStorageProcessor;
 import org.apache.unomi.router.core.strategy.ArrayListAggregationStrategy;
+import org.apache.unomi.router.core.strategy.ImportBatchAggregationStrategy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -37,6 +38,7 @@ public class ProfileImportToUnomiRouteBuilder extends RouterAbstractRouteBuilder
 
     private UnomiStorageProcessor unomiStorageProcessor;
     private ImportRouteCompletionProcessor importRouteCompletionProcessor;
+    private int importBatchSize = 1;
 
     public ProfileImportToUnomiRouteBuilder(Map<String, String> kafkaProps, String configType) {
         super(kafkaProps, configType);
@@ -53,6 +55,27 @@ public class ProfileImportToUnomiRouteBuilder extends RouterAbstractRouteBuilder
         } else {
             rtDef = from((String) getEndpointURI(RouterConstants.DIRECTION_TO, RouterConstants.DIRECT_IMPORT_DEPOSIT_BUFFER));
         }
+        if (importBatchSize > 1) {
+            // the lines are processed by batches, which are then aggregated again to complete the import
+            rtDef.choice()
+                    .when(header(RouterConstants.HEADER_FAILED_MESSAGE).isNull())
+                    .unmarshal(jacksonDataFormat)
+                    .otherwise()
+                    .log(LoggingLevel.WARN, "Failed message, skip processing!")
+                    .end()
+                    .aggregate(constant(true), new ImportBatchAggregationStrategy())
+                    .completionSize(importBatchSize)
+                    .completionPredicate(exchangeProperty("CamelSplitComplete").isEqualTo("true"))
+                    .eagerCheckCompletion()
+                    .process(unomiStorageProcessor)
+                    .aggregate(constant(true), new ImportBatchAggregationStrategy())
+                    .completionPredicate(exchangeProperty("CamelSplitComplete").isEqualTo("true"))
+                    .eagerCheckCompletion()
+                    .process(importRouteCompletionProcessor)
+                    .to("log:org.apache.unomi.router?level=DEBUG");
+            return;
+        }
+
         rtDef.choice()
                 .when(header(RouterConstants.HEADER_FAILED_MESSAGE).isNull())
                 .unmarshal(jacksonDataFormat)
@@ -67,6 +90,10 @@ public class ProfileImportToUnomiRouteBuilder extends RouterAbstractRouteBuilder
                 .to("log:org.apache.unomi.router?level=DEBUG");
     }
 
+    public void setImportBatchSize(int importBatchSize) {
+        this.importBatchSize = importBatchSize;
+    }
+
     public void setUnomiStorageProcessor(UnomiStorageProcessor unomiStorageProcessor) {
         this.unomiStorageProcessor = unomiStorageProcessor;
     }
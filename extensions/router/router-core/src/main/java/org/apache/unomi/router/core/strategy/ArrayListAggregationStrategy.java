@@ -38,7 +38,19 @@ public class ArrayListAggregationStrategy implements AggregationStrategy {
         } else {
             list = oldExchange.getIn().getBody(ArrayList.class);
             list.add(newBody);
+            copySplitSize(oldExchange, newExchange);
             return oldExchange;
         }
     }
+
+    /**
+     * With a streaming split, only the last split exchange knows the split size, which is needed once the aggregation
+     * is complete.
+     */
+    static void copySplitSize(Exchange aggregatedExchange, Exchange newExchange) {
+        Object splitSize = newExchange.getProperty(Exchange.SPLIT_SIZE);
+        if (splitSize != null) {
+            aggregatedExchange.setProperty(Exchange.SPLIT_SIZE, splitSize);
+        }
+    }
 }
@@ -0,0 +1,64 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.router.core.strategy;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.processor.aggregate.AggregationStrategy;
+import org.apache.unomi.router.api.RouterConstants;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Aggregates the lines of an import in an ArrayList, along with the index of each line so that errors can still be
+ * reported per line once the lines are processed by batches. Lists of lines are flattened, so the processed batches can
+ * be aggregated again as a single list of lines. As the aggregated exchange is the first one, the split completion and
+ * size of the last line are copied to it.
+ */
+public class ImportBatchAggregationStrategy implements AggregationStrategy {
+
+    public Exchange aggregate(Exchange oldExchange, Exchange newExchange) {
+        Object newBody = newExchange.getIn().getBody();
+        List<Integer> newLineIndexes = newExchange.getProperty(RouterConstants.PROPERTY_IMPORT_LINE_INDEXES, List.class);
+        Integer newLineIndex = newExchange.getProperty(Exchange.SPLIT_INDEX, Integer.class);
+
+        Exchange aggregatedExchange = oldExchange;
+        if (aggregatedExchange == null) {
+            aggregatedExchange = newExchange;
+            aggregatedExchange.getIn().setBody(new ArrayList<Object>());
+            aggregatedExchange.setProperty(RouterConstants.PROPERTY_IMPORT_LINE_INDEXES, new ArrayList<Integer>());
+        }
+        ArrayList<Object> lines = aggregatedExchange.getIn().getBody(ArrayList.class);
+        List<Integer> lineIndexes = aggregatedExchange.getProperty(RouterConstants.PROPERTY_IMPORT_LINE_INDEXES, List.class);
+        if (newBody instanceof Collection) {
+            lines.addAll((Collection<?>) newBody);
+            if (newLineIndexes != null) {
+                lineIndexes.addAll(newLineIndexes);
+            }
+        } else {
+            lines.add(newBody);
+            lineIndexes.add(newLineIndex);
+        }
+
+        if (Boolean.TRUE.equals(newExchange.getProperty(Exchange.SPLIT_COMPLETE, Boolean.class))) {
+            aggregatedExchange.setProperty(Exchange.SPLIT_COMPLETE, Boolean.TRUE);
+        }
+        ArrayListAggregationStrategy.copySplitSize(aggregatedExchange, newExchange);
+        return aggregatedExchange;
+    }
+}
@@ -27,18 +27,24 @@ import org.apache.unomi.router.api.RouterUtils;
 public class StringLinesAggregationStrategy implements AggregationStrategy {
 
     public Exchange aggregate(Exchange oldExchange, Exchange newExchange) {
-        Object newBody = newExchange.getIn().getBody(String.class);
-        String lineSeparator = newExchange.getIn().getHeader("exportConfig", ExportConfiguration.class).getLineSeparator();
+        String newBody = newExchange.getIn().getBody(String.class);
+        Exchange aggregatedExchange;
         if (oldExchange != null) {
-            StringBuilder fileContent = new StringBuilder();
-            fileContent.append(oldExchange.getIn().getBody(String.class));
+            // the lines are appended to the same builder instead of copying the whole content for every line
+            String lineSeparator = newExchange.getIn().getHeader("exportConfig", ExportConfiguration.class).getLineSeparator();
+            StringBuilder fileContent = oldExchange.getIn().getBody(StringBuilder.class);
             fileContent.append(RouterUtils.getCharFromLineSeparator(lineSeparator));
             fileContent.append(newBody);
-
-            oldExchange.getIn().setBody(fileContent);
-            return oldExchange;
+            aggregatedExchange = oldExchange;
         } else {
-            return newExchange;
+            newExchange.getIn().setBody(new StringBuilder().append(newBody));
+            aggregatedExchange = newExchange;
+        }
+        // with a streaming split, only the last split exchange knows the split size
+        Object splitSize = newExchange.getProperty(Exchange.SPLIT_SIZE);
+        if (splitSize != null) {
+            aggregatedExchange.setProperty(Exchange.SPLIT_SIZE, splitSize);
         }
+        return aggregatedExchange;
     }
 }
@@ -0,0 +1,187 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.router.core.bean;
+
+import org.apache.unomi.api.Metadata;
+import org.apache.unomi.api.PropertyType;
+import org.apache.unomi.router.api.ImportConfiguration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class MappedFileLineSplitterTest {
+
+    private File file;
+    private List<MappedFileLineSplitter> splitters = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("import", ".csv");
+    }
+
+    @After
+    public void tearDown() {
+        for (MappedFileLineSplitter splitter : splitters) {
+            splitter.stop();
+        }
+        file.delete();
+    }
+
+    @Test
+    public void testHeaderAndLastLineWithoutSeparator() throws IOException {
+        write("firstName,email\nAlice,alice@example.com\n\"Doe, \"\"Bob\"\"\",bob@example.com", StandardCharsets.UTF_8);
+
+        List<MappedFileLineSplitter.ParsedLine> lines = split(createSplitter(1024, 1024), "\n", true, StandardCharsets.UTF_8);
+
+        assertEquals(3, lines.size());
+        assertTrue(lines.get(0).isHeader());
+        assertNull(lines.get(0).getProfileToImport());
+        assertEquals("alice@example.com", lines.get(1).getProfileToImport().getProperties().get("email"));
+        assertEquals("Doe, \"Bob\"", lines.get(2).getProfileToImport().getProperties().get("firstName"));
+        assertEquals("bob@example.com", lines.get(2).getProfileToImport().getProperties().get("email"));
+    }
+
+    @Test
+    public void testLinesWithErrorsAreReturnedWithTheirError() throws IOException {
+        write("Alice,alice@example.com\nBob\n", StandardCharsets.UTF_8);
+
+        List<MappedFileLineSplitter.ParsedLine> lines = split(createSplitter(1024, 1024), "\n", false, StandardCharsets.UTF_8);
+
+        assertEquals(2, lines.size());
+        assertNull(lines.get(0).getError());
+        assertEquals("Bob", lines.get(1).getLine());
+        assertEquals("MAPPING_COLUMN_MATCH", lines.get(1).getError().getCause().getMessage());
+    }
+
+    @Test
+    public void testSeparatorsStraddlingTheChunksAndTheSearchWindows() throws IOException {
+        List<String> expectedLines = new ArrayList<>();
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            String line = "n" + "x".substring(0, i % 2) + ",e" + i;
+            expectedLines.add(line);
+            content.append(line).append("\r\n");
+        }
+        write(content.toString(), StandardCharsets.UTF_8);
+
+        // every chunk size and window size puts the two bytes of the separator on both sides of a window boundary
+        for (int chunkSize = 1; chunkSize <= 12; chunkSize++) {
+            for (int window = 2; window <= 6; window++) {
+                List<String> lines = getLines(split(createSplitter(chunkSize, window), "\r\n", false, StandardCharsets.UTF_8));
+                assertEquals("chunk size " + chunkSize + ", window " + window, expectedLines, lines);
+            }
+        }
+    }
+
+    @Test
+    public void testMultiByteCharsets() throws IOException {
+        List<String> expectedLines = Arrays.asList("Élodie,élodie@example.com", "Jürgen,straße@example.com", "Zoë,😀@example.com", "€,x");
+        String content = String.join("\n", expectedLines) + "\n";
+
+        for (Charset charset : Arrays.asList(StandardCharsets.UTF_8, StandardCharsets.UTF_16, StandardCharsets.UTF_16LE, StandardCharsets.ISO_8859_1)) {
+            List<String> charsetExpectedLines = new ArrayList<>();
+            for (String expectedLine : expectedLines) {
+                charsetExpectedLines.add(new String(expectedLine.getBytes(charset), charset));
+            }
+            write(content, charset);
+            for (int chunkSize = 1; chunkSize <= 8; chunkSize++) {
+                List<MappedFileLineSplitter.ParsedLine> lines = split(createSplitter(chunkSize, 4), "\n", false, charset);
+                assertEquals(charset.name(), charsetExpectedLines, getLines(lines));
+                assertEquals(charset.name(), charsetExpectedLines.get(1).substring(0, 6),
+                        lines.get(1).getProfileToImport().getProperties().get("firstName"));
+            }
+        }
+    }
+
+    @Test
+    public void testCloseStopsReadingAhead() throws IOException {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            content.append("name").append(i).append(",email").append(i).append('\n');
+        }
+        write(content.toString(), StandardCharsets.UTF_8);
+        MappedFileLineSplitter splitter = createSplitter(64, 16);
+
+        MappedFileLineSplitter.ParsedLineIterator iterator = splitter.split(file, StandardCharsets.UTF_8, createImportConfiguration("\n", false));
+        assertEquals("name0,email0", iterator.next().getLine());
+        iterator.close();
+        int remainingLines = 0;
+        while (iterator.hasNext()) {
+            iterator.next();
+            remainingLines++;
+        }
+        assertTrue(remainingLines < 10);
+
+        // the splitter can still be used once it is stopped, its threads are started again
+        splitter.stop();
+        assertEquals(10000, split(splitter, "\n", false, StandardCharsets.UTF_8).size());
+    }
+
+    private void write(String content, Charset charset) throws IOException {
+        Files.write(file.toPath(), content.getBytes(charset));
+    }
+
+    private MappedFileLineSplitter createSplitter(int chunkSize, int separatorSearchWindow) {
+        PropertyType firstName = new PropertyType(new Metadata("firstName"));
+        firstName.setValueTypeId("string");
+        PropertyType email = new PropertyType(new Metadata("email"));
+        email.setValueTypeId("email");
+        MappedFileLineSplitter splitter = new MappedFileLineSplitter(Arrays.asList(firstName, email), chunkSize, separatorSearchWindow);
+        splitters.add(splitter);
+        return splitter;
+    }
+
+    private List<MappedFileLineSplitter.ParsedLine> split(MappedFileLineSplitter splitter, String lineSeparator, boolean hasHeader,
+                                                          Charset charset) throws IOException {
+        List<MappedFileLineSplitter.ParsedLine> lines = new ArrayList<>();
+        Iterator<MappedFileLineSplitter.ParsedLine> iterator = splitter.split(file, charset, createImportConfiguration(lineSeparator, hasHeader));
+        while (iterator.hasNext()) {
+            lines.add(iterator.next());
+        }
+        return lines;
+    }
+
+    private static ImportConfiguration createImportConfiguration(String lineSeparator, boolean hasHeader) {
+        Map<String, Integer> mapping = new HashMap<>();
+        mapping.put("firstName", 0);
+        mapping.put("email", 1);
+        ImportConfiguration importConfiguration = new ImportConfiguration();
+        importConfiguration.setProperty("mapping", mapping);
+        importConfiguration.setMergingProperty("email");
+        importConfiguration.setColumnSeparator(",");
+        importConfiguration.setLineSeparator(lineSeparator);
+        importConfiguration.setHasHeader(hasHeader);
+        return importConfiguration;
+    }
+
+    private static List<String> getLines(List<MappedFileLineSplitter.ParsedLine> parsedLines) {
+        List<String> lines = new ArrayList<>();
+        for (MappedFileLineSplitter.ParsedLine parsedLine : parsedLines) {
+            lines.add(parsedLine.getLine());
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.router.core.processor;
+
+import org.apache.unomi.api.Metadata;
+import org.apache.unomi.api.PropertyType;
+import org.apache.unomi.router.api.ProfileToImport;
+import org.apache.unomi.router.api.exceptions.BadProfileDataFormatException;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ProfileLineParserTest {
+
+    @Test
+    public void testQuotedFields() {
+        assertEquals(Arrays.asList("a", "b,c", "d"), ProfileLineParser.parseFields("a,\"b,c\",d", ','));
+        assertEquals(Arrays.asList("say \"hello\"", ""), ProfileLineParser.parseFields("\"say \"\"hello\"\"\",", ','));
+        assertEquals(Arrays.asList("a;b", "c"), ProfileLineParser.parseFields("\"a;b\";c", ';'));
+        assertEquals(Collections.singletonList(""), ProfileLineParser.parseFields("", ','));
+    }
+
+    @Test
+    public void testLineIsMappedToAProfile() throws Exception {
+        ProfileToImport profileToImport = createParser(false).parse("Élodie,\"elodie@example.com\",42,\"a|b|c\"", 0);
+
+        assertEquals("Élodie", profileToImport.getProperties().get("firstName"));
+        assertEquals("elodie@example.com", profileToImport.getProperties().get("email"));
+        assertEquals(42, profileToImport.getProperties().get("age"));
+        assertArrayEquals(new String[]{"a", "b", "c"}, (String[]) profileToImport.getProperties().get("interests"));
+        assertEquals("email", profileToImport.getMergingProperty());
+        assertFalse(profileToImport.isProfileToDelete());
+    }
+
+    @Test
+    public void testMultiValues() throws Exception {
+        ProfileLineParser parser = createParser(false);
+        assertArrayEquals(new String[]{"a", "b"}, (String[]) parser.parse("Bob,bob@example.com,1,[a|b||]", 0).getProperties().get("interests"));
+        assertArrayEquals(new String[]{"a"}, (String[]) parser.parse("Bob,bob@example.com,1,[a]", 0).getProperties().get("interests"));
+        assertArrayEquals(new String[]{}, (String[]) parser.parse("Bob,bob@example.com,1,[ ]", 0).getProperties().get("interests"));
+    }
+
+    @Test
+    public void testDeleteColumn() throws Exception {
+        ProfileLineParser parser = createParser(true);
+        assertTrue(parser.parse("Bob,bob@example.com,1,a,true", 0).isProfileToDelete());
+        assertFalse(parser.parse("Bob,bob@example.com,1,a, false", 0).isProfileToDelete());
+        assertError(parser, "Bob,bob@example.com,1,a", "MAPPING_COLUMN_MATCH", " : line [3]");
+    }
+
+    @Test
+    public void testErrors() {
+        ProfileLineParser parser = createParser(false);
+        assertError(parser, "", "EMPTY_LINE", " : line [3]");
+        assertError(parser, "Bob,bob@example.com", "MAPPING_COLUMN_MATCH", " : line [3]");
+        assertError(parser, "Bob,bob@example.com,old,a", "DATA_TYPE", "to integer");
+    }
+
+    private static void assertError(ProfileLineParser parser, String line, String errorCode, String messageSuffix) {
+        try {
+            parser.parse(line, 2);
+            fail("the line should not be parsed: " + line);
+        } catch (BadProfileDataFormatException e) {
+            assertEquals(errorCode, e.getCause().getMessage());
+            assertTrue(e.getMessage().endsWith(messageSuffix));
+        }
+    }
+
+    static ProfileLineParser createParser(boolean hasDeleteColumn) {
+        Map<String, Integer> mapping = new LinkedHashMap<>();
+        mapping.put("firstName", 0);
+        mapping.put("email", 1);
+        mapping.put("age", 2);
+        mapping.put("interests", 3);
+        return new ProfileLineParser(mapping, Collections.singletonList("firstName"), "email", true, hasDeleteColumn,
+                ",", "|", "[]", getPropertyTypes());
+    }
+
+    static List<PropertyType> getPropertyTypes() {
+        return Arrays.asList(createPropertyType("firstName", "string", false), createPropertyType("email", "email", false),
+                createPropertyType("age", "integer", false), createPropertyType("interests", "string", true));
+    }
+
+    private static PropertyType createPropertyType(String id, String valueTypeId, boolean multivalued) {
+        PropertyType propertyType = new PropertyType(new Metadata(id));
+        propertyType.setValueTypeId(valueTypeId);
+        propertyType.setMultivalued(multivalued);
+        return propertyType;
+    }
+}
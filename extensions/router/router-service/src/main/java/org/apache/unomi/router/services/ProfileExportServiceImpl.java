@@ -20,7 +20,9 @@ import org.apache.commons.lang3.BooleanUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.unomi.api.Profile;
 import org.apache.unomi.api.PropertyType;
+import org.apache.unomi.api.conditions.Condition;
 import org.apache.unomi.api.services.ConfigSharingService;
+import org.apache.unomi.api.services.DefinitionsService;
 import org.apache.unomi.router.api.ExportConfiguration;
 import org.apache.unomi.router.api.RouterConstants;
 import org.apache.unomi.router.api.RouterUtils;
@@ -28,7 +30,13 @@ import org.apache.unomi.router.api.services.ProfileExportService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Created by amidani on 30/06/2017.
@@ -37,75 +45,138 @@ public class ProfileExportServiceImpl extends AbstractCustomServiceImpl implemen
 
     private static final Logger logger = LoggerFactory.getLogger(ProfileExportServiceImpl.class.getName());
 
+    private static final int EXPORT_PAGE_SIZE = 1000;
+    private static final int EXPORT_CHUNK_SIZE = 1000;
+    private static final long PROPERTY_TYPES_CACHE_DURATION = 10000;
+
     private ConfigSharingService configSharingService;
+    private DefinitionsService definitionsService;
+
+    private volatile Map<String, PropertyType> profilePropertyTypes;
+    private volatile long profilePropertyTypesLoadTime;
 
     public String extractProfilesBySegment(ExportConfiguration exportConfiguration) {
-        List<Profile> profileList = persistenceService.query("segments", (String) exportConfiguration.getProperty("segment"), null, Profile.class);
-        StringBuilder csvContent = new StringBuilder();
-        for (Profile profile : profileList) {
-            csvContent.append(convertProfileToCSVLine(profile, exportConfiguration));
-            csvContent.append(RouterUtils.getCharFromLineSeparator(exportConfiguration.getLineSeparator()));
+        StringWriter csvContent = new StringWriter();
+        try {
+            writeProfilesBySegment(exportConfiguration, csvContent);
+        } catch (IOException e) {
+            // a StringWriter never throws IOExceptions
+            throw new UncheckedIOException(e);
         }
-        logger.debug("Exporting {} extracted profiles.", profileList.size());
+        return csvContent.toString();
+    }
+
+    public long writeProfilesBySegment(ExportConfiguration exportConfiguration, Writer writer) throws IOException {
+        Map<String, PropertyType> propertyTypes = getProfilePropertyTypes();
+        char lineSeparator = RouterUtils.getCharFromLineSeparator(exportConfiguration.getLineSeparator());
+        long extracted = 0;
+        List<Profile> chunk = new ArrayList<>(EXPORT_CHUNK_SIZE);
+        try (Stream<Profile> profiles = streamProfilesBySegment((String) exportConfiguration.getProperty("segment"))) {
+            Iterator<Profile> iterator = profiles.iterator();
+            while (iterator.hasNext()) {
+                chunk.add(iterator.next());
+                if (chunk.size() == EXPORT_CHUNK_SIZE || !iterator.hasNext()) {
+                    // the lines of a chunk are formatted in parallel, and written at once in the order of the profiles
+                    writer.write(chunk.parallelStream()
+                            .map(profile -> convertProfileToCSVLine(profile, exportConfiguration, propertyTypes) + lineSeparator)
+                            .collect(Collectors.joining()));
+                    extracted += chunk.size();
+                    chunk.clear();
+                }
+            }
+        }
+        logger.debug("Exported {} extracted profiles.", extracted);
 
         Map execution = new HashMap();
         execution.put(RouterConstants.KEY_EXECS_DATE, new Date().getTime());
-        execution.put(RouterConstants.KEY_EXECS_EXTRACTED, profileList.size());
+        execution.put(RouterConstants.KEY_EXECS_EXTRACTED, extracted);
 
-        exportConfiguration = (ExportConfiguration) RouterUtils.addExecutionEntry(exportConfiguration, execution, Integer.parseInt((String) configSharingService.getProperty(RouterConstants.KEY_HISTORY_SIZE)));
-        persistenceService.save(exportConfiguration);
+        persistenceService.save(RouterUtils.addExecutionEntry(exportConfiguration, execution, Integer.parseInt((String) configSharingService.getProperty(RouterConstants.KEY_HISTORY_SIZE))));
 
-        return csvContent.toString();
+        return extracted;
+    }
+
+    public Stream<Profile> streamProfilesBySegment(String segmentId) {
+        Condition segmentCondition = new Condition(definitionsService.getConditionType("profilePropertyCondition"));
+        segmentCondition.setParameter("propertyName", "segments");
+        segmentCondition.setParameter("comparisonOperator", "equals");
+        segmentCondition.setParameter("propertyValue", segmentId);
+        return persistenceService.stream(segmentCondition, Profile.class, EXPORT_PAGE_SIZE);
     }
 
     public String convertProfileToCSVLine(Profile profile, ExportConfiguration exportConfiguration) {
-        Collection<PropertyType> propertiesDef = persistenceService.query("target", "profiles", null, PropertyType.class);
+        return convertProfileToCSVLine(profile, exportConfiguration, getProfilePropertyTypes());
+    }
+
+    private String convertProfileToCSVLine(Profile profile, ExportConfiguration exportConfiguration, Map<String, PropertyType> propertyTypes) {
         Map<String, String> mapping = (Map<String, String>) exportConfiguration.getProperty("mapping");
-        String lineToWrite = "";
+        StringBuilder lineToWrite = new StringBuilder();
         for (int i = 0; i < mapping.size(); i++) {
             String propertyName = mapping.get(String.valueOf(i));
             if (propertyName == null) {
                 logger.error("No index {} found in the provided mapping!", i);
                 return "";
             }
-            PropertyType propType = RouterUtils.getPropertyTypeById(propertiesDef, propertyName);
+            PropertyType propType = propertyTypes.get(propertyName);
             Object propertyValue = profile.getProperty(propertyName);
             if (propType != null && BooleanUtils.isTrue(propType.isMultivalued())) {
                 if (propertyValue != null) {
                     List<String> multiValue = (List<String>) propertyValue;
-                    lineToWrite += StringUtils.isNotBlank(exportConfiguration.getMultiValueDelimiter()) ? exportConfiguration.getMultiValueDelimiter().charAt(0) : "";
+                    boolean delimited = StringUtils.isNotBlank(exportConfiguration.getMultiValueDelimiter());
+                    if (delimited) {
+                        lineToWrite.append(exportConfiguration.getMultiValueDelimiter().charAt(0));
+                    }
                     int j = 0;
                     for (String entry : multiValue) {
-                        lineToWrite += entry.replaceAll("\"", "\"\"");
+                        lineToWrite.append(entry.replaceAll("\"", "\"\""));
                         if (j + 1 < multiValue.size()) {
-                            lineToWrite += exportConfiguration.getMultiValueSeparator();
+                            lineToWrite.append(exportConfiguration.getMultiValueSeparator());
                         }
                         j++;
                     }
-                    lineToWrite += StringUtils.isNotBlank(exportConfiguration.getMultiValueDelimiter()) ? exportConfiguration.getMultiValueDelimiter().charAt(1) : "";
-                } else {
-                    lineToWrite += "";
+                    if (delimited) {
+                        lineToWrite.append(exportConfiguration.getMultiValueDelimiter().charAt(1));
+                    }
                 }
             } else {
-                if(propertyValue != null) {
+                if (propertyValue != null) {
                     propertyValue = propertyValue.toString().replaceAll("\"", "\"\"");
                     if (StringUtils.contains(propertyValue.toString(), exportConfiguration.getColumnSeparator())) {
                         propertyValue = "\"" + propertyValue + "\"";
                     }
-                    lineToWrite += propertyValue.toString();
-                } else {
-                    lineToWrite += "";
+                    lineToWrite.append(propertyValue.toString());
                 }
             }
             if (i + 1 < mapping.size()) {
-                lineToWrite += exportConfiguration.getColumnSeparator();
+                lineToWrite.append(exportConfiguration.getColumnSeparator());
             }
         }
-        return lineToWrite;
+        return lineToWrite.toString();
+    }
+
+    /**
+     * The profile property types are needed for every line, so they are kept for a short time instead of being
+     * queried for each profile.
+     */
+    private Map<String, PropertyType> getProfilePropertyTypes() {
+        Map<String, PropertyType> propertyTypes = profilePropertyTypes;
+        if (propertyTypes == null || System.currentTimeMillis() - profilePropertyTypesLoadTime > PROPERTY_TYPES_CACHE_DURATION) {
+            propertyTypes = new HashMap<>();
+            for (PropertyType propertyType : persistenceService.query("target", "profiles", null, PropertyType.class)) {
+                propertyTypes.putIfAbsent(propertyType.getMetadata().getId(), propertyType);
+            }
+            profilePropertyTypes = propertyTypes;
+            profilePropertyTypesLoadTime = System.currentTimeMillis();
+        }
+        return propertyTypes;
     }
 
     public void setConfigSharingService(ConfigSharingService configSharingService) {
         this.configSharingService = configSharingService;
     }
 
+    public void setDefinitionsService(DefinitionsService definitionsService) {
+        this.definitionsService = definitionsService;
+    }
+
 }
@@ -18,13 +18,14 @@ package org.apache.unomi.router.services;
 
 import org.apache.commons.beanutils.BeanUtils;
 import org.apache.unomi.api.Profile;
+import org.apache.unomi.persistence.elasticsearch.conditions.ConditionContextHelper;
 import org.apache.unomi.router.api.ProfileToImport;
 import org.apache.unomi.router.api.services.ProfileImportService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.lang.reflect.InvocationTargetException;
-import java.util.List;
+import java.util.*;
 
 /**
  * Created by amidani on 18/05/2017.
@@ -48,19 +49,7 @@ public class ProfileImportServiceImpl extends AbstractCustomServiceImpl implemen
                     persistenceService.remove(existingProfile.getItemId(), Profile.class);
                     return true;
                 }
-                List<String> propertiesToOverwrite = profileToImport.getPropertiesToOverwrite();
-                if (profileToImport.isOverwriteExistingProfiles() && propertiesToOverwrite != null && propertiesToOverwrite.size() > 0) { // We overwrite only properties marked to overwrite
-                    logger.debug("Properties to overwrite: {}", propertiesToOverwrite);
-                    for (String propName : propertiesToOverwrite) {
-                        existingProfile.getProperties().put(propName, profileToImport.getProperties().get(propName));
-                    }
-                } else { //If no property is marked to overwrite we replace the whole properties map
-                    logger.debug("Overwrite all properties");
-                    existingProfile.setProperties(profileToImport.getProperties());
-                }
-                //update segments and scores
-                existingProfile.setSegments(profileToImport.getSegments());
-                existingProfile.setScores(profileToImport.getScores());
+                mergeImportedProfile(profileToImport, existingProfile);
             } else if (existingProfiles.size() == 0 && !profileToImport.isProfileToDelete()) {
                 logger.debug("New profile to add...");
                 BeanUtils.copyProperties(existingProfile, profileToImport);
@@ -70,6 +59,8 @@ public class ProfileImportServiceImpl extends AbstractCustomServiceImpl implemen
             }
             logger.debug("-------------------------------------");
             if (!profileToImport.isProfileToDelete()) {
+                // the segments only re-evaluate the profiles updated since their last update
+                existingProfile.setSystemProperty("lastUpdated", new Date());
                 return persistenceService.save(existingProfile, true);
             } else {
                 return false;
@@ -79,4 +70,134 @@ public class ProfileImportServiceImpl extends AbstractCustomServiceImpl implemen
             return false;
         }
     }
+
+    public List<Boolean> saveMergeDeleteImportedProfiles(List<ProfileToImport> profilesToImport) throws InvocationTargetException, IllegalAccessException {
+        logger.debug("Importing batch of {} profiles", profilesToImport.size());
+        List<Boolean> results = new ArrayList<>(Collections.nCopies(profilesToImport.size(), Boolean.FALSE));
+        Map<String, List<Profile>> existingProfilesByKey = loadExistingProfiles(profilesToImport);
+
+        // the profiles to save, with the indexes of the lines that were merged into them
+        Map<Profile, List<Integer>> linesByProfile = new IdentityHashMap<>();
+        List<Profile> profilesToSave = new ArrayList<>();
+        for (int i = 0; i < profilesToImport.size(); i++) {
+            ProfileToImport profileToImport = profilesToImport.get(i);
+            Object mergingValue = profileToImport.getProperties().get(profileToImport.getMergingProperty());
+            if (mergingValue == null) {
+                logger.error("Merging property '{}' has no value in the current profile.", profileToImport.getMergingProperty());
+                continue;
+            }
+            String key = getMergingKey(profileToImport.getMergingProperty(), mergingValue);
+            List<Profile> existingProfiles = existingProfilesByKey.getOrDefault(key, Collections.<Profile>emptyList());
+            if (existingProfiles.size() == 1) {
+                Profile existingProfile = existingProfiles.get(0);
+                if (profileToImport.isProfileToDelete()) {
+                    logger.debug("Profile is to delete!");
+                    // the lines previously merged into the profile were applied, but the profile must not be saved anymore
+                    List<Integer> previousLines = linesByProfile.remove(existingProfile);
+                    if (previousLines != null) {
+                        profilesToSave.remove(existingProfile);
+                        for (Integer previousLine : previousLines) {
+                            results.set(previousLine, Boolean.TRUE);
+                        }
+                    }
+                    persistenceService.remove(existingProfile.getItemId(), Profile.class);
+                    existingProfilesByKey.put(key, Collections.<Profile>emptyList());
+                    results.set(i, Boolean.TRUE);
+                    continue;
+                }
+                mergeImportedProfile(profileToImport, existingProfile);
+                addProfileToSave(existingProfile, i, linesByProfile, profilesToSave);
+            } else if (existingProfiles.size() == 0 && !profileToImport.isProfileToDelete()) {
+                logger.debug("New profile to add...");
+                Profile newProfile = new Profile();
+                BeanUtils.copyProperties(newProfile, profileToImport);
+                // later lines of the batch with the same merging property value are merged into the new profile
+                existingProfilesByKey.put(key, Collections.singletonList(newProfile));
+                addProfileToSave(newProfile, i, linesByProfile, profilesToSave);
+            } else {
+                logger.warn("{} occurences found for profile with {} = {}. Profile import is skipped", existingProfiles.size(),
+                        profileToImport.getMergingProperty(), mergingValue);
+            }
+        }
+
+        if (!profilesToSave.isEmpty()) {
+            // the segments only re-evaluate the profiles updated since their last update
+            Date lastUpdated = new Date();
+            for (Profile profile : profilesToSave) {
+                profile.setSystemProperty("lastUpdated", lastUpdated);
+            }
+            List<String> failedProfileIds = persistenceService.save(profilesToSave);
+            Set<String> failedIds = failedProfileIds != null ? new HashSet<>(failedProfileIds) : null;
+            for (Profile profile : profilesToSave) {
+                Boolean saved = failedIds != null && !failedIds.contains(profile.getItemId());
+                for (Integer line : linesByProfile.get(profile)) {
+                    results.set(line, saved);
+                }
+            }
+        }
+        return results;
+    }
+
+    private void mergeImportedProfile(ProfileToImport profileToImport, Profile existingProfile) {
+        List<String> propertiesToOverwrite = profileToImport.getPropertiesToOverwrite();
+        if (profileToImport.isOverwriteExistingProfiles() && propertiesToOverwrite != null && propertiesToOverwrite.size() > 0) { // We overwrite only properties marked to overwrite
+            logger.debug("Properties to overwrite: {}", propertiesToOverwrite);
+            for (String propName : propertiesToOverwrite) {
+                existingProfile.getProperties().put(propName, profileToImport.getProperties().get(propName));
+            }
+        } else { //If no property is marked to overwrite we replace the whole properties map
+            logger.debug("Overwrite all properties");
+            existingProfile.setProperties(profileToImport.getProperties());
+        }
+        //update segments and scores
+        existingProfile.setSegments(profileToImport.getSegments());
+        existingProfile.setScores(profileToImport.getScores());
+    }
+
+    /**
+     * Loads the existing profiles matching the merging property values of a batch, with one terms query per merging
+     * property, indexed by their merging key.
+     */
+    private Map<String, List<Profile>> loadExistingProfiles(List<ProfileToImport> profilesToImport) {
+        Map<String, Set<String>> valuesByMergingProperty = new HashMap<>();
+        for (ProfileToImport profileToImport : profilesToImport) {
+            Object mergingValue = profileToImport.getProperties().get(profileToImport.getMergingProperty());
+            if (mergingValue != null) {
+                valuesByMergingProperty.computeIfAbsent(profileToImport.getMergingProperty(), k -> new HashSet<>()).add(mergingValue.toString());
+            }
+        }
+        Map<String, List<Profile>> existingProfilesByKey = new HashMap<>();
+        for (Map.Entry<String, Set<String>> entry : valuesByMergingProperty.entrySet()) {
+            String mergingProperty = entry.getKey();
+            List<Profile> existingProfiles = persistenceService.query("properties." + mergingProperty, entry.getValue().toArray(new String[0]), null, Profile.class);
+            logger.debug("Query existing profiles with mergingProperty: {}. Found: {}", mergingProperty, existingProfiles.size());
+            for (Profile existingProfile : existingProfiles) {
+                Object value = existingProfile.getProperty(mergingProperty);
+                Collection<?> values = value instanceof Collection ? (Collection<?>) value : Collections.singletonList(value);
+                for (Object v : values) {
+                    if (v != null) {
+                        existingProfilesByKey.computeIfAbsent(getMergingKey(mergingProperty, v), k -> new ArrayList<>()).add(existingProfile);
+                    }
+                }
+            }
+        }
+        return existingProfilesByKey;
+    }
+
+    /**
+     * The terms query matches the values folded to lower case ASCII, so the keys are folded the same way.
+     */
+    private static String getMergingKey(String mergingProperty, Object mergingValue) {
+        return mergingProperty + ":" + ConditionContextHelper.foldToASCII(mergingValue.toString());
+    }
+
+    private static void addProfileToSave(Profile profile, int line, Map<Profile, List<Integer>> linesByProfile, List<Profile> profilesToSave) {
+        List<Integer> lines = linesByProfile.get(profile);
+        if (lines == null) {
+            lines = new ArrayList<>();
+            linesByProfile.put(profile, lines);
+            profilesToSave.add(profile);
+        }
+        lines.add(line);
+    }
 }
@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.unomi.router.services;
+
+import org.apache.unomi.api.Profile;
+import org.apache.unomi.persistence.spi.PersistenceService;
+import org.apache.unomi.router.api.ProfileToImport;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ProfileImportServiceImplTest {
+
+    private ProfileImportServiceImpl profileImportService;
+    private List<Profile> existingProfiles;
+    private List<String> removedProfileIds;
+    private List<Profile> savedProfiles;
+    private int queryCount;
+
+    @Before
+    public void setUp() {
+        existingProfiles = new ArrayList<>();
+        removedProfileIds = new ArrayList<>();
+        savedProfiles = new ArrayList<>();
+        PersistenceService persistenceService = (PersistenceService) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[]{PersistenceService.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "query":
+                            queryCount++;
+                            return existingProfiles;
+                        case "remove":
+                            removedProfileIds.add((String) args[0]);
+                            return true;
+                        case "save":
+                            @SuppressWarnings("unchecked")
+                            List<Profile> profiles = (List<Profile>) args[0];
+                            savedProfiles.addAll(profiles);
+                            return Collections.emptyList();
+                        default:
+                            return null;
+                    }
+                });
+        profileImportService = new ProfileImportServiceImpl();
+        profileImportService.setPersistenceService(persistenceService);
+    }
+
+    @Test
+    public void testExistingProfilesAreMatchedRegardlessOfCaseAndAccents() throws Exception {
+        existingProfiles.add(createProfile("profile1", "ÉLODIE.Straße@example.com", "Old"));
+        existingProfiles.add(createProfile("profile2", "bob@example.com", "Old"));
+
+        List<Boolean> results = profileImportService.saveMergeDeleteImportedProfiles(Arrays.asList(
+                createProfileToImport("elodie.strasse@example.com", "Elodie", false),
+                createProfileToImport("BOB@example.com", "Bob", false)));
+
+        assertEquals(Arrays.asList(true, true), results);
+        assertEquals(1, queryCount);
+        assertEquals(2, savedProfiles.size());
+        assertEquals("profile1", savedProfiles.get(0).getItemId());
+        assertEquals("Elodie", savedProfiles.get(0).getProperty("firstName"));
+        assertEquals("profile2", savedProfiles.get(1).getItemId());
+        assertEquals("Bob", savedProfiles.get(1).getProperty("firstName"));
+        // the segments only re-evaluate the profiles updated since their last update
+        assertNotNull(savedProfiles.get(0).getSystemProperties().get("lastUpdated"));
+        assertNotNull(savedProfiles.get(1).getSystemProperties().get("lastUpdated"));
+    }
+
+    @Test
+    public void testLinesOfTheSameProfileAreMergedIntoOneSave() throws Exception {
+        List<Boolean> results = profileImportService.saveMergeDeleteImportedProfiles(Arrays.asList(
+                createProfileToImport("new@example.com", "First", false),
+                createProfileToImport("NEW@example.com", "Second", false)));
+
+        assertEquals(Arrays.asList(true, true), results);
+        assertEquals(1, savedProfiles.size());
+        assertEquals("Second", savedProfiles.get(0).getProperty("firstName"));
+    }
+
+    @Test
+    public void testDeletedProfilesAreNotSaved() throws Exception {
+        existingProfiles.add(createProfile("profile1", "alice@example.com", "Old"));
+
+        List<Boolean> results = profileImportService.saveMergeDeleteImportedProfiles(Arrays.asList(
+                createProfileToImport("alice@example.com", "Alice", false),
+                createProfileToImport("Alice@example.com", null, true),
+                createProfileToImport("unknown@example.com", null, true)));
+
+        assertEquals(Arrays.asList(true, true, false), results);
+        assertEquals(Collections.singletonList("profile1"), removedProfileIds);
+        assertTrue(savedProfiles.isEmpty());
+    }
+
+    @Test
+    public void testAmbiguousProfilesAreSkipped() throws Exception {
+        existingProfiles.add(createProfile("profile1", "carol@example.com", "Old"));
+        existingProfiles.add(createProfile("profile2", "Carol@example.com", "Old"));
+
+        List<Boolean> results = profileImportService.saveMergeDeleteImportedProfiles(Collections.singletonList(
+                createProfileToImport("carol@example.com", "Carol", false)));
+
+        assertEquals(Collections.singletonList(false), results);
+        assertTrue(savedProfiles.isEmpty());
+    }
+
+    private static Profile createProfile(String itemId, String email, String firstName) {
+        Profile profile = new Profile(itemId);
+        profile.setProperty("email", email);
+        profile.setProperty("firstName", firstName);
+        return profile;
+    }
+
+    private static ProfileToImport createProfileToImport(String email, String firstName, boolean profileToDelete) {
+        ProfileToImport profileToImport = new ProfileToImport();
+        profileToImport.setItemId(email);
+        profileToImport.setMergingProperty("email");
+        profileToImport.setProfileToDelete(profileToDelete);
+        profileToImport.setProperty("email", email);
+        if (firstName != null) {
+            profileToImport.setProperty("firstName", firstName);
+        }
+        return profileToImport;
+    }
+}
@@ -17,6 +17,7 @@
 package org.apache.unomi.metrics;
 
 import java.util.Map;
+import java.util.function.LongSupplier;
 
 /**
  * This is the main interface for the metrics service, that makes it possible to count calls, callers and accumulated
@@ -45,5 +46,26 @@ public interface MetricsService {
 
     void updateTimer(String timerName, long startTime);
 
+    /**
+     * Increments the count of a metric that does not measure time, such as cache hits or misses.
+     * @param counterName the name of the metric to increment
+     */
+    void incrementCounter(String counterName);
+
+    /**
+     * Registers a metric that reports a current value, such as the size of a queue, instead of counting calls. The
+     * value is only read when the gauges are retrieved. A gauge registered with the same name is replaced.
+     * @param gaugeName     the name of the gauge
+     * @param valueSupplier the supplier of the current value of the gauge
+     */
+    void registerGauge(String gaugeName, LongSupplier valueSupplier);
+
+    void unregisterGauge(String gaugeName);
+
+    /**
+     * Retrieves the current values of the registered gauges.
+     * @return the values of the gauges indexed by their name, empty if the metrics service is not activated
+     */
+    Map<String, Long> getGauges();
 
 }
@@ -56,8 +56,17 @@ public class ListCommand extends MetricsCommandSupport {
                 new DataTable.SortCriteria(2, DataTable.SortOrder.DESCENDING),
                 new DataTable.SortCriteria(0, DataTable.SortOrder.ASCENDING));
 
+        Map<String,Long> gauges = metricsService.getGauges();
+
         if (csv) {
             System.out.println(dataTable.toCSV(headers));
+            if (!gauges.isEmpty()) {
+                DataTable gaugeDataTable = new DataTable();
+                for (Map.Entry<String,Long> gauge : gauges.entrySet()) {
+                    gaugeDataTable.addRow(gauge.getKey(), gauge.getValue());
+                }
+                System.out.println(gaugeDataTable.toCSV(new String[] { "Gauge", "Value" }));
+            }
             return null;
         }
 
@@ -77,6 +86,16 @@ public class ListCommand extends MetricsCommandSupport {
             row.addContent(rowData);
         }
         shellTable.print(System.out);
+
+        if (!gauges.isEmpty()) {
+            ShellTable gaugeTable = new ShellTable();
+            gaugeTable.column("Gauge");
+            gaugeTable.column("Value");
+            for (Map.Entry<String,Long> gauge : gauges.entrySet()) {
+                gaugeTable.addRow().addContent(gauge.getKey(), gauge.getValue());
+            }
+            gaugeTable.print(System.out);
+        }
         return null;
     }
 }
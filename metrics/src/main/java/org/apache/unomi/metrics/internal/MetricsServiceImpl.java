@@ -21,15 +21,19 @@ import org.apache.unomi.metrics.Metric;
 import org.apache.unomi.metrics.MetricsService;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
 
 public class MetricsServiceImpl implements MetricsService {
 
     boolean activated = false;
     Map<String,Metric> metrics = new ConcurrentHashMap<String,Metric>();
     Map<String,Boolean> callersStatus = new ConcurrentHashMap<>();
+    Map<String,LongSupplier> gauges = new ConcurrentHashMap<>();
 
     public void setActivated(boolean activated) {
         this.activated = activated;
@@ -53,6 +57,41 @@ public class MetricsServiceImpl implements MetricsService {
         metrics.clear();
     }
 
+    @Override
+    public void incrementCounter(String counterName) {
+        if (!activated) {
+            return;
+        }
+        Metric metric = metrics.get(counterName);
+        if (metric == null) {
+            metric = new MetricImpl(counterName);
+            metrics.put(counterName, metric);
+        }
+        metric.incTotalCount();
+    }
+
+    @Override
+    public void registerGauge(String gaugeName, LongSupplier valueSupplier) {
+        gauges.put(gaugeName, valueSupplier);
+    }
+
+    @Override
+    public void unregisterGauge(String gaugeName) {
+        gauges.remove(gaugeName);
+    }
+
+    @Override
+    public Map<String, Long> getGauges() {
+        if (!activated) {
+            return Collections.emptyMap();
+        }
+        Map<String, Long> values = new TreeMap<>();
+        for (Map.Entry<String, LongSupplier> gauge : gauges.entrySet()) {
+            values.put(gauge.getKey(), gauge.getValue().getAsLong());
+        }
+        return values;
+    }
+
     public void updateTimer(String timerName, long startTime) {
         if (!activated) {
             return;
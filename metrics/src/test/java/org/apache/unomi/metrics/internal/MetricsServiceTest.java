@@ -28,9 +28,11 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
 
 public class MetricsServiceTest {
 
@@ -115,6 +117,22 @@ public class MetricsServiceTest {
         System.out.println("Free memory=" + humanReadableByteCount(Runtime.getRuntime().freeMemory(), false));
     }
 
+    @Test
+    public void testGaugesReportTheirCurrentValue() {
+        MetricsServiceImpl metricsService = new MetricsServiceImpl();
+        AtomicLong queueSize = new AtomicLong(3);
+        metricsService.registerGauge("queueSize", queueSize::get);
+        assertTrue("Gauges should not be reported when the metrics are deactivated", metricsService.getGauges().isEmpty());
+
+        metricsService.setActivated(true);
+        assertEquals(Long.valueOf(3), metricsService.getGauges().get("queueSize"));
+        queueSize.set(5);
+        assertEquals(Long.valueOf(5), metricsService.getGauges().get("queueSize"));
+
+        metricsService.unregisterGauge("queueSize");
+        assertTrue(metricsService.getGauges().isEmpty());
+    }
+
     @Test
     public void testStackTraceGenerationSpeed() {
         long startWithException = System.currentTimeMillis();
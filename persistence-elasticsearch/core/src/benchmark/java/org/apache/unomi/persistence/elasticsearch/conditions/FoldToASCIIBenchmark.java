@@ -0,0 +1,61 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.unomi.persistence.elasticsearch.conditions;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the ASCII folding of {@link ConditionContextHelper} with the previous implementation based on the Lucene
+ * mapping char filter, for values that are already folded, values that only need to be converted to lower case and
+ * values with accented characters.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class FoldToASCIIBenchmark {
+
+    @Param({"https://www.example.com/products/home", "Geneva Switzerland", "Zürich Hauptbahnhof Café"})
+    public String value;
+
+    @Benchmark
+    public String mappingCharFilter() {
+        return MappingCharFilterFoldToASCII.foldToASCII(value);
+    }
+
+    @Benchmark
+    public String lookupTable() {
+        return ConditionContextHelper.foldToASCII(value);
+    }
+
+    @Benchmark
+    public String conditionValueCache() {
+        return ConditionContextHelper.foldConditionValueToASCII(value);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(FoldToASCIIBenchmark.class.getSimpleName()).build()).run();
+    }
+}
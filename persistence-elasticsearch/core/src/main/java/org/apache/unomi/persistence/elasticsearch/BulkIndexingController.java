@@ -0,0 +1,252 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.unomi.persistence.elasticsearch;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Controls the flow of the requests sent through the bulk processor.
+ *
+ * The size of the bulk requests is adapted to the cluster with an additive increase, multiplicative decrease rule: the
+ * target size grows by the minimal size after every bulk request completed within the target latency without rejected
+ * items, and is halved after a bulk request with rejected items or exceeding the target latency. The latency includes
+ * the time spent waiting for a free concurrent request slot, so the target size also shrinks when requests queue up.
+ *
+ * The requests that were added but not sent yet are queued, the ones that were sent but not completed are in flight.
+ * When a memory budget is set, producers can be blocked while the queued and in-flight requests exceed it.
+ */
+class BulkIndexingController {
+
+    private final long minBulkSize;
+    private final long maxBulkSize;
+    private final long targetLatency;
+    private final long memoryBudget;
+    private final Runnable flushAction;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition belowBudget = lock.newCondition();
+    private final Map<Long, InFlightBulk> inFlightBulks = new ConcurrentHashMap<>();
+
+    private volatile long targetBulkSize;
+    private long queuedRequests;
+    private long queuedBytes;
+    private long inFlightRequests;
+    private long inFlightBytes;
+
+    /**
+     * @param minBulkSize   the minimal target size of the bulk requests, in bytes, which is also the increase step
+     * @param maxBulkSize   the maximal target size of the bulk requests, in bytes, which is the initial target size
+     * @param targetLatency the latency of the bulk requests above which their size is decreased, in milliseconds
+     * @param memoryBudget  the size of the queued and in-flight requests above which producers are blocked, in bytes,
+     *                      0 or less to never block them
+     * @param flushAction   the action sending the queued requests as a bulk request
+     */
+    BulkIndexingController(long minBulkSize, long maxBulkSize, long targetLatency, long memoryBudget, Runnable flushAction) {
+        this.minBulkSize = Math.max(1, Math.min(minBulkSize, maxBulkSize));
+        this.maxBulkSize = Math.max(this.minBulkSize, maxBulkSize);
+        this.targetLatency = targetLatency;
+        this.memoryBudget = memoryBudget;
+        this.flushAction = flushAction;
+        this.targetBulkSize = this.maxBulkSize;
+    }
+
+    /**
+     * Records a request that is about to be added to the bulk processor. If the memory budget is exceeded and blocking
+     * is requested, the queued requests are flushed and the caller waits until enough in-flight requests complete.
+     *
+     * @param bytes the estimated size of the request
+     * @param block whether the caller may be blocked by the memory budget
+     * @throws InterruptedException if the caller was interrupted while blocked
+     */
+    void reserve(long bytes, boolean block) throws InterruptedException {
+        if (block && memoryBudget > 0) {
+            boolean flushed = false;
+            lock.lock();
+            try {
+                while (queuedBytes + inFlightBytes >= memoryBudget) {
+                    if (!flushed && queuedBytes > 0) {
+                        // the queued requests must be sent for the budget to be released, they may be below the target
+                        // size, don't wait for the flush interval
+                        flushed = true;
+                        lock.unlock();
+                        try {
+                            flushAction.run();
+                        } finally {
+                            lock.lock();
+                        }
+                        continue;
+                    }
+                    if (inFlightBytes == 0) {
+                        // nothing will release the budget, which is smaller than the queued requests
+                        break;
+                    }
+                    belowBudget.await();
+                }
+                queuedRequests++;
+                queuedBytes += bytes;
+            } finally {
+                lock.unlock();
+            }
+        } else {
+            lock.lock();
+            try {
+                queuedRequests++;
+                queuedBytes += bytes;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Cancels the reservation of a request that could not be added to the bulk processor.
+     *
+     * @param bytes the estimated size of the request
+     */
+    void cancel(long bytes) {
+        lock.lock();
+        try {
+            queuedRequests--;
+            queuedBytes -= bytes;
+            belowBudget.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return whether the queued requests reached the target size and should be sent
+     */
+    boolean isFlushNeeded() {
+        lock.lock();
+        try {
+            return queuedBytes >= targetBulkSize;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records that queued requests are being sent as a bulk request.
+     *
+     * @param executionId the identifier of the bulk request
+     * @param requests    the number of requests in the bulk request
+     * @param bytes       the estimated size of the requests
+     */
+    void onBulkStart(long executionId, int requests, long bytes) {
+        inFlightBulks.put(executionId, new InFlightBulk(requests, bytes, System.nanoTime()));
+        lock.lock();
+        try {
+            queuedRequests -= requests;
+            queuedBytes -= bytes;
+            inFlightRequests += requests;
+            inFlightBytes += bytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records the completion of a bulk request and adapts the target size of the next ones.
+     *
+     * @param executionId   the identifier of the bulk request
+     * @param rejectedCount the number of requests rejected by the cluster because it was overloaded
+     * @return the latency of the bulk request in milliseconds, or -1 if it was not started through this controller
+     */
+    long onBulkEnd(long executionId, int rejectedCount) {
+        InFlightBulk bulk = inFlightBulks.remove(executionId);
+        if (bulk == null) {
+            return -1;
+        }
+        long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - bulk.startTime);
+        lock.lock();
+        try {
+            inFlightRequests -= bulk.requests;
+            inFlightBytes -= bulk.bytes;
+            adapt(latency, rejectedCount);
+            belowBudget.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        return latency;
+    }
+
+    void adapt(long latency, int rejectedCount) {
+        if (rejectedCount > 0 || latency > targetLatency) {
+            targetBulkSize = Math.max(minBulkSize, targetBulkSize / 2);
+        } else {
+            targetBulkSize = Math.min(maxBulkSize, targetBulkSize + minBulkSize);
+        }
+    }
+
+    long getTargetBulkSize() {
+        return targetBulkSize;
+    }
+
+    long getQueuedRequests() {
+        lock.lock();
+        try {
+            return queuedRequests;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long getQueuedBytes() {
+        lock.lock();
+        try {
+            return queuedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long getInFlightRequests() {
+        lock.lock();
+        try {
+            return inFlightRequests;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long getInFlightBytes() {
+        lock.lock();
+        try {
+            return inFlightBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static class InFlightBulk {
+        private final int requests;
+        private final long bytes;
+        private final long startTime;
+
+        private InFlightBulk(int requests, long bytes, long startTime) {
+            this.requests = requests;
+            this.bytes = bytes;
+            this.startTime = startTime;
+        }
+    }
+}
@@ -19,6 +19,7 @@ package org.apache.unomi.persistence.elasticsearch;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.unomi.api.Event;
 import org.apache.unomi.api.Item;
+import org.apache.unomi.api.rules.RuleStatistics;
 import org.apache.unomi.persistence.spi.CustomObjectMapper;
 
 /**
@@ -33,6 +34,7 @@ public class ESCustomObjectMapper extends CustomObjectMapper {
         super();
         this.addMixIn(Item.class, ESItemMixIn.class);
         this.addMixIn(Event.class, ESEventMixIn.class);
+        this.addMixIn(RuleStatistics.class, ESRuleStatisticsMixIn.class);
     }
 
     public static ObjectMapper getObjectMapper() {
@@ -19,7 +19,17 @@ package org.apache.unomi.persistence.elasticsearch;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hazelcast.core.EntryEvent;
 import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.IMap;
+import com.hazelcast.core.MapEvent;
+import com.hazelcast.map.listener.EntryAddedListener;
+import com.hazelcast.map.listener.EntryEvictedListener;
+import com.hazelcast.map.listener.EntryExpiredListener;
+import com.hazelcast.map.listener.EntryRemovedListener;
+import com.hazelcast.map.listener.EntryUpdatedListener;
+import com.hazelcast.map.listener.MapClearedListener;
+import com.hazelcast.map.listener.MapEvictedListener;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.http.HttpHost;
 import org.apache.http.auth.AuthScope;
@@ -43,6 +53,7 @@ import org.apache.unomi.persistence.elasticsearch.conditions.ConditionESQueryBui
 import org.apache.unomi.persistence.elasticsearch.conditions.ConditionESQueryBuilderDispatcher;
 import org.apache.unomi.persistence.elasticsearch.conditions.ConditionEvaluator;
 import org.apache.unomi.persistence.elasticsearch.conditions.ConditionEvaluatorDispatcher;
+import org.apache.unomi.persistence.spi.ItemChangeListener;
 import org.apache.unomi.persistence.spi.PersistenceService;
 import org.apache.unomi.persistence.spi.aggregate.BaseAggregate;
 import org.apache.unomi.persistence.spi.aggregate.DateAggregate;
@@ -51,7 +62,9 @@ import org.apache.unomi.persistence.spi.aggregate.IpRangeAggregate;
 import org.apache.unomi.persistence.spi.aggregate.NumericRangeAggregate;
 import org.apache.unomi.persistence.spi.aggregate.TermsAggregate;
 import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.DocWriteResponse;
 import org.elasticsearch.action.admin.cluster.health.ClusterHealthRequest;
 import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
 import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
@@ -64,6 +77,9 @@ import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.delete.DeleteRequest;
 import org.elasticsearch.action.get.GetRequest;
 import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.get.MultiGetResponse;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.index.IndexResponse;
 import org.elasticsearch.action.search.ClearScrollRequest;
@@ -94,6 +110,7 @@ import org.elasticsearch.client.indices.IndexTemplatesExistRequest;
 import org.elasticsearch.client.indices.PutIndexTemplateRequest;
 import org.elasticsearch.client.indices.PutMappingRequest;
 import org.elasticsearch.cluster.metadata.MappingMetaData;
+import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.unit.ByteSizeUnit;
 import org.elasticsearch.common.unit.ByteSizeValue;
 import org.elasticsearch.common.unit.DistanceUnit;
@@ -129,6 +146,8 @@ import org.elasticsearch.search.aggregations.bucket.terms.Terms;
 import org.elasticsearch.search.aggregations.bucket.terms.TermsAggregationBuilder;
 import org.elasticsearch.search.aggregations.metrics.NumericMetricsAggregation;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.fetch.subphase.FetchSourceContext;
+import org.elasticsearch.search.slice.SliceBuilder;
 import org.elasticsearch.search.sort.GeoDistanceSortBuilder;
 import org.elasticsearch.search.sort.SortBuilders;
 import org.elasticsearch.search.sort.SortOrder;
@@ -145,6 +164,7 @@ import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.lang.reflect.Field;
 import java.net.URL;
@@ -156,19 +176,36 @@ import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.elasticsearch.index.query.QueryBuilders.termQuery;
 
@@ -185,14 +222,32 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
     public static final String MONTHLY_INDEX_ITEMS_MONTHLY_INDEXED = "monthlyIndex.itemsMonthlyIndexedOverride";
     public static final String BULK_PROCESSOR_FLUSH_INTERVAL = "bulkProcessor.flushInterval";
     public static final String BULK_PROCESSOR_BACKOFF_POLICY = "bulkProcessor.backoffPolicy";
+    public static final String BULK_PROCESSOR_MIN_BULK_SIZE = "bulkProcessor.minBulkSize";
+    public static final String BULK_PROCESSOR_TARGET_LATENCY = "bulkProcessor.targetLatency";
+    public static final String BULK_PROCESSOR_MEMORY_BUDGET = "bulkProcessor.memoryBudget";
     public static final String INDEX_DATE_PREFIX = "date-";
     public static final String SEQ_NO = "seq_no";
     public static final String PRIMARY_TERM = "primary_term";
 
+    private static final int MAX_ITEMS_PER_LOAD_REQUEST = 1000;
+    private static final TimeValue STREAM_SCROLL_KEEP_ALIVE = TimeValue.timeValueMinutes(10);
+    // same estimation of the size of a request as the bulk requests of ElasticSearch
+    private static final int BULK_REQUEST_OVERHEAD = 50;
+    private static final int MAX_BULK_REQUEUE_ATTEMPTS = 5;
+    // the number of times a scripted upsert is executed again when the item is modified concurrently
+    private static final int UPSERT_RETRY_ON_CONFLICT = 10;
+    private static final long BULK_REQUEUE_DELAY_MILLIS = 1000;
+
     private static final Logger logger = LoggerFactory.getLogger(ElasticSearchPersistenceServiceImpl.class.getName());
     private boolean throwExceptions = false;
     private RestHighLevelClient client;
     private BulkProcessor bulkProcessor;
+    private BulkIndexingController bulkIndexingController;
+    private ScheduledExecutorService bulkRequeueExecutor;
+    // the number of times the requests rejected by the cluster were added back to the bulk processor
+    private final Map<DocWriteRequest<?>, Integer> bulkRequeueAttempts = Collections.synchronizedMap(new IdentityHashMap<>());
+    // the last index or delete request added to the bulk processor for each document, until it is completed
+    private final Map<String, DocWriteRequest<?>> latestBulkWrites = new ConcurrentHashMap<>();
     private String elasticSearchAddresses;
     private List<String> elasticSearchAddressList = new ArrayList<>();
     private String clusterName;
@@ -209,7 +264,10 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
     private BundleContext bundleContext;
     private Map<String, String> mappings = new HashMap<String, String>();
     private ConditionEvaluatorDispatcher conditionEvaluatorDispatcher;
+    // the condition types whose remote evaluation was already logged, to only log it once
+    private final Set<String> remoteFallbackConditionTypeIds = ConcurrentHashMap.newKeySet();
     private ConditionESQueryBuilderDispatcher conditionESQueryBuilderDispatcher;
+    private final List<ItemChangeListener> itemChangeListeners = new CopyOnWriteArrayList<>();
 
     private List<String> itemsMonthlyIndexed;
     private Map<String, String> routingByType;
@@ -222,6 +280,9 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
     private String bulkProcessorBulkSize = "5MB";
     private String bulkProcessorFlushInterval = "5s";
     private String bulkProcessorBackoffPolicy = "exponential";
+    private String bulkProcessorMinBulkSize = "512KB";
+    private String bulkProcessorTargetLatency = "1s";
+    private String bulkProcessorMemoryBudget = "";
 
     private String minimalElasticSearchVersion = "7.0.0";
     private String maximalElasticSearchVersion = "8.0.0";
@@ -238,6 +299,16 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
     private HazelcastInstance hazelcastInstance;
     private Set<String> itemClassesToCacheSet = new HashSet<>();
     private String itemClassesToCache;
+    private int itemNearCacheMaxEntries = 1000;
+    private Map<String, ItemNearCache> itemNearCaches = new ConcurrentHashMap<>();
+    private Map<String, String> itemNearCacheListenerIds = new ConcurrentHashMap<>();
+    private ExecutorService pagePrefetchExecutor;
+    private int pagePrefetchMaxThreads = 16;
+    private int pagePrefetchQueueSize = 100;
+    private ExecutorService queryAsyncExecutor;
+    private int queryAsyncMaxThreads = 8;
+    private int queryAsyncQueueSize = 1000;
+    private ExecutorService asyncResponseExecutor;
     private boolean useBatchingForSave = false;
     private boolean useBatchingForUpdate = true;
     private boolean alwaysOverwrite = true;
@@ -359,6 +430,18 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
         this.bulkProcessorBackoffPolicy = bulkProcessorBackoffPolicy;
     }
 
+    public void setBulkProcessorMinBulkSize(String bulkProcessorMinBulkSize) {
+        this.bulkProcessorMinBulkSize = bulkProcessorMinBulkSize;
+    }
+
+    public void setBulkProcessorTargetLatency(String bulkProcessorTargetLatency) {
+        this.bulkProcessorTargetLatency = bulkProcessorTargetLatency;
+    }
+
+    public void setBulkProcessorMemoryBudget(String bulkProcessorMemoryBudget) {
+        this.bulkProcessorMemoryBudget = bulkProcessorMemoryBudget;
+    }
+
     public void setMinimalElasticSearchVersion(String minimalElasticSearchVersion) {
         this.minimalElasticSearchVersion = minimalElasticSearchVersion;
     }
@@ -385,6 +468,26 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
         this.hazelcastInstance = hazelcastInstance;
     }
 
+    public void setItemNearCacheMaxEntries(int itemNearCacheMaxEntries) {
+        this.itemNearCacheMaxEntries = itemNearCacheMaxEntries;
+    }
+
+    public void setPagePrefetchMaxThreads(int pagePrefetchMaxThreads) {
+        this.pagePrefetchMaxThreads = pagePrefetchMaxThreads;
+    }
+
+    public void setPagePrefetchQueueSize(int pagePrefetchQueueSize) {
+        this.pagePrefetchQueueSize = pagePrefetchQueueSize;
+    }
+
+    public void setQueryAsyncMaxThreads(int queryAsyncMaxThreads) {
+        this.queryAsyncMaxThreads = queryAsyncMaxThreads;
+    }
+
+    public void setQueryAsyncQueueSize(int queryAsyncQueueSize) {
+        this.queryAsyncQueueSize = queryAsyncQueueSize;
+    }
+
     public void setItemClassesToCache(String itemClassesToCache) {
         this.itemClassesToCache = itemClassesToCache;
         if (StringUtils.isNotBlank(itemClassesToCache)) {
@@ -435,8 +538,32 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
     }
 
 
+    private static ExecutorService newBoundedExecutor(String threadNamePrefix, int maxThreads, int queueSize) {
+        final AtomicInteger threadCount = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(maxThreads, maxThreads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueSize), runnable -> {
+            Thread thread = new Thread(runnable, threadNamePrefix + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
     public void start() throws Exception {
 
+        // when these executors are saturated, the pages are fetched by the thread iterating over them, and the
+        // asynchronous queries of all the matching items fail
+        pagePrefetchExecutor = newBoundedExecutor("unomi-persistence-page-prefetch-", pagePrefetchMaxThreads, pagePrefetchQueueSize);
+        queryAsyncExecutor = newBoundedExecutor("unomi-persistence-query-async-", queryAsyncMaxThreads, queryAsyncQueueSize);
+        // the responses of the asynchronous requests are handled by these threads instead of the I/O threads of the client
+        final AtomicInteger asyncResponseThreadCount = new AtomicInteger();
+        asyncResponseExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+            Thread thread = new Thread(runnable, "unomi-persistence-async-response-" + asyncResponseThreadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
         // on startup
         new InClassLoaderExecute<Object>(null, null, this.bundleContext, this.fatalIllegalStateErrors, throwExceptions) {
             public Object execute(Object... args) throws Exception {
@@ -446,6 +573,9 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
                 bulkProcessorBulkSize = System.getProperty(BULK_PROCESSOR_BULK_SIZE, bulkProcessorBulkSize);
                 bulkProcessorFlushInterval = System.getProperty(BULK_PROCESSOR_FLUSH_INTERVAL, bulkProcessorFlushInterval);
                 bulkProcessorBackoffPolicy = System.getProperty(BULK_PROCESSOR_BACKOFF_POLICY, bulkProcessorBackoffPolicy);
+                bulkProcessorMinBulkSize = System.getProperty(BULK_PROCESSOR_MIN_BULK_SIZE, bulkProcessorMinBulkSize);
+                bulkProcessorTargetLatency = System.getProperty(BULK_PROCESSOR_TARGET_LATENCY, bulkProcessorTargetLatency);
+                bulkProcessorMemoryBudget = System.getProperty(BULK_PROCESSOR_MEMORY_BUDGET, bulkProcessorMemoryBudget);
                 itemsMonthlyIndexed = itemsMonthlyIndexedOverride.equals("none") ? Collections.emptyList() : Arrays.asList(System.getProperty(MONTHLY_INDEX_ITEMS_MONTHLY_INDEXED, itemsMonthlyIndexedOverride).split(",").clone());
                 // this property is used for integration tests, to make sure we don't conflict with an already running ElasticSearch instance.
                 if (System.getProperty("org.apache.unomi.itests.elasticsearch.http.port") != null) {
@@ -569,20 +699,54 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
             public void beforeBulk(long executionId,
                                    BulkRequest request) {
                 logger.debug("Before Bulk");
+                bulkIndexingController.onBulkStart(executionId, request.numberOfActions(), estimateBulkSize(request.requests()));
             }
 
             @Override
             public void afterBulk(long executionId,
                                   BulkRequest request,
                                   BulkResponse response) {
-                logger.debug("After Bulk");
+                List<DocWriteRequest<?>> rejectedRequests = new ArrayList<>();
+                if (response.hasFailures()) {
+                    for (BulkItemResponse itemResponse : response.getItems()) {
+                        if (!itemResponse.isFailed()) {
+                            continue;
+                        }
+                        DocWriteRequest<?> itemRequest = getBulkItemRequest(request, itemResponse);
+                        if (itemResponse.status() == RestStatus.TOO_MANY_REQUESTS && itemRequest != null) {
+                            rejectedRequests.add(itemRequest);
+                        } else {
+                            logger.error("Bulk request {} failed for item {} of index {}: {}", executionId, itemResponse.getId(),
+                                    itemResponse.getIndex(), itemResponse.getFailureMessage());
+                            incrementBulkCounter("failedItems", 1);
+                        }
+                    }
+                }
+                long latency = bulkIndexingController.onBulkEnd(executionId, rejectedRequests.size());
+                if (metricsService != null && metricsService.isActivated() && latency >= 0) {
+                    metricsService.updateTimer(ElasticSearchPersistenceServiceImpl.class.getName() + ".bulk", System.currentTimeMillis() - latency);
+                }
+                logger.debug("After Bulk: {} requests in {}ms, {} rejected, target bulk size is now {} bytes", request.numberOfActions(),
+                        latency, rejectedRequests.size(), bulkIndexingController.getTargetBulkSize());
+                requeueRejectedBulkRequests(request.requests(), rejectedRequests);
+                fireBulkItemsChanged(request);
             }
 
             @Override
             public void afterBulk(long executionId,
                                   BulkRequest request,
                                   Throwable failure) {
-                logger.error("After Bulk (failure)", failure);
+                if (failure instanceof ElasticsearchStatusException && ((ElasticsearchStatusException) failure).status() == RestStatus.TOO_MANY_REQUESTS) {
+                    bulkIndexingController.onBulkEnd(executionId, request.numberOfActions());
+                    logger.warn("Bulk request {} was rejected, its {} requests will be retried", executionId, request.numberOfActions());
+                    requeueRejectedBulkRequests(request.requests(), request.requests());
+                } else {
+                    bulkIndexingController.onBulkEnd(executionId, 0);
+                    logger.error("After Bulk (failure)", failure);
+                    incrementBulkCounter("failedItems", request.numberOfActions());
+                    requeueRejectedBulkRequests(request.requests(), Collections.emptyList());
+                }
+                fireBulkItemsChanged(request);
             }
         };
         BulkProcessor.Builder bulkProcessorBuilder = BulkProcessor.builder(
@@ -638,15 +802,263 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
             }
         }
 
+        long maxBulkSize = ByteSizeValue.parseBytesSizeValue(bulkProcessorBulkSize != null ? bulkProcessorBulkSize : "5MB", BULK_PROCESSOR_BULK_SIZE).getBytes();
+        long minBulkSize = bulkProcessorMinBulkSize != null && bulkProcessorMinBulkSize.length() > 0 ?
+                ByteSizeValue.parseBytesSizeValue(bulkProcessorMinBulkSize, BULK_PROCESSOR_MIN_BULK_SIZE).getBytes() : maxBulkSize;
+        long targetLatency = bulkProcessorTargetLatency != null && bulkProcessorTargetLatency.length() > 0 ?
+                TimeValue.parseTimeValue(bulkProcessorTargetLatency, BULK_PROCESSOR_TARGET_LATENCY).millis() : Long.MAX_VALUE;
+        long memoryBudget = bulkProcessorMemoryBudget != null && bulkProcessorMemoryBudget.length() > 0 ?
+                ByteSizeValue.parseBytesSizeValue(bulkProcessorMemoryBudget, BULK_PROCESSOR_MEMORY_BUDGET).getBytes() : 0;
+        bulkIndexingController = new BulkIndexingController(minBulkSize, maxBulkSize, targetLatency, memoryBudget, () -> bulkProcessor.flush());
+        bulkRequeueExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "unomi-persistence-bulk-requeue");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (metricsService != null) {
+            for (Map.Entry<String, LongSupplier> gauge : getBulkGauges().entrySet()) {
+                metricsService.registerGauge(gauge.getKey(), gauge.getValue());
+            }
+        }
+
         bulkProcessor = bulkProcessorBuilder.build();
         return bulkProcessor;
     }
 
+    private Map<String, LongSupplier> getBulkGauges() {
+        String gaugePrefix = ElasticSearchPersistenceServiceImpl.class.getName() + ".bulk.";
+        Map<String, LongSupplier> gauges = new LinkedHashMap<>();
+        gauges.put(gaugePrefix + "queuedRequests", this::getBulkQueuedRequests);
+        gauges.put(gaugePrefix + "queuedBytes", this::getBulkQueuedBytes);
+        gauges.put(gaugePrefix + "inFlightRequests", this::getBulkInFlightRequests);
+        gauges.put(gaugePrefix + "inFlightBytes", this::getBulkInFlightBytes);
+        gauges.put(gaugePrefix + "targetSize", this::getBulkTargetSize);
+        return gauges;
+    }
+
+    /**
+     * @return the number of requests added to the bulk processor that were not sent yet
+     */
+    public long getBulkQueuedRequests() {
+        return bulkIndexingController != null ? bulkIndexingController.getQueuedRequests() : 0;
+    }
+
+    /**
+     * @return the estimated size in bytes of the requests added to the bulk processor that were not sent yet
+     */
+    public long getBulkQueuedBytes() {
+        return bulkIndexingController != null ? bulkIndexingController.getQueuedBytes() : 0;
+    }
+
+    /**
+     * @return the number of requests sent by the bulk processor that did not complete yet
+     */
+    public long getBulkInFlightRequests() {
+        return bulkIndexingController != null ? bulkIndexingController.getInFlightRequests() : 0;
+    }
+
+    /**
+     * @return the estimated size in bytes of the requests sent by the bulk processor that did not complete yet
+     */
+    public long getBulkInFlightBytes() {
+        return bulkIndexingController != null ? bulkIndexingController.getInFlightBytes() : 0;
+    }
+
+    /**
+     * @return the current target size in bytes of the bulk requests, adapted to the latency and rejections of the cluster
+     */
+    public long getBulkTargetSize() {
+        return bulkIndexingController != null ? bulkIndexingController.getTargetBulkSize() : 0;
+    }
+
+    /**
+     * Adds a request to the bulk processor, and sends the queued requests if they reached the target bulk size.
+     *
+     * @param request the request to add
+     * @param block   whether the caller may be blocked until the bulk memory budget is available
+     */
+    private void addToBulk(DocWriteRequest<?> request, boolean block) throws InterruptedException {
+        if (!(request instanceof UpdateRequest)) {
+            latestBulkWrites.put(getBulkWriteKey(request), request);
+        }
+        sendToBulk(request, block);
+    }
+
+    private void sendToBulk(DocWriteRequest<?> request, boolean block) throws InterruptedException {
+        long size = estimateRequestSize(request);
+        bulkIndexingController.reserve(size, block);
+        try {
+            bulkProcessor.add(request);
+        } catch (RuntimeException e) {
+            bulkIndexingController.cancel(size);
+            throw e;
+        }
+        if (bulkIndexingController.isFlushNeeded()) {
+            bulkProcessor.flush();
+        }
+    }
+
+    /**
+     * Adds the requests rejected by the cluster back to the bulk processor after a delay, only the rejected requests
+     * are sent again. Requests rejected too many times are dropped, as well as the index and delete requests of
+     * documents for which a newer index or delete request was added to the bulk processor, as sending them again would
+     * overwrite the newer document.
+     *
+     * @param requests         all the requests of the bulk request
+     * @param rejectedRequests the requests of the bulk request that were rejected
+     */
+    private void requeueRejectedBulkRequests(List<DocWriteRequest<?>> requests, List<DocWriteRequest<?>> rejectedRequests) {
+        Set<DocWriteRequest<?>> rejectedRequestSet = Collections.newSetFromMap(new IdentityHashMap<>());
+        rejectedRequestSet.addAll(rejectedRequests);
+        for (DocWriteRequest<?> request : requests) {
+            if (!rejectedRequestSet.contains(request)) {
+                completeBulkWrite(request);
+            }
+        }
+        if (rejectedRequests.isEmpty()) {
+            return;
+        }
+        List<DocWriteRequest<?>> requeuedRequests = new ArrayList<>();
+        int maxAttempts = 0;
+        int supersededRequests = 0;
+        for (DocWriteRequest<?> request : rejectedRequests) {
+            if (isSupersededBulkWrite(request)) {
+                completeBulkWrite(request);
+                supersededRequests++;
+                continue;
+            }
+            int attempts = bulkRequeueAttempts.merge(request, 1, Integer::sum);
+            if (attempts > MAX_BULK_REQUEUE_ATTEMPTS) {
+                completeBulkWrite(request);
+                logger.error("Dropping request for item {} of index {}, it was rejected {} times", request.id(), request.index(), attempts);
+                incrementBulkCounter("droppedItems", 1);
+            } else {
+                requeuedRequests.add(request);
+                maxAttempts = Math.max(maxAttempts, attempts);
+            }
+        }
+        incrementBulkCounter("rejectedItems", rejectedRequests.size());
+        incrementBulkCounter("supersededItems", supersededRequests);
+        if (requeuedRequests.isEmpty()) {
+            return;
+        }
+        try {
+            bulkRequeueExecutor.schedule(() -> {
+                for (DocWriteRequest<?> request : requeuedRequests) {
+                    // a newer request for the document may have been added during the delay
+                    if (isSupersededBulkWrite(request)) {
+                        completeBulkWrite(request);
+                        incrementBulkCounter("supersededItems", 1);
+                        continue;
+                    }
+                    try {
+                        sendToBulk(request, false);
+                    } catch (Exception e) {
+                        completeBulkWrite(request);
+                        logger.error("Error adding rejected request for item {} of index {} back to the bulk processor", request.id(), request.index(), e);
+                        incrementBulkCounter("droppedItems", 1);
+                    }
+                }
+            }, BULK_REQUEUE_DELAY_MILLIS << (maxAttempts - 1), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            for (DocWriteRequest<?> request : requeuedRequests) {
+                completeBulkWrite(request);
+            }
+            logger.error("Dropping {} rejected requests, the bulk processor is closed", requeuedRequests.size());
+            incrementBulkCounter("droppedItems", requeuedRequests.size());
+        }
+    }
+
+    /**
+     * Determines whether a newer index or delete request was added to the bulk processor for the document of a request.
+     * Update requests only modify some fields of the document, so they are never superseded.
+     */
+    private boolean isSupersededBulkWrite(DocWriteRequest<?> request) {
+        return !(request instanceof UpdateRequest) && latestBulkWrites.get(getBulkWriteKey(request)) != request;
+    }
+
+    /**
+     * Forgets a request that will not be sent again, whether it succeeded, failed or was dropped.
+     */
+    private void completeBulkWrite(DocWriteRequest<?> request) {
+        bulkRequeueAttempts.remove(request);
+        if (!(request instanceof UpdateRequest)) {
+            latestBulkWrites.remove(getBulkWriteKey(request), request);
+        }
+    }
+
+    private static String getBulkWriteKey(DocWriteRequest<?> request) {
+        return request.index() + "/" + request.id();
+    }
+
+    /**
+     * Retrieves the request of an item of a bulk response. After retries of the bulk processor, the positions of the
+     * items are the ones in the last retried bulk request, so they may not match the original bulk request.
+     */
+    private static DocWriteRequest<?> getBulkItemRequest(BulkRequest request, BulkItemResponse itemResponse) {
+        List<DocWriteRequest<?>> requests = request.requests();
+        int position = itemResponse.getItemId();
+        if (position >= 0 && position < requests.size() && Objects.equals(requests.get(position).id(), itemResponse.getId())) {
+            return requests.get(position);
+        }
+        for (DocWriteRequest<?> itemRequest : requests) {
+            if (Objects.equals(itemRequest.id(), itemResponse.getId())) {
+                return itemRequest;
+            }
+        }
+        return null;
+    }
+
+    private static long estimateBulkSize(List<DocWriteRequest<?>> requests) {
+        long size = 0;
+        for (DocWriteRequest<?> request : requests) {
+            size += estimateRequestSize(request);
+        }
+        return size;
+    }
+
+    private static long estimateRequestSize(DocWriteRequest<?> request) {
+        long size = BULK_REQUEST_OVERHEAD;
+        if (request instanceof IndexRequest) {
+            IndexRequest indexRequest = (IndexRequest) request;
+            size += indexRequest.source() != null ? indexRequest.source().length() : 0;
+        } else if (request instanceof UpdateRequest) {
+            UpdateRequest updateRequest = (UpdateRequest) request;
+            if (updateRequest.doc() != null && updateRequest.doc().source() != null) {
+                size += updateRequest.doc().source().length();
+            }
+            if (updateRequest.upsertRequest() != null && updateRequest.upsertRequest().source() != null) {
+                size += updateRequest.upsertRequest().source().length();
+            }
+            if (updateRequest.script() != null) {
+                size += updateRequest.script().getIdOrCode().length() * 2;
+            }
+        }
+        return size;
+    }
+
+    private void incrementBulkCounter(String counterName, int count) {
+        if (metricsService != null && metricsService.isActivated()) {
+            for (int i = 0; i < count; i++) {
+                metricsService.incrementCounter(this.getClass().getName() + ".bulk." + counterName);
+            }
+        }
+    }
+
     public void stop() {
 
         new InClassLoaderExecute<Object>(null, null, this.bundleContext, this.fatalIllegalStateErrors, throwExceptions) {
             protected Object execute(Object... args) throws IOException {
                 logger.info("Closing ElasticSearch persistence backend...");
+                if (bulkRequeueExecutor != null) {
+                    // the rejected requests that are waiting to be added back are still sent before closing
+                    bulkRequeueExecutor.shutdown();
+                    try {
+                        bulkRequeueExecutor.awaitTermination(1, TimeUnit.MINUTES);
+                    } catch (InterruptedException e) {
+                        logger.error("Error waiting for rejected bulk operations to be added back !", e);
+                    }
+                }
                 if (bulkProcessor != null) {
                     try {
                         bulkProcessor.awaitClose(2, TimeUnit.MINUTES);
@@ -661,6 +1073,21 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
             }
         }.catchingExecuteInClassLoader(true);
 
+        removeItemNearCaches();
+        if (metricsService != null) {
+            for (String gaugeName : getBulkGauges().keySet()) {
+                metricsService.unregisterGauge(gaugeName);
+            }
+        }
+        if (pagePrefetchExecutor != null) {
+            pagePrefetchExecutor.shutdown();
+        }
+        if (queryAsyncExecutor != null) {
+            queryAsyncExecutor.shutdown();
+        }
+        if (asyncResponseExecutor != null) {
+            asyncResponseExecutor.shutdown();
+        }
         bundleContext.removeBundleListener(this);
     }
 
@@ -798,8 +1225,7 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
                         GetRequest getRequest = new GetRequest(getIndex(itemType, dateHint), itemId);
                         GetResponse response = client.get(getRequest, RequestOptions.DEFAULT);
                         if (response.isExists()) {
-                            String sourceAsString = response.getSourceAsString();
-                            final T value = ESCustomObjectMapper.getObjectMapper().readValue(sourceAsString, clazz);
+                            final T value = readSource(response.getSourceAsBytesRef(), clazz);
                             setMetadata(value, response.getId(), response.getVersion(), response.getSeqNo(), response.getPrimaryTerm());
                             putInCache(itemId, value);
                             return value;
@@ -824,6 +1250,133 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
 
     }
 
+    @Override
+    public <T extends Item> CompletableFuture<T> loadAsync(final String itemId, final Class<T> clazz) {
+        return loadAsync(itemId, null, clazz);
+    }
+
+    @Override
+    public <T extends Item> CompletableFuture<T> loadAsync(final String itemId, final Date dateHint, final Class<T> clazz) {
+        final String itemType = Item.getItemType(clazz);
+        if (itemsMonthlyIndexed.contains(itemType) && dateHint == null) {
+            return queryAsync(QueryBuilders.idsQuery().addIds(itemId), null, clazz, 0, 1)
+                    .thenApply(r -> r != null && r.size() > 0 ? r.get(0) : null);
+        }
+        return new AsyncInClassLoaderExecute<T>(this.getClass().getName() + ".loadItemAsync", null) {
+            @Override
+            protected void execute() {
+                T itemFromCache = getFromCache(itemId, clazz);
+                if (itemFromCache != null) {
+                    complete(itemFromCache);
+                    return;
+                }
+                GetRequest getRequest = new GetRequest(getIndex(itemType, dateHint), itemId);
+                client.getAsync(getRequest, RequestOptions.DEFAULT, listener((GetResponse response) -> {
+                    if (!response.isExists()) {
+                        return null;
+                    }
+                    final T value = readSource(response.getSourceAsBytesRef(), clazz);
+                    setMetadata(value, response.getId(), response.getVersion(), response.getSeqNo(), response.getPrimaryTerm());
+                    putInCache(itemId, value);
+                    return value;
+                }));
+            }
+
+            @Override
+            protected T onFailure(Exception e) throws Exception {
+                if (isNotFound(e)) {
+                    // this can happen if we are just testing the existence of the item, it is not always an error.
+                    return null;
+                }
+                throw new Exception("Error loading itemType=" + clazz.getName() + " itemId=" + itemId, e);
+            }
+        }.executeInClassLoader();
+    }
+
+    @Override
+    public <T extends Item> List<T> loadAll(final Collection<String> itemIds, final Class<T> clazz) {
+        return loadAll(itemIds, null, clazz);
+    }
+
+    @Override
+    public <T extends Item> List<T> loadAll(final Collection<String> itemIds, final Date dateHint, final Class<T> clazz) {
+        if (itemIds == null || itemIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+        List<T> result = new InClassLoaderExecute<List<T>>(metricsService, this.getClass().getName() + ".loadItems", this.bundleContext, this.fatalIllegalStateErrors, throwExceptions) {
+            protected List<T> execute(Object... args) throws Exception {
+                String itemType = Item.getItemType(clazz);
+                Set<String> uniqueItemIds = new LinkedHashSet<>(itemIds);
+                Map<String, T> itemsById = new HashMap<>();
+                List<String> missingItemIds = new ArrayList<>();
+                for (String itemId : uniqueItemIds) {
+                    T itemFromCache = getFromCache(itemId, clazz);
+                    if (itemFromCache != null) {
+                        itemsById.put(itemId, itemFromCache);
+                    } else {
+                        missingItemIds.add(itemId);
+                    }
+                }
+
+                for (int i = 0; i < missingItemIds.size(); i += MAX_ITEMS_PER_LOAD_REQUEST) {
+                    List<String> requestItemIds = missingItemIds.subList(i, Math.min(missingItemIds.size(), i + MAX_ITEMS_PER_LOAD_REQUEST));
+                    if (itemsMonthlyIndexed.contains(itemType) && dateHint == null) {
+                        PartialList<T> r = query(QueryBuilders.idsQuery().addIds(requestItemIds.toArray(new String[0])), null, clazz, 0, requestItemIds.size(), null, null);
+                        for (T item : r.getList()) {
+                            itemsById.put(item.getItemId(), item);
+                        }
+                    } else {
+                        String index = getIndex(itemType, dateHint);
+                        MultiGetRequest multiGetRequest = new MultiGetRequest();
+                        for (String itemId : requestItemIds) {
+                            multiGetRequest.add(index, itemId);
+                        }
+                        MultiGetResponse response = client.mget(multiGetRequest, RequestOptions.DEFAULT);
+                        for (MultiGetItemResponse itemResponse : response.getResponses()) {
+                            if (itemResponse.isFailed()) {
+                                // this can happen if the index does not exist yet, it is not always an error.
+                                logger.debug("Could not load itemType={} itemId={}", clazz.getName(), itemResponse.getId(), itemResponse.getFailure().getFailure());
+                                continue;
+                            }
+                            GetResponse getResponse = itemResponse.getResponse();
+                            if (getResponse.isExists()) {
+                                final T value = readSource(getResponse.getSourceAsBytesRef(), clazz);
+                                setMetadata(value, getResponse.getId(), getResponse.getVersion(), getResponse.getSeqNo(), getResponse.getPrimaryTerm());
+                                putInCache(value.getItemId(), value);
+                                itemsById.put(value.getItemId(), value);
+                            }
+                        }
+                    }
+                }
+
+                List<T> items = new ArrayList<>(itemsById.size());
+                for (String itemId : uniqueItemIds) {
+                    T item = itemsById.get(itemId);
+                    if (item != null) {
+                        items.add(item);
+                    }
+                }
+                return items;
+            }
+        }.catchingExecuteInClassLoader(true);
+        return result != null ? result : new ArrayList<>();
+    }
+
+    private <T extends Item> T readHit(SearchHit searchHit, Class<T> clazz) throws IOException {
+        final T value = readSource(searchHit.getSourceRef(), clazz);
+        setMetadata(value, searchHit.getId(), searchHit.getVersion(), searchHit.getSeqNo(), searchHit.getPrimaryTerm());
+        return value;
+    }
+
+    /**
+     * Parses an item directly from the UTF-8 bytes of its source, without decoding them to a String first.
+     */
+    private <T extends Item> T readSource(BytesReference source, Class<T> clazz) throws IOException {
+        try (InputStream inputStream = source.streamInput()) {
+            return ESCustomObjectMapper.getObjectMapper().readValue(inputStream, clazz);
+        }
+    }
+
     private void setMetadata(Item item, String id, long version, long seqNo, long primaryTerm) {
         item.setItemId(id);
         item.setVersion(version);
@@ -854,31 +1407,7 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
         Boolean result = new InClassLoaderExecute<Boolean>(metricsService, this.getClass().getName() + ".saveItem", this.bundleContext, this.fatalIllegalStateErrors, throwExceptions) {
             protected Boolean execute(Object... args) throws Exception {
                 try {
-                    String source = ESCustomObjectMapper.getObjectMapper().writeValueAsString(item);
-                    String itemType = item.getItemType();
-                    String itemId = item.getItemId();
-                    putInCache(itemId, item);
-                    String index = getIndex(itemType, itemsMonthlyIndexed.contains(itemType) ? ((TimestampedItem) item).getTimeStamp() : null);
-                    IndexRequest indexRequest = new IndexRequest(index);
-                    indexRequest.id(itemId);
-                    indexRequest.source(source, XContentType.JSON);
-
-                    if (!alwaysOverwrite) {
-                        Long seqNo = (Long)item.getSystemMetadata(SEQ_NO);
-                        Long primaryTerm = (Long)item.getSystemMetadata(PRIMARY_TERM);
-
-                        if (seqNo != null && primaryTerm != null) {
-                            indexRequest.setIfSeqNo(seqNo);
-                            indexRequest.setIfPrimaryTerm(primaryTerm);
-                        }
-                        else {
-                            indexRequest.opType(DocWriteRequest.OpType.CREATE);
-                        }
-                    }
-
-                    if (routingByType.containsKey(itemType)) {
-                        indexRequest.routing(routingByType.get(itemType));
-                    }
+                    IndexRequest indexRequest = createIndexRequest(item, alwaysOverwrite);
 
                     try {
                         if (bulkProcessor == null || !useBatching) {
@@ -886,11 +1415,11 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
                             IndexResponse response = client.index(indexRequest, RequestOptions.DEFAULT);
                             setMetadata(item, response.getId(), response.getVersion(), response.getSeqNo(), response.getPrimaryTerm());
                         } else {
-                            bulkProcessor.add(indexRequest);
+                            addToBulk(indexRequest, true);
                         }
                     } catch (IndexNotFoundException e) {
                         logger.error("Could not find index {}, could not register item type {} with id {} ",
-                                index, itemType, itemId, e);
+                                indexRequest.index(), item.getItemType(), item.getItemId(), e);
                         return false;
                     }
                     return true;
@@ -899,6 +1428,7 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
                 }
             }
         }.catchingExecuteInClassLoader(true);
+        fireItemChanged(item.getItemType(), item.getItemId());
         if (result == null) {
             return false;
         } else {
@@ -906,6 +1436,100 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
         }
     }
 
+    @Override
+    public CompletableFuture<Boolean> saveAsync(final Item item) {
+        if (bulkProcessor != null && useBatchingForSave) {
+            // the item is only added to the bulk processor, there is no response to wait for
+            return CompletableFuture.completedFuture(save(item));
+        }
+        return new AsyncInClassLoaderExecute<Boolean>(this.getClass().getName() + ".saveItemAsync", false) {
+            @Override
+            protected void execute() throws Exception {
+                IndexRequest indexRequest = createIndexRequest(item, alwaysOverwrite);
+                indexRequest.setRefreshPolicy(getRefreshPolicy(item.getItemType()));
+                client.indexAsync(indexRequest, RequestOptions.DEFAULT, listener((IndexResponse response) -> {
+                    setMetadata(item, response.getId(), response.getVersion(), response.getSeqNo(), response.getPrimaryTerm());
+                    return true;
+                }));
+            }
+
+            @Override
+            protected Boolean onFailure(Exception e) throws Exception {
+                throw new Exception("Error saving item " + item, e);
+            }
+        }.executeInClassLoader().whenComplete((saved, e) -> fireItemChanged(item.getItemType(), item.getItemId()));
+    }
+
+    @Override
+    public List<String> save(final List<? extends Item> items) {
+        if (items.size() == 0)
+            return new ArrayList<>();
+
+        List<String> result = new InClassLoaderExecute<List<String>>(metricsService, this.getClass().getName() + ".saveItems", this.bundleContext, this.fatalIllegalStateErrors, throwExceptions) {
+            protected List<String> execute(Object... args) throws Exception {
+                long batchRequestStartTime = System.currentTimeMillis();
+
+                BulkRequest bulkRequest = new BulkRequest();
+                for (Item item : items) {
+                    bulkRequest.add(createIndexRequest(item, alwaysOverwrite));
+                }
+                bulkRequest.setRefreshPolicy(getRefreshPolicy(items.get(0).getItemType()));
+
+                BulkResponse bulkResponse = client.bulk(bulkRequest, RequestOptions.DEFAULT);
+                logger.debug("{} items saved with bulk request in {}ms", bulkRequest.numberOfActions(), System.currentTimeMillis() - batchRequestStartTime);
+
+                // the responses are in the same order as the requests
+                List<String> failedItemsIds = new ArrayList<>();
+                BulkItemResponse[] itemResponses = bulkResponse.getItems();
+                for (int i = 0; i < itemResponses.length; i++) {
+                    Item item = items.get(i);
+                    if (itemResponses[i].isFailed()) {
+                        logger.warn("Error saving item {}: {}", item.getItemId(), itemResponses[i].getFailureMessage());
+                        failedItemsIds.add(item.getItemId());
+                    } else {
+                        DocWriteResponse response = itemResponses[i].getResponse();
+                        setMetadata(item, response.getId(), response.getVersion(), response.getSeqNo(), response.getPrimaryTerm());
+                    }
+                }
+                return failedItemsIds;
+            }
+        }.catchingExecuteInClassLoader(true);
+        for (Item item : items) {
+            fireItemChanged(item.getItemType(), item.getItemId());
+        }
+
+        return result;
+    }
+
+    private IndexRequest createIndexRequest(Item item, boolean alwaysOverwrite) throws IOException {
+        String source = ESCustomObjectMapper.getObjectMapper().writeValueAsString(item);
+        String itemType = item.getItemType();
+        String itemId = item.getItemId();
+        putInCache(itemId, item);
+        String index = getIndex(itemType, itemsMonthlyIndexed.contains(itemType) ? ((TimestampedItem) item).getTimeStamp() : null);
+        IndexRequest indexRequest = new IndexRequest(index);
+        indexRequest.id(itemId);
+        indexRequest.source(source, XContentType.JSON);
+
+        if (!alwaysOverwrite) {
+            Long seqNo = (Long)item.getSystemMetadata(SEQ_NO);
+            Long primaryTerm = (Long)item.getSystemMetadata(PRIMARY_TERM);
+
+            if (seqNo != null && primaryTerm != null) {
+                indexRequest.setIfSeqNo(seqNo);
+                indexRequest.setIfPrimaryTerm(primaryTerm);
+            }
+            else {
+                indexRequest.opType(DocWriteRequest.OpType.CREATE);
+            }
+        }
+
+        if (routingByType.containsKey(itemType)) {
+            indexRequest.routing(routingByType.get(itemType));
+        }
+        return indexRequest;
+    }
+
     @Override
     public boolean update(final Item item, final Date dateHint, final Class clazz, final String propertyName, final Object propertyValue) {
         return update(item, dateHint, clazz, Collections.singletonMap(propertyName, propertyValue));
@@ -927,7 +1551,7 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
                         UpdateResponse response = client.update(updateRequest, RequestOptions.DEFAULT);
                         setMetadata(item, response.getId(), response.getVersion(), response.getSeqNo(), response.getPrimaryTerm());
                     } else {
-                        bulkProcessor.add(updateRequest);
+                        addToBulk(updateRequest, true);
                     }
                     return true;
                 } catch (IndexNotFoundException e) {
@@ -935,6 +1559,7 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
                 }
             }
         }.catchingExecuteInClassLoader(true);
+        fireItemChanged(Item.getItemType(clazz), item.getItemId());
         if (result == null) {
             return false;
         } else {
@@ -988,6 +1613,9 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
                 return failedItemsIds;
             }
         }.catchingExecuteInClassLoader(true);
+        for (Item item : items.keySet()) {
+            fireItemChanged(Item.getItemType(clazz), item.getItemId());
+        }
 
         return result;
     }
@@ -1043,6 +1671,7 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
                 }
             }
         }.catchingExecuteInClassLoader(true);
+        fireItemChanged(Item.getItemType(clazz), null);
         if (result == null) {
             return false;
         } else {
@@ -1075,7 +1704,7 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
                         UpdateResponse response = client.update(updateRequest, RequestOptions.DEFAULT);
                         setMetadata(item, response.getId(), response.getVersion(), response.getSeqNo(), response.getPrimaryTerm());
                     } else {
-                        bulkProcessor.add(updateRequest);
+                        addToBulk(updateRequest, true);
                     }
 
                     return true;
@@ -1084,6 +1713,7 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
                 }
             }
         }.catchingExecuteInClassLoader(true);
+        fireItemChanged(Item.getItemType(clazz), item.getItemId());
         if (result == null) {
             return false;
         } else {
@@ -1091,6 +1721,44 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
         }
     }
 
+    @Override
+    public <T extends Item> T upsertWithScript(final T item, final Date dateHint, final Class<T> clazz, final String script, final Map<String, Object> scriptParams) {
+        T result = new InClassLoaderExecute<T>(metricsService, this.getClass().getName() + ".upsertWithScript", this.bundleContext, this.fatalIllegalStateErrors, throwExceptions) {
+            protected T execute(Object... args) throws Exception {
+                try {
+                    String itemType = Item.getItemType(clazz);
+
+                    String index = getIndex(itemType, dateHint);
+
+                    Script actualScript = new Script(ScriptType.INLINE, "painless", script, scriptParams);
+
+                    UpdateRequest updateRequest = new UpdateRequest(index, item.getItemId());
+                    updateRequest.script(actualScript);
+                    updateRequest.upsert(ESCustomObjectMapper.getObjectMapper().writeValueAsString(item), XContentType.JSON);
+                    updateRequest.scriptedUpsert(true);
+                    // the updated item is returned with the response, so that it does not need to be loaded again
+                    updateRequest.fetchSource(true);
+                    updateRequest.retryOnConflict(UPSERT_RETRY_ON_CONFLICT);
+                    if (routingByType.containsKey(itemType)) {
+                        updateRequest.routing(routingByType.get(itemType));
+                    }
+                    deleteFromCache(item.getItemId(), clazz);
+                    UpdateResponse response = client.update(updateRequest, RequestOptions.DEFAULT);
+                    if (response.getGetResult() == null || !response.getGetResult().isExists()) {
+                        return null;
+                    }
+                    T updatedItem = readSource(response.getGetResult().sourceRef(), clazz);
+                    setMetadata(updatedItem, response.getId(), response.getVersion(), response.getSeqNo(), response.getPrimaryTerm());
+                    return updatedItem;
+                } catch (IndexNotFoundException e) {
+                    throw new Exception("No index found for itemType=" + clazz.getName() + "itemId=" + item.getItemId(), e);
+                }
+            }
+        }.catchingExecuteInClassLoader(true);
+        fireItemChanged(Item.getItemType(clazz), item.getItemId());
+        return result;
+    }
+
     @Override
     public <T extends Item> boolean remove(final String itemId, final Class<T> clazz) {
         Boolean result = new InClassLoaderExecute<Boolean>(metricsService, this.getClass().getName() + ".removeItem", this.bundleContext, this.fatalIllegalStateErrors, throwExceptions) {
@@ -1106,6 +1774,7 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
                 }
             }
         }.catchingExecuteInClassLoader(true);
+        fireItemChanged(Item.getItemType(clazz), itemId);
         if (result == null) {
             return false;
         } else {
@@ -1170,6 +1839,7 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
                 }
             }
         }.catchingExecuteInClassLoader(true);
+        fireItemChanged(Item.getItemType(clazz), null);
         if (result == null) {
             return false;
         } else {
@@ -1178,6 +1848,55 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
     }
 
 
+    @Override
+    public void addItemChangeListener(ItemChangeListener listener) {
+        itemChangeListeners.add(listener);
+    }
+
+    @Override
+    public void removeItemChangeListener(ItemChangeListener listener) {
+        itemChangeListeners.remove(listener);
+    }
+
+    private void fireItemChanged(String itemType, String itemId) {
+        for (ItemChangeListener listener : itemChangeListeners) {
+            try {
+                listener.itemChanged(itemType, itemId);
+            } catch (Exception e) {
+                logger.error("Error notifying listener {} of the change of item {} of type {}", listener, itemId, itemType, e);
+            }
+        }
+    }
+
+    /**
+     * Notifies the listeners of the items written by a bulk request once it completed. They were already notified when
+     * the requests were queued, but an outdated copy of the items could have been loaded in the meantime.
+     */
+    private void fireBulkItemsChanged(BulkRequest request) {
+        if (itemChangeListeners.isEmpty()) {
+            return;
+        }
+        for (DocWriteRequest<?> itemRequest : request.requests()) {
+            String itemType = getItemTypeFromIndex(itemRequest.index());
+            if (itemType != null) {
+                fireItemChanged(itemType, itemRequest.id());
+            }
+        }
+    }
+
+    /**
+     * Retrieves the item type part of an index name built by {@link #getIndex(String, Date)}, which is lower cased.
+     */
+    private String getItemTypeFromIndex(String index) {
+        String prefix = (indexPrefix + "-").toLowerCase();
+        if (index == null || !index.startsWith(prefix)) {
+            return null;
+        }
+        String itemType = index.substring(prefix.length());
+        int datePartPos = itemType.indexOf("-" + INDEX_DATE_PREFIX);
+        return datePartPos > -1 ? itemType.substring(0, datePartPos) : itemType;
+    }
+
     public boolean indexTemplateExists(final String templateName) {
         Boolean result = new InClassLoaderExecute<Boolean>(metricsService, this.getClass().getName() + ".indexTemplateExists", this.bundleContext, this.fatalIllegalStateErrors, throwExceptions) {
             protected Boolean execute(Object... args) throws IOException {
@@ -1595,13 +2314,31 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
         return true;
     }
 
+    @Override
+    public Set<String> getRemotelyEvaluatedConditionTypeIds(Condition condition) {
+        return conditionEvaluatorDispatcher.getRemotelyEvaluatedConditionTypeIds(condition);
+    }
+
+    @Override
+    public Set<String> getConditionTypeIdsEvaluatedToFalse(Condition condition) {
+        return conditionEvaluatorDispatcher.getConditionTypeIdsEvaluatedToFalse(condition);
+    }
+
     @Override
     public boolean testMatch(Condition query, Item item) {
         long startTime = System.currentTimeMillis();
         try {
             return conditionEvaluatorDispatcher.eval(query, item);
         } catch (UnsupportedOperationException e) {
-            logger.error("Eval not supported, continue with query", e);
+            for (String conditionTypeId : conditionEvaluatorDispatcher.getRemotelyEvaluatedConditionTypeIds(query)) {
+                if (metricsService != null && metricsService.isActivated()) {
+                    metricsService.incrementCounter(this.getClass().getName() + ".testMatchRemoteFallback." + conditionTypeId);
+                }
+                if (remoteFallbackConditionTypeIds.add(conditionTypeId)) {
+                    logger.warn("Condition type {} cannot be evaluated locally, items will be matched against it with queries to ElasticSearch", conditionTypeId);
+                }
+            }
+            logger.debug("Eval not supported, continue with query", e);
         } finally {
             if (metricsService != null && metricsService.isActivated()) {
                 metricsService.updateTimer(this.getClass().getName() + ".testMatchLocally", startTime);
@@ -1634,11 +2371,31 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
         return query(conditionESQueryBuilderDispatcher.getQueryBuilder(query), sortBy, clazz, offset, size, null, null);
     }
 
+    @Override
+    public <T extends Item> CompletableFuture<PartialList<T>> queryAsync(final Condition query, final String sortBy, final Class<T> clazz, final int offset, final int size) {
+        if (size == -1) {
+            // retrieving all the results requires successive scroll requests
+            try {
+                return CompletableFuture.supplyAsync(() -> query(query, sortBy, clazz, offset, size), queryAsyncExecutor);
+            } catch (RejectedExecutionException e) {
+                CompletableFuture<PartialList<T>> rejectedQuery = new CompletableFuture<>();
+                rejectedQuery.completeExceptionally(e);
+                return rejectedQuery;
+            }
+        }
+        return queryAsync(conditionESQueryBuilderDispatcher.getQueryBuilder(query), sortBy, clazz, offset, size);
+    }
+
     @Override
     public <T extends Item> PartialList<T> query(final Condition query, String sortBy, final Class<T> clazz, final int offset, final int size, final String scrollTimeValidity) {
         return query(conditionESQueryBuilderDispatcher.getQueryBuilder(query), sortBy, clazz, offset, size, null, scrollTimeValidity);
     }
 
+    @Override
+    public <T extends Item> PartialList<T> query(final Condition query, String sortBy, final Class<T> clazz, final int offset, final int size, final String[] includeFields, final String[] excludeFields) {
+        return query(conditionESQueryBuilderDispatcher.getQueryBuilder(query), sortBy, clazz, offset, size, null, null, new FetchSourceContext(true, includeFields, excludeFields));
+    }
+
     @Override
     public <T extends Item> PartialList<T> queryFullText(final String fulltext, final Condition query, String sortBy, final Class<T> clazz, final int offset, final int size) {
         return query(QueryBuilders.boolQuery().must(QueryBuilders.queryStringQuery(fulltext)).must(conditionESQueryBuilderDispatcher.getQueryBuilder(query)), sortBy, clazz, offset, size, null, null);
@@ -1694,6 +2451,23 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
         }
     }
 
+    @Override
+    public CompletableFuture<Long> queryCountAsync(Condition query, String itemType) {
+        try {
+            return CompletableFuture.completedFuture(conditionESQueryBuilderDispatcher.count(query));
+        } catch (UnsupportedOperationException e) {
+            try {
+                QueryBuilder filter = conditionESQueryBuilderDispatcher.buildFilter(query);
+                if (filter instanceof IdsQueryBuilder) {
+                    return CompletableFuture.completedFuture((long) ((IdsQueryBuilder) filter).ids().size());
+                }
+                return queryCountAsync(filter, itemType);
+            } catch (UnsupportedOperationException e1) {
+                return CompletableFuture.completedFuture(-1L);
+            }
+        }
+    }
+
     private long queryCount(final QueryBuilder filter, final String itemType) {
         return new InClassLoaderExecute<Long>(metricsService, this.getClass().getName() + ".queryCount", this.bundleContext, this.fatalIllegalStateErrors, throwExceptions) {
 
@@ -1710,7 +2484,47 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
         }.catchingExecuteInClassLoader(true);
     }
 
+    private CompletableFuture<Long> queryCountAsync(final QueryBuilder filter, final String itemType) {
+        return new AsyncInClassLoaderExecute<Long>(this.getClass().getName() + ".queryCountAsync", -1L) {
+            @Override
+            protected void execute() {
+                CountRequest countRequest = new CountRequest(getIndexNameForQuery(itemType));
+                SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder();
+                searchSourceBuilder.query(filter);
+                countRequest.source(searchSourceBuilder);
+                client.countAsync(countRequest, RequestOptions.DEFAULT, listener((CountResponse response) -> response.getCount()));
+            }
+        }.executeInClassLoader();
+    }
+
+    private <T extends Item> CompletableFuture<PartialList<T>> queryAsync(final QueryBuilder query, final String sortBy, final Class<T> clazz, final int offset, final int size) {
+        return new AsyncInClassLoaderExecute<PartialList<T>>(this.getClass().getName() + ".queryAsync", null) {
+            @Override
+            protected void execute() {
+                SearchRequest searchRequest = buildSearchRequest(query, sortBy, Item.getItemType(clazz), offset, size, null, null, FetchSourceContext.FETCH_SOURCE);
+                client.searchAsync(searchRequest, RequestOptions.DEFAULT, listener((SearchResponse response) -> {
+                    SearchHits searchHits = response.getHits();
+                    List<T> results = new ArrayList<T>();
+                    for (SearchHit searchHit : searchHits) {
+                        results.add(readHit(searchHit, clazz));
+                    }
+                    return new PartialList<T>(results, offset, size, searchHits.getTotalHits().value, getTotalHitsRelation(searchHits.getTotalHits()));
+                }));
+            }
+
+            @Override
+            protected PartialList<T> onFailure(Exception e) throws Exception {
+                throw new Exception("Error loading itemType=" + clazz.getName() + " query=" + query + " sortBy=" + sortBy, e);
+            }
+        }.executeInClassLoader();
+    }
+
     private <T extends Item> PartialList<T> query(final QueryBuilder query, final String sortBy, final Class<T> clazz, final int offset, final int size, final String[] routing, final String scrollTimeValidity) {
+        return query(query, sortBy, clazz, offset, size, routing, scrollTimeValidity, FetchSourceContext.FETCH_SOURCE);
+    }
+
+    private <T extends Item> PartialList<T> query(final QueryBuilder query, final String sortBy, final Class<T> clazz, final int offset, final int size, final String[] routing, final String scrollTimeValidity,
+                                                  final FetchSourceContext fetchSource) {
         return new InClassLoaderExecute<PartialList<T>>(metricsService, this.getClass().getName() + ".query", this.bundleContext, this.fatalIllegalStateErrors, throwExceptions) {
 
             @Override
@@ -1722,57 +2536,11 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
                 try {
                     String itemType = Item.getItemType(clazz);
                     TimeValue keepAlive = TimeValue.timeValueHours(1);
-                    SearchRequest searchRequest = new SearchRequest(getIndexNameForQuery(itemType));
-                    SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder()
-                            .fetchSource(true)
-                            .seqNoAndPrimaryTerm(true)
-                            .query(query)
-                            .size(size < 0 ? defaultQueryLimit : size)
-                            .from(offset);
                     if (scrollTimeValidity != null) {
                         keepAlive = TimeValue.parseTimeValue(scrollTimeValidity, TimeValue.timeValueHours(1), "scrollTimeValidity");
-                        searchRequest.scroll(keepAlive);
                     }
-
-                    if (size == Integer.MIN_VALUE) {
-                        searchSourceBuilder.size(defaultQueryLimit);
-                    } else if (size != -1) {
-                        searchSourceBuilder.size(size);
-                    } else {
-                        // size == -1, use scroll query to retrieve all the results
-                        searchRequest.scroll(keepAlive);
-                    }
-                    if (routing != null) {
-                        searchRequest.routing(routing);
-                    }
-                    if (sortBy != null) {
-                        String[] sortByArray = sortBy.split(",");
-                        for (String sortByElement : sortByArray) {
-                            if (sortByElement.startsWith("geo:")) {
-                                String[] elements = sortByElement.split(":");
-                                GeoDistanceSortBuilder distanceSortBuilder = SortBuilders.geoDistanceSort(elements[1], Double.parseDouble(elements[2]), Double.parseDouble(elements[3])).unit(DistanceUnit.KILOMETERS);
-                                if (elements.length > 4 && elements[4].equals("desc")) {
-                                    searchSourceBuilder.sort(distanceSortBuilder.order(SortOrder.DESC));
-                                } else {
-                                    searchSourceBuilder.sort(distanceSortBuilder.order(SortOrder.ASC));
-                                }
-                            } else {
-                                String name = getPropertyNameWithData(StringUtils.substringBeforeLast(sortByElement, ":"), itemType);
-                                if (name != null) {
-                                    if (sortByElement.endsWith(":desc")) {
-                                        searchSourceBuilder.sort(name, SortOrder.DESC);
-                                    } else {
-                                        searchSourceBuilder.sort(name, SortOrder.ASC);
-                                    }
-                                } else {
-                                    // in the case of no data existing for the property, we will not add the sorting to the request.
-                                }
-
-                            }
-                        }
-                    }
-                    searchSourceBuilder.version(true);
-                    searchRequest.source(searchSourceBuilder);
+                    SearchRequest searchRequest = buildSearchRequest(query, sortBy, itemType, offset, size, routing,
+                            scrollTimeValidity != null || size == -1 ? keepAlive : null, fetchSource);
                     SearchResponse response = client.search(searchRequest, RequestOptions.DEFAULT);
 
                     if (size == -1) {
@@ -1781,10 +2549,7 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
 
                             for (SearchHit searchHit : response.getHits().getHits()) {
                                 // add hit to results
-                                String sourceAsString = searchHit.getSourceAsString();
-                                final T value = ESCustomObjectMapper.getObjectMapper().readValue(sourceAsString, clazz);
-                                setMetadata(value, searchHit.getId(), searchHit.getVersion(), searchHit.getSeqNo(), searchHit.getPrimaryTerm());
-                                results.add(value);
+                                results.add(readHit(searchHit, clazz));
                             }
 
                             SearchScrollRequest searchScrollRequest = new SearchScrollRequest(response.getScrollId());
@@ -1811,10 +2576,7 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
                             client.clearScroll(clearScrollRequest, RequestOptions.DEFAULT);
                         }
                         for (SearchHit searchHit : searchHits) {
-                            String sourceAsString = searchHit.getSourceAsString();
-                            final T value = ESCustomObjectMapper.getObjectMapper().readValue(sourceAsString, clazz);
-                            setMetadata(value, searchHit.getId(), searchHit.getVersion(), searchHit.getSeqNo(), searchHit.getPrimaryTerm());
-                            results.add(value);
+                            results.add(readHit(searchHit, clazz));
                         }
                     }
                 } catch (Exception t) {
@@ -1831,6 +2593,153 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
         }.catchingExecuteInClassLoader(true);
     }
 
+    /**
+     * Builds the search request of a query, scrolling the results if a scroll keep alive is specified.
+     */
+    private SearchRequest buildSearchRequest(QueryBuilder query, String sortBy, String itemType, int offset, int size, String[] routing,
+                                             TimeValue scrollKeepAlive, FetchSourceContext fetchSource) {
+        SearchRequest searchRequest = new SearchRequest(getIndexNameForQuery(itemType));
+        SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder()
+                .fetchSource(fetchSource)
+                .seqNoAndPrimaryTerm(true)
+                .query(query)
+                .size(size < 0 ? defaultQueryLimit : size)
+                .from(offset);
+        if (scrollKeepAlive != null) {
+            searchRequest.scroll(scrollKeepAlive);
+        }
+
+        if (size == Integer.MIN_VALUE) {
+            searchSourceBuilder.size(defaultQueryLimit);
+        } else if (size != -1) {
+            searchSourceBuilder.size(size);
+        }
+        if (routing != null) {
+            searchRequest.routing(routing);
+        }
+        if (sortBy != null) {
+            String[] sortByArray = sortBy.split(",");
+            for (String sortByElement : sortByArray) {
+                if (sortByElement.startsWith("geo:")) {
+                    String[] elements = sortByElement.split(":");
+                    GeoDistanceSortBuilder distanceSortBuilder = SortBuilders.geoDistanceSort(elements[1], Double.parseDouble(elements[2]), Double.parseDouble(elements[3])).unit(DistanceUnit.KILOMETERS);
+                    if (elements.length > 4 && elements[4].equals("desc")) {
+                        searchSourceBuilder.sort(distanceSortBuilder.order(SortOrder.DESC));
+                    } else {
+                        searchSourceBuilder.sort(distanceSortBuilder.order(SortOrder.ASC));
+                    }
+                } else {
+                    String name = getPropertyNameWithData(StringUtils.substringBeforeLast(sortByElement, ":"), itemType);
+                    if (name != null) {
+                        if (sortByElement.endsWith(":desc")) {
+                            searchSourceBuilder.sort(name, SortOrder.DESC);
+                        } else {
+                            searchSourceBuilder.sort(name, SortOrder.ASC);
+                        }
+                    } else {
+                        // in the case of no data existing for the property, we will not add the sorting to the request.
+                    }
+
+                }
+            }
+        }
+        searchSourceBuilder.version(true);
+        searchRequest.source(searchSourceBuilder);
+        return searchRequest;
+    }
+
+    @Override
+    public <T extends Item> Stream<T> stream(final Condition query, final Class<T> clazz, final int pageSize) {
+        return stream(query, clazz, pageSize, 0, 1);
+    }
+
+    @Override
+    public <T extends Item> Stream<T> stream(final Condition query, final Class<T> clazz, final int pageSize, final int sliceId, final int sliceCount) {
+        return stream(query, clazz, pageSize, sliceId, sliceCount, null, null);
+    }
+
+    @Override
+    public <T extends Item> Stream<T> stream(final Condition query, final Class<T> clazz, final int pageSize, final int sliceId, final int sliceCount,
+                                             final String[] includeFields, final String[] excludeFields) {
+        QueryBuilder queryBuilder = conditionESQueryBuilderDispatcher.getQueryBuilder(query);
+        SliceBuilder slice = sliceCount > 1 ? new SliceBuilder(sliceId, sliceCount) : null;
+        FetchSourceContext fetchSource = new FetchSourceContext(true, includeFields, excludeFields);
+        return new PrefetchingPageIterator<>(new ScrollPageSource<>(queryBuilder, slice, fetchSource, clazz, pageSize), pagePrefetchExecutor).stream();
+    }
+
+    /**
+     * Retrieves the pages of a stream with a scroll query, sorted by index order which is the most efficient order to
+     * scroll.
+     */
+    private class ScrollPageSource<T extends Item> implements PrefetchingPageIterator.PageSource<T> {
+        private final QueryBuilder query;
+        private final SliceBuilder slice;
+        private final FetchSourceContext fetchSource;
+        private final Class<T> clazz;
+        private final int pageSize;
+        private String scrollIdentifier;
+
+        private ScrollPageSource(QueryBuilder query, SliceBuilder slice, FetchSourceContext fetchSource, Class<T> clazz, int pageSize) {
+            this.query = query;
+            this.slice = slice;
+            this.fetchSource = fetchSource;
+            this.clazz = clazz;
+            this.pageSize = pageSize > 0 ? pageSize : defaultQueryLimit;
+        }
+
+        @Override
+        public List<T> nextPage() throws Exception {
+            return new InClassLoaderExecute<List<T>>(metricsService, ElasticSearchPersistenceServiceImpl.class.getName() + ".streamPage", bundleContext, fatalIllegalStateErrors, throwExceptions) {
+                @Override
+                protected List<T> execute(Object... args) throws Exception {
+                    SearchResponse response;
+                    if (scrollIdentifier == null) {
+                        SearchRequest searchRequest = new SearchRequest(getIndexNameForQuery(Item.getItemType(clazz))).scroll(STREAM_SCROLL_KEEP_ALIVE);
+                        SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder()
+                                .fetchSource(fetchSource)
+                                .seqNoAndPrimaryTerm(true)
+                                .version(true)
+                                .query(query)
+                                .size(pageSize)
+                                .sort("_doc");
+                        if (slice != null) {
+                            searchSourceBuilder.slice(slice);
+                        }
+                        searchRequest.source(searchSourceBuilder);
+                        response = client.search(searchRequest, RequestOptions.DEFAULT);
+                    } else {
+                        SearchScrollRequest searchScrollRequest = new SearchScrollRequest(scrollIdentifier);
+                        searchScrollRequest.scroll(STREAM_SCROLL_KEEP_ALIVE);
+                        response = client.scroll(searchScrollRequest, RequestOptions.DEFAULT);
+                    }
+                    scrollIdentifier = response.getScrollId();
+                    SearchHit[] searchHits = response.getHits().getHits();
+                    List<T> results = new ArrayList<>(searchHits.length);
+                    for (SearchHit searchHit : searchHits) {
+                        results.add(readHit(searchHit, clazz));
+                    }
+                    return results;
+                }
+            }.executeInClassLoader();
+        }
+
+        @Override
+        public void close() throws Exception {
+            if (scrollIdentifier == null) {
+                return;
+            }
+            new InClassLoaderExecute<Object>(metricsService, ElasticSearchPersistenceServiceImpl.class.getName() + ".clearStreamScroll", bundleContext, fatalIllegalStateErrors, throwExceptions) {
+                @Override
+                protected Object execute(Object... args) throws Exception {
+                    ClearScrollRequest clearScrollRequest = new ClearScrollRequest();
+                    clearScrollRequest.addScrollId(scrollIdentifier);
+                    client.clearScroll(clearScrollRequest, RequestOptions.DEFAULT);
+                    return null;
+                }
+            }.executeInClassLoader();
+        }
+    }
+
     private PartialList.Relation getTotalHitsRelation(TotalHits totalHits) {
         return TotalHits.Relation.GREATER_THAN_OR_EQUAL_TO.equals(totalHits.relation) ? PartialList.Relation.GREATER_THAN_OR_EQUAL_TO : PartialList.Relation.EQUAL;
     }
@@ -1857,10 +2766,7 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
                     } else {
                         for (SearchHit searchHit : response.getHits().getHits()) {
                             // add hit to results
-                            String sourceAsString = searchHit.getSourceAsString();
-                            final T value = ESCustomObjectMapper.getObjectMapper().readValue(sourceAsString, clazz);
-                            setMetadata(value, searchHit.getId(), searchHit.getVersion(), searchHit.getSeqNo(), searchHit.getPrimaryTerm());
-                            results.add(value);
+                            results.add(readHit(searchHit, clazz));
                         }
                     }
                     PartialList<T> result = new PartialList<T>(results, 0, response.getHits().getHits().length, response.getHits().getTotalHits().value, getTotalHitsRelation(response.getHits().getTotalHits()));
@@ -2143,6 +3049,12 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
                 if (!toDelete.isEmpty()) {
                     DeleteIndexRequest deleteIndexRequest = new DeleteIndexRequest(toDelete.toArray(new String[toDelete.size()]));
                     client.indices().delete(deleteIndexRequest, RequestOptions.DEFAULT);
+                    for (String deletedIndexName : toDelete) {
+                        String itemType = getItemTypeFromIndex(deletedIndexName);
+                        if (itemType != null) {
+                            fireItemChanged(itemType, null);
+                        }
+                    }
                 }
                 return null;
             }
@@ -2195,6 +3107,7 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
                         // do something
                         logger.warn("Couldn't delete from scope " + scope + ":\n{}", deleteResponse.buildFailureMessage());
                     }
+                    fireBulkItemsChanged(deleteByScopeBulkRequest);
                 }
                 return null;
             }
@@ -2338,6 +3251,126 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
         }
     }
 
+    /**
+     * Sends asynchronous requests in the class loader of this bundle, as {@link InClassLoaderExecute} does for the
+     * synchronous ones, without blocking the calling thread. The responses are handled in the same class loader by the
+     * async response executor rather than by the I/O threads of the client, so that reading the responses, writing them
+     * to the item cache and running the stages that depend on the returned future never delay the other requests. Errors
+     * are logged and replaced by an error value unless exceptions must be thrown, in which case the returned future
+     * completes exceptionally.
+     */
+    private abstract class AsyncInClassLoaderExecute<T> {
+
+        private final String timerName;
+        private final T errorValue;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+        private long startTime;
+
+        AsyncInClassLoaderExecute(String timerName, T errorValue) {
+            this.timerName = timerName;
+            this.errorValue = errorValue;
+        }
+
+        /**
+         * Sends the request with a listener created by {@link #listener(ResponseHandler)}, or completes the result
+         * directly with {@link #complete(Object)}.
+         */
+        protected abstract void execute() throws Exception;
+
+        /**
+         * @return the result of a request which failed with the specified exception, if it is not an error
+         * @throws Exception the error to report
+         */
+        protected T onFailure(Exception e) throws Exception {
+            throw e;
+        }
+
+        CompletableFuture<T> executeInClassLoader() {
+            startTime = System.currentTimeMillis();
+            inClassLoader(() -> {
+                execute();
+                return null;
+            });
+            return future;
+        }
+
+        protected void complete(T result) {
+            updateTimer();
+            future.complete(result);
+        }
+
+        protected <R> ActionListener<R> listener(final ResponseHandler<R, T> responseHandler) {
+            return new ActionListener<R>() {
+                @Override
+                public void onResponse(R response) {
+                    handleResponse(() -> inClassLoader(() -> {
+                        complete(responseHandler.handle(response));
+                        return null;
+                    }));
+                }
+
+                @Override
+                public void onFailure(Exception e) {
+                    handleResponse(() -> fail(e));
+                }
+            };
+        }
+
+        private void handleResponse(Runnable handler) {
+            ExecutorService executor = asyncResponseExecutor;
+            if (executor != null) {
+                try {
+                    executor.execute(handler);
+                    return;
+                } catch (RejectedExecutionException e) {
+                    // the service is stopping, the response is handled by the thread of the client
+                }
+            }
+            handler.run();
+        }
+
+        private void inClassLoader(Callable<Void> action) {
+            ClassLoader tccl = Thread.currentThread().getContextClassLoader();
+            try {
+                Thread.currentThread().setContextClassLoader(getClass().getClassLoader());
+                action.call();
+            } catch (Exception e) {
+                fail(e);
+            } finally {
+                Thread.currentThread().setContextClassLoader(tccl);
+            }
+        }
+
+        private void fail(Exception e) {
+            try {
+                complete(onFailure(e));
+            } catch (Exception error) {
+                updateTimer();
+                if (throwExceptions) {
+                    future.completeExceptionally(error);
+                } else {
+                    logger.error("Error while executing asynchronously in class loader", error);
+                    future.complete(errorValue);
+                }
+            }
+        }
+
+        private void updateTimer() {
+            if (metricsService != null && metricsService.isActivated()) {
+                metricsService.updateTimer(timerName, startTime);
+            }
+        }
+    }
+
+    private interface ResponseHandler<R, T> {
+        T handle(R response) throws Exception;
+    }
+
+    private static boolean isNotFound(Exception e) {
+        return e instanceof IndexNotFoundException
+                || (e instanceof ElasticsearchStatusException && ((ElasticsearchStatusException) e).status() == RestStatus.NOT_FOUND);
+    }
+
     private <T extends Item> boolean isCacheActiveForClass(String className) {
         if (itemClassesToCacheSet.contains("*")) {
             return true;
@@ -2348,13 +3381,28 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
         return false;
     }
 
+    @SuppressWarnings("unchecked")
     private <T extends Item> T getFromCache(String itemId, Class<T> clazz) {
         String className = clazz.getName();
         if (!isCacheActiveForClass(className)) {
             return null;
         }
         Map<String, T> itemCache = hazelcastInstance.getMap(className);
-        return itemCache.get(itemId);
+        ItemNearCache nearCache = getItemNearCache(className);
+        if (nearCache == null) {
+            return itemCache.get(itemId);
+        }
+        T item = nearCache.get(itemId, clazz);
+        if (item == null) {
+            Object load = nearCache.startLoad(itemId);
+            item = itemCache.get(itemId);
+            if (item != null) {
+                nearCache.put(itemId, item, load);
+            } else {
+                nearCache.invalidate(itemId);
+            }
+        }
+        return item;
     }
 
     private <T extends Item> T putInCache(String itemId, T item) {
@@ -2363,7 +3411,9 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
             return null;
         }
         Map<String, T> itemCache = hazelcastInstance.getMap(className);
-        return itemCache.put(itemId, item);
+        T previousItem = itemCache.put(itemId, item);
+        invalidateItemNearCache(className, itemId);
+        return previousItem;
     }
 
     private <T extends Item> T deleteFromCache(String itemId, Class clazz) {
@@ -2372,7 +3422,91 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
             return null;
         }
         Map<String, T> itemCache = hazelcastInstance.getMap(className);
-        return itemCache.remove(itemId);
+        T previousItem = itemCache.remove(itemId);
+        invalidateItemNearCache(className, itemId);
+        return previousItem;
+    }
+
+    /**
+     * Returns the near cache of a class of items, creating it on first use along with the Hazelcast map listener that
+     * invalidates its entries when they are modified on any node of the cluster.
+     */
+    private ItemNearCache getItemNearCache(String className) {
+        if (itemNearCacheMaxEntries <= 0) {
+            return null;
+        }
+        return itemNearCaches.computeIfAbsent(className, name -> {
+            ItemNearCache nearCache = new ItemNearCache(name, itemNearCacheMaxEntries, metricsService);
+            IMap<String, Item> itemCache = hazelcastInstance.getMap(name);
+            itemNearCacheListenerIds.put(name, itemCache.addEntryListener(new ItemNearCacheInvalidationListener(nearCache), false));
+            return nearCache;
+        });
+    }
+
+    private void invalidateItemNearCache(String className, String itemId) {
+        // the map listener will also invalidate the entry, but asynchronously
+        ItemNearCache nearCache = itemNearCaches.get(className);
+        if (nearCache != null) {
+            nearCache.invalidate(itemId);
+        }
+    }
+
+    private void removeItemNearCaches() {
+        for (Map.Entry<String, String> listenerId : itemNearCacheListenerIds.entrySet()) {
+            try {
+                hazelcastInstance.getMap(listenerId.getKey()).removeEntryListener(listenerId.getValue());
+            } catch (Exception e) {
+                logger.warn("Error removing near cache listener for class {}", listenerId.getKey(), e);
+            }
+        }
+        itemNearCacheListenerIds.clear();
+        itemNearCaches.clear();
+    }
+
+    private static class ItemNearCacheInvalidationListener implements EntryAddedListener<String, Item>, EntryUpdatedListener<String, Item>,
+            EntryRemovedListener<String, Item>, EntryEvictedListener<String, Item>, EntryExpiredListener<String, Item>,
+            MapClearedListener, MapEvictedListener {
+
+        private final ItemNearCache nearCache;
+
+        private ItemNearCacheInvalidationListener(ItemNearCache nearCache) {
+            this.nearCache = nearCache;
+        }
+
+        @Override
+        public void entryAdded(EntryEvent<String, Item> event) {
+            nearCache.invalidate(event.getKey());
+        }
+
+        @Override
+        public void entryUpdated(EntryEvent<String, Item> event) {
+            nearCache.invalidate(event.getKey());
+        }
+
+        @Override
+        public void entryRemoved(EntryEvent<String, Item> event) {
+            nearCache.invalidate(event.getKey());
+        }
+
+        @Override
+        public void entryEvicted(EntryEvent<String, Item> event) {
+            nearCache.invalidate(event.getKey());
+        }
+
+        @Override
+        public void entryExpired(EntryEvent<String, Item> event) {
+            nearCache.invalidate(event.getKey());
+        }
+
+        @Override
+        public void mapCleared(MapEvent event) {
+            nearCache.invalidateAll();
+        }
+
+        @Override
+        public void mapEvicted(MapEvent event) {
+            nearCache.invalidateAll();
+        }
     }
 
     private String getAllIndexForQuery() {
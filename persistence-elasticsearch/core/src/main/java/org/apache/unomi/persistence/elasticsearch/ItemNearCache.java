@@ -0,0 +1,221 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.unomi.persistence.elasticsearch;
+
+import org.apache.unomi.api.Item;
+import org.apache.unomi.metrics.MetricsService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of the items of a class, kept on this node in front of the Hazelcast item cache so that reading a
+ * cached item does not require a remote call. Entries are evicted in least recently used order within segments, and
+ * are invalidated when the corresponding entry of the Hazelcast map changes on any node.
+ *
+ * The items are kept serialized and each read returns a new copy, so that callers modifying the items they loaded do
+ * not modify the items read by the other callers.
+ */
+class ItemNearCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(ItemNearCache.class.getName());
+
+    private static final int SEGMENT_COUNT = 16;
+
+    private final Segment[] segments;
+    private final MetricsService metricsService;
+    private final String metricsPrefix;
+
+    /**
+     * @param name           the name of the cache, used to name its metrics
+     * @param maxEntries     the maximum number of items kept in the cache
+     * @param metricsService the service used to count hits, misses and evictions, may be null
+     */
+    ItemNearCache(String name, int maxEntries, MetricsService metricsService) {
+        this.metricsService = metricsService;
+        this.metricsPrefix = ItemNearCache.class.getName() + "." + name;
+        int maxEntriesPerSegment = Math.max(1, (maxEntries + SEGMENT_COUNT - 1) / SEGMENT_COUNT);
+        this.segments = new Segment[SEGMENT_COUNT];
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            segments[i] = new Segment(maxEntriesPerSegment);
+        }
+    }
+
+    /**
+     * @return a copy of the cached item, or null if the item is not cached
+     */
+    <T extends Item> T get(String itemId, Class<T> clazz) {
+        Object entry = getSegment(itemId).get(itemId);
+        if (!(entry instanceof CachedItem)) {
+            incrementCounter(".misses");
+            return null;
+        }
+        incrementCounter(".hits");
+        try {
+            return ((CachedItem) entry).read(clazz);
+        } catch (IOException e) {
+            logger.warn("Error reading item {} from the near cache", itemId, e);
+            invalidate(itemId);
+            return null;
+        }
+    }
+
+    /**
+     * Starts loading an item that will be put in the cache. Only this item is affected by the invalidations that happen
+     * while it is loaded, the loads of the other items can still be cached.
+     *
+     * @param itemId the identifier of the item
+     * @return the load, to pass to {@link #put(String, Item, Object)}
+     */
+    Object startLoad(String itemId) {
+        Segment segment = getSegment(itemId);
+        synchronized (segment) {
+            Object entry = segment.get(itemId);
+            if (entry instanceof Load) {
+                return entry;
+            }
+            Load load = new Load();
+            segment.put(itemId, load);
+            return load;
+        }
+    }
+
+    /**
+     * Puts an item in the cache, unless the item was invalidated since it was loaded, in which case the loaded item
+     * might already be outdated.
+     *
+     * @param itemId the identifier of the item
+     * @param item   the loaded item
+     * @param load   the value returned by {@link #startLoad(String)} before the item was loaded
+     */
+    void put(String itemId, Item item, Object load) {
+        CachedItem cachedItem;
+        try {
+            cachedItem = new CachedItem(item);
+        } catch (IOException e) {
+            logger.warn("Error writing item {} to the near cache", itemId, e);
+            invalidate(itemId);
+            return;
+        }
+        Segment segment = getSegment(itemId);
+        synchronized (segment) {
+            if (segment.get(itemId) == load) {
+                segment.put(itemId, cachedItem);
+            }
+        }
+    }
+
+    void invalidate(String itemId) {
+        Segment segment = getSegment(itemId);
+        synchronized (segment) {
+            segment.remove(itemId);
+        }
+    }
+
+    void invalidateAll() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    private Segment getSegment(String itemId) {
+        return segments[(itemId.hashCode() & Integer.MAX_VALUE) % SEGMENT_COUNT];
+    }
+
+    private void incrementCounter(String suffix) {
+        if (metricsService != null && metricsService.isActivated()) {
+            metricsService.incrementCounter(metricsPrefix + suffix);
+        }
+    }
+
+    /**
+     * The entry of an item being loaded, removed by the invalidations of the item.
+     */
+    private static class Load {
+    }
+
+    /**
+     * An item serialized with the mapper used to store items, along with the metadata that is not part of its source.
+     */
+    private static class CachedItem {
+        private final byte[] source;
+        private final String itemId;
+        private final Long version;
+        private final Map<String, Object> systemMetadata = new HashMap<>();
+
+        private CachedItem(Item item) throws IOException {
+            this.source = ESCustomObjectMapper.getObjectMapper().writeValueAsBytes(item);
+            this.itemId = item.getItemId();
+            this.version = item.getVersion();
+            for (String key : new String[]{ElasticSearchPersistenceServiceImpl.SEQ_NO, ElasticSearchPersistenceServiceImpl.PRIMARY_TERM}) {
+                if (item.getSystemMetadata(key) != null) {
+                    systemMetadata.put(key, item.getSystemMetadata(key));
+                }
+            }
+        }
+
+        private <T extends Item> T read(Class<T> clazz) throws IOException {
+            T item = ESCustomObjectMapper.getObjectMapper().readValue(source, clazz);
+            item.setItemId(itemId);
+            item.setVersion(version);
+            for (Map.Entry<String, Object> entry : systemMetadata.entrySet()) {
+                item.setSystemMetadata(entry.getKey(), entry.getValue());
+            }
+            return item;
+        }
+    }
+
+    private class Segment extends LinkedHashMap<String, Object> {
+        private final int maxEntries;
+
+        private Segment(int maxEntries) {
+            super(16, 0.75f, true);
+            this.maxEntries = maxEntries;
+        }
+
+        @Override
+        public synchronized Object get(Object key) {
+            return super.get(key);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+            if (size() > maxEntries) {
+                incrementCounter(".evictions");
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.unomi.persistence.elasticsearch;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Iterates over the results of a paged query, fetching the next page in the background while the current one is
+ * consumed. Only one page is fetched at a time, so that pages can be retrieved with a scroll, and the page source is
+ * closed as soon as all the results were consumed or the iterator is closed.
+ */
+class PrefetchingPageIterator<T> implements Iterator<T>, AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(PrefetchingPageIterator.class.getName());
+
+    /**
+     * The source of the pages, which is only called by one thread at a time.
+     */
+    interface PageSource<T> {
+
+        /**
+         * @return the next page of results, an empty page if there are no more results
+         */
+        List<T> nextPage() throws Exception;
+
+        /**
+         * Releases the resources of the query, such as the scroll context.
+         */
+        void close() throws Exception;
+    }
+
+    private final PageSource<T> pageSource;
+    private final Executor executor;
+    private Iterator<T> currentPage = Collections.emptyIterator();
+    private CompletableFuture<List<T>> nextPage;
+    private boolean closed;
+
+    /**
+     * @param pageSource the source of the pages
+     * @param executor   the executor used to fetch the pages in the background
+     */
+    PrefetchingPageIterator(PageSource<T> pageSource, Executor executor) {
+        this.pageSource = pageSource;
+        this.executor = executor;
+        this.nextPage = fetchNextPage();
+    }
+
+    /**
+     * @return a sequential stream of the results, which closes this iterator when it is closed
+     */
+    Stream<T> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(this::close);
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!currentPage.hasNext()) {
+            if (nextPage == null) {
+                return false;
+            }
+            List<T> page = waitForNextPage();
+            if (page.isEmpty()) {
+                nextPage = null;
+                close();
+                return false;
+            }
+            currentPage = page.iterator();
+            nextPage = fetchNextPage();
+        }
+        return true;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return currentPage.next();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        currentPage = Collections.emptyIterator();
+        CompletableFuture<List<T>> pendingPage = nextPage;
+        nextPage = null;
+        if (pendingPage != null) {
+            // the page source must not be closed while a page is being fetched
+            pendingPage.whenComplete((page, throwable) -> closePageSource());
+        } else {
+            closePageSource();
+        }
+    }
+
+    private CompletableFuture<List<T>> fetchNextPage() {
+        try {
+            return CompletableFuture.supplyAsync(this::readNextPage, executor);
+        } catch (RejectedExecutionException e) {
+            // the executor is saturated, the page is fetched without prefetching
+            try {
+                return CompletableFuture.completedFuture(readNextPage());
+            } catch (CompletionException pageException) {
+                CompletableFuture<List<T>> failedPage = new CompletableFuture<>();
+                failedPage.completeExceptionally(pageException);
+                return failedPage;
+            }
+        }
+    }
+
+    private List<T> readNextPage() {
+        try {
+            return pageSource.nextPage();
+        } catch (Exception e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private List<T> waitForNextPage() {
+        try {
+            return nextPage.join();
+        } catch (CompletionException e) {
+            nextPage = null;
+            close();
+            throw new IllegalStateException("Error fetching the next page of results", e.getCause());
+        }
+    }
+
+    private void closePageSource() {
+        try {
+            pageSource.close();
+        } catch (Exception e) {
+            logger.warn("Error closing the page source", e);
+        }
+    }
+}
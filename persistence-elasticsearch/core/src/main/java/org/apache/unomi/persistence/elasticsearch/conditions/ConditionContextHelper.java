@@ -17,39 +17,35 @@
 
 package org.apache.unomi.persistence.elasticsearch.conditions;
 
-import com.google.common.base.Function;
-import com.google.common.collect.Lists;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.logging.log4j.core.util.IOUtils;
-import org.apache.lucene.analysis.charfilter.MappingCharFilterFactory;
-import org.apache.lucene.analysis.util.ClasspathResourceLoader;
 import org.apache.unomi.api.conditions.Condition;
 import org.apache.unomi.scripting.ScriptExecutor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.Reader;
-import java.io.StringReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class ConditionContextHelper {
     private static final Logger logger = LoggerFactory.getLogger(ConditionContextHelper.class);
 
-    private static MappingCharFilterFactory mappingCharFilterFactory;
-    static {
-        Map<String,String> args = new HashMap<>();
-        args.put("mapping", "mapping-FoldToASCII.txt");
-        mappingCharFilterFactory = new MappingCharFilterFactory(args);
-        try {
-            mappingCharFilterFactory.inform(new ClasspathResourceLoader(ConditionContextHelper.class.getClassLoader()));
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-    }
+    private static final String FOLD_TO_ASCII_MAPPING = "mapping-FoldToASCII.txt";
+    private static final Pattern FOLD_TO_ASCII_MAPPING_LINE = Pattern.compile("\"(.*)\"\\s*=>\\s*\"(.*)\"\\s*$");
+    private static final int MAX_FOLDED_CONDITION_VALUES = 10000;
+
+    // the ASCII replacements of the characters, indexed by the high and the low byte of the characters
+    private static final String[][] foldToASCIIMapping = loadFoldToASCIIMapping();
+    private static final Map<String, String> foldedConditionValues = new ConcurrentHashMap<>();
 
     public static Condition getContextualCondition(Condition condition, Map<String, Object> context, ScriptExecutor scriptExecutor) {
         if (!hasContextualParameter(condition.getParameterValues())) {
@@ -130,33 +126,184 @@ public class ConditionContextHelper {
         return s;
     }
 
+    /**
+     * Converts a string to lower case and replaces its alphabetic, numeric and symbolic characters that are not in the
+     * Basic Latin Unicode block by their ASCII equivalents, as defined by the mapping-FoldToASCII.txt mapping. Strings
+     * that are already lower case ASCII are returned as is, without any allocation.
+     *
+     * @param s the string to fold
+     * @return the folded string, or {@code null} if the string is {@code null}
+     */
     public static String foldToASCII(String s) {
-        if (s != null) {
-            s = s.toLowerCase();
-            StringReader stringReader = new StringReader(s);
-            Reader foldedStringReader = mappingCharFilterFactory.create(stringReader);
-            try {
-                return IOUtils.toString(foldedStringReader);
-            } catch (IOException e) {
-                logger.error("Error folding to ASCII string " + s, e);
+        if (s == null) {
+            return null;
+        }
+        int length = s.length();
+        int i = 0;
+        while (i < length) {
+            char c = s.charAt(i);
+            if (c >= 0x80 || (c >= 'A' && c <= 'Z')) {
+                break;
             }
+            i++;
+        }
+        if (i == length) {
+            return s;
         }
-        return null;
+
+        s = s.toLowerCase();
+        length = s.length();
+        StringBuilder folded = null;
+        for (i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            String replacement = null;
+            if (c >= 0x80) {
+                String[] page = foldToASCIIMapping[c >> 8];
+                if (page != null) {
+                    replacement = page[c & 0xFF];
+                }
+            }
+            if (replacement != null) {
+                if (folded == null) {
+                    folded = new StringBuilder(length + 16);
+                    folded.append(s, 0, i);
+                }
+                folded.append(replacement);
+            } else if (folded != null) {
+                folded.append(c);
+            }
+        }
+        return folded != null ? folded.toString() : s;
     }
 
+    /**
+     * Folds a value of a condition parameter to ASCII, see {@link #foldToASCII(String)}. As the same values are folded
+     * every time their condition is evaluated, the folded values are cached.
+     *
+     * @param s the condition value to fold
+     * @return the folded value, or {@code null} if the value is {@code null}
+     */
+    public static String foldConditionValueToASCII(String s) {
+        if (s == null) {
+            return null;
+        }
+        String folded = foldedConditionValues.get(s);
+        if (folded == null) {
+            folded = foldToASCII(s);
+            // values that are already folded are returned as is, there is no need to cache them
+            if (folded != s) {
+                if (foldedConditionValues.size() >= MAX_FOLDED_CONDITION_VALUES) {
+                    foldedConditionValues.clear();
+                }
+                foldedConditionValues.put(s, folded);
+            }
+        }
+        return folded;
+    }
+
+    /**
+     * Folds the string values of a condition parameter to ASCII, see {@link #foldConditionValueToASCII(String)}.
+     *
+     * @param s the condition values to fold
+     * @return a new list of the folded values, or {@code null} if the list is {@code null}
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> List<T> foldConditionValuesToASCII(List<T> s) {
+        if (s == null) {
+            return null;
+        }
+        List<T> folded = new ArrayList<>(s.size());
+        for (T o : s) {
+            folded.add(o instanceof String ? (T) foldConditionValueToASCII((String) o) : o);
+        }
+        return folded;
+    }
+
+    @SuppressWarnings("unchecked")
     public static <T> List<T> foldToASCII(List<T> s) {
-        if (s != null) {
-            return Lists.transform(s, new Function<T, T>() {
-                @Override
-                public T apply(T o) {
-                    if (o instanceof String) {
-                        return (T) ConditionContextHelper.foldToASCII((String) o);
-                    }
-                    return o;
+        if (s == null) {
+            return null;
+        }
+        List<T> folded = new ArrayList<>(s.size());
+        for (T o : s) {
+            folded.add(o instanceof String ? (T) foldToASCII((String) o) : o);
+        }
+        return folded;
+    }
+
+    private static String[][] loadFoldToASCIIMapping() {
+        String[][] mapping = new String[256][];
+        try (InputStream inputStream = ConditionContextHelper.class.getClassLoader().getResourceAsStream(FOLD_TO_ASCII_MAPPING)) {
+            if (inputStream == null) {
+                logger.error("Couldn't find the {} mapping, strings will not be folded to ASCII", FOLD_TO_ASCII_MAPPING);
+                return mapping;
+            }
+            BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("#")) {
+                    continue;
+                }
+                Matcher matcher = FOLD_TO_ASCII_MAPPING_LINE.matcher(line);
+                if (!matcher.find()) {
+                    continue;
+                }
+                String source = parseMappingString(matcher.group(1));
+                // all the sources of the mapping are single characters
+                if (source.length() != 1) {
+                    logger.warn("Ignoring mapping of {} in {}, only single characters can be folded", matcher.group(1), FOLD_TO_ASCII_MAPPING);
+                    continue;
                 }
-            });
+                char c = source.charAt(0);
+                if (mapping[c >> 8] == null) {
+                    mapping[c >> 8] = new String[256];
+                }
+                mapping[c >> 8][c & 0xFF] = parseMappingString(matcher.group(2));
+            }
+        } catch (IOException e) {
+            logger.error("Error loading the {} mapping", FOLD_TO_ASCII_MAPPING, e);
+        }
+        return mapping;
+    }
+
+    /**
+     * Unescapes a string of the mapping file, in the same way as the Lucene mapping char filter.
+     */
+    private static String parseMappingString(String s) {
+        StringBuilder result = new StringBuilder(s.length());
+        int i = 0;
+        while (i < s.length()) {
+            char c = s.charAt(i++);
+            if (c == '\\' && i < s.length()) {
+                c = s.charAt(i++);
+                switch (c) {
+                    case 'n':
+                        c = '\n';
+                        break;
+                    case 't':
+                        c = '\t';
+                        break;
+                    case 'r':
+                        c = '\r';
+                        break;
+                    case 'b':
+                        c = '\b';
+                        break;
+                    case 'f':
+                        c = '\f';
+                        break;
+                    case 'u':
+                        c = (char) Integer.parseInt(s.substring(i, i + 4), 16);
+                        i += 4;
+                        break;
+                    default:
+                        // escaped backslashes and quotes are kept as is
+                        break;
+                }
+            }
+            result.append(c);
         }
-        return null;
+        return result.toString();
     }
 
 }
@@ -17,16 +17,22 @@
 
 package org.apache.unomi.persistence.elasticsearch.conditions;
 
+import org.apache.commons.lang3.StringUtils;
 import org.apache.unomi.api.Item;
 import org.apache.unomi.api.conditions.Condition;
+import org.apache.unomi.api.conditions.ConditionType;
 import org.apache.unomi.metrics.MetricAdapter;
 import org.apache.unomi.metrics.MetricsService;
 import org.apache.unomi.scripting.ScriptExecutor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -56,6 +62,92 @@ public class ConditionEvaluatorDispatcher {
         evaluators.remove(name);
     }
 
+    /**
+     * Retrieves the identifiers of the condition types that prevent the specified condition from being evaluated locally:
+     * {@link #eval(Condition, Item, Map)} throws an {@link UnsupportedOperationException} when the condition, or the
+     * parent condition it resolves to, has no evaluator, and the condition is then evaluated with a query instead.
+     *
+     * @param condition the condition to check, whose condition types must have been resolved
+     * @return the identifiers of the condition types evaluated remotely, empty if the condition is evaluated locally
+     */
+    public Set<String> getRemotelyEvaluatedConditionTypeIds(Condition condition) {
+        Condition rootCondition = condition;
+        while (rootCondition != null && rootCondition.getConditionType() != null) {
+            ConditionType conditionType = rootCondition.getConditionType();
+            if (conditionType.getParentCondition() == null) {
+                if (conditionType.getConditionEvaluator() == null) {
+                    return Collections.singleton(rootCondition.getConditionTypeId());
+                }
+                break;
+            }
+            rootCondition = conditionType.getParentCondition();
+        }
+        return Collections.emptySet();
+    }
+
+    /**
+     * Retrieves the identifiers of the condition types of the specified condition that {@link #eval(Condition, Item, Map)}
+     * evaluates to false whatever the item: the condition types whose evaluator is not registered, and the
+     * sub-conditions without evaluator, which make the evaluator of their parent condition fail. The sub-conditions
+     * referenced with "parameter::" from a parent condition are resolved like they are during the evaluation.
+     *
+     * @param condition the condition to check, whose condition types must have been resolved
+     * @return the identifiers of the condition types evaluated to false, empty if the whole condition can be evaluated
+     */
+    public Set<String> getConditionTypeIdsEvaluatedToFalse(Condition condition) {
+        Set<String> conditionTypeIds = new LinkedHashSet<>();
+        addConditionTypeIdsEvaluatedToFalse(condition, Collections.emptyMap(), false, conditionTypeIds);
+        return conditionTypeIds;
+    }
+
+    private void addConditionTypeIdsEvaluatedToFalse(Condition condition, Map<String, Object> context, boolean subCondition,
+                                                     Set<String> conditionTypeIds) {
+        ConditionType conditionType = condition.getConditionType();
+        if (conditionType == null) {
+            // unresolved condition types are reported when they are resolved
+            return;
+        }
+        if (conditionType.getParentCondition() != null) {
+            // like eval, only the parent condition is evaluated, with the parameters of the condition in its context
+            Map<String, Object> parentContext = new HashMap<>(context);
+            parentContext.putAll(condition.getParameterValues());
+            addConditionTypeIdsEvaluatedToFalse(conditionType.getParentCondition(), parentContext, subCondition, conditionTypeIds);
+            return;
+        }
+        String conditionEvaluatorKey = conditionType.getConditionEvaluator();
+        if (conditionEvaluatorKey == null) {
+            // a root condition without evaluator is evaluated remotely
+            if (subCondition) {
+                conditionTypeIds.add(condition.getConditionTypeId());
+            }
+            return;
+        }
+        if (!evaluators.containsKey(conditionEvaluatorKey)) {
+            conditionTypeIds.add(condition.getConditionTypeId());
+            return;
+        }
+        Object subConditions = resolveParameter(condition.getParameter("subConditions"), context);
+        if (subConditions instanceof List) {
+            for (Object subConditionValue : (List<?>) subConditions) {
+                Object resolvedSubCondition = resolveParameter(subConditionValue, context);
+                if (resolvedSubCondition instanceof Condition) {
+                    addConditionTypeIdsEvaluatedToFalse((Condition) resolvedSubCondition, context, true, conditionTypeIds);
+                }
+            }
+        }
+        Object resolvedSubCondition = resolveParameter(condition.getParameter("subCondition"), context);
+        if (resolvedSubCondition instanceof Condition) {
+            addConditionTypeIdsEvaluatedToFalse((Condition) resolvedSubCondition, context, true, conditionTypeIds);
+        }
+    }
+
+    private static Object resolveParameter(Object value, Map<String, Object> context) {
+        if (value instanceof String && ((String) value).startsWith("parameter::")) {
+            return context.get(StringUtils.substringAfter((String) value, "parameter::"));
+        }
+        return value;
+    }
+
     public boolean eval(Condition condition, Item item) {
         return eval(condition, item, new HashMap<String, Object>());
     }
@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.unomi.persistence.elasticsearch;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class BulkIndexingControllerTest {
+
+    @Test
+    public void testTargetSizeIncreasesAdditivelyAndDecreasesMultiplicatively() {
+        BulkIndexingController controller = new BulkIndexingController(100, 1000, 1000, 0, () -> {});
+        assertEquals(1000, controller.getTargetBulkSize());
+
+        controller.adapt(10, 1);
+        assertEquals(500, controller.getTargetBulkSize());
+        controller.adapt(2000, 0);
+        assertEquals(250, controller.getTargetBulkSize());
+        controller.adapt(2000, 0);
+        controller.adapt(2000, 0);
+        assertEquals(100, controller.getTargetBulkSize());
+
+        controller.adapt(10, 0);
+        assertEquals(200, controller.getTargetBulkSize());
+        for (int i = 0; i < 20; i++) {
+            controller.adapt(10, 0);
+        }
+        assertEquals(1000, controller.getTargetBulkSize());
+    }
+
+    @Test
+    public void testQueuedAndInFlightRequestsAreTracked() throws Exception {
+        BulkIndexingController controller = new BulkIndexingController(100, 1000, 60000, 0, () -> {});
+        controller.reserve(300, true);
+        controller.reserve(400, true);
+        assertFalse(controller.isFlushNeeded());
+        controller.reserve(300, true);
+        assertTrue(controller.isFlushNeeded());
+        assertEquals(3, controller.getQueuedRequests());
+        assertEquals(1000, controller.getQueuedBytes());
+
+        controller.onBulkStart(1, 3, 1000);
+        assertEquals(0, controller.getQueuedRequests());
+        assertEquals(0, controller.getQueuedBytes());
+        assertEquals(3, controller.getInFlightRequests());
+        assertEquals(1000, controller.getInFlightBytes());
+
+        assertTrue(controller.onBulkEnd(1, 0) >= 0);
+        assertEquals(0, controller.getInFlightRequests());
+        assertEquals(0, controller.getInFlightBytes());
+        assertEquals(-1, controller.onBulkEnd(2, 0));
+    }
+
+    @Test
+    public void testProducersAreBlockedByTheMemoryBudget() throws Exception {
+        AtomicInteger flushCount = new AtomicInteger();
+        BulkIndexingController[] holder = new BulkIndexingController[1];
+        BulkIndexingController controller = new BulkIndexingController(100, 10000, 60000, 1000, () -> {
+            flushCount.incrementAndGet();
+            holder[0].onBulkStart(1, (int) holder[0].getQueuedRequests(), holder[0].getQueuedBytes());
+        });
+        holder[0] = controller;
+        controller.reserve(600, true);
+        controller.reserve(600, true);
+
+        CountDownLatch reserved = new CountDownLatch(1);
+        Thread producer = new Thread(() -> {
+            try {
+                controller.reserve(100, true);
+                reserved.countDown();
+            } catch (InterruptedException e) {
+                // ignored
+            }
+        });
+        producer.start();
+        assertFalse(reserved.await(200, TimeUnit.MILLISECONDS));
+        assertEquals(1, flushCount.get());
+        assertEquals(1200, controller.getInFlightBytes());
+
+        controller.onBulkEnd(1, 0);
+        assertTrue(reserved.await(10, TimeUnit.SECONDS));
+        assertEquals(100, controller.getQueuedBytes());
+
+        // requests that can't be blocked are always accepted
+        controller.reserve(5000, false);
+        assertEquals(5100, controller.getQueuedBytes());
+        producer.join();
+    }
+}
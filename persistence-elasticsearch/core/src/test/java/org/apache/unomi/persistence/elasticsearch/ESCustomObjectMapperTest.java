@@ -0,0 +1,47 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.unomi.persistence.elasticsearch;
+
+import org.apache.unomi.api.rules.RuleStatistics;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ESCustomObjectMapperTest {
+
+    @Test
+    public void testRuleStatisticsPercentilesAreNotPersisted() throws Exception {
+        RuleStatistics ruleStatistics = new RuleStatistics("rule");
+        ruleStatistics.setExecutionCount(3);
+        ruleStatistics.setConditionsTimeP50(1023);
+        ruleStatistics.setActionsTimeP99(2047);
+
+        String json = ESCustomObjectMapper.getObjectMapper().writeValueAsString(ruleStatistics);
+        Map<?, ?> source = ESCustomObjectMapper.getObjectMapper().readValue(json, Map.class);
+        assertEquals(3, source.get("executionCount"));
+        assertFalse(source.containsKey("conditionsTimeP50"));
+        assertFalse(source.containsKey("actionsTimeP99"));
+        assertFalse(source.containsKey("version"));
+
+        RuleStatistics readRuleStatistics = ESCustomObjectMapper.getObjectMapper().readValue(json, RuleStatistics.class);
+        assertEquals(3, readRuleStatistics.getExecutionCount());
+        assertEquals(0, readRuleStatistics.getConditionsTimeP50());
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.unomi.persistence.elasticsearch;
+
+import org.apache.unomi.api.Profile;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ItemNearCacheTest {
+
+    @Test
+    public void testLeastRecentlyUsedItemsAreEvicted() {
+        ItemNearCache nearCache = new ItemNearCache("test", 160, null);
+        for (int i = 0; i < 1000; i++) {
+            nearCache.put("item" + i, new Profile("item" + i), nearCache.startLoad("item" + i));
+            // keep the first item in use
+            assertEquals("item0", nearCache.get("item0", Profile.class).getItemId());
+        }
+        assertTrue(nearCache.size() <= 160);
+        assertEquals("item999", nearCache.get("item999", Profile.class).getItemId());
+        assertNull(nearCache.get("item1", Profile.class));
+    }
+
+    @Test
+    public void testItemLoadedBeforeAnInvalidationIsNotCached() {
+        ItemNearCache nearCache = new ItemNearCache("test", 100, null);
+        Object load = nearCache.startLoad("item");
+        Object otherLoad = nearCache.startLoad("otherItem");
+        nearCache.invalidate("item");
+        nearCache.put("item", new Profile("item"), load);
+        assertNull(nearCache.get("item", Profile.class));
+        // the invalidations of other items do not prevent caching an item
+        nearCache.put("otherItem", new Profile("otherItem"), otherLoad);
+        assertNotNull(nearCache.get("otherItem", Profile.class));
+
+        nearCache.put("item", new Profile("item"), nearCache.startLoad("item"));
+        assertNotNull(nearCache.get("item", Profile.class));
+        nearCache.invalidateAll();
+        assertNull(nearCache.get("item", Profile.class));
+    }
+
+    @Test
+    public void testCachedItemsAreCopies() {
+        ItemNearCache nearCache = new ItemNearCache("test", 100, null);
+        Profile profile = new Profile("item");
+        profile.setProperty("firstName", "John");
+        profile.setVersion(3L);
+        profile.setSystemMetadata(ElasticSearchPersistenceServiceImpl.SEQ_NO, 12L);
+        profile.setSystemMetadata(ElasticSearchPersistenceServiceImpl.PRIMARY_TERM, 1L);
+        nearCache.put("item", profile, nearCache.startLoad("item"));
+        profile.setProperty("firstName", "Jane");
+
+        Profile cachedProfile = nearCache.get("item", Profile.class);
+        assertEquals("John", cachedProfile.getProperty("firstName"));
+        assertEquals(Long.valueOf(3L), cachedProfile.getVersion());
+        assertEquals(12L, cachedProfile.getSystemMetadata(ElasticSearchPersistenceServiceImpl.SEQ_NO));
+        assertEquals(1L, cachedProfile.getSystemMetadata(ElasticSearchPersistenceServiceImpl.PRIMARY_TERM));
+
+        cachedProfile.setProperty("firstName", "Jane");
+        assertNotSame(cachedProfile, nearCache.get("item", Profile.class));
+        assertEquals("John", nearCache.get("item", Profile.class).getProperty("firstName"));
+    }
+}
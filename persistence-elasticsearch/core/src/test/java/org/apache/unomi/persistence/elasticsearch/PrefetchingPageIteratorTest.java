@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.unomi.persistence.elasticsearch;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class PrefetchingPageIteratorTest {
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testAllPagesAreStreamedAndSourceIsClosed() throws Exception {
+        TestPageSource pageSource = new TestPageSource(10, 25);
+        List<Integer> values;
+        try (Stream<Integer> stream = new PrefetchingPageIterator<>(pageSource, executor).stream()) {
+            values = stream.collect(Collectors.toList());
+        }
+        assertEquals(25, values.size());
+        for (int i = 0; i < 25; i++) {
+            assertEquals(Integer.valueOf(i), values.get(i));
+        }
+        assertTrue(pageSource.closed.await(10, TimeUnit.SECONDS));
+        assertEquals(1, pageSource.closeCount);
+    }
+
+    @Test
+    public void testNextPageIsFetchedWhileTheCurrentOneIsConsumed() throws Exception {
+        TestPageSource pageSource = new TestPageSource(10, 100);
+        PrefetchingPageIterator<Integer> iterator = new PrefetchingPageIterator<>(pageSource, executor);
+        assertEquals(Integer.valueOf(0), iterator.next());
+        long deadline = System.currentTimeMillis() + 10000;
+        while (pageSource.fetchedPages < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(2, pageSource.fetchedPages);
+
+        iterator.close();
+        assertTrue(pageSource.closed.await(10, TimeUnit.SECONDS));
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void testFetchErrorsAreReported() throws Exception {
+        TestPageSource pageSource = new TestPageSource(10, 100);
+        pageSource.failAtPage = 1;
+        PrefetchingPageIterator<Integer> iterator = new PrefetchingPageIterator<>(pageSource, executor);
+        for (int i = 0; i < 10; i++) {
+            iterator.next();
+        }
+        try {
+            iterator.hasNext();
+            fail("The fetch error should have been reported");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertTrue(pageSource.closed.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testPagesAreFetchedByTheCallerWhenTheExecutorIsSaturated() throws Exception {
+        TestPageSource pageSource = new TestPageSource(10, 25);
+        List<Integer> values;
+        try (Stream<Integer> stream = new PrefetchingPageIterator<Integer>(pageSource, runnable -> {
+            throw new RejectedExecutionException();
+        }).stream()) {
+            values = stream.collect(Collectors.toList());
+        }
+        assertEquals(25, values.size());
+        assertTrue(pageSource.closed.await(10, TimeUnit.SECONDS));
+
+        pageSource = new TestPageSource(10, 100);
+        pageSource.failAtPage = 0;
+        try {
+            new PrefetchingPageIterator<Integer>(pageSource, runnable -> {
+                throw new RejectedExecutionException();
+            }).hasNext();
+            fail("The fetch error should have been reported");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    private static class TestPageSource implements PrefetchingPageIterator.PageSource<Integer> {
+        private final int pageSize;
+        private final int total;
+        private final CountDownLatch closed = new CountDownLatch(1);
+        private volatile int fetchedPages;
+        private volatile int closeCount;
+        private int failAtPage = -1;
+
+        private TestPageSource(int pageSize, int total) {
+            this.pageSize = pageSize;
+            this.total = total;
+        }
+
+        @Override
+        public List<Integer> nextPage() throws Exception {
+            if (fetchedPages == failAtPage) {
+                throw new Exception("fetch error");
+            }
+            int start = fetchedPages * pageSize;
+            fetchedPages++;
+            if (start >= total) {
+                return Collections.emptyList();
+            }
+            List<Integer> page = new ArrayList<>();
+            for (int i = start; i < Math.min(total, start + pageSize); i++) {
+                page.add(i);
+            }
+            return page;
+        }
+
+        @Override
+        public void close() {
+            closeCount++;
+            closed.countDown();
+        }
+    }
+}
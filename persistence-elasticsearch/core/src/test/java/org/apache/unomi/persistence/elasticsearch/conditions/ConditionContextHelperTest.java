@@ -0,0 +1,64 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.unomi.persistence.elasticsearch.conditions;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ConditionContextHelperTest {
+
+    @Test
+    public void testFoldToASCII() {
+        assertNull(ConditionContextHelper.foldToASCII((String) null));
+        assertEquals("cafe", ConditionContextHelper.foldToASCII("Café"));
+        assertEquals("aeroskobing", ConditionContextHelper.foldToASCII("Ærøskøbing"));
+        assertEquals("strasse", ConditionContextHelper.foldToASCII("Straße"));
+        assertEquals("\"quoted\"", ConditionContextHelper.foldToASCII("“quoted”"));
+
+        String ascii = "already folded";
+        assertSame(ascii, ConditionContextHelper.foldToASCII(ascii));
+    }
+
+    @Test
+    public void testFoldToASCIIMatchesTheMappingCharFilter() {
+        StringBuilder allCharacters = new StringBuilder();
+        for (char c = 0; c < Character.MAX_VALUE; c++) {
+            if (!Character.isSurrogate(c)) {
+                String s = "x" + c + "X";
+                assertEquals("Folding of \\u" + Integer.toHexString(c) + " was wrong", MappingCharFilterFoldToASCII.foldToASCII(s),
+                        ConditionContextHelper.foldToASCII(s));
+                allCharacters.append(c);
+            }
+        }
+        assertEquals(MappingCharFilterFoldToASCII.foldToASCII(allCharacters.toString()), ConditionContextHelper.foldToASCII(allCharacters.toString()));
+    }
+
+    @Test
+    public void testFoldConditionValuesToASCII() {
+        assertEquals("elan", ConditionContextHelper.foldConditionValueToASCII("Élan"));
+        assertSame(ConditionContextHelper.foldConditionValueToASCII("Élan"), ConditionContextHelper.foldConditionValueToASCII("Élan"));
+
+        List<Object> values = Arrays.asList("Élan", 1, "Zürich");
+        assertEquals(Arrays.asList("elan", 1, "zurich"), ConditionContextHelper.foldConditionValuesToASCII(values));
+        assertNull(ConditionContextHelper.foldConditionValuesToASCII(null));
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.unomi.persistence.elasticsearch.conditions;
+
+import org.apache.unomi.api.Metadata;
+import org.apache.unomi.api.Profile;
+import org.apache.unomi.api.conditions.Condition;
+import org.apache.unomi.api.conditions.ConditionType;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ConditionEvaluatorDispatcherTest {
+
+    private final Profile profile = new Profile("profile");
+    private ConditionEvaluatorDispatcher dispatcher;
+
+    @Before
+    public void setUp() {
+        dispatcher = new ConditionEvaluatorDispatcher();
+        dispatcher.addEvaluator("andConditionEvaluator", (condition, item, context, conditionEvaluatorDispatcher) -> {
+            for (Object subCondition : (List<?>) condition.getParameter("subConditions")) {
+                if (!conditionEvaluatorDispatcher.eval((Condition) subCondition, item, context)) {
+                    return false;
+                }
+            }
+            return true;
+        });
+        dispatcher.addEvaluator("trueConditionEvaluator", (condition, item, context, conditionEvaluatorDispatcher) -> true);
+    }
+
+    @Test
+    public void testLocallyEvaluatedCondition() {
+        Condition condition = and(condition("trueCondition", "trueConditionEvaluator"), condition("trueCondition", "trueConditionEvaluator"));
+
+        assertEquals(Collections.emptySet(), dispatcher.getRemotelyEvaluatedConditionTypeIds(condition));
+        assertEquals(Collections.emptySet(), dispatcher.getConditionTypeIdsEvaluatedToFalse(condition));
+        assertTrue(dispatcher.eval(condition, profile));
+    }
+
+    @Test
+    public void testRootConditionWithoutEvaluatorIsEvaluatedRemotely() {
+        Condition condition = condition("remoteCondition", null);
+        Condition childCondition = child("childCondition", condition);
+
+        for (Condition c : Arrays.asList(condition, childCondition)) {
+            assertEquals(Collections.singleton("remoteCondition"), dispatcher.getRemotelyEvaluatedConditionTypeIds(c));
+            assertEquals(Collections.emptySet(), dispatcher.getConditionTypeIdsEvaluatedToFalse(c));
+            try {
+                dispatcher.eval(c, profile);
+                fail("the condition should be evaluated remotely");
+            } catch (UnsupportedOperationException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testSubConditionWithoutEvaluatorIsEvaluatedToFalse() {
+        Condition condition = and(condition("trueCondition", "trueConditionEvaluator"), condition("remoteCondition", null));
+
+        assertEquals(Collections.emptySet(), dispatcher.getRemotelyEvaluatedConditionTypeIds(condition));
+        assertEquals(Collections.singleton("remoteCondition"), dispatcher.getConditionTypeIdsEvaluatedToFalse(condition));
+        assertFalse(dispatcher.eval(condition, profile));
+    }
+
+    @Test
+    public void testUnregisteredEvaluatorIsEvaluatedToFalse() {
+        Condition condition = condition("unregisteredCondition", "unregisteredConditionEvaluator");
+        assertEquals(Collections.emptySet(), dispatcher.getRemotelyEvaluatedConditionTypeIds(condition));
+        assertEquals(Collections.singleton("unregisteredCondition"), dispatcher.getConditionTypeIdsEvaluatedToFalse(condition));
+        assertFalse(dispatcher.eval(condition, profile));
+
+        Condition andCondition = and(condition("trueCondition", "trueConditionEvaluator"), condition);
+        assertEquals(Collections.singleton("unregisteredCondition"), dispatcher.getConditionTypeIdsEvaluatedToFalse(andCondition));
+        assertFalse(dispatcher.eval(andCondition, profile));
+    }
+
+    @Test
+    public void testSubConditionsReferencedByParameter() {
+        // the parent condition gets its sub-conditions from the parameters of the condition
+        Condition parentCondition = condition("andCondition", "andConditionEvaluator");
+        parentCondition.setParameter("subConditions", "parameter::conditions");
+
+        Condition localCondition = child("allOfCondition", parentCondition);
+        localCondition.setParameter("conditions", Arrays.asList(condition("trueCondition", "trueConditionEvaluator")));
+        assertEquals(Collections.emptySet(), dispatcher.getConditionTypeIdsEvaluatedToFalse(localCondition));
+        assertTrue(dispatcher.eval(localCondition, profile));
+
+        Condition falseCondition = child("allOfCondition", parentCondition);
+        falseCondition.setParameter("conditions", Arrays.asList(condition("trueCondition", "trueConditionEvaluator"),
+                condition("remoteCondition", null)));
+        assertEquals(Collections.emptySet(), dispatcher.getRemotelyEvaluatedConditionTypeIds(falseCondition));
+        assertEquals(Collections.singleton("remoteCondition"), dispatcher.getConditionTypeIdsEvaluatedToFalse(falseCondition));
+        assertFalse(dispatcher.eval(falseCondition, profile));
+    }
+
+    private static Condition condition(String conditionTypeId, String conditionEvaluator) {
+        ConditionType conditionType = new ConditionType(new Metadata(conditionTypeId));
+        conditionType.setConditionEvaluator(conditionEvaluator);
+        return new Condition(conditionType);
+    }
+
+    private static Condition child(String conditionTypeId, Condition parentCondition) {
+        ConditionType conditionType = new ConditionType(new Metadata(conditionTypeId));
+        conditionType.setParentCondition(parentCondition);
+        return new Condition(conditionType);
+    }
+
+    private static Condition and(Condition... subConditions) {
+        Condition condition = condition("andCondition", "andConditionEvaluator");
+        condition.setParameter("subConditions", Arrays.asList(subConditions));
+        return condition;
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.unomi.persistence.elasticsearch.conditions;
+
+import org.apache.logging.log4j.core.util.IOUtils;
+import org.apache.lucene.analysis.charfilter.MappingCharFilterFactory;
+import org.apache.lucene.analysis.util.ClasspathResourceLoader;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The previous implementation of {@link ConditionContextHelper#foldToASCII(String)}, based on the Lucene mapping char
+ * filter, used as a reference by the tests and benchmarks.
+ */
+class MappingCharFilterFoldToASCII {
+
+    private static final MappingCharFilterFactory mappingCharFilterFactory;
+
+    static {
+        Map<String, String> args = new HashMap<>();
+        args.put("mapping", "mapping-FoldToASCII.txt");
+        mappingCharFilterFactory = new MappingCharFilterFactory(args);
+        try {
+            mappingCharFilterFactory.inform(new ClasspathResourceLoader(ConditionContextHelper.class.getClassLoader()));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static String foldToASCII(String s) {
+        if (s == null) {
+            return null;
+        }
+        try {
+            return IOUtils.toString(mappingCharFilterFactory.create(new StringReader(s.toLowerCase())));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
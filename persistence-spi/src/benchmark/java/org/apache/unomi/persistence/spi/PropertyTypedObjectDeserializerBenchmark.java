@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.unomi.persistence.spi;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.unomi.api.EventsCollectorRequest;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the streaming {@link PropertyTypedObjectDeserializer} with the previous implementation based on trees, by
+ * reading an /eventcollector request with view, click and form events.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class PropertyTypedObjectDeserializerBenchmark {
+
+    private ObjectMapper objectMapper;
+    private ObjectMapper treeObjectMapper;
+    private byte[] request;
+
+    @Setup
+    public void setUp() throws IOException {
+        objectMapper = new CustomObjectMapper();
+        treeObjectMapper = TreePropertyTypedObjectDeserializer.createObjectMapper();
+        try (InputStream inputStream = getClass().getResourceAsStream("/eventcollector-request.json")) {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, read);
+            }
+            request = outputStream.toByteArray();
+        }
+    }
+
+    @Benchmark
+    public EventsCollectorRequest tree() throws IOException {
+        return treeObjectMapper.readValue(request, EventsCollectorRequest.class);
+    }
+
+    @Benchmark
+    public EventsCollectorRequest streaming() throws IOException {
+        return objectMapper.readValue(request, EventsCollectorRequest.class);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(PropertyTypedObjectDeserializerBenchmark.class.getSimpleName()).build()).run();
+    }
+}
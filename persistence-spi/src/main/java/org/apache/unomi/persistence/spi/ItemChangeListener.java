@@ -0,0 +1,35 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.unomi.persistence.spi;
+
+/**
+ * A listener notified by the {@link PersistenceService} when items are written or removed, so that components keeping
+ * copies of these items can invalidate them.
+ */
+public interface ItemChangeListener {
+
+    /**
+     * Called after an item was saved, updated or removed. Writes sent through the bulk processor are notified when they
+     * are queued and again once their bulk request completed.
+     *
+     * @param itemType the item type of the changed item
+     * @param itemId   the identifier of the changed item, or {@code null} if any number of items of this type may have changed
+     */
+    void itemChanged(String itemType, String itemId);
+}
@@ -23,10 +23,14 @@ import org.apache.unomi.api.PropertyType;
 import org.apache.unomi.api.conditions.Condition;
 import org.apache.unomi.persistence.spi.aggregate.BaseAggregate;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 /**
  * A service to provide persistence and retrieval of context server entities.
@@ -97,6 +101,15 @@ public interface PersistenceService {
      */
     boolean save(Item item);
 
+    /**
+     * Persists the specified Item in the context server without blocking the calling thread: the returned future is completed once the persistence backend
+     * acknowledged the item. The item is persisted as {@link #save(Item)} would.
+     *
+     * @param item the item to persist
+     * @return a future completed with {@code true} if the item was properly persisted, {@code false} otherwise
+     */
+    CompletableFuture<Boolean> saveAsync(Item item);
+
     /**
      * Persists the specified Item in the context server.
      *
@@ -120,6 +133,15 @@ public interface PersistenceService {
      */
     boolean save(Item item, Boolean useBatching, Boolean alwaysOverwrite);
 
+    /**
+     * Persists the specified Items in the context server with a single bulk request. The items must all be of the same
+     * type, and the identifiers and versions of the items that were persisted are updated.
+     *
+     * @param items the items to persist
+     * @return List of failed Items Ids, if all succesful then returns an empty list. if the whole operation failed then will return null
+     */
+    List<String> save(List<? extends Item> items);
+
     /**
      * Updates the item of the specified class and identified by the specified identifier with new property values provided as name - value pairs in the specified Map.
      *
@@ -180,6 +202,22 @@ public interface PersistenceService {
      */
     boolean updateWithScript(Item item, Date dateHint, Class<?> clazz, String script, Map<String, Object> scriptParams);
 
+    /**
+     * Updates the item of the specified class and identified by the identifier of the specified item with the specified script. If the item does not
+     * exist yet, the script is executed on the specified item, which is then saved unless the script sets {@code ctx.op} to {@code none}. Unlike
+     * {@link #updateWithScript(Item, Date, Class, String, Map)}, the update does not check the version of the item: it is executed again if the item
+     * is modified concurrently, so that concurrent updates, such as counter increments, are all applied.
+     *
+     * @param item          the item to save if it does not exist, whose identifier identifies the item to update
+     * @param dateHint      a Date helping in identifying where the item is located
+     * @param clazz         the Item subclass of the item to update
+     * @param script        inline script
+     * @param scriptParams  script params
+     * @param <T>           the type of the Item subclass we want to update
+     * @return the item as stored once the script was executed, or {@code null} if the update failed or if the script did not create the item
+     */
+    <T extends Item> T upsertWithScript(T item, Date dateHint, Class<T> clazz, String script, Map<String, Object> scriptParams);
+
     /**
      * Updates the items of the specified class by a query with a new property value for the specified property name
      * based on provided scripts and script parameters
@@ -214,6 +252,50 @@ public interface PersistenceService {
      */
     <T extends Item> T load(String itemId, Date dateHint, Class<T> clazz);
 
+    /**
+     * Retrieves the item identified with the specified identifier and with the specified Item subclass if it exists, without blocking the calling thread.
+     *
+     * @param <T>    the type of the Item subclass we want to retrieve
+     * @param itemId the identifier of the item we want to retrieve
+     * @param clazz  the {@link Item} subclass of the item we want to retrieve
+     * @return a future completed with the item identified with the specified identifier and with the specified Item subclass if it exists, {@code null} otherwise
+     */
+    <T extends Item> CompletableFuture<T> loadAsync(String itemId, Class<T> clazz);
+
+    /**
+     * Retrieves the item identified with the specified identifier and with the specified Item subclass if it exists, without blocking the calling thread.
+     *
+     * @param <T>      the type of the Item subclass we want to retrieve
+     * @param itemId   the identifier of the item we want to retrieve
+     * @param dateHint a Date helping in identifying where the item is located
+     * @param clazz    the {@link Item} subclass of the item we want to retrieve
+     * @return a future completed with the item identified with the specified identifier and with the specified Item subclass if it exists, {@code null} otherwise
+     */
+    <T extends Item> CompletableFuture<T> loadAsync(String itemId, Date dateHint, Class<T> clazz);
+
+    /**
+     * Retrieves the items identified with the specified identifiers and with the specified Item subclass, in a single
+     * request to the persistence backend for the items that are not cached.
+     *
+     * @param <T>     the type of the Item subclass we want to retrieve
+     * @param itemIds the identifiers of the items we want to retrieve
+     * @param clazz   the {@link Item} subclass of the items we want to retrieve
+     * @return the items that exist, in the order of their identifiers
+     */
+    <T extends Item> List<T> loadAll(Collection<String> itemIds, Class<T> clazz);
+
+    /**
+     * Retrieves the items identified with the specified identifiers and with the specified Item subclass, in a single
+     * request to the persistence backend for the items that are not cached.
+     *
+     * @param <T>      the type of the Item subclass we want to retrieve
+     * @param itemIds  the identifiers of the items we want to retrieve
+     * @param dateHint a Date helping in identifying where the items are located
+     * @param clazz    the {@link Item} subclass of the items we want to retrieve
+     * @return the items that exist, in the order of their identifiers
+     */
+    <T extends Item> List<T> loadAll(Collection<String> itemIds, Date dateHint, Class<T> clazz);
+
     /**
      * Deletes the item identified with the specified identifier and with the specified Item subclass if it exists.
      *
@@ -234,6 +316,20 @@ public interface PersistenceService {
      */
     <T extends Item> boolean removeByQuery(Condition query, Class<T> clazz);
 
+    /**
+     * Registers a listener notified after items are saved, updated or removed through this service, whoever the caller is.
+     *
+     * @param listener the listener to register
+     */
+    void addItemChangeListener(ItemChangeListener listener);
+
+    /**
+     * Unregisters a listener previously registered with {@link #addItemChangeListener(ItemChangeListener)}.
+     *
+     * @param listener the listener to unregister
+     */
+    void removeItemChangeListener(ItemChangeListener listener);
+
     /**
      * Persists the specified query under the specified name.
      *
@@ -297,6 +393,24 @@ public interface PersistenceService {
      */
     boolean testMatch(Condition query, Item item);
 
+    /**
+     * Retrieves the identifiers of the condition types of the specified condition that cannot be evaluated locally by {@link #testMatch(Condition, Item)}, which then
+     * queries the persistence backend for each tested item instead.
+     *
+     * @param condition the condition to check, whose condition types must have been resolved
+     * @return the identifiers of the condition types that cannot be evaluated locally, an empty set if the whole condition can be evaluated locally
+     */
+    Set<String> getRemotelyEvaluatedConditionTypeIds(Condition condition);
+
+    /**
+     * Retrieves the identifiers of the condition types of the specified condition that {@link #testMatch(Condition, Item)} evaluates to false whatever the
+     * tested item, because their evaluator is not available.
+     *
+     * @param condition the condition to check, whose condition types must have been resolved
+     * @return the identifiers of the condition types evaluated to false, an empty set if the whole condition can be evaluated
+     */
+    Set<String> getConditionTypeIdsEvaluatedToFalse(Condition condition);
+
     /**
      * validates if a condition throws exception at query build.
      *
@@ -421,6 +535,21 @@ public interface PersistenceService {
      */
     <T extends Item> PartialList<T> query(Condition query, String sortBy, Class<T> clazz, int offset, int size);
 
+    /**
+     * Same as {@link #query(Condition, String, Class, int, int)}, without blocking the calling thread. Retrieving all the matching items with a {@code size}
+     * of {@code -1} requires several requests, those queries are still executed by a background thread, and the future fails if too many of them are
+     * already waiting for one.
+     *
+     * @param <T>    the type of the Item subclass we want to retrieve
+     * @param query  the {@link Condition} the items must satisfy to be retrieved
+     * @param sortBy an optional ({@code null} if no sorting is required) String of comma ({@code ,}) separated property names on which ordering should be performed
+     * @param clazz  the {@link Item} subclass of the items we want to retrieve
+     * @param offset zero or a positive integer specifying the position of the first item in the total ordered collection of matching items
+     * @param size   a positive integer specifying how many matching items should be retrieved or {@code -1} if all of them should be retrieved
+     * @return a future completed with a {@link PartialList} of items matching the specified criteria
+     */
+    <T extends Item> CompletableFuture<PartialList<T>> queryAsync(Condition query, String sortBy, Class<T> clazz, int offset, int size);
+
     /**
      * Retrieves a list of items satisfying the specified {@link Condition}, ordered according to the specified {@code sortBy} String and and paged: only {@code size} of them
      * are retrieved, starting with the {@code offset}-th one. If a scroll identifier and time validity are specified, they will be used to perform a scrolling query, meaning
@@ -442,6 +571,23 @@ public interface PersistenceService {
      */
     <T extends Item> PartialList<T> query(Condition query, String sortBy, Class<T> clazz, int offset, int size, String scrollTimeValidity);
 
+    /**
+     * Retrieves the same items as {@link #query(Condition, String, Class, int, int)}, only retrieving the specified fields of their source. The other fields of the
+     * returned items keep their default values, so such partial items must not be saved back as a whole, only updated field by field.
+     *
+     * @param <T>           the type of the Item subclass we want to retrieve
+     * @param query         the {@link Condition} the items must satisfy to be retrieved
+     * @param sortBy        an optional ({@code null} if no sorting is required) String of comma ({@code ,}) separated property names on which ordering should be performed,
+     *                      see {@link #query(Condition, String, Class, int, int)}
+     * @param clazz         the {@link Item} subclass of the items we want to retrieve
+     * @param offset        zero or a positive integer specifying the position of the first item in the total ordered collection of matching items
+     * @param size          a positive integer specifying how many matching items should be retrieved or {@code -1} if all of them should be retrieved
+     * @param includeFields the fields to retrieve, wildcards being supported, or {@code null} to retrieve all the fields that are not excluded
+     * @param excludeFields the fields not to retrieve, wildcards being supported, or {@code null} to not exclude any field
+     * @return a {@link PartialList} of items matching the specified criteria
+     */
+    <T extends Item> PartialList<T> query(Condition query, String sortBy, Class<T> clazz, int offset, int size, String[] includeFields, String[] excludeFields);
+
     /**
      * Continues the execution of a scroll query, to retrieve the next results. If there are no more results the scroll query is also cleared.
      * @param clazz  the {@link Item} subclass of the items we want to retrieve
@@ -454,6 +600,53 @@ public interface PersistenceService {
      */
     <T extends Item> PartialList<T> continueScrollQuery(Class<T> clazz, String scrollIdentifier, String scrollTimeValidity);
 
+    /**
+     * Retrieves all the items of the specified Item subclass matching the specified query as a stream. The items are
+     * retrieved page by page while the stream is consumed, the next page being fetched while the current one is
+     * processed, so that the whole result set never needs to be held in memory. The stream must be closed, for example
+     * with a try-with-resources statement, to release the backend resources if it is not fully consumed.
+     *
+     * @param <T>      the type of the Item subclass we want to retrieve
+     * @param query    the {@link Condition} the items must satisfy to be retrieved
+     * @param clazz    the {@link Item} subclass of the items we want to retrieve
+     * @param pageSize the number of items retrieved at once
+     * @return a sequential stream of the matching items, in no particular order
+     */
+    <T extends Item> Stream<T> stream(Condition query, Class<T> clazz, int pageSize);
+
+    /**
+     * Retrieves one slice of the items of the specified Item subclass matching the specified query as a stream, so that
+     * the slices can be consumed concurrently. The items are split between the slices by the persistence backend, and
+     * the union of all the slices is the same as the result of {@link #stream(Condition, Class, int)}.
+     *
+     * @param <T>        the type of the Item subclass we want to retrieve
+     * @param query      the {@link Condition} the items must satisfy to be retrieved
+     * @param clazz      the {@link Item} subclass of the items we want to retrieve
+     * @param pageSize   the number of items retrieved at once
+     * @param sliceId    the identifier of the slice to retrieve, between 0 and {@code sliceCount - 1}
+     * @param sliceCount the total number of slices
+     * @return a sequential stream of the matching items of the slice, in no particular order
+     * @see #stream(Condition, Class, int)
+     */
+    <T extends Item> Stream<T> stream(Condition query, Class<T> clazz, int pageSize, int sliceId, int sliceCount);
+
+    /**
+     * Retrieves the same slice of items as {@link #stream(Condition, Class, int, int, int)}, only retrieving the specified fields of their source. The other fields
+     * of the returned items keep their default values, so such partial items must not be saved back as a whole, only updated field by field.
+     *
+     * @param <T>           the type of the Item subclass we want to retrieve
+     * @param query         the {@link Condition} the items must satisfy to be retrieved
+     * @param clazz         the {@link Item} subclass of the items we want to retrieve
+     * @param pageSize      the number of items retrieved at once
+     * @param sliceId       the identifier of the slice to retrieve, between 0 and {@code sliceCount - 1}
+     * @param sliceCount    the total number of slices
+     * @param includeFields the fields to retrieve, wildcards being supported, or {@code null} to retrieve all the fields that are not excluded
+     * @param excludeFields the fields not to retrieve, wildcards being supported, or {@code null} to not exclude any field
+     * @return a sequential stream of the matching items of the slice, in no particular order
+     * @see #stream(Condition, Class, int, int, int)
+     */
+    <T extends Item> Stream<T> stream(Condition query, Class<T> clazz, int pageSize, int sliceId, int sliceCount, String[] includeFields, String[] excludeFields);
+
     /**
      * Retrieves the same items as {@code query(query, sortBy, clazz, 0, -1)} with the added constraints that the matching elements must also have at least a field matching the
      * specified full text query.
@@ -482,6 +675,15 @@ public interface PersistenceService {
      */
     long queryCount(Condition query, String itemType);
 
+    /**
+     * Same as {@link #queryCount(Condition, String)}, without blocking the calling thread.
+     *
+     * @param query    the condition the items must satisfy
+     * @param itemType the String representation of the item type we want to retrieve the count of, as defined by its class' {@code ITEM_TYPE} field
+     * @return a future completed with the number of items of the specified type
+     */
+    CompletableFuture<Long> queryCountAsync(Condition query, String itemType);
+
     /**
      * Retrieves the number of items with the specified type as defined by the Item subclass public field {@code ITEM_TYPE}.
      *
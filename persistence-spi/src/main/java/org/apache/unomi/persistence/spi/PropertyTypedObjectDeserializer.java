@@ -18,16 +18,17 @@
 package org.apache.unomi.persistence.spi;
 
 import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.core.JsonTokenId;
-import com.fasterxml.jackson.core.ObjectCodec;
-import com.fasterxml.jackson.core.TreeNode;
+import com.fasterxml.jackson.core.util.JsonParserSequence;
 import com.fasterxml.jackson.databind.DeserializationContext;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.deser.std.UntypedObjectDeserializer;
-import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 
 import java.io.IOException;
+import java.io.Serializable;
 import java.util.*;
+import java.util.regex.Pattern;
 
 /**
  * This Jackson deserializer makes it possible to register field matching
@@ -45,6 +46,12 @@ import java.util.*;
  * In this example any JSON object that has a "type" property that matches the
  * ".*Condition" regular expression will be parsed and mapped to a Condition class
  *
+ * Objects are read as a stream of tokens, directly as a plain map, until a field
+ * with a matching value is found: the fields read so far are then buffered again
+ * as tokens and read as the mapped class along with the rest of the object. The
+ * expressions are compiled when they are registered, and the common forms (".*",
+ * ".*suffix" and literal values) are matched without regular expressions.
+ *
  * Note that there exists a way to map properties as type identifiers in Jackson,
  * but this feature is very limited and requires hardcoding possible values.
  * This deserializer is much more flexible and powerful.
@@ -53,21 +60,26 @@ public class PropertyTypedObjectDeserializer extends UntypedObjectDeserializer {
 
     private static final long serialVersionUID = -2561171359946902967L;
 
-    private Map<String, Class<? extends Object>> registry =
-            new LinkedHashMap<String, Class<? extends Object>>();
+    private static final Pattern LITERAL = Pattern.compile("[^\\\\\\[\\]{}()<>*+\\-=!?^$|.]*");
 
-    private Map<String,Set<String>> fieldValuesToMatch = new LinkedHashMap<String,Set<String>>();
+    private Map<String, List<ValueMatcher>> fieldValuesToMatch = new LinkedHashMap<String, List<ValueMatcher>>();
 
     public void registerMapping(String matchExpression,
                                 Class<? extends Object> mappedClass) {
-        registry.put(matchExpression, mappedClass);
         String[] fieldParts = matchExpression.split("=");
-        Set<String> valuesToMatch = fieldValuesToMatch.get(fieldParts[0]);
+        List<ValueMatcher> valuesToMatch = fieldValuesToMatch.get(fieldParts[0]);
         if (valuesToMatch == null) {
-            valuesToMatch = new LinkedHashSet<String>();
+            valuesToMatch = new ArrayList<ValueMatcher>();
+            fieldValuesToMatch.put(fieldParts[0], valuesToMatch);
+        }
+        for (ValueMatcher valueMatcher : valuesToMatch) {
+            if (valueMatcher.expression.equals(fieldParts[1])) {
+                // same as a map entry, a new registration replaces the class but keeps the matching order
+                valueMatcher.mappedClass = mappedClass;
+                return;
+            }
         }
-        valuesToMatch.add(fieldParts[1]);
-        fieldValuesToMatch.put(fieldParts[0], valuesToMatch);
+        valuesToMatch.add(new ValueMatcher(fieldParts[1], mappedClass));
     }
 
     @Override
@@ -77,38 +89,79 @@ public class PropertyTypedObjectDeserializer extends UntypedObjectDeserializer {
         if (jp.getCurrentTokenId() != JsonTokenId.ID_START_OBJECT) {
             return super.deserialize(jp, ctxt);
         }
-        ObjectCodec codec = jp.getCodec();
-        TreeNode treeNode = codec.readTree(jp);
-        Class<? extends Object> objectClass = null;
-        if (treeNode instanceof ObjectNode) {
-            ObjectNode root = (ObjectNode) treeNode;
-            Iterator<Map.Entry<String, JsonNode>> elementsIterator =
-                    root.fields();
-            while (elementsIterator.hasNext()) {
-                Map.Entry<String, JsonNode> element = elementsIterator.next();
-                String name = element.getKey();
-                if (fieldValuesToMatch.containsKey(name)) {
-                    Set<String> valuesToMatch = fieldValuesToMatch.get(name);
-                    for (String valueToMatch : valuesToMatch) {
-                        if (element.getValue().asText().matches(valueToMatch)) {
-                            objectClass = registry.get(name + "=" + valueToMatch);
-                            break;
-                        }
-                    }
-                    if (objectClass != null) {
-                        break;
+        Map<String, Object> map = new HashMap<String, Object>();
+        JsonToken token;
+        while ((token = jp.nextToken()) == JsonToken.FIELD_NAME) {
+            String name = jp.getCurrentName();
+            jp.nextToken();
+            List<ValueMatcher> valuesToMatch = fieldValuesToMatch.get(name);
+            if (valuesToMatch != null) {
+                String value = jp.currentToken().isScalarValue() ? jp.getText() : "";
+                for (ValueMatcher valueToMatch : valuesToMatch) {
+                    if (valueToMatch.matches(value)) {
+                        return deserializeMapped(map, name, jp, ctxt, valueToMatch.mappedClass);
                     }
                 }
             }
-            if (objectClass == null) {
-                objectClass = HashMap.class;
-            }
-        } else {
+            map.put(name, deserialize(jp, ctxt));
+        }
+        if (token != JsonToken.END_OBJECT) {
+            return ctxt.handleUnexpectedToken(HashMap.class, jp);
+        }
+        return map;
+    }
 
+    /**
+     * Reads an object as the mapped class, once its discriminator field was found. The fields read before it are
+     * written back as tokens, followed by the discriminator field and the rest of the object, which are read directly
+     * from the original parser.
+     */
+    private Object deserializeMapped(Map<String, Object> previousFields, String fieldName, JsonParser jp,
+                                     DeserializationContext ctxt, Class<? extends Object> mappedClass) throws IOException {
+        TokenBuffer buffer = new TokenBuffer(jp, ctxt);
+        buffer.writeStartObject();
+        for (Map.Entry<String, Object> previousField : previousFields.entrySet()) {
+            buffer.writeFieldName(previousField.getKey());
+            buffer.writeObject(previousField.getValue());
         }
-        if (objectClass == null) {
-            return super.deserialize(codec.treeAsTokens(treeNode), ctxt);
+        buffer.writeFieldName(fieldName);
+        buffer.copyCurrentStructure(jp);
+        JsonParser bufferParser = buffer.asParser(jp);
+        bufferParser.nextToken();
+        return ctxt.readValue(JsonParserSequence.createFlattened(false, bufferParser, jp), mappedClass);
+    }
+
+    private static class ValueMatcher implements Serializable {
+
+        private static final long serialVersionUID = 3094475106512370219L;
+
+        private final String expression;
+        private final Pattern pattern;
+        private final String literal;
+        private final boolean suffix;
+        private Class<? extends Object> mappedClass;
+
+        private ValueMatcher(String expression, Class<? extends Object> mappedClass) {
+            this.expression = expression;
+            this.mappedClass = mappedClass;
+            boolean anyPrefix = expression.startsWith(".*");
+            String literalPart = anyPrefix ? expression.substring(2) : expression;
+            if (LITERAL.matcher(literalPart).matches()) {
+                this.pattern = null;
+                this.literal = literalPart;
+                this.suffix = anyPrefix;
+            } else {
+                this.pattern = Pattern.compile(expression);
+                this.literal = null;
+                this.suffix = false;
+            }
+        }
+
+        private boolean matches(String value) {
+            if (pattern != null) {
+                return pattern.matcher(value).matches();
+            }
+            return suffix ? value.endsWith(literal) : value.equals(literal);
         }
-        return codec.treeToValue(treeNode, objectClass);
     }
 }
@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.unomi.persistence.spi;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.unomi.api.CustomItem;
+import org.apache.unomi.api.EventsCollectorRequest;
+import org.apache.unomi.api.Profile;
+import org.apache.unomi.api.conditions.Condition;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class PropertyTypedObjectDeserializerTest {
+
+    private final ObjectMapper objectMapper = new CustomObjectMapper();
+    private final ObjectMapper treeObjectMapper = TreePropertyTypedObjectDeserializer.createObjectMapper();
+
+    @Test
+    public void testEventsCollectorRequestIsReadAsBefore() throws Exception {
+        EventsCollectorRequest request;
+        EventsCollectorRequest treeRequest;
+        try (InputStream inputStream = getClass().getResourceAsStream("/eventcollector-request.json")) {
+            request = objectMapper.readValue(inputStream, EventsCollectorRequest.class);
+        }
+        try (InputStream inputStream = getClass().getResourceAsStream("/eventcollector-request.json")) {
+            treeRequest = treeObjectMapper.readValue(inputStream, EventsCollectorRequest.class);
+        }
+        assertEquals(3, request.getEvents().size());
+        for (int i = 0; i < request.getEvents().size(); i++) {
+            assertEquals(treeRequest.getEvents().get(i).getProperties(), request.getEvents().get(i).getProperties());
+            assertEquals(((CustomItem) treeRequest.getEvents().get(i).getTarget()).getProperties(),
+                    ((CustomItem) request.getEvents().get(i).getTarget()).getProperties());
+        }
+        Map<String, Object> pageInfo = (Map<String, Object>) ((CustomItem) request.getEvents().get(0).getTarget())
+                .getProperties().get("pageInfo");
+        assertTrue(pageInfo instanceof HashMap);
+        assertEquals("/sites/digitall/home", pageInfo.get("pagePath"));
+        assertEquals(2, ((List<?>) pageInfo.get("categories")).size());
+    }
+
+    @Test
+    public void testObjectsAreMappedWhenTheDiscriminatorIsNotTheFirstField() throws Exception {
+        String json = "{\"condition\":{\"parameterValues\":{\"operator\":\"and\",\"subConditions\":[" +
+                "{\"parameterValues\":{\"propertyName\":\"properties.age\",\"comparisonOperator\":\"greaterThan\",\"propertyValueInteger\":18}," +
+                "\"type\":\"profilePropertyCondition\"}]},\"type\":\"booleanCondition\"}," +
+                "\"profile\":{\"itemId\":\"profile1\",\"properties\":{\"firstName\":\"Jane\",\"nested\":{\"a\":[1,2,{\"b\":null}]}},\"itemType\":\"profile\"}," +
+                "\"custom\":{\"itemId\":\"item1\",\"itemType\":\"product\",\"properties\":{\"price\":10.5}}," +
+                "\"notCondition\":{\"type\":\"condition\",\"value\":1}}";
+        Map<String, Object> values = objectMapper.readValue(json, Map.class);
+        Map<String, Object> treeValues = treeObjectMapper.readValue(json, Map.class);
+
+        Condition condition = (Condition) values.get("condition");
+        assertEquals("booleanCondition", condition.getConditionTypeId());
+        Condition subCondition = (Condition) ((List<?>) condition.getParameter("subConditions")).get(0);
+        assertEquals("profilePropertyCondition", subCondition.getConditionTypeId());
+        assertEquals(treeValues.get("condition"), condition);
+
+        Profile profile = (Profile) values.get("profile");
+        assertEquals("profile1", profile.getItemId());
+        assertEquals(((Profile) treeValues.get("profile")).getProperties(), profile.getProperties());
+
+        CustomItem customItem = (CustomItem) values.get("custom");
+        assertEquals("product", customItem.getItemType());
+        assertEquals(10.5, customItem.getProperties().get("price"));
+
+        assertTrue(values.get("notCondition") instanceof HashMap);
+        assertEquals(treeValues.get("notCondition"), values.get("notCondition"));
+    }
+}
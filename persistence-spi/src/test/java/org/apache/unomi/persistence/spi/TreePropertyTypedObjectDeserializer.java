@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.unomi.persistence.spi;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonTokenId;
+import com.fasterxml.jackson.core.ObjectCodec;
+import com.fasterxml.jackson.core.TreeNode;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.deser.std.UntypedObjectDeserializer;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.unomi.api.*;
+import org.apache.unomi.api.conditions.Condition;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * The previous implementation of {@link PropertyTypedObjectDeserializer}, which reads every object as a tree before
+ * matching its fields, used as a reference by the tests and benchmarks.
+ */
+class TreePropertyTypedObjectDeserializer extends UntypedObjectDeserializer {
+
+    private static final long serialVersionUID = 1L;
+
+    private Map<String, Class<? extends Object>> registry =
+            new LinkedHashMap<String, Class<? extends Object>>();
+
+    private Map<String,Set<String>> fieldValuesToMatch = new LinkedHashMap<String,Set<String>>();
+
+    /**
+     * @return a {@link CustomObjectMapper} using this deserializer instead of {@link PropertyTypedObjectDeserializer}
+     */
+    static ObjectMapper createObjectMapper() {
+        TreePropertyTypedObjectDeserializer deserializer = new TreePropertyTypedObjectDeserializer();
+        deserializer.registerMapping("type=.*Condition", Condition.class);
+        deserializer.registerMapping("itemType=" + Event.ITEM_TYPE, Event.class);
+        deserializer.registerMapping("itemType=" + Profile.ITEM_TYPE, Profile.class);
+        deserializer.registerMapping("itemType=" + Session.ITEM_TYPE, Session.class);
+        deserializer.registerMapping("itemType=.*", CustomItem.class);
+        SimpleModule module = new SimpleModule("TreePropertyTypedObjectDeserializerModule");
+        module.addDeserializer(Object.class, deserializer);
+        ObjectMapper objectMapper = new CustomObjectMapper();
+        // the deserializers of the last registered module take precedence
+        objectMapper.registerModule(module);
+        return objectMapper;
+    }
+
+    public void registerMapping(String matchExpression,
+                                Class<? extends Object> mappedClass) {
+        registry.put(matchExpression, mappedClass);
+        String[] fieldParts = matchExpression.split("=");
+        Set<String> valuesToMatch = fieldValuesToMatch.get(fieldParts[0]);
+        if (valuesToMatch == null) {
+            valuesToMatch = new LinkedHashSet<String>();
+        }
+        valuesToMatch.add(fieldParts[1]);
+        fieldValuesToMatch.put(fieldParts[0], valuesToMatch);
+    }
+
+    @Override
+    public Object deserialize(
+            JsonParser jp, DeserializationContext ctxt)
+            throws IOException {
+        if (jp.getCurrentTokenId() != JsonTokenId.ID_START_OBJECT) {
+            return super.deserialize(jp, ctxt);
+        }
+        ObjectCodec codec = jp.getCodec();
+        TreeNode treeNode = codec.readTree(jp);
+        Class<? extends Object> objectClass = null;
+        if (treeNode instanceof ObjectNode) {
+            ObjectNode root = (ObjectNode) treeNode;
+            Iterator<Map.Entry<String, JsonNode>> elementsIterator =
+                    root.fields();
+            while (elementsIterator.hasNext()) {
+                Map.Entry<String, JsonNode> element = elementsIterator.next();
+                String name = element.getKey();
+                if (fieldValuesToMatch.containsKey(name)) {
+                    Set<String> valuesToMatch = fieldValuesToMatch.get(name);
+                    for (String valueToMatch : valuesToMatch) {
+                        if (element.getValue().asText().matches(valueToMatch)) {
+                            objectClass = registry.get(name + "=" + valueToMatch);
+                            break;
+                        }
+                    }
+                    if (objectClass != null) {
+                        break;
+                    }
+                }
+            }
+            if (objectClass == null) {
+                objectClass = HashMap.class;
+            }
+        } else {
+
+        }
+        if (objectClass == null) {
+            return super.deserialize(codec.treeAsTokens(treeNode), ctxt);
+        }
+        return codec.treeToValue(treeNode, objectClass);
+    }
+}
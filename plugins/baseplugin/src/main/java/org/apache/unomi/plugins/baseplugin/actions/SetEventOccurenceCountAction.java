@@ -18,24 +18,46 @@
 package org.apache.unomi.plugins.baseplugin.actions;
 
 import org.apache.unomi.api.Event;
+import org.apache.unomi.api.PastEventCounters;
 import org.apache.unomi.api.actions.Action;
 import org.apache.unomi.api.actions.ActionExecutor;
 import org.apache.unomi.api.conditions.Condition;
 import org.apache.unomi.api.services.DefinitionsService;
 import org.apache.unomi.api.services.EventService;
 import org.apache.unomi.persistence.spi.PersistenceService;
+import org.apache.unomi.persistence.spi.aggregate.DateAggregate;
 
 import java.time.Duration;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
 import javax.xml.bind.DatatypeConverter;
 
 public class SetEventOccurenceCountAction implements ActionExecutor {
+    private static final String DAY_FORMAT = "yyyy-MM-dd";
+    // adds the event to the count of its day, or sets the counts to the seed if they were not initialized yet, then
+    // removes the counts that are no longer needed. Nothing is written if the counts were not initialized and there is
+    // no seed, the caller then seeds them. The counts are a flat array of days and counts sorted by day.
+    private static final String INCREMENT_COUNTERS_SCRIPT =
+            "if (ctx._source.dailyCounts == null) { ctx._source.dailyCounts = new HashMap(); } " +
+            "List counts = ctx._source.dailyCounts[params.key]; " +
+            "if (counts == null && params.seed == null) { ctx.op = 'none'; } else { " +
+            "boolean seeded = false; " +
+            "if (counts == null) { counts = new ArrayList(); ctx._source.dailyCounts[params.key] = counts; " +
+            "counts.addAll(params.seed); seeded = true; } " +
+            "if (!seeded) { int i = 0; while (i < counts.size() && ((Number) counts[i]).longValue() < params.day) { i += 2; } " +
+            "if (i < counts.size() && ((Number) counts[i]).longValue() == params.day) { counts[i + 1] = ((Number) counts[i + 1]).longValue() + params.count; } " +
+            "else { counts.add(i, params.count); counts.add(i, params.day); } } " +
+            "int j = 0; while (j < counts.size() && ((Number) counts[j]).longValue() < params.firstDay) { j += 2; } " +
+            "if (j > 0) { counts.subList(0, j).clear(); } }";
+
     private DefinitionsService definitionsService;
 
     private PersistenceService persistenceService;
@@ -96,14 +118,20 @@ public class SetEventOccurenceCountAction implements ActionExecutor {
 
         andCondition.setParameter("subConditions", conditions);
 
-        long count = persistenceService.queryCount(andCondition, Event.ITEM_TYPE);
-
+        String generatedPropertyKey = (String) pastEventCondition.getParameter("generatedPropertyKey");
         Map<String, Object> pastEvents = (Map<String, Object>) event.getProfile().getSystemProperties().get("pastEvents");
         if (pastEvents == null) {
             pastEvents = new LinkedHashMap<>();
             event.getProfile().getSystemProperties().put("pastEvents", pastEvents);
         }
 
+        if (numberOfDays != null && fromDate == null && toDate == null) {
+            pastEvents.put(generatedPropertyKey, updatePastEventCounters(event, andCondition, generatedPropertyKey, numberOfDays));
+            return EventService.PROFILE_UPDATED;
+        }
+
+        long count = persistenceService.queryCount(andCondition, Event.ITEM_TYPE);
+
         LocalDateTime fromDateTime = null;
         if (fromDate != null) {
             Calendar fromDateCalendar = DatatypeConverter.parseDateTime(fromDate);
@@ -123,11 +151,60 @@ public class SetEventOccurenceCountAction implements ActionExecutor {
             }
         }
 
-        pastEvents.put((String) pastEventCondition.getParameter("generatedPropertyKey"), count);
+        pastEvents.put(generatedPropertyKey, count);
 
         return EventService.PROFILE_UPDATED;
     }
 
+    /**
+     * Counts the event in the daily past event counters of the profile and computes the number of events of the last
+     * days from these counters. The counters are incremented by a script that returns them, so that concurrent events
+     * of the profile are all counted with a single request. The counters of a profile are initialized from the existing
+     * events the first time one of its events matches the condition.
+     */
+    private long updatePastEventCounters(Event event, Condition andCondition, String generatedPropertyKey, int numberOfDays) {
+        Date now = new Date();
+        long firstDay = PastEventCounters.getFirstDay(now, numberOfDays);
+        long today = PastEventCounters.getEpochDay(now);
+        long eventDay = PastEventCounters.getEpochDay(event.getTimeStamp());
+
+        Map<String, Object> scriptParams = new HashMap<>();
+        scriptParams.put("key", generatedPropertyKey);
+        scriptParams.put("day", eventDay);
+        scriptParams.put("count", 1);
+        scriptParams.put("seed", null);
+        scriptParams.put("firstDay", firstDay);
+        PastEventCounters counters = persistenceService.upsertWithScript(new PastEventCounters(event.getProfileId()), null,
+                PastEventCounters.class, INCREMENT_COUNTERS_SCRIPT, scriptParams);
+        if (counters != null && counters.hasCounts(generatedPropertyKey)) {
+            return counters.getCount(generatedPropertyKey, firstDay, today);
+        }
+
+        // the counters of the condition are not initialized yet for the profile
+        PastEventCounters newCounters = new PastEventCounters(event.getProfileId());
+        newCounters.getDailyCounts().put(generatedPropertyKey, new long[0]);
+        Map<String, Long> eventCountByDay = persistenceService.aggregateWithOptimizedQuery(andCondition,
+                new DateAggregate("timeStamp", "1d", DAY_FORMAT), Event.ITEM_TYPE);
+        for (Map.Entry<String, Long> entry : eventCountByDay.entrySet()) {
+            if (!entry.getKey().startsWith("_") && entry.getValue() > 0) {
+                newCounters.increment(generatedPropertyKey, LocalDate.parse(entry.getKey()).toEpochDay(), entry.getValue());
+            }
+        }
+        if (!persistenceService.isConsistent(event)) {
+            newCounters.increment(generatedPropertyKey, eventDay, 1);
+        }
+        newCounters.removeCountsBefore(generatedPropertyKey, firstDay);
+
+        // the seed is only passed to the script, which also runs when the counters of the profile do not exist yet
+        scriptParams.put("seed", newCounters.getDailyCounts().get(generatedPropertyKey));
+        counters = persistenceService.upsertWithScript(new PastEventCounters(event.getProfileId()), null,
+                PastEventCounters.class, INCREMENT_COUNTERS_SCRIPT, scriptParams);
+        if (counters == null || !counters.hasCounts(generatedPropertyKey)) {
+            counters = newCounters;
+        }
+        return counters.getCount(generatedPropertyKey, firstDay, today);
+    }
+
     private boolean inTimeRange(LocalDateTime eventTime, Integer numberOfDays, LocalDateTime fromDate, LocalDateTime toDate) {
         boolean inTimeRange = true;
 
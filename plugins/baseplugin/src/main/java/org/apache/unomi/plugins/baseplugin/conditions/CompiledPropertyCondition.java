@@ -0,0 +1,467 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.unomi.plugins.baseplugin.conditions;
+
+import org.apache.unomi.api.GeoPoint;
+import org.apache.unomi.api.conditions.Condition;
+import org.apache.unomi.persistence.elasticsearch.conditions.ConditionContextHelper;
+import org.apache.unomi.persistence.spi.PropertyHelper;
+import org.elasticsearch.ElasticsearchParseException;
+import org.elasticsearch.common.joda.Joda;
+import org.elasticsearch.common.joda.JodaDateMathParser;
+import org.elasticsearch.common.unit.DistanceUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * The compiled form of a property condition: the comparison operator and the expected values are read from the
+ * parameters of the condition, converted and parsed only once, so the compiled condition can be matched against many
+ * property values. Only the parameters used by the comparison operator are converted, and a regular expression is only
+ * compiled the first time it is matched. Instances are thread-safe and can be shared between threads.
+ *
+ * Dates relative to the current time ("now-1d" for example) can't be resolved in advance, they are still resolved
+ * every time the condition is matched.
+ */
+final class CompiledPropertyCondition {
+
+    private static final Logger logger = LoggerFactory.getLogger(CompiledPropertyCondition.class.getName());
+
+    private static final JodaDateMathParser dateMathParser = new JodaDateMathParser(Joda.forPattern("strictDateOptionalTime||epoch_millis"));
+    private static final DateTimeFormatter yearMonthDayDateFormatter = DateTimeFormatter.ofPattern("yyyyMMdd").withZone(ZoneId.systemDefault());
+
+    /**
+     * The comparison operators of the property conditions.
+     */
+    enum Operator {
+        EQUALS("equals"),
+        NOT_EQUALS("notEquals"),
+        GREATER_THAN("greaterThan"),
+        GREATER_THAN_OR_EQUAL_TO("greaterThanOrEqualTo"),
+        LESS_THAN("lessThan"),
+        LESS_THAN_OR_EQUAL_TO("lessThanOrEqualTo"),
+        BETWEEN("between"),
+        EXISTS("exists"),
+        MISSING("missing"),
+        CONTAINS("contains"),
+        NOT_CONTAINS("notContains"),
+        STARTS_WITH("startsWith"),
+        ENDS_WITH("endsWith"),
+        MATCHES_REGEX("matchesRegex"),
+        IN("in"),
+        IN_CONTAINS("inContains"),
+        NOT_IN("notIn"),
+        ALL("all"),
+        HAS_SOME_OF("hasSomeOf"),
+        HAS_NONE_OF("hasNoneOf"),
+        IS_DAY("isDay"),
+        IS_NOT_DAY("isNotDay"),
+        DISTANCE("distance"),
+        /**
+         * Any other operator, which never matches.
+         */
+        UNKNOWN(null);
+
+        private static final Map<String, Operator> operatorsByName = new HashMap<>();
+
+        static {
+            for (Operator operator : values()) {
+                if (operator.operatorName != null) {
+                    operatorsByName.put(operator.operatorName, operator);
+                }
+            }
+        }
+
+        private final String operatorName;
+
+        Operator(String operatorName) {
+            this.operatorName = operatorName;
+        }
+
+        static Operator fromName(String operatorName) {
+            Operator operator = operatorName != null ? operatorsByName.get(operatorName) : null;
+            return operator != null ? operator : UNKNOWN;
+        }
+    }
+
+    private final String propertyName;
+    private final Operator operator;
+    private final String expectedString;
+    private final ExpectedValue expectedValue;
+    private final ExpectedValue lowerBound;
+    private final ExpectedValue upperBound;
+    private volatile Pattern pattern;
+    private final List<?> expectedValues;
+    private final Set<?> expectedValueSet;
+    private final ExpectedDate expectedDay;
+    private final GeoPoint expectedCenter;
+    private final double distanceInMeters;
+
+    private CompiledPropertyCondition(Condition condition) {
+        this.propertyName = (String) condition.getParameter("propertyName");
+        this.operator = Operator.fromName((String) condition.getParameter("comparisonOperator"));
+
+        this.expectedString = ConditionContextHelper.foldToASCII((String) condition.getParameter("propertyValue"));
+
+        ExpectedValue expectedValue = null;
+        ExpectedValue lowerBound = null;
+        ExpectedValue upperBound = null;
+        List<?> expectedValues = null;
+        Set<?> expectedValueSet = null;
+        ExpectedDate expectedDay = null;
+        GeoPoint expectedCenter = null;
+        double distanceInMeters = 0;
+        switch (operator) {
+            case EQUALS:
+            case NOT_EQUALS:
+            case GREATER_THAN:
+            case GREATER_THAN_OR_EQUAL_TO:
+            case LESS_THAN:
+            case LESS_THAN_OR_EQUAL_TO:
+                expectedValue = new ExpectedValue(expectedString, condition.getParameter("propertyValueDate"),
+                        condition.getParameter("propertyValueInteger"), condition.getParameter("propertyValueDateExpr"),
+                        condition.getParameter("propertyValueDouble"));
+                break;
+            case BETWEEN:
+                List<?> expectedValuesInteger = (List<?>) condition.getParameter("propertyValuesInteger");
+                List<?> expectedValuesDouble = (List<?>) condition.getParameter("propertyValuesDouble");
+                List<?> expectedValuesDate = (List<?>) condition.getParameter("propertyValuesDate");
+                List<?> expectedValuesDateExpr = (List<?>) condition.getParameter("propertyValuesDateExpr");
+                lowerBound = new ExpectedValue(null,
+                        (expectedValuesDate != null && expectedValuesDate.size() >= 1) ? expectedValuesDate.get(0) : null,
+                        (expectedValuesInteger != null && expectedValuesInteger.size() >= 1) ? expectedValuesInteger.get(0) : null,
+                        (expectedValuesDateExpr != null && expectedValuesDateExpr.size() >= 1) ? expectedValuesDateExpr.get(0) : null,
+                        (expectedValuesDouble != null && expectedValuesDouble.size() >= 1) ? expectedValuesDouble.get(0) : null);
+                upperBound = new ExpectedValue(null,
+                        (expectedValuesDate != null && expectedValuesDate.size() >= 2) ? expectedValuesDate.get(1) : null,
+                        (expectedValuesInteger != null && expectedValuesInteger.size() >= 2) ? expectedValuesInteger.get(1) : null,
+                        (expectedValuesDateExpr != null && expectedValuesDateExpr.size() >= 2) ? expectedValuesDateExpr.get(1) : null,
+                        (expectedValuesDouble != null && expectedValuesDouble.size() >= 2) ? expectedValuesDouble.get(1) : null);
+                break;
+            case IN:
+            case IN_CONTAINS:
+            case NOT_IN:
+            case ALL:
+            case HAS_SOME_OF:
+            case HAS_NONE_OF:
+                expectedValues = firstNonNull(ConditionContextHelper.foldToASCII((List<?>) condition.getParameter("propertyValues")),
+                        (List<?>) condition.getParameter("propertyValuesDate"), (List<?>) condition.getParameter("propertyValuesInteger"));
+                expectedValueSet = expectedValues != null ? new HashSet<>(expectedValues) : null;
+                break;
+            case IS_DAY:
+            case IS_NOT_DAY:
+                expectedDay = ExpectedDate.of(condition.getParameter("propertyValueDate"));
+                break;
+            case DISTANCE:
+                final String unitString = (String) condition.getParameter("unit");
+                final String centerString = (String) condition.getParameter("center");
+                final Double distance = (Double) condition.getParameter("distance");
+                if (centerString != null && distance != null) {
+                    expectedCenter = GeoPoint.fromString(centerString);
+                    final DistanceUnit expectedUnit = unitString != null ? DistanceUnit.fromString(unitString) : DistanceUnit.DEFAULT;
+                    distanceInMeters = DistanceUnit.METERS.convert(distance, expectedUnit);
+                }
+                break;
+            default:
+                break;
+        }
+        this.expectedValue = expectedValue;
+        this.lowerBound = lowerBound;
+        this.upperBound = upperBound;
+        this.expectedValues = expectedValues != null ? Collections.unmodifiableList(expectedValues) : null;
+        this.expectedValueSet = expectedValueSet != null ? Collections.unmodifiableSet(expectedValueSet) : null;
+        this.expectedDay = expectedDay;
+        this.expectedCenter = expectedCenter;
+        this.distanceInMeters = distanceInMeters;
+    }
+
+    /**
+     * Compiles a property condition.
+     *
+     * @param condition the property condition, which must not contain any contextual parameter
+     * @return the compiled condition
+     */
+    static CompiledPropertyCondition compile(Condition condition) {
+        return new CompiledPropertyCondition(condition);
+    }
+
+    String getPropertyName() {
+        return propertyName;
+    }
+
+    Operator getOperator() {
+        return operator;
+    }
+
+    /**
+     * @param actualValue the value of the property, with its strings already folded to ASCII
+     * @return whether the value matches the condition
+     */
+    boolean matches(Object actualValue) {
+        if (operator == Operator.UNKNOWN) {
+            return false;
+        } else if (actualValue == null) {
+            return operator == Operator.MISSING;
+        }
+        switch (operator) {
+            case EXISTS:
+                if (actualValue instanceof List) {
+                    return ((List<?>) actualValue).size() > 0;
+                }
+                return true;
+            case EQUALS:
+                if (actualValue instanceof Collection) {
+                    for (Object o : ((Collection<?>) actualValue)) {
+                        if (o instanceof String) {
+                            o = ConditionContextHelper.foldToASCII((String) o);
+                        }
+                        if (expectedValue.compareTo(o) == 0) {
+                            return true;
+                        }
+                    }
+                    return false;
+                }
+                return expectedValue.compareTo(actualValue) == 0;
+            case NOT_EQUALS:
+                return expectedValue.compareTo(actualValue) != 0;
+            case GREATER_THAN:
+                return expectedValue.compareTo(actualValue) > 0;
+            case GREATER_THAN_OR_EQUAL_TO:
+                return expectedValue.compareTo(actualValue) >= 0;
+            case LESS_THAN:
+                return expectedValue.compareTo(actualValue) < 0;
+            case LESS_THAN_OR_EQUAL_TO:
+                return expectedValue.compareTo(actualValue) <= 0;
+            case BETWEEN:
+                return lowerBound.compareTo(actualValue) >= 0 && upperBound.compareTo(actualValue) <= 0;
+            case CONTAINS:
+                return actualValue.toString().contains(expectedString);
+            case NOT_CONTAINS:
+                return !actualValue.toString().contains(expectedString);
+            case STARTS_WITH:
+                return actualValue.toString().startsWith(expectedString);
+            case ENDS_WITH:
+                return actualValue.toString().endsWith(expectedString);
+            case MATCHES_REGEX:
+                Pattern pattern = getPattern();
+                return pattern != null && pattern.matcher(actualValue.toString()).matches();
+            case IN:
+            case IN_CONTAINS:
+            case NOT_IN:
+            case ALL:
+            case HAS_SOME_OF:
+            case HAS_NONE_OF:
+                return matchesMultivalue(actualValue);
+            case IS_DAY:
+            case IS_NOT_DAY:
+                Date expectedDate = expectedDay != null ? expectedDay.get() : null;
+                if (expectedDate == null) {
+                    return false;
+                }
+                return formatDay(getDate(actualValue)).equals(formatDay(expectedDate)) == (operator == Operator.IS_DAY);
+            case DISTANCE:
+                return matchesDistance(actualValue);
+            default:
+                return false;
+        }
+    }
+
+    private Pattern getPattern() {
+        Pattern pattern = this.pattern;
+        if (pattern == null && expectedString != null) {
+            pattern = Pattern.compile(expectedString);
+            this.pattern = pattern;
+        }
+        return pattern;
+    }
+
+    private boolean matchesMultivalue(Object actualValue) {
+        if (expectedValues == null) {
+            return false;
+        }
+
+        List<Object> actual = ConditionContextHelper.foldToASCII(getValueSet(actualValue));
+
+        switch (operator) {
+            case IN:
+                for (Object a : actual) {
+                    if (expectedValueSet.contains(a)) {
+                        return true;
+                    }
+                }
+                return false;
+            case IN_CONTAINS:
+                for (Object a : actual) {
+                    for (Object b : expectedValues) {
+                        if (((String) a).contains((String) b)) {
+                            return true;
+                        }
+                    }
+                }
+                return false;
+            case NOT_IN:
+            case HAS_NONE_OF:
+                for (Object a : actual) {
+                    if (expectedValueSet.contains(a)) {
+                        return false;
+                    }
+                }
+                return true;
+            case ALL:
+                for (Object e : expectedValueSet) {
+                    if (!actual.contains(e)) {
+                        return false;
+                    }
+                }
+                return true;
+            case HAS_SOME_OF:
+                for (Object a : actual) {
+                    if (expectedValueSet.contains(a)) {
+                        return true;
+                    }
+                }
+                return false;
+            default:
+                throw new IllegalArgumentException("Unknown comparison operator " + operator);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean matchesDistance(Object actualValue) {
+        GeoPoint actualCenter = null;
+        if (actualValue instanceof GeoPoint) {
+            actualCenter = (GeoPoint) actualValue;
+        } else if (actualValue instanceof Map) {
+            actualCenter = GeoPoint.fromMap((Map<String, Double>) actualValue);
+        } else if (actualValue instanceof String) {
+            actualCenter = GeoPoint.fromString((String) actualValue);
+        }
+        if (actualCenter == null || expectedCenter == null) {
+            return false;
+        }
+        return expectedCenter.distanceTo(actualCenter) <= distanceInMeters;
+    }
+
+    static Date getDate(Object value) {
+        if (value == null) {
+            return null;
+        }
+        if (value instanceof Date) {
+            return ((Date) value);
+        } else {
+            try {
+                return Date.from(dateMathParser.parse(value.toString(), System::currentTimeMillis));
+            } catch (ElasticsearchParseException e) {
+                logger.warn("unable to parse date. See debug log level for full stacktrace");
+                if (logger.isDebugEnabled()) {
+                    logger.debug("unable to parse date {}", value.toString(), e);
+                }
+            }
+        }
+        return null;
+    }
+
+    private static String formatDay(Date date) {
+        return yearMonthDayDateFormatter.format(date.toInstant());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object> getValueSet(Object expectedValue) {
+        if (expectedValue instanceof List) {
+            return (List<Object>) expectedValue;
+        } else if (expectedValue instanceof Collection) {
+            return new ArrayList<Object>((Collection<?>) expectedValue);
+        } else {
+            return Collections.singletonList(expectedValue);
+        }
+    }
+
+    private static List<?> firstNonNull(List<?>... lists) {
+        for (List<?> list : lists) {
+            if (list != null) {
+                return list;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * An expected date, resolved every time it is read if it is relative to the current time.
+     */
+    private static final class ExpectedDate {
+        private final String expression;
+        private final Date date;
+
+        private ExpectedDate(Object value) {
+            this.expression = !(value instanceof Date) && value.toString().contains("now") ? value.toString() : null;
+            this.date = expression == null ? getDate(value) : null;
+        }
+
+        private static ExpectedDate of(Object value) {
+            return value != null ? new ExpectedDate(value) : null;
+        }
+
+        private Date get() {
+            return expression != null ? getDate(expression) : date;
+        }
+    }
+
+    /**
+     * An expected value of a comparison, converted to the type it is compared as. Only the parameter with the highest
+     * precedence is converted: integer, double, date, date expression and finally string.
+     */
+    private static final class ExpectedValue {
+        private final String string;
+        private final Integer integer;
+        private final Double doubleValue;
+        private final ExpectedDate date;
+
+        private ExpectedValue(String string, Object date, Object integer, Object dateExpr, Object doubleValue) {
+            this.string = string;
+            this.integer = integer != null ? PropertyHelper.getInteger(integer) : null;
+            this.doubleValue = integer == null && doubleValue != null ? PropertyHelper.getDouble(doubleValue) : null;
+            this.date = integer == null && doubleValue == null ? ExpectedDate.of(date != null ? date : dateExpr) : null;
+        }
+
+        /**
+         * @return the comparison of the actual value with this expected value
+         */
+        private int compareTo(Object actualValue) {
+            Date expectedDate = date != null ? date.get() : null;
+            if (string == null && integer == null && doubleValue == null && expectedDate == null) {
+                return actualValue == null ? 0 : 1;
+            } else if (actualValue == null) {
+                return -1;
+            }
+
+            if (integer != null) {
+                return PropertyHelper.getInteger(actualValue).compareTo(integer);
+            } else if (doubleValue != null) {
+                return PropertyHelper.getDouble(actualValue).compareTo(doubleValue);
+            } else if (expectedDate != null) {
+                return getDate(actualValue).compareTo(expectedDate);
+            } else {
+                return actualValue.toString().compareTo(string);
+            }
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.unomi.plugins.baseplugin.conditions;
+
+import org.apache.unomi.api.conditions.Condition;
+
+import java.util.*;
+
+/**
+ * A bounded cache of the compiled property conditions, keyed by the values of the parameters of the conditions, so
+ * that the contextual conditions, which are resolved again for every evaluation, still share their compiled form. The
+ * other conditions keep their compiled form attached (see {@link Condition#getCompiledForm()}), they are only looked
+ * up here the first time they are evaluated.
+ *
+ * The parameters are deeply copied into an immutable key when a condition is cached, so the cached entry isn't
+ * affected if the condition is modified afterwards. Entries are evicted in least recently used order within segments.
+ */
+class CompiledPropertyConditionCache {
+
+    private static final int SEGMENT_COUNT = 16;
+
+    private final Segment[] segments;
+
+    /**
+     * @param maxEntries the maximum number of compiled conditions kept in the cache
+     */
+    CompiledPropertyConditionCache(int maxEntries) {
+        int maxEntriesPerSegment = Math.max(1, (maxEntries + SEGMENT_COUNT - 1) / SEGMENT_COUNT);
+        this.segments = new Segment[SEGMENT_COUNT];
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            segments[i] = new Segment(maxEntriesPerSegment);
+        }
+    }
+
+    /**
+     * Retrieves the compiled form of a property condition, compiling it if it is not cached yet.
+     */
+    CompiledPropertyCondition get(Condition condition) {
+        Key lookupKey = new Key(condition.getConditionTypeId(), condition.getParameterValues());
+        Segment segment = segments[(lookupKey.hashCode & Integer.MAX_VALUE) % SEGMENT_COUNT];
+        CompiledPropertyCondition compiledCondition;
+        synchronized (segment) {
+            compiledCondition = segment.get(lookupKey);
+        }
+        if (compiledCondition == null) {
+            compiledCondition = CompiledPropertyCondition.compile(condition);
+            Key key = new Key(condition.getConditionTypeId(), immutableCopy(condition.getParameterValues()));
+            synchronized (segment) {
+                segment.put(key, compiledCondition);
+            }
+        }
+        return compiledCondition;
+    }
+
+    int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T immutableCopy(T value) {
+        if (value instanceof Map) {
+            Map<Object, Object> copy = new HashMap<>();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                copy.put(entry.getKey(), immutableCopy(entry.getValue()));
+            }
+            return (T) Collections.unmodifiableMap(copy);
+        } else if (value instanceof List) {
+            List<Object> copy = new ArrayList<>(((List<?>) value).size());
+            for (Object o : (List<?>) value) {
+                copy.add(immutableCopy(o));
+            }
+            return (T) Collections.unmodifiableList(copy);
+        } else if (value instanceof Set) {
+            Set<Object> copy = new HashSet<>();
+            for (Object o : (Set<?>) value) {
+                copy.add(immutableCopy(o));
+            }
+            return (T) Collections.unmodifiableSet(copy);
+        } else if (value instanceof Date) {
+            return (T) new Date(((Date) value).getTime());
+        }
+        return value;
+    }
+
+    private static class Key {
+        private final String conditionTypeId;
+        private final Map<String, Object> parameterValues;
+        private final int hashCode;
+
+        private Key(String conditionTypeId, Map<String, Object> parameterValues) {
+            this.conditionTypeId = conditionTypeId;
+            this.parameterValues = parameterValues;
+            this.hashCode = 31 * Objects.hashCode(conditionTypeId) + Objects.hashCode(parameterValues);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return hashCode == key.hashCode && Objects.equals(conditionTypeId, key.conditionTypeId)
+                    && Objects.equals(parameterValues, key.parameterValues);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    private static class Segment extends LinkedHashMap<Key, CompiledPropertyCondition> {
+        private final int maxEntries;
+
+        private Segment(int maxEntries) {
+            super(16, 0.75f, true);
+            this.maxEntries = maxEntries;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, CompiledPropertyCondition> eldest) {
+            return size() > maxEntries;
+        }
+    }
+}
@@ -25,6 +25,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 /**
@@ -36,7 +38,7 @@ public class HardcodedPropertyAccessorRegistry {
     private static final Logger logger = LoggerFactory.getLogger(HardcodedPropertyAccessorRegistry.class.getName());
 
     protected Map<Class<?>, HardcodedPropertyAccessor> propertyAccessors = new HashMap<>();
-    protected Map<Class<?>, List<Class<?>>> cachedClassAncestors = new HashMap<>();
+    protected Map<Class<?>, List<Class<?>>> cachedClassAncestors = new ConcurrentHashMap<>();
 
     public HardcodedPropertyAccessorRegistry() {
         propertyAccessors.put(Item.class, new ItemAccessor(this));
@@ -141,6 +143,66 @@ public class HardcodedPropertyAccessorRegistry {
         return HardcodedPropertyAccessor.PROPERTY_NOT_FOUND_MARKER;
     }
 
+    /**
+     * Compiles the accessor of an expression for objects of the same class as the given one. The maps of properties and
+     * system properties of the items are read directly for the simple paths into these maps, such as
+     * properties.address.city, without parsing the expression again. The other expressions are resolved by
+     * {@link #getProperty(Object, String)}.
+     *
+     * @param object     an object of the class for which the accessor is compiled
+     * @param expression the property expression
+     * @return the accessor, which returns {@link HardcodedPropertyAccessor#PROPERTY_NOT_FOUND_MARKER} when the
+     * property can't be resolved by the hardcoded accessors
+     */
+    public Function<Object, Object> compilePropertyAccessor(Object object, String expression) {
+        if (expression != null && expression.indexOf('[') < 0) {
+            String[] tokens = expression.split("\\.", -1);
+            Function<Object, Map<?, ?>> mapGetter = tokens.length > 1 ? getPropertiesMapGetter(object, tokens[0]) : null;
+            if (mapGetter != null && !Arrays.asList(tokens).contains("")) {
+                String[] keys = Arrays.copyOfRange(tokens, 1, tokens.length);
+                String[] leftoverExpressions = new String[keys.length];
+                for (int i = 0; i < keys.length; i++) {
+                    leftoverExpressions[i] = String.join(".", Arrays.asList(keys).subList(i, keys.length));
+                }
+                return target -> {
+                    Object value = mapGetter.apply(target);
+                    for (int i = 0; i < keys.length; i++) {
+                        if (value == null) {
+                            return null;
+                        }
+                        if (!(value instanceof Map)) {
+                            return getProperty(value, leftoverExpressions[i]);
+                        }
+                        value = ((Map<?, ?>) value).get(keys[i]);
+                    }
+                    return value;
+                };
+            }
+        }
+        return target -> getProperty(target, expression);
+    }
+
+    private static Function<Object, Map<?, ?>> getPropertiesMapGetter(Object object, String propertyName) {
+        if ("properties".equals(propertyName)) {
+            if (object instanceof Profile) {
+                return target -> ((Profile) target).getProperties();
+            } else if (object instanceof Session) {
+                return target -> ((Session) target).getProperties();
+            } else if (object instanceof Event) {
+                return target -> ((Event) target).getProperties();
+            } else if (object instanceof CustomItem) {
+                return target -> ((CustomItem) target).getProperties();
+            }
+        } else if ("systemProperties".equals(propertyName)) {
+            if (object instanceof Profile) {
+                return target -> ((Profile) target).getSystemProperties();
+            } else if (object instanceof Session) {
+                return target -> ((Session) target).getSystemProperties();
+            }
+        }
+        return null;
+    }
+
     public List<Class<?>> collectAncestors(Class<?> targetClass, Set<Class<?>> availableAccessors) {
         Set<Class<?>> parentClasses = new LinkedHashSet<>();
         if (targetClass.getSuperclass() != null) {
@@ -0,0 +1,140 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.unomi.plugins.baseplugin.conditions;
+
+import org.apache.unomi.metrics.MetricsService;
+
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A thread-safe and bounded cache of the compiled accessors used to read a property of an object, keyed by the class
+ * of the object and the property expression. Accessors are compiled without any lock, so the same accessor may be
+ * compiled concurrently by several threads the first time it is used, and an arbitrary entry is evicted when the cache
+ * is full.
+ *
+ * When the metrics service is activated, the hits and the compilations of the cache are counted. The expressions are
+ * not part of the metric names, so that the number of metrics stays bounded.
+ *
+ * @param <A> the type of the accessors
+ */
+class PropertyAccessorCache<A> {
+
+    /**
+     * Compiles the accessor of a property expression for an object.
+     */
+    interface Compiler<A> {
+
+        /**
+         * @return the compiled accessor, or {@code null} if the expression could not be compiled
+         */
+        A compile(Object object, String expression) throws Exception;
+    }
+
+    private final String name;
+    private final int maxEntries;
+    private final ConcurrentMap<Key, A> accessors = new ConcurrentHashMap<>();
+    private MetricsService metricsService;
+
+    /**
+     * @param name       the name of the cache, used as the prefix of its metrics
+     * @param maxEntries the maximum number of cached accessors
+     */
+    PropertyAccessorCache(String name, int maxEntries) {
+        this.name = name;
+        this.maxEntries = Math.max(1, maxEntries);
+    }
+
+    void setMetricsService(MetricsService metricsService) {
+        this.metricsService = metricsService;
+    }
+
+    /**
+     * Retrieves the accessor of a property expression for an object, compiling it if it is not cached yet.
+     *
+     * @param object     the object whose property will be read
+     * @param expression the property expression
+     * @param compiler   the compiler to use if the accessor is not cached
+     * @return the accessor, or {@code null} if it could not be compiled
+     */
+    A get(Object object, String expression, Compiler<A> compiler) throws Exception {
+        Key key = new Key(object.getClass().getName(), expression);
+        A accessor = accessors.get(key);
+        if (accessor != null) {
+            incrementCounter("hits");
+            return accessor;
+        }
+        accessor = compiler.compile(object, expression);
+        incrementCounter("compilations");
+        if (accessor != null) {
+            if (accessors.size() >= maxEntries) {
+                Iterator<Key> keys = accessors.keySet().iterator();
+                if (keys.hasNext()) {
+                    keys.next();
+                    keys.remove();
+                }
+            }
+            A previousAccessor = accessors.putIfAbsent(key, accessor);
+            if (previousAccessor != null) {
+                accessor = previousAccessor;
+            }
+        }
+        return accessor;
+    }
+
+    int size() {
+        return accessors.size();
+    }
+
+    private void incrementCounter(String counter) {
+        if (metricsService != null && metricsService.isActivated()) {
+            metricsService.incrementCounter(name + "." + counter);
+        }
+    }
+
+    private static class Key {
+        private final String className;
+        private final String expression;
+        private final int hashCode;
+
+        private Key(String className, String expression) {
+            this.className = className;
+            this.expression = expression;
+            this.hashCode = 31 * className.hashCode() + Objects.hashCode(expression);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return className.equals(key.className) && Objects.equals(expression, key.expression);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
@@ -19,10 +19,10 @@ package org.apache.unomi.plugins.baseplugin.conditions;
 
 import ognl.*;
 import ognl.enhance.ExpressionAccessor;
-import org.apache.commons.lang3.ObjectUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.unomi.api.*;
 import org.apache.unomi.api.conditions.Condition;
+import org.apache.unomi.metrics.MetricsService;
 import org.apache.unomi.plugins.baseplugin.conditions.accessors.HardcodedPropertyAccessor;
 import org.apache.unomi.scripting.ExpressionFilterFactory;
 import org.apache.unomi.scripting.SecureFilteringClassLoader;
@@ -30,18 +30,14 @@ import org.apache.unomi.persistence.elasticsearch.conditions.ConditionContextHel
 import org.apache.unomi.persistence.elasticsearch.conditions.ConditionEvaluator;
 import org.apache.unomi.persistence.elasticsearch.conditions.ConditionEvaluatorDispatcher;
 import org.apache.unomi.persistence.spi.PropertyHelper;
-import org.elasticsearch.ElasticsearchParseException;
-import org.elasticsearch.common.joda.Joda;
-import org.elasticsearch.common.joda.JodaDateMathParser;
-import org.elasticsearch.common.unit.DistanceUnit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.lang.reflect.Member;
 import java.lang.reflect.Modifier;
-import java.text.SimpleDateFormat;
 import java.util.*;
-import java.util.regex.Pattern;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 
 /**
  * Evaluator for property comparison conditions
@@ -50,13 +46,22 @@ public class PropertyConditionEvaluator implements ConditionEvaluator {
 
     private static final Logger logger = LoggerFactory.getLogger(PropertyConditionEvaluator.class.getName());
 
-    private static final SimpleDateFormat yearMonthDayDateFormat = new SimpleDateFormat("yyyyMMdd");
+    private static final int DEFAULT_PROPERTY_ACCESSOR_CACHE_MAX_ENTRIES = 10000;
+    private static final int MAX_COMPILED_CONDITIONS = 10000;
 
-    private final Map<String, Map<String, ExpressionAccessor>> expressionCache = new HashMap<>(64);
+    private final CompiledPropertyConditionCache compiledConditions = new CompiledPropertyConditionCache(MAX_COMPILED_CONDITIONS);
+
+    private PropertyAccessorCache<ExpressionAccessor> expressionCache = new PropertyAccessorCache<>(
+            PropertyConditionEvaluator.class.getName() + ".ognlAccessors", DEFAULT_PROPERTY_ACCESSOR_CACHE_MAX_ENTRIES);
+    private PropertyAccessorCache<Function<Object, Object>> hardcodedAccessorCache = new PropertyAccessorCache<>(
+            PropertyConditionEvaluator.class.getName() + ".hardcodedAccessors", DEFAULT_PROPERTY_ACCESSOR_CACHE_MAX_ENTRIES);
     private boolean usePropertyConditionOptimizations = true;
     private static final ClassLoader secureFilteringClassLoader = new SecureFilteringClassLoader(PropertyConditionEvaluator.class.getClassLoader());
     private static final HardcodedPropertyAccessorRegistry hardcodedPropertyAccessorRegistry = new HardcodedPropertyAccessorRegistry();
+    private final ThreadLocal<AtomicReference<OgnlContext>> threadOgnlContexts = ThreadLocal.withInitial(AtomicReference::new);
+    private final Map<Thread, AtomicReference<OgnlContext>> ognlContexts = Collections.synchronizedMap(new WeakHashMap<>());
     private ExpressionFilterFactory expressionFilterFactory;
+    private MetricsService metricsService;
 
     private final boolean useOGNLScripting = Boolean.parseBoolean(System.getProperty("org.apache.unomi.security.properties.useOGNLScripting", "false"));
 
@@ -68,103 +73,41 @@ public class PropertyConditionEvaluator implements ConditionEvaluator {
         this.expressionFilterFactory = expressionFilterFactory;
     }
 
-    private int compare(Object actualValue, String expectedValue, Object expectedValueDate, Object expectedValueInteger, Object expectedValueDateExpr, Object expectedValueDouble) {
-        if (expectedValue == null && expectedValueDate == null && expectedValueInteger == null && getDate(expectedValueDateExpr) == null) {
-            return actualValue == null ? 0 : 1;
-        } else if (actualValue == null) {
-            return -1;
-        }
-
-        if (expectedValueInteger != null) {
-            return PropertyHelper.getInteger(actualValue).compareTo(PropertyHelper.getInteger(expectedValueInteger));
-        } else if (expectedValueDouble != null) {
-            return PropertyHelper.getDouble(actualValue).compareTo(PropertyHelper.getDouble(expectedValueDouble));
-        } else if (expectedValueDate != null) {
-            return getDate(actualValue).compareTo(getDate(expectedValueDate));
-        } else if (expectedValueDateExpr != null) {
-            return getDate(actualValue).compareTo(getDate(expectedValueDateExpr));
-        } else {
-            return actualValue.toString().compareTo(expectedValue);
-        }
+    public void setMetricsService(MetricsService metricsService) {
+        this.metricsService = metricsService;
+        expressionCache.setMetricsService(metricsService);
+        hardcodedAccessorCache.setMetricsService(metricsService);
     }
 
-    private boolean compareMultivalue(Object actualValue, List<?> expectedValues, List<?> expectedValuesDate, List<?> expectedValuesNumber, List<?> expectedValuesDateExpr, String op) {
-        @SuppressWarnings("unchecked")
-        List<?> expected = ObjectUtils.firstNonNull(expectedValues, expectedValuesDate, expectedValuesNumber);
-        if (actualValue == null) {
-            return expected == null;
-        } else if (expected == null) {
-            return false;
-        }
-
-        List<Object> actual = ConditionContextHelper.foldToASCII(getValueSet(actualValue));
-
-        boolean result = true;
-
-        switch (op) {
-            case "in":
-                result = false;
-                for (Object a : actual) {
-                    if (expected.contains(a)) {
-                        result = true;
-                        break;
-                    }
-                }
-                break;
-            case "inContains":
-                result = false;
-                for (Object a : actual) {
-                    for (Object b : expected)
-                        if (((String) a).contains((String) b)) {
-                            result = true;
-                            break;
-                        }
-                }
-                break;
-            case "notIn":
-                for (Object a : actual) {
-                    if (expected.contains(a)) {
-                        result = false;
-                        break;
-                    }
-                }
-                break;
-            case "all":
-                for (Object e : expected) {
-                    if (!actual.contains(e)) {
-                        result = false;
-                        break;
-                    }
-                }
-                break;
-            case "hasNoneOf":
-                if (!Collections.disjoint(actual, expected)) {
-                    return false;
-                }
-                break;
-            case "hasSomeOf":
-                if (Collections.disjoint(actual, expected)) {
-                    return false;
-                }
-                break;
+    public void setPropertyAccessorCacheMaxEntries(int propertyAccessorCacheMaxEntries) {
+        expressionCache = new PropertyAccessorCache<>(PropertyConditionEvaluator.class.getName() + ".ognlAccessors", propertyAccessorCacheMaxEntries);
+        hardcodedAccessorCache = new PropertyAccessorCache<>(PropertyConditionEvaluator.class.getName() + ".hardcodedAccessors", propertyAccessorCacheMaxEntries);
+        expressionCache.setMetricsService(metricsService);
+        hardcodedAccessorCache.setMetricsService(metricsService);
+    }
 
-            default:
-                throw new IllegalArgumentException("Unknown comparison operator " + op);
+    /**
+     * Releases the OGNL contexts of all the threads which evaluated expressions, not only the one of the destroying
+     * thread. The thread locals only keep an empty reference afterwards.
+     */
+    public void preDestroy() {
+        synchronized (ognlContexts) {
+            for (AtomicReference<OgnlContext> ognlContext : ognlContexts.values()) {
+                ognlContext.set(null);
+            }
+            ognlContexts.clear();
         }
+        threadOgnlContexts.remove();
+    }
 
-        return result;
+    int getOgnlContextCount() {
+        return ognlContexts.size();
     }
 
     @Override
     public boolean eval(Condition condition, Item item, Map<String, Object> context, ConditionEvaluatorDispatcher dispatcher) {
-        String op = (String) condition.getParameter("comparisonOperator");
-        String name = (String) condition.getParameter("propertyName");
-
-        String expectedValue = ConditionContextHelper.foldToASCII((String) condition.getParameter("propertyValue"));
-        Object expectedValueInteger = condition.getParameter("propertyValueInteger");
-        Object expectedValueDouble = condition.getParameter("propertyValueDouble");
-        Object expectedValueDate = condition.getParameter("propertyValueDate");
-        Object expectedValueDateExpr = condition.getParameter("propertyValueDateExpr");
+        CompiledPropertyCondition compiledCondition = getCompiledCondition(condition);
+        String name = compiledCondition.getPropertyName();
 
         Object actualValue;
         if (item instanceof Event && "eventType".equals(name)) {
@@ -197,108 +140,22 @@ public class PropertyConditionEvaluator implements ConditionEvaluator {
             actualValue = ConditionContextHelper.foldToASCII((String) actualValue);
         }
 
-        return isMatch(op, actualValue, expectedValue, expectedValueInteger, expectedValueDouble, expectedValueDate,
-                expectedValueDateExpr, condition);
+        return compiledCondition.matches(actualValue);
     }
 
-    protected boolean isMatch(String op, Object actualValue, String expectedValue, Object expectedValueInteger, Object expectedValueDouble,
-                            Object expectedValueDate, Object expectedValueDateExpr, Condition condition) {
-        if (op == null) {
-            return false;
-        } else if (actualValue == null) {
-            return op.equals("missing");
-        } else if (op.equals("exists")) {
-            if (actualValue instanceof List) {
-                return ((List) actualValue).size() > 0;
-            }
-            return true;
-        } else if (op.equals("equals")) {
-            if (actualValue instanceof Collection) {
-                for (Object o : ((Collection<?>) actualValue)) {
-                    if (o instanceof String) {
-                        o = ConditionContextHelper.foldToASCII((String) o);
-                    }
-                    if (compare(o, expectedValue, expectedValueDate, expectedValueInteger, expectedValueDateExpr, expectedValueDouble) == 0) {
-                        return true;
-                    }
-                }
-                return false;
-            }
-            return compare(actualValue, expectedValue, expectedValueDate, expectedValueInteger, expectedValueDateExpr, expectedValueDouble) == 0;
-        } else if (op.equals("notEquals")) {
-            return compare(actualValue, expectedValue, expectedValueDate, expectedValueInteger, expectedValueDateExpr, expectedValueDouble) != 0;
-        } else if (op.equals("greaterThan")) {
-            return compare(actualValue, expectedValue, expectedValueDate, expectedValueInteger, expectedValueDateExpr, expectedValueDouble) > 0;
-        } else if (op.equals("greaterThanOrEqualTo")) {
-            return compare(actualValue, expectedValue, expectedValueDate, expectedValueInteger, expectedValueDateExpr, expectedValueDouble) >= 0;
-        } else if (op.equals("lessThan")) {
-            return compare(actualValue, expectedValue, expectedValueDate, expectedValueInteger, expectedValueDateExpr, expectedValueDouble) < 0;
-        } else if (op.equals("lessThanOrEqualTo")) {
-            return compare(actualValue, expectedValue, expectedValueDate, expectedValueInteger, expectedValueDateExpr, expectedValueDouble) <= 0;
-        } else if (op.equals("between")) {
-            List<?> expectedValuesInteger = (List<?>) condition.getParameter("propertyValuesInteger");
-            List<?> expectedValuesDouble = (List<?>) condition.getParameter("propertyValuesDouble");
-            List<?> expectedValuesDate = (List<?>) condition.getParameter("propertyValuesDate");
-            List<?> expectedValuesDateExpr = (List<?>) condition.getParameter("propertyValuesDateExpr");
-            return compare(actualValue, null,
-                    (expectedValuesDate != null && expectedValuesDate.size() >= 1) ? getDate(expectedValuesDate.get(0)) : null,
-                    (expectedValuesInteger != null && expectedValuesInteger.size() >= 1) ? (Integer) expectedValuesInteger.get(0) : null,
-                    (expectedValuesDateExpr != null && expectedValuesDateExpr.size() >= 1) ? (String) expectedValuesDateExpr.get(0) : null,
-                    (expectedValuesDouble != null && expectedValuesDouble.size() >= 1) ? (String) expectedValuesDouble.get(0) : null) >= 0
-                    &&
-                    compare(actualValue, null,
-                            (expectedValuesDate != null && expectedValuesDate.size() >= 2) ? getDate(expectedValuesDate.get(1)) : null,
-                            (expectedValuesInteger != null && expectedValuesInteger.size() >= 2) ? (Integer) expectedValuesInteger.get(1) : null,
-                            (expectedValuesDateExpr != null && expectedValuesDateExpr.size() >= 2) ? (String) expectedValuesDateExpr.get(1) : null,
-                            (expectedValuesDouble != null && expectedValuesDouble.size() >= 2) ? (String) expectedValuesDouble.get(1) : null) <= 0;
-        } else if (op.equals("contains")) {
-            return actualValue.toString().contains(expectedValue);
-        } else if (op.equals("notContains")) {
-            return !actualValue.toString().contains(expectedValue);
-        } else if (op.equals("startsWith")) {
-            return actualValue.toString().startsWith(expectedValue);
-        } else if (op.equals("endsWith")) {
-            return actualValue.toString().endsWith(expectedValue);
-        } else if (op.equals("matchesRegex")) {
-            return expectedValue != null && Pattern.compile(expectedValue).matcher(actualValue.toString()).matches();
-        } else if (op.equals("in") || op.equals("inContains") || op.equals("notIn") || op.equals("hasSomeOf") || op.equals("hasNoneOf") || op.equals("all")) {
-            List<?> expectedValues = ConditionContextHelper.foldToASCII((List<?>) condition.getParameter("propertyValues"));
-            List<?> expectedValuesInteger = (List<?>) condition.getParameter("propertyValuesInteger");
-            List<?> expectedValuesDate = (List<?>) condition.getParameter("propertyValuesDate");
-            List<?> expectedValuesDateExpr = (List<?>) condition.getParameter("propertyValuesDateExpr");
-
-            return compareMultivalue(actualValue, expectedValues, expectedValuesDate, expectedValuesInteger, expectedValuesDateExpr, op);
-        } else if (op.equals("isDay") && expectedValueDate != null) {
-            return yearMonthDayDateFormat.format(getDate(actualValue)).equals(yearMonthDayDateFormat.format(getDate(expectedValueDate)));
-        } else if (op.equals("isNotDay") && expectedValueDate != null) {
-            return !yearMonthDayDateFormat.format(getDate(actualValue)).equals(yearMonthDayDateFormat.format(getDate(expectedValueDate)));
-        } else if (op.equals("distance")) {
-            GeoPoint actualCenter = null;
-            if (actualValue instanceof GeoPoint) {
-                actualCenter = (GeoPoint) actualValue;
-            } else if (actualValue instanceof Map) {
-                actualCenter = GeoPoint.fromMap((Map<String, Double>) actualValue);
-            } else if (actualValue instanceof String) {
-                actualCenter = GeoPoint.fromString((String) actualValue);
-            }
-            if (actualCenter == null) {
-                return false;
-            }
-
-            final String unitString = (String) condition.getParameter("unit");
-            final String centerString = (String) condition.getParameter("center");
-            final Double distance = (Double) condition.getParameter("distance");
-            if (centerString == null || distance == null) {
-                return false;
-            }
-
-            final GeoPoint expectedCenter = GeoPoint.fromString(centerString);
-            final DistanceUnit expectedUnit = unitString != null ? DistanceUnit.fromString(unitString) : DistanceUnit.DEFAULT;
-            final double distanceInMeters = expectedUnit.convert(distance, DistanceUnit.METERS);
-
-            return expectedCenter.distanceTo(actualCenter) <= distanceInMeters;
+    /**
+     * The compiled form of a condition is attached to the condition, so the conditions of the rules and segments, which
+     * are evaluated again and again, are only looked up once. The contextual conditions, which are resolved again for
+     * every evaluation, still share their compiled form through the cache keyed by the values of their parameters.
+     */
+    private CompiledPropertyCondition getCompiledCondition(Condition condition) {
+        Object compiledForm = condition.getCompiledForm();
+        if (compiledForm instanceof CompiledPropertyCondition) {
+            return (CompiledPropertyCondition) compiledForm;
         }
-        return false;
+        CompiledPropertyCondition compiledCondition = compiledConditions.get(condition);
+        condition.setCompiledForm(compiledCondition);
+        return compiledCondition;
     }
 
     protected Object getPropertyValue(Item item, String expression) throws Exception {
@@ -322,7 +179,14 @@ public class PropertyConditionEvaluator implements ConditionEvaluator {
     protected Object getHardcodedPropertyValue(Item item, String expression) {
         // the following are optimizations to avoid using the expressions that are slower. The main objective here is
         // to avoid the most used expression that may also trigger calls to the Java Reflection API.
-        return hardcodedPropertyAccessorRegistry.getProperty(item, expression);
+        try {
+            return hardcodedAccessorCache.get(item, expression, hardcodedPropertyAccessorRegistry::compilePropertyAccessor).apply(item);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            // the hardcoded accessors are compiled without any checked exception
+            throw new IllegalStateException(e);
+        }
     }
 
     protected Object getOGNLPropertyValue(Item item, String expression) throws Exception {
@@ -333,21 +197,26 @@ public class PropertyConditionEvaluator implements ConditionEvaluator {
             }
             return null;
         }
-        OgnlContext ognlContext = getOgnlContext(secureFilteringClassLoader);
-        ExpressionAccessor accessor = getPropertyAccessor(item, expression, ognlContext, secureFilteringClassLoader);
-        if (accessor != null) {
-            try {
-                return accessor.get(ognlContext, item);
-            } catch (Throwable t) {
-                logger.error("Error evaluating expression on item {}. See debug level for more information", item.getClass().getName());
-                if (logger.isDebugEnabled()) {
-                    logger.debug("Error evaluating expression {} on item {}.", expression, item.getClass().getName(), t);
-                }
+        OgnlContext ognlContext = getThreadOgnlContext();
+        try {
+            ExpressionAccessor accessor = expressionCache.get(item, expression, (object, expr) -> compilePropertyAccessor(object, expr, ognlContext, secureFilteringClassLoader));
+            if (accessor != null) {
+                try {
+                    return accessor.get(ognlContext, item);
+                } catch (Throwable t) {
+                    logger.error("Error evaluating expression on item {}. See debug level for more information", item.getClass().getName());
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("Error evaluating expression {} on item {}.", expression, item.getClass().getName(), t);
+                    }
 
-                return null;
+                    return null;
+                }
             }
+            return null;
+        } finally {
+            // the context is reused by the next evaluations of the thread, it must not keep any value or item
+            ognlContext.clear();
         }
-        return null;
     }
 
     private class ClassLoaderClassResolver extends DefaultClassResolver {
@@ -363,6 +232,21 @@ public class PropertyConditionEvaluator implements ConditionEvaluator {
         }
     }
 
+    /**
+     * The OGNL context of the current thread is created on first use, and registered so that it can be released by
+     * {@link #preDestroy()} whatever the thread destroying the evaluator.
+     */
+    private OgnlContext getThreadOgnlContext() {
+        AtomicReference<OgnlContext> threadOgnlContext = threadOgnlContexts.get();
+        OgnlContext ognlContext = threadOgnlContext.get();
+        if (ognlContext == null) {
+            ognlContext = getOgnlContext(secureFilteringClassLoader);
+            threadOgnlContext.set(ognlContext);
+            ognlContexts.put(Thread.currentThread(), threadOgnlContext);
+        }
+        return ognlContext;
+    }
+
     private OgnlContext getOgnlContext(ClassLoader classLoader) {
         return (OgnlContext) Ognl.createDefaultContext(null, new MemberAccess() {
                     @Override
@@ -393,75 +277,33 @@ public class PropertyConditionEvaluator implements ConditionEvaluator {
                 null);
     }
 
-    private ExpressionAccessor getPropertyAccessor(Item item, String expression, OgnlContext ognlContext, ClassLoader classLoader) throws Exception {
-        ExpressionAccessor accessor = null;
+    private ExpressionAccessor compilePropertyAccessor(Object item, String expression, OgnlContext ognlContext, ClassLoader classLoader) throws Exception {
+        ExpressionAccessor accessor;
         String clazz = item.getClass().getName();
-        Map<String, ExpressionAccessor> expressions = expressionCache.get(clazz);
-        if (expressions == null) {
-            expressions = new HashMap<>();
-            expressionCache.put(clazz, expressions);
-        } else {
-            accessor = expressions.get(expression);
+        long time = System.nanoTime();
+        Thread current = Thread.currentThread();
+        ClassLoader contextCL = current.getContextClassLoader();
+        try {
+            current.setContextClassLoader(classLoader);
+            Node node = Ognl.compileExpression(ognlContext, item, expression);
+            accessor = node.getAccessor();
+        } finally {
+            current.setContextClassLoader(contextCL);
         }
         if (accessor == null) {
-            long time = System.nanoTime();
-            Thread current = Thread.currentThread();
-            ClassLoader contextCL = current.getContextClassLoader();
-            try {
-                current.setContextClassLoader(classLoader);
-                Node node = Ognl.compileExpression(ognlContext, item, expression);
-                accessor = node.getAccessor();
-            } finally {
-                current.setContextClassLoader(contextCL);
-            }
-            if (accessor != null) {
-                expressions.put(expression, accessor);
-            } else {
-                logger.warn("Unable to compile expression for {}. See debug log level for more information", clazz);
-                if (logger.isDebugEnabled()) {
-                    logger.debug("Unable to compile expression: {} for: {}", expression, clazz);
-                }
-            }
-            time = System.nanoTime() - time;
+            logger.warn("Unable to compile expression for {}. See debug log level for more information", clazz);
             if (logger.isDebugEnabled()) {
-                logger.debug("Expression compilation for item={} expression={} took {}", item.getClass().getName(), expression, time / 1000000L);
-            } else if (logger.isInfoEnabled()) {
-                logger.info("Expression compilation for item={} took {}. See debug log level for more information", item.getClass().getName(), time / 1000000L);
+                logger.debug("Unable to compile expression: {} for: {}", expression, clazz);
             }
         }
-
-        return accessor;
-    }
-
-    private Date getDate(Object value) {
-        if (value == null) {
-            return null;
-        }
-        if (value instanceof Date) {
-            return ((Date) value);
-        } else {
-            JodaDateMathParser parser = new JodaDateMathParser(Joda.forPattern("strictDateOptionalTime||epoch_millis"));
-            try {
-                return Date.from(parser.parse(value.toString(), System::currentTimeMillis));
-            } catch (ElasticsearchParseException e) {
-                logger.warn("unable to parse date. See debug log level for full stacktrace");
-                if (logger.isDebugEnabled()) {
-                    logger.debug("unable to parse date {}", value.toString(), e);
-                }
-            }
+        time = System.nanoTime() - time;
+        if (logger.isDebugEnabled()) {
+            logger.debug("Expression compilation for item={} expression={} took {}", clazz, expression, time / 1000000L);
+        } else if (logger.isInfoEnabled()) {
+            logger.info("Expression compilation for item={} took {}. See debug log level for more information", clazz, time / 1000000L);
         }
-        return null;
-    }
 
-    @SuppressWarnings("unchecked")
-    private List<Object> getValueSet(Object expectedValue) {
-        if (expectedValue instanceof List) {
-            return (List<Object>) expectedValue;
-        } else if (expectedValue instanceof Collection) {
-            return new ArrayList<Object>((Collection<?>) expectedValue);
-        } else {
-            return Collections.singletonList(expectedValue);
-        }
+        return accessor;
     }
 
 }
@@ -0,0 +1,178 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.unomi.plugins.baseplugin.actions;
+
+import org.apache.unomi.api.Event;
+import org.apache.unomi.api.Metadata;
+import org.apache.unomi.api.PastEventCounters;
+import org.apache.unomi.api.Profile;
+import org.apache.unomi.api.actions.Action;
+import org.apache.unomi.api.conditions.Condition;
+import org.apache.unomi.api.conditions.ConditionType;
+import org.apache.unomi.api.services.DefinitionsService;
+import org.apache.unomi.persistence.spi.PersistenceService;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class SetEventOccurenceCountActionTest {
+
+    private static final String KEY = "eventTriggeredXXX";
+    private static final int NUMBER_OF_DAYS = 30;
+
+    private SetEventOccurenceCountAction action;
+    private PastEventCounters storedCounters;
+    private Map<String, Long> eventCountByDay;
+    private List<Map<String, Object>> scriptParams;
+    private int aggregateCalls;
+    private int otherCalls;
+
+    @Before
+    public void setUp() {
+        eventCountByDay = new LinkedHashMap<>();
+        scriptParams = new ArrayList<>();
+
+        DefinitionsService definitionsService = (DefinitionsService) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[]{DefinitionsService.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getConditionType":
+                            return new ConditionType(new Metadata((String) args[0]));
+                        case "resolveConditionType":
+                            return true;
+                        default:
+                            return null;
+                    }
+                });
+        PersistenceService persistenceService = (PersistenceService) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[]{PersistenceService.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "isConsistent":
+                            return true;
+                        case "aggregateWithOptimizedQuery":
+                            aggregateCalls++;
+                            return eventCountByDay;
+                        case "upsertWithScript":
+                            @SuppressWarnings("unchecked")
+                            Map<String, Object> params = new LinkedHashMap<>((Map<String, Object>) args[4]);
+                            scriptParams.add(params);
+                            return upsert((PastEventCounters) args[0], params);
+                        default:
+                            otherCalls++;
+                            return null;
+                    }
+                });
+        action = new SetEventOccurenceCountAction();
+        action.setDefinitionsService(definitionsService);
+        action.setPersistenceService(persistenceService);
+    }
+
+    @Test
+    public void testCountersAreSeededFromTheEvents() {
+        long today = PastEventCounters.getEpochDay(new Date());
+        eventCountByDay.put(LocalDate.ofEpochDay(getFirstDay() - 1).toString(), 4L);
+        eventCountByDay.put(LocalDate.ofEpochDay(today - 3).toString(), 2L);
+        eventCountByDay.put(LocalDate.ofEpochDay(today).toString(), 1L);
+
+        assertEquals(3L, execute());
+        // the first upsert finds no counters, which are then seeded
+        assertEquals(2, scriptParams.size());
+        assertNull(scriptParams.get(0).get("seed"));
+        assertArrayEquals(new long[]{today - 3, 2, today, 1}, (long[]) scriptParams.get(1).get("seed"));
+        assertEquals(getFirstDay(), scriptParams.get(1).get("firstDay"));
+        assertEquals(1, aggregateCalls);
+        assertEquals(0, otherCalls);
+    }
+
+    @Test
+    public void testExistingCountersAreIncrementedWithASingleRequest() {
+        long today = PastEventCounters.getEpochDay(new Date());
+        storedCounters = new PastEventCounters("profile");
+        storedCounters.increment(KEY, getFirstDay() - 1, 5);
+        storedCounters.increment(KEY, getFirstDay(), 4);
+        storedCounters.increment(KEY, today - 1, 2);
+
+        assertEquals(7L, execute());
+        assertEquals(1, scriptParams.size());
+        assertNull(scriptParams.get(0).get("seed"));
+        assertEquals(today, scriptParams.get(0).get("day"));
+        assertArrayEquals(new long[]{getFirstDay(), 4, today - 1, 2, today, 1}, storedCounters.getDailyCounts().get(KEY));
+        assertEquals(0, aggregateCalls);
+        assertEquals(0, otherCalls);
+    }
+
+    @Test
+    public void testCountersOfOtherConditionsAreNotSeeds() {
+        storedCounters = new PastEventCounters("profile");
+        storedCounters.increment("otherKey", getFirstDay(), 4);
+        eventCountByDay.put(LocalDate.ofEpochDay(getFirstDay()).toString(), 1L);
+
+        assertEquals(1L, execute());
+        assertEquals(2, scriptParams.size());
+        assertEquals(1, aggregateCalls);
+        assertEquals(4, storedCounters.getCount("otherKey", getFirstDay(), getFirstDay()));
+    }
+
+    /**
+     * Executes the increment script of the action on the stored counters.
+     */
+    private PastEventCounters upsert(PastEventCounters counters, Map<String, Object> params) {
+        String key = (String) params.get("key");
+        PastEventCounters updatedCounters = storedCounters != null ? storedCounters : counters;
+        if (!updatedCounters.hasCounts(key)) {
+            if (params.get("seed") == null) {
+                return storedCounters;
+            }
+            updatedCounters.getDailyCounts().put(key, (long[]) params.get("seed"));
+        } else {
+            updatedCounters.increment(key, (Long) params.get("day"), 1);
+        }
+        updatedCounters.removeCountsBefore(key, (Long) params.get("firstDay"));
+        storedCounters = updatedCounters;
+        return storedCounters;
+    }
+
+    private long getFirstDay() {
+        return PastEventCounters.getFirstDay(new Date(), NUMBER_OF_DAYS);
+    }
+
+    private Object execute() {
+        Condition eventCondition = new Condition(new ConditionType(new Metadata("eventTypeCondition")));
+        Condition pastEventCondition = new Condition(new ConditionType(new Metadata("pastEventCondition")));
+        pastEventCondition.setParameter("eventCondition", eventCondition);
+        pastEventCondition.setParameter("numberOfDays", NUMBER_OF_DAYS);
+        pastEventCondition.setParameter("generatedPropertyKey", KEY);
+        Action setEventOccurenceCountAction = new Action();
+        setEventOccurenceCountAction.setParameter("pastEventCondition", pastEventCondition);
+
+        Profile profile = new Profile("profile");
+        Event event = new Event("view", null, profile, "scope", null, null, new Date());
+        action.execute(setEventOccurenceCountAction, event);
+        @SuppressWarnings("unchecked")
+        Map<String, Object> pastEvents = (Map<String, Object>) profile.getSystemProperties().get("pastEvents");
+        return pastEvents.get(KEY);
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.unomi.plugins.baseplugin.conditions;
+
+import org.apache.unomi.api.conditions.Condition;
+import org.apache.unomi.api.conditions.ConditionType;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CompiledPropertyConditionCacheTest {
+
+    @Test
+    public void testEqualConditionsShareTheirCompiledForm() {
+        CompiledPropertyConditionCache cache = new CompiledPropertyConditionCache(100);
+        CompiledPropertyCondition compiledCondition = cache.get(condition(new ArrayList<>(Arrays.asList("a", "b"))));
+
+        assertSame(compiledCondition, cache.get(condition(new ArrayList<>(Arrays.asList("a", "b")))));
+        assertNotSame(compiledCondition, cache.get(condition(new ArrayList<>(Arrays.asList("a", "c")))));
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testModifyingACachedConditionDoesNotAffectTheCache() {
+        CompiledPropertyConditionCache cache = new CompiledPropertyConditionCache(100);
+        List<Object> values = new ArrayList<>(Arrays.asList("a", "b"));
+        Condition condition = condition(values);
+        assertTrue(cache.get(condition).matches("a"));
+
+        values.set(0, "c");
+        assertFalse(cache.get(condition).matches("a"));
+        assertTrue(cache.get(condition).matches("c"));
+        assertTrue(cache.get(condition(Arrays.asList("a", "b"))).matches("a"));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedConditionsAreEvicted() {
+        CompiledPropertyConditionCache cache = new CompiledPropertyConditionCache(16);
+        for (int i = 0; i < 1000; i++) {
+            cache.get(condition(Arrays.asList("value" + i)));
+        }
+        assertTrue(cache.size() <= 16);
+    }
+
+    private static Condition condition(List<Object> propertyValues) {
+        ConditionType conditionType = new ConditionType();
+        conditionType.setItemId("propertyCondition");
+        Condition condition = new Condition(conditionType);
+        condition.setParameter("propertyName", "properties.firstName");
+        condition.setParameter("comparisonOperator", "in");
+        condition.setParameter("propertyValues", propertyValues);
+        return condition;
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.unomi.plugins.baseplugin.conditions;
+
+import org.apache.unomi.api.conditions.Condition;
+import org.apache.unomi.api.conditions.ConditionType;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.regex.PatternSyntaxException;
+
+import static org.junit.Assert.*;
+
+public class CompiledPropertyConditionTest {
+
+    @Test
+    public void testOperators() {
+        assertEquals(CompiledPropertyCondition.Operator.HAS_SOME_OF, CompiledPropertyCondition.Operator.fromName("hasSomeOf"));
+        assertEquals(CompiledPropertyCondition.Operator.UNKNOWN, CompiledPropertyCondition.Operator.fromName("unknown"));
+        assertEquals(CompiledPropertyCondition.Operator.UNKNOWN, CompiledPropertyCondition.Operator.fromName(null));
+
+        assertFalse(compile(condition(null, "propertyValue", "value")).matches("value"));
+        assertFalse(compile(condition("unknown", "propertyValue", "value")).matches(null));
+        assertTrue(compile(condition("missing")).matches(null));
+        assertFalse(compile(condition("exists")).matches(Collections.emptyList()));
+        assertTrue(compile(condition("exists")).matches("value"));
+    }
+
+    @Test
+    public void testStringComparisons() {
+        CompiledPropertyCondition equals = compile(condition("equals", "propertyValue", "Élodie"));
+        assertEquals("properties.firstName", equals.getPropertyName());
+        assertTrue(equals.matches("elodie"));
+        assertTrue(equals.matches(Arrays.asList("Jane", "Élodie")));
+        assertFalse(equals.matches("jane"));
+
+        assertTrue(compile(condition("greaterThan", "propertyValue", "b")).matches("c"));
+        assertTrue(compile(condition("startsWith", "propertyValue", "/site")).matches("/site/home"));
+        assertTrue(compile(condition("matchesRegex", "propertyValue", "a+b")).matches("aaab"));
+        assertFalse(compile(condition("matchesRegex", "propertyValue", "a+b")).matches("aaac"));
+    }
+
+    @Test
+    public void testNumberAndDateComparisons() {
+        assertTrue(compile(condition("lessThan", "propertyValueInteger", 10)).matches(9));
+        assertTrue(compile(condition("equals", "propertyValueInteger", "10")).matches(10L));
+        assertFalse(compile(condition("greaterThanOrEqualTo", "propertyValueInteger", 10)).matches("9"));
+
+        Date date = new Date(1600000000000L);
+        assertTrue(compile(condition("equals", "propertyValueDate", "2020-09-13T12:26:40Z")).matches(date));
+        assertTrue(compile(condition("lessThan", "propertyValueDateExpr", "now")).matches(date));
+        assertTrue(compile(condition("greaterThan", "propertyValueDateExpr", "2020-01-01T00:00:00Z")).matches(date));
+        assertTrue(compile(condition("isDay", "propertyValueDate", date)).matches(new Date(date.getTime() + 1)));
+        assertFalse(compile(condition("isNotDay", "propertyValueDate", date)).matches(date));
+
+        Condition between = condition("between", "propertyValuesInteger", Arrays.asList(10, 20));
+        assertTrue(compile(between).matches(15));
+        assertFalse(compile(between).matches(25));
+    }
+
+    @Test
+    public void testRelativeDatesAreResolvedWhenMatched() {
+        Date now = new Date();
+        CompiledPropertyCondition afterYesterday = compile(condition("greaterThan", "propertyValueDate", "now-1d"));
+        assertTrue(afterYesterday.matches(now));
+        assertFalse(afterYesterday.matches(new Date(now.getTime() - 2 * 24 * 3600 * 1000L)));
+
+        CompiledPropertyCondition today = compile(condition("isDay", "propertyValueDate", "now"));
+        assertTrue(today.matches(new Date()));
+
+        Condition between = condition("between", "propertyValuesDateExpr", Arrays.asList("now-1h", "now+1h"));
+        assertTrue(compile(between).matches(new Date()));
+    }
+
+    @Test
+    public void testOnlyTheParametersOfTheOperatorAreConverted() {
+        Condition condition = condition("matchesRegex", "propertyValue", "a(");
+        condition.setParameter("propertyValueInteger", "not an integer");
+        CompiledPropertyCondition matchesRegex = compile(condition);
+        try {
+            matchesRegex.matches("a");
+            fail("the pattern should only be compiled when it is matched");
+        } catch (PatternSyntaxException e) {
+            // expected
+        }
+
+        Condition equals = condition("equals", "propertyValueInteger", 10);
+        equals.setParameter("propertyValueDouble", "not a double");
+        assertTrue(compile(equals).matches(10));
+    }
+
+    @Test
+    public void testMultivalueComparisons() {
+        assertTrue(compile(condition("in", "propertyValues", Arrays.asList("a", "Ç"))).matches("C"));
+        assertFalse(compile(condition("in", "propertyValues", Arrays.asList("a", "b"))).matches("c"));
+        assertTrue(compile(condition("notIn", "propertyValues", Arrays.asList("a", "b"))).matches(Arrays.asList("c", "d")));
+        assertTrue(compile(condition("inContains", "propertyValues", Arrays.asList("xyz", "bc"))).matches("abcd"));
+        assertTrue(compile(condition("all", "propertyValues", Arrays.asList("a", "b"))).matches(Arrays.asList("b", "c", "a")));
+        assertFalse(compile(condition("all", "propertyValues", Arrays.asList("a", "b"))).matches(Arrays.asList("b", "c")));
+        assertTrue(compile(condition("hasSomeOf", "propertyValuesInteger", Arrays.asList(1, 2))).matches(Arrays.asList(2, 3)));
+        assertFalse(compile(condition("hasNoneOf", "propertyValuesInteger", Arrays.asList(1, 2))).matches(Arrays.asList(2, 3)));
+        assertFalse(compile(condition("in")).matches("a"));
+    }
+
+    @Test
+    public void testDistance() {
+        Condition distance = condition("distance", "center", "48.8566,2.3522");
+        distance.setParameter("distance", 10.0);
+        distance.setParameter("unit", "km");
+        assertTrue(compile(distance).matches("48.8606,2.3376"));
+        assertFalse(compile(distance).matches("45.7640,4.8357"));
+        assertFalse(compile(condition("distance")).matches("48.8606,2.3376"));
+    }
+
+    private static CompiledPropertyCondition compile(Condition condition) {
+        return CompiledPropertyCondition.compile(condition);
+    }
+
+    private static Condition condition(String comparisonOperator) {
+        ConditionType conditionType = new ConditionType();
+        conditionType.setItemId("propertyCondition");
+        Condition condition = new Condition(conditionType);
+        condition.setParameter("propertyName", "properties.firstName");
+        condition.setParameter("comparisonOperator", comparisonOperator);
+        return condition;
+    }
+
+    private static Condition condition(String comparisonOperator, String parameterName, Object parameterValue) {
+        Condition condition = condition(comparisonOperator);
+        condition.setParameter(parameterName, parameterValue);
+        return condition;
+    }
+}
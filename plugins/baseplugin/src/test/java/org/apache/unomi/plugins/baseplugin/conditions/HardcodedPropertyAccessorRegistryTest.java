@@ -18,9 +18,11 @@ package org.apache.unomi.plugins.baseplugin.conditions;
 
 import org.apache.unomi.api.Item;
 import org.apache.unomi.api.MetadataItem;
+import org.apache.unomi.api.Profile;
 import org.apache.unomi.api.rules.Rule;
 import org.junit.Test;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -73,4 +75,27 @@ public class HardcodedPropertyAccessorRegistryTest {
         assertTrue("Expected MetadataItem as ancestor of Rule but wasn't found", classAncestors.stream().anyMatch(ancestor -> ancestor.equals(MetadataItem.class)));
         assertTrue("Expected Item as ancestor of Ruole but wasn't found", classAncestors.stream().anyMatch(ancestor -> ancestor.equals(Item.class)));
     }
+
+    @Test
+    public void testCompiledPropertyAccessors() {
+        Map<String, Object> address = new HashMap<>();
+        address.put("city", "Geneva");
+        Profile profile = new Profile("profile");
+        profile.setProperty("address", address);
+        profile.setProperty("firstName", "John");
+        profile.setSystemProperty("lastUpdated", "2020-01-01");
+        profile.setScores(new HashMap<>());
+        profile.getScores().put("scoring", 10);
+
+        for (String expression : Arrays.asList("properties.address.city", "properties.address", "properties.firstName",
+                "properties.firstName.length", "properties.lastName", "properties.lastName.length", "properties[\"firstName\"]",
+                "systemProperties.lastUpdated", "scores.scoring", "itemId", "segments")) {
+            assertEquals("Compiled accessor value was wrong for " + expression, registry.getProperty(profile, expression),
+                    registry.compilePropertyAccessor(profile, expression).apply(profile));
+        }
+
+        Profile otherProfile = new Profile("otherProfile");
+        otherProfile.setProperty("address", new HashMap<>());
+        assertEquals(null, registry.compilePropertyAccessor(profile, "properties.address.city").apply(otherProfile));
+    }
 }
@@ -0,0 +1,79 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.unomi.plugins.baseplugin.conditions;
+
+import org.apache.unomi.api.Profile;
+import org.apache.unomi.api.Session;
+import org.apache.unomi.metrics.internal.MetricsServiceImpl;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class PropertyAccessorCacheTest {
+
+    @Test
+    public void testAccessorsAreCompiledOncePerClassAndExpression() throws Exception {
+        PropertyAccessorCache<String> cache = new PropertyAccessorCache<>("test", 10);
+        AtomicInteger compilations = new AtomicInteger();
+        PropertyAccessorCache.Compiler<String> compiler = (object, expression) -> {
+            compilations.incrementAndGet();
+            return object.getClass().getSimpleName() + ":" + expression;
+        };
+
+        assertEquals("Profile:properties.age", cache.get(new Profile("profile1"), "properties.age", compiler));
+        assertEquals("Profile:properties.age", cache.get(new Profile("profile2"), "properties.age", compiler));
+        assertEquals("Session:properties.age", cache.get(new Session(), "properties.age", compiler));
+        assertEquals(2, compilations.get());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testFailedCompilationsAreNotCached() throws Exception {
+        PropertyAccessorCache<String> cache = new PropertyAccessorCache<>("test", 10);
+        assertNull(cache.get(new Profile("profile"), "properties.age", (object, expression) -> null));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testCacheIsBounded() throws Exception {
+        PropertyAccessorCache<String> cache = new PropertyAccessorCache<>("test", 10);
+        for (int i = 0; i < 100; i++) {
+            cache.get(new Profile("profile"), "properties.property" + i, (object, expression) -> expression);
+        }
+        assertEquals(10, cache.size());
+    }
+
+    @Test
+    public void testMetricNamesDoNotDependOnTheExpressions() throws Exception {
+        MetricsServiceImpl metricsService = new MetricsServiceImpl();
+        metricsService.setActivated(true);
+        PropertyAccessorCache<String> cache = new PropertyAccessorCache<>("test", 10);
+        cache.setMetricsService(metricsService);
+        for (int i = 0; i < 100; i++) {
+            cache.get(new Profile("profile"), "properties.property" + (i % 20), (object, expression) -> expression);
+        }
+
+        assertEquals(new HashSet<>(Arrays.asList("test.hits", "test.compilations")), metricsService.getMetrics().keySet());
+        assertEquals(100, metricsService.getMetrics().get("test.hits").getTotalCount()
+                + metricsService.getMetrics().get("test.compilations").getTotalCount());
+    }
+}
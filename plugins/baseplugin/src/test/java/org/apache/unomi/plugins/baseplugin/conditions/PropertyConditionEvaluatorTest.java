@@ -18,6 +18,8 @@ package org.apache.unomi.plugins.baseplugin.conditions;
 
 import ognl.MethodFailedException;
 import org.apache.unomi.api.*;
+import org.apache.unomi.api.conditions.Condition;
+import org.apache.unomi.api.conditions.ConditionType;
 import org.apache.unomi.api.rules.Rule;
 import org.apache.unomi.plugins.baseplugin.conditions.accessors.HardcodedPropertyAccessor;
 import org.apache.unomi.scripting.ExpressionFilter;
@@ -36,6 +38,8 @@ import java.util.regex.Pattern;
 import static junit.framework.TestCase.assertEquals;
 import static junit.framework.TestCase.assertNull;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 public class PropertyConditionEvaluatorTest {
 
@@ -117,6 +121,27 @@ public class PropertyConditionEvaluatorTest {
         assertNull("Unexisting property should be null", propertyConditionEvaluator.getOGNLPropertyValue(mockProfile, "properties.email"));
     }
 
+    @Test
+    public void testOGNLContextsOfAllThreadsAreReleased() throws Exception {
+        PropertyConditionEvaluator evaluator = new PropertyConditionEvaluator();
+        evaluator.setExpressionFilterFactory(filterCollection -> new ExpressionFilter(Collections.singleton(Pattern.compile("target\\.itemId")), Collections.emptySet()));
+        Thread thread = new Thread(() -> {
+            try {
+                evaluator.getOGNLPropertyValue(mockEvent, "target.itemId");
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        thread.start();
+        thread.join();
+        assertEquals(MOCK_ITEM_ID, evaluator.getOGNLPropertyValue(mockEvent, "target.itemId"));
+        assertEquals(2, evaluator.getOgnlContextCount());
+
+        evaluator.preDestroy();
+        assertEquals(0, evaluator.getOgnlContextCount());
+        assertEquals(MOCK_ITEM_ID, evaluator.getOGNLPropertyValue(mockEvent, "target.itemId"));
+    }
+
     @Test
     public void testCompareOGNLvsHardcodedPerformance() throws InterruptedException {
         int workerCount = WORKER_COUNT;
@@ -147,6 +172,25 @@ public class PropertyConditionEvaluatorTest {
         assertEquals("Session last event date is not right", SESSION_LAST_EVENT_DATE, propertyConditionEvaluator.getPropertyValue(mockSession, "lastEventDate"));
     }
 
+    @Test
+    public void testCompiledConditionIsAttachedToTheCondition() throws Exception {
+        Condition condition = new Condition(new ConditionType(new Metadata("eventPropertyCondition")));
+        condition.setParameter("propertyName", "target.itemId");
+        condition.setParameter("comparisonOperator", "equals");
+        condition.setParameter("propertyValue", MOCK_ITEM_ID);
+
+        assertTrue(propertyConditionEvaluator.eval(condition, mockEvent, new HashMap<>(), null));
+        Object compiledForm = condition.getCompiledForm();
+        assertTrue(compiledForm instanceof CompiledPropertyCondition);
+        assertTrue(propertyConditionEvaluator.eval(condition, mockEvent, new HashMap<>(), null));
+        assertSame(compiledForm, condition.getCompiledForm());
+
+        // the compiled form is dropped when the condition is modified
+        condition.setParameter("propertyValue", "otherItemId");
+        assertNull(condition.getCompiledForm());
+        assertFalse(propertyConditionEvaluator.eval(condition, mockEvent, new HashMap<>(), null));
+    }
+
     @Test
     public void testOGNLSecurity() throws Exception {
         Event mockEvent = generateMockEvent(mockProfile, mockSession);
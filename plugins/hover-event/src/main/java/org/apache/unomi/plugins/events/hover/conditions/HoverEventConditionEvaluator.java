@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.unomi.plugins.events.hover.conditions;
+
+import org.apache.unomi.api.CustomItem;
+import org.apache.unomi.api.Event;
+import org.apache.unomi.api.Item;
+import org.apache.unomi.api.conditions.Condition;
+import org.apache.unomi.persistence.elasticsearch.conditions.ConditionEvaluator;
+import org.apache.unomi.persistence.elasticsearch.conditions.ConditionEvaluatorDispatcher;
+import org.apache.unomi.plugins.events.hover.querybuilders.HoverEventConditionESQueryBuilder;
+
+import java.util.Map;
+
+/**
+ * Condition evaluator for hover event types, matching the same events as {@link HoverEventConditionESQueryBuilder}
+ * without querying ElasticSearch.
+ */
+public class HoverEventConditionEvaluator implements ConditionEvaluator {
+
+    /**
+     * The longest values indexed in the keyword sub-fields queried by {@link HoverEventConditionESQueryBuilder}, longer
+     * values are never matched by the query.
+     */
+    static final int KEYWORD_IGNORE_ABOVE = 256;
+
+    @Override
+    public boolean eval(Condition condition, Item item, Map<String, Object> context, ConditionEvaluatorDispatcher dispatcher) {
+        if (!(item instanceof Event) || !"hover".equals(((Event) item).getEventType())) {
+            return false;
+        }
+        Item target = ((Event) item).getTarget();
+        if (target == null) {
+            return false;
+        }
+        String targetId = (String) condition.getParameter("targetId");
+        String targetPath = (String) condition.getParameter("targetPath");
+
+        if (targetId != null && targetId.trim().length() > 0) {
+            return matchesKeyword(targetId, target.getItemId());
+        } else if (targetPath != null && targetPath.trim().length() > 0) {
+            return matchesKeyword(targetPath, getPagePath(target));
+        } else {
+            return "".equals(target.getItemId());
+        }
+    }
+
+    private static boolean matchesKeyword(String expectedValue, Object value) {
+        return expectedValue.length() <= KEYWORD_IGNORE_ABOVE && expectedValue.equals(value);
+    }
+
+    private static Object getPagePath(Item target) {
+        if (target instanceof CustomItem && ((CustomItem) target).getProperties() != null) {
+            Object pageInfo = ((CustomItem) target).getProperties().get("pageInfo");
+            if (pageInfo instanceof Map) {
+                return ((Map<?, ?>) pageInfo).get("pagePath");
+            }
+        }
+        return null;
+    }
+}
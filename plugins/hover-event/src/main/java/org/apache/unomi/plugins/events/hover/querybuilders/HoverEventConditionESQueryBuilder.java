@@ -29,7 +29,8 @@ import java.util.List;
 import java.util.Map;
 
 /**
- * Condition builder for hover event types
+ * Condition builder for hover event types. The target identifier and page path are matched exactly against the keyword
+ * sub-fields of the dynamically mapped text fields, whose analyzed tokens are folded to lower case.
  */
 public class HoverEventConditionESQueryBuilder implements ConditionESQueryBuilder {
 
@@ -43,11 +44,11 @@ public class HoverEventConditionESQueryBuilder implements ConditionESQueryBuilde
         String targetPath = (String) condition.getParameter("targetPath");
 
         if (targetId != null && targetId.trim().length() > 0) {
-            queryBuilders.add(QueryBuilders.termQuery("target.itemId", targetId));
+            queryBuilders.add(QueryBuilders.termQuery("target.itemId.keyword", targetId));
         } else if (targetPath != null && targetPath.trim().length() > 0) {
-            queryBuilders.add(QueryBuilders.termQuery("target.properties.pageInfo.pagePath", targetPath));
+            queryBuilders.add(QueryBuilders.termQuery("target.properties.pageInfo.pagePath.keyword", targetPath));
         } else {
-            queryBuilders.add(QueryBuilders.termQuery("target.itemId", ""));
+            queryBuilders.add(QueryBuilders.termQuery("target.itemId.keyword", ""));
         }
         BoolQueryBuilder boolQueryBuilder = QueryBuilders.boolQuery();
         for (QueryBuilder queryBuilder : queryBuilders) {
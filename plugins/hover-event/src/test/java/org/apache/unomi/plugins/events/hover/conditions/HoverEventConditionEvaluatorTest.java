@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.unomi.plugins.events.hover.conditions;
+
+import org.apache.unomi.api.CustomItem;
+import org.apache.unomi.api.Event;
+import org.apache.unomi.api.Item;
+import org.apache.unomi.api.Metadata;
+import org.apache.unomi.api.Profile;
+import org.apache.unomi.api.conditions.Condition;
+import org.apache.unomi.api.conditions.ConditionType;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+
+import static org.junit.Assert.*;
+
+public class HoverEventConditionEvaluatorTest {
+
+    private final HoverEventConditionEvaluator evaluator = new HoverEventConditionEvaluator();
+
+    @Test
+    public void testTargetId() {
+        Condition condition = condition("targetId", "button");
+        assertTrue(eval(condition, event("hover", target("button", "/home"))));
+        assertFalse(eval(condition, event("hover", target("link", "/home"))));
+        assertFalse(eval(condition, event("click", target("button", "/home"))));
+    }
+
+    @Test
+    public void testTargetIdTakesPrecedenceOverTargetPath() {
+        Condition condition = condition("targetId", "button");
+        condition.setParameter("targetPath", "/home");
+        assertFalse(eval(condition, event("hover", target("link", "/home"))));
+
+        condition.setParameter("targetId", " ");
+        assertTrue(eval(condition, event("hover", target("link", "/home"))));
+    }
+
+    @Test
+    public void testTargetPath() {
+        Condition condition = condition("targetPath", "/home");
+        assertTrue(eval(condition, event("hover", target("button", "/home"))));
+        assertFalse(eval(condition, event("hover", target("button", "/about"))));
+        assertFalse(eval(condition, event("hover", new CustomItem("button", "button"))));
+    }
+
+    @Test
+    public void testValuesAreMatchedExactly() {
+        assertFalse(eval(condition("targetId", "Button"), event("hover", target("button", "/home"))));
+        assertFalse(eval(condition("targetId", "main"), event("hover", target("main button", "/home"))));
+        assertFalse(eval(condition("targetPath", "/Home"), event("hover", target("button", "/home"))));
+    }
+
+    @Test
+    public void testValuesLongerThanTheIndexedKeywordsAreNotMatched() {
+        String longPath = "/" + String.join("", Collections.nCopies(HoverEventConditionEvaluator.KEYWORD_IGNORE_ABOVE, "a"));
+        assertFalse(eval(condition("targetPath", longPath), event("hover", target("button", longPath))));
+        assertTrue(eval(condition("targetPath", longPath.substring(1)), event("hover", target("button", longPath.substring(1)))));
+    }
+
+    @Test
+    public void testWithoutTarget() {
+        Condition condition = condition("targetId", null);
+        assertTrue(eval(condition, event("hover", new CustomItem("", "button"))));
+        assertFalse(eval(condition, event("hover", target("button", "/home"))));
+        assertFalse(eval(condition, event("hover", null)));
+        assertFalse(eval(condition, new Profile("profile")));
+    }
+
+    private boolean eval(Condition condition, Item item) {
+        return evaluator.eval(condition, item, new HashMap<>(), null);
+    }
+
+    private static Condition condition(String parameterName, String parameterValue) {
+        Condition condition = new Condition(new ConditionType(new Metadata("hoverEventCondition")));
+        condition.setParameter(parameterName, parameterValue);
+        return condition;
+    }
+
+    private static Event event(String eventType, Item target) {
+        return new Event(eventType, null, new Profile("profile"), "scope", null, target, new Date());
+    }
+
+    private static CustomItem target(String itemId, String pagePath) {
+        CustomItem target = new CustomItem(itemId, "button");
+        target.setProperties(new HashMap<>(Collections.singletonMap("pageInfo", Collections.singletonMap("pagePath", pagePath))));
+        return target;
+    }
+}
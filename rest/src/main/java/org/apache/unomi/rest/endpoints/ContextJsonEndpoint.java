@@ -34,6 +34,7 @@ import org.apache.unomi.api.services.PersonalizationService;
 import org.apache.unomi.api.services.PrivacyService;
 import org.apache.unomi.api.services.ProfileService;
 import org.apache.unomi.api.services.RulesService;
+import org.apache.unomi.api.utils.RequestScopedCache;
 import org.apache.unomi.api.utils.ValidationPattern;
 import org.apache.unomi.persistence.spi.CustomObjectMapper;
 import org.apache.unomi.rest.service.RestServiceUtils;
@@ -64,6 +65,7 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 @WebService
 @Consumes(MediaType.APPLICATION_JSON)
@@ -157,6 +159,14 @@ public class ContextJsonEndpoint {
             @QueryParam("sessionId") @Pattern(regexp = ValidationPattern.TEXT_VALID_CHARACTERS_PATTERN) String sessionId,
             @QueryParam("timestamp") Long timestampAsLong, @QueryParam("invalidateProfile") boolean invalidateProfile,
             @QueryParam("invalidateSession") boolean invalidateSession) {
+        // the lookups done while processing the request are cached until the response is sent
+        try (RequestScopedCache ignored = RequestScopedCache.open()) {
+            return processContextRequest(contextRequest, personaId, sessionId, timestampAsLong, invalidateProfile, invalidateSession);
+        }
+    }
+
+    private ContextResponse processContextRequest(ContextRequest contextRequest, String personaId, String sessionId, Long timestampAsLong,
+            boolean invalidateProfile, boolean invalidateSession) {
         Date timestamp = new Date();
         if (timestampAsLong != null) {
             timestamp = new Date(timestampAsLong);
@@ -208,6 +218,10 @@ public class ContextJsonEndpoint {
             // Not a persona, resolve profile now
             boolean profileCreated = false;
 
+            // the session is loaded while the profile is resolved
+            CompletableFuture<Session> sessionFuture = StringUtils.isNotBlank(sessionId) && !invalidateSession ?
+                    profileService.loadSessionAsync(sessionId, timestamp) : null;
+
             if (profileId == null || invalidateProfile) {
                 // no profileId cookie was found or the profile has to be invalidated, we generate a new one and create the profile in the profile service
                 profile = createNewProfile(null, timestamp);
@@ -227,8 +241,10 @@ public class ContextJsonEndpoint {
             }
 
             Profile sessionProfile;
-            if (StringUtils.isNotBlank(sessionId) && !invalidateSession) {
-                session = profileService.loadSession(sessionId, timestamp);
+            if (sessionFuture != null) {
+                session = sessionFuture.join();
+                // the session must be cached for the request as if it was loaded synchronously
+                RequestScopedCache.put(RequestScopedCache.SESSIONS, sessionId, session);
                 if (session != null) {
                     sessionProfile = session.getProfile();
 
@@ -28,6 +28,7 @@ import org.apache.unomi.api.services.ConfigSharingService;
 import org.apache.unomi.api.services.EventService;
 import org.apache.unomi.api.services.PrivacyService;
 import org.apache.unomi.api.services.ProfileService;
+import org.apache.unomi.api.utils.RequestScopedCache;
 import org.apache.unomi.rest.models.EventCollectorResponse;
 import org.apache.unomi.rest.service.RestServiceUtils;
 import org.apache.unomi.utils.Changes;
@@ -63,6 +64,7 @@ import java.util.UUID;
 @Component(service = EventsCollectorEndpoint.class, property = "osgi.jaxrs.resource=true")
 public class EventsCollectorEndpoint {
     private static final Logger logger = LoggerFactory.getLogger(EventsCollectorEndpoint.class.getName());
+    private static final int TOO_MANY_REQUESTS = 429;
 
     @Reference
     private EventService eventService;
@@ -88,19 +90,26 @@ public class EventsCollectorEndpoint {
 
     @GET
     @Path("/eventcollector")
-    public EventCollectorResponse collectAsGet(@QueryParam("payload") @NotNull @Valid EventsCollectorRequest eventsCollectorRequest,
-                                               @QueryParam("timestamp") Long timestampAsString) {
+    public Response collectAsGet(@QueryParam("payload") @NotNull @Valid EventsCollectorRequest eventsCollectorRequest,
+                                 @QueryParam("timestamp") Long timestampAsString) {
         return doEvent(eventsCollectorRequest, timestampAsString);
     }
 
     @POST
     @Path("/eventcollector")
-    public EventCollectorResponse collectAsPost(@NotNull @Valid EventsCollectorRequest eventsCollectorRequest,
+    public Response collectAsPost(@NotNull @Valid EventsCollectorRequest eventsCollectorRequest,
             @QueryParam("timestamp") Long timestampAsLong) {
         return doEvent(eventsCollectorRequest, timestampAsLong);
     }
 
-    private EventCollectorResponse doEvent(EventsCollectorRequest eventsCollectorRequest, Long timestampAsLong) {
+    private Response doEvent(EventsCollectorRequest eventsCollectorRequest, Long timestampAsLong) {
+        // the lookups done while processing the events of the request are cached until the response is sent
+        try (RequestScopedCache ignored = RequestScopedCache.open()) {
+            return processEvents(eventsCollectorRequest, timestampAsLong);
+        }
+    }
+
+    private Response processEvents(EventsCollectorRequest eventsCollectorRequest, Long timestampAsLong) {
         Date timestamp = new Date();
         if (timestampAsLong != null) {
             timestamp = new Date(timestampAsLong);
@@ -174,10 +183,32 @@ public class EventsCollectorEndpoint {
             }
         }
 
+        // the events triggering actions which read the request or the response are processed while the request is handled
+        if (eventService.isAsyncIngestionEnabled()
+                && !restServiceUtils.isRequestRequired(eventsCollectorRequest.getEvents(), session, profile, timestamp)) {
+            boolean queued = restServiceUtils.handleEventsAsync(eventsCollectorRequest.getEvents(), session, profile, request, timestamp,
+                    this::saveChanges);
+            if (!queued) {
+                return Response.status(TOO_MANY_REQUESTS).build();
+            }
+            return Response.status(Response.Status.ACCEPTED).entity(new EventCollectorResponse(EventService.NO_CHANGE)).build();
+        }
+
         Changes changesObject = restServiceUtils
                 .handleEvents(eventsCollectorRequest.getEvents(), session, profile, request, response, timestamp);
+        int changes = saveChanges(changesObject, session);
+        if ((changes & EventService.ERROR) == EventService.ERROR) {
+            String errorMessage = "Error processing events. Total number of processed events: " + changesObject.getProcessedItems() + "/"
+                    + eventsCollectorRequest.getEvents().size();
+            throw new BadRequestException(errorMessage);
+        }
+
+        return Response.ok(new EventCollectorResponse(changes)).build();
+    }
+
+    private int saveChanges(Changes changesObject, Session session) {
         int changes = changesObject.getChangeType();
-        profile = changesObject.getProfile();
+        Profile profile = changesObject.getProfile();
 
         if ((changes & EventService.PROFILE_UPDATED) == EventService.PROFILE_UPDATED) {
             profileService.save(profile);
@@ -185,12 +216,6 @@ public class EventsCollectorEndpoint {
         if ((changes & EventService.SESSION_UPDATED) == EventService.SESSION_UPDATED && session != null) {
             profileService.saveSession(session);
         }
-        if ((changes & EventService.ERROR) == EventService.ERROR) {
-            String errorMessage = "Error processing events. Total number of processed events: " + changesObject.getProcessedItems() + "/"
-                    + eventsCollectorRequest.getEvents().size();
-            throw new BadRequestException(errorMessage);
-        }
-
-        return new EventCollectorResponse(changes);
+        return changes;
     }
 }
@@ -39,10 +39,12 @@ import javax.ws.rs.*;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 import java.io.IOException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * A JAX-RS endpoint to manage {@link Profile}s and {@link Persona}s.
@@ -173,6 +175,34 @@ public class ProfileServiceEndPoint {
         return response.build();
     }
 
+    /**
+     * Streams an export of all the profiles matching the specified query as a downloadable file using the comma-separated
+     * values (CSV) format. The profiles are written as they are read, so exports of any size can be downloaded.
+     *
+     * @param query a {@link Query} specifying which profiles to export, only its limit and offset are used to restrict
+     *              the export and its sort order is ignored
+     * @param gzip  {@code true} to compress the export with gzip
+     * @return a Response object configured to allow caller to download the CSV export file
+     */
+    @POST
+    @Path("/export/stream")
+    @Produces({"text/csv", "application/gzip"})
+    public Response streamExportProfiles(Query query, @QueryParam("gzip") @DefaultValue("false") boolean gzip) {
+        StreamingOutput output = outputStream -> {
+            if (gzip) {
+                GZIPOutputStream gzipOutputStream = new GZIPOutputStream(outputStream);
+                profileService.exportProfilesPropertiesToCsv(query, gzipOutputStream);
+                gzipOutputStream.finish();
+            } else {
+                profileService.exportProfilesPropertiesToCsv(query, outputStream);
+            }
+        };
+        Response.ResponseBuilder response = Response.ok(output, gzip ? "application/gzip" : "text/csv");
+        response.header("Content-Disposition",
+                "attachment; filename=Profiles_export_" + new SimpleDateFormat("yyyy-MM-dd-HH-mm").format(new Date()) + (gzip ? ".csv.gz" : ".csv"));
+        return response.build();
+    }
+
     /**
      * Update all profiles in batch according to the specified {@link BatchUpdate}
      *
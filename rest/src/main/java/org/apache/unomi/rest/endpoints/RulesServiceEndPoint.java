@@ -87,7 +87,8 @@ public class RulesServiceEndPoint {
     }
 
     /**
-     * Retrieves the rule statistics for all known rules.
+     * Retrieves the rule statistics for all known rules, including the values counted on this node since the last
+     * sync with the cluster and the latency percentiles of the rule's conditions and actions on this node.
      *
      * @return a map that contains the rule key as a key and as the value a @RuleStatistics object.
      */
@@ -27,10 +27,20 @@ import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
 import java.util.Date;
 import java.util.List;
+import java.util.function.BiConsumer;
 
 public interface RestServiceUtils {
     String getProfileIdCookieValue(HttpServletRequest httpServletRequest);
 
     Changes handleEvents(List<Event> events, Session session, Profile profile, ServletRequest request, ServletResponse response,
             Date timestamp);
+
+    /**
+     * Checks if the events may trigger rules whose actions read the HTTP request or response, in which case they must
+     * be processed with {@link #handleEvents} instead of being queued.
+     */
+    boolean isRequestRequired(List<Event> events, Session session, Profile profile, Date timestamp);
+
+    boolean handleEventsAsync(List<Event> events, Session session, Profile profile, ServletRequest request, Date timestamp,
+            BiConsumer<Changes, Session> callback);
 }
@@ -23,6 +23,7 @@ import org.apache.unomi.api.Session;
 import org.apache.unomi.api.services.ConfigSharingService;
 import org.apache.unomi.api.services.EventService;
 import org.apache.unomi.api.services.PrivacyService;
+import org.apache.unomi.api.services.RulesService;
 import org.apache.unomi.rest.service.RestServiceUtils;
 import org.apache.unomi.rest.validation.BeanValidationService;
 import org.apache.unomi.rest.validation.wrapper.CookieWrapper;
@@ -36,8 +37,10 @@ import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.function.BiConsumer;
 
 @Component(service = RestServiceUtils.class)
 public class RestServiceUtilsImpl implements RestServiceUtils {
@@ -56,6 +59,9 @@ public class RestServiceUtilsImpl implements RestServiceUtils {
     @Reference
     private EventService eventService;
 
+    @Reference
+    private RulesService rulesService;
+
     public String getProfileIdCookieValue(HttpServletRequest httpServletRequest) {
         String cookieProfileId = null;
 
@@ -87,29 +93,10 @@ public class RestServiceUtilsImpl implements RestServiceUtils {
             for (Event event : events) {
                 processedEventsCnt++;
                 if (event.getEventType() != null) {
-                    if (!eventService.isEventValid(event)) {
-                        logger.warn("Event is not valid : {}", event.getEventType());
-                        continue;
-                    }
-
-                    Event eventToSend = new Event(event.getEventType(), session, profile, event.getSourceId(), event.getSource(),
-                            event.getTarget(), event.getProperties(), timestamp, event.isPersistent());
-                    if (!eventService.isEventAllowed(event, thirdPartyId)) {
-                        logger.warn("Event is not allowed : {}", event.getEventType());
+                    Event eventToSend = createEventToSend(event, session, profile, thirdPartyId, filteredEventTypes, timestamp);
+                    if (eventToSend == null) {
                         continue;
                     }
-                    if (thirdPartyId != null && event.getItemId() != null) {
-                        eventToSend = new Event(event.getItemId(), event.getEventType(), session, profile, event.getSourceId(),
-                                event.getSource(), event.getTarget(), event.getProperties(), timestamp, event.isPersistent());
-                    }
-                    if (filteredEventTypes != null && filteredEventTypes.contains(event.getEventType())) {
-                        logger.debug("Profile is filtering event type {}", event.getEventType());
-                        continue;
-                    }
-                    if (profile.isAnonymousProfile()) {
-                        // Do not keep track of profile in event
-                        eventToSend.setProfileId(null);
-                    }
 
                     eventToSend.getAttributes().put(Event.HTTP_REQUEST_ATTRIBUTE, request);
                     eventToSend.getAttributes().put(Event.HTTP_RESPONSE_ATTRIBUTE, response);
@@ -131,4 +118,80 @@ public class RestServiceUtilsImpl implements RestServiceUtils {
         }
         return new Changes(changes, processedEventsCnt, profile);
     }
+
+    @Override
+    public boolean isRequestRequired(List<Event> events, Session session, Profile profile, Date timestamp) {
+        if (events == null) {
+            return false;
+        }
+        for (Event event : events) {
+            if (event.getEventType() != null && rulesService.isRequestRequired(new Event(event.getEventType(), session, profile,
+                    event.getSourceId(), event.getSource(), event.getTarget(), event.getProperties(), timestamp, event.isPersistent()))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean handleEventsAsync(List<Event> events, Session session, Profile profile, ServletRequest request, Date timestamp,
+            BiConsumer<Changes, Session> callback) {
+        List<String> filteredEventTypes = privacyService.getFilteredEventTypes(profile);
+
+        String thirdPartyId = eventService
+                .authenticateThirdPartyServer(((HttpServletRequest) request).getHeader("X-Unomi-Peer"), request.getRemoteAddr());
+
+        final List<Event> eventsToSend = new ArrayList<>();
+        if (events != null && !(profile instanceof Persona)) {
+            for (Event event : events) {
+                if (event.getEventType() != null) {
+                    Event eventToSend = createEventToSend(event, session, profile, thirdPartyId, filteredEventTypes, timestamp);
+                    if (eventToSend != null) {
+                        // the request and response are not attached to the events, as they are processed once the request is over
+                        logger.debug("Received event " + event.getEventType() + " for profile=" + profile.getItemId() + " session=" + (
+                                session != null ? session.getItemId() : null) + " target=" + event.getTarget() + " timestamp=" + timestamp);
+                        eventsToSend.add(eventToSend);
+                    }
+                }
+            }
+        }
+        if (eventsToSend.isEmpty()) {
+            callback.accept(new Changes(EventService.NO_CHANGE, 0, profile), session);
+            return true;
+        }
+        return eventService.sendAsync(eventsToSend, changes -> {
+            // the profile and the session were reloaded by the worker before processing the events, the copies loaded
+            // for the request must not be saved
+            Event lastEvent = eventsToSend.get(eventsToSend.size() - 1);
+            callback.accept(new Changes(changes, eventsToSend.size(), lastEvent.getProfile()), lastEvent.getSession());
+        });
+    }
+
+    private Event createEventToSend(Event event, Session session, Profile profile, String thirdPartyId, List<String> filteredEventTypes,
+            Date timestamp) {
+        if (!eventService.isEventValid(event)) {
+            logger.warn("Event is not valid : {}", event.getEventType());
+            return null;
+        }
+
+        Event eventToSend = new Event(event.getEventType(), session, profile, event.getSourceId(), event.getSource(),
+                event.getTarget(), event.getProperties(), timestamp, event.isPersistent());
+        if (!eventService.isEventAllowed(event, thirdPartyId)) {
+            logger.warn("Event is not allowed : {}", event.getEventType());
+            return null;
+        }
+        if (thirdPartyId != null && event.getItemId() != null) {
+            eventToSend = new Event(event.getItemId(), event.getEventType(), session, profile, event.getSourceId(),
+                    event.getSource(), event.getTarget(), event.getProperties(), timestamp, event.isPersistent());
+        }
+        if (filteredEventTypes != null && filteredEventTypes.contains(event.getEventType())) {
+            logger.debug("Profile is filtering event type {}", event.getEventType());
+            return null;
+        }
+        if (profile.isAnonymousProfile()) {
+            // Do not keep track of profile in event
+            eventToSend.setProfileId(null);
+        }
+        return eventToSend;
+    }
 }
@@ -0,0 +1,135 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.unomi.services.impl.rules;
+
+import org.apache.unomi.api.CustomItem;
+import org.apache.unomi.api.Event;
+import org.apache.unomi.api.Item;
+import org.apache.unomi.api.Metadata;
+import org.apache.unomi.api.PartialList;
+import org.apache.unomi.api.Profile;
+import org.apache.unomi.api.conditions.Condition;
+import org.apache.unomi.api.rules.Rule;
+import org.apache.unomi.persistence.spi.PersistenceService;
+import org.apache.unomi.services.impl.TestConditions;
+import org.apache.unomi.services.impl.definitions.DefinitionsServiceImpl;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.lang.reflect.Proxy;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the rules matched by {@link RulesServiceImpl#getMatchingRules(Event)} with the compiled rule matching index,
+ * and with the linear scan of all the rules used when the optimized rules are deactivated. Both strategies evaluate
+ * their candidate rules through the same {@link PersistenceService#testMatch(Condition, Item)} stub, which uses the
+ * simplified condition evaluator of the tests, so the difference is the cost of the rules that didn't need to be
+ * evaluated.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class RuleMatchingIndexBenchmark {
+
+    private static final String[] EVENT_TYPES = {"view", "click", "form", "download", "login"};
+
+    @Param({"100", "1000", "10000"})
+    public int ruleCount;
+
+    private RulesServiceImpl linearScanRulesService;
+    private RulesServiceImpl compiledIndexRulesService;
+    private Event[] events;
+    private int eventIndex;
+
+    @Setup
+    public void setup() {
+        List<Rule> rules = new ArrayList<>(ruleCount);
+        for (int i = 0; i < ruleCount; i++) {
+            Rule rule = new Rule(new Metadata(null, "rule" + i, "rule" + i, null));
+            rule.getMetadata().setScope(i % 10 == 0 ? "site" + (i % 3) : Metadata.SYSTEM_SCOPE);
+            List<Condition> subConditions = new ArrayList<>();
+            subConditions.add(TestConditions.eventTypeCondition(EVENT_TYPES[i % EVENT_TYPES.length]));
+            if (i % 2 == 0) {
+                subConditions.add(TestConditions.eventPropertyCondition("target.itemId", "equals", "page" + (i % 500)));
+            } else {
+                subConditions.add(TestConditions.eventPropertyCondition("properties.campaign", "in",
+                        Arrays.asList("campaign" + (i % 200), "campaign" + ((i + 1) % 200))));
+            }
+            rule.setCondition(TestConditions.andCondition(subConditions));
+            rules.add(rule);
+        }
+        linearScanRulesService = createRulesService(rules, false);
+        compiledIndexRulesService = createRulesService(rules, true);
+
+        events = new Event[256];
+        Random random = new Random(42);
+        for (int i = 0; i < events.length; i++) {
+            CustomItem target = new CustomItem("page" + random.nextInt(500), "page");
+            Map<String, Object> properties = new HashMap<>();
+            properties.put("campaign", "campaign" + random.nextInt(200));
+            Event event = new Event(EVENT_TYPES[random.nextInt(EVENT_TYPES.length)], null, new Profile("profile" + i), "site" + random.nextInt(3),
+                    null, target, properties, new Date(), false);
+            events[i] = event;
+        }
+    }
+
+    private static RulesServiceImpl createRulesService(List<Rule> rules, boolean optimizedRulesActivated) {
+        PersistenceService persistenceService = (PersistenceService) Proxy.newProxyInstance(RuleMatchingIndexBenchmark.class.getClassLoader(),
+                new Class[]{PersistenceService.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getAllItems":
+                            return new PartialList<>(rules, 0, rules.size(), rules.size(), PartialList.Relation.EQUAL);
+                        case "testMatch":
+                            return TestConditions.evaluate((Condition) args[0], (Item) args[1]);
+                        default:
+                            return null;
+                    }
+                });
+        RulesServiceImpl rulesService = new RulesServiceImpl();
+        rulesService.setPersistenceService(persistenceService);
+        rulesService.setDefinitionsService(new DefinitionsServiceImpl());
+        rulesService.setOptimizedRulesActivated(optimizedRulesActivated);
+        rulesService.refreshRules();
+        return rulesService;
+    }
+
+    @Benchmark
+    public int linearScan() {
+        return linearScanRulesService.getMatchingRules(nextEvent()).size();
+    }
+
+    @Benchmark
+    public int compiledIndex() {
+        return compiledIndexRulesService.getMatchingRules(nextEvent()).size();
+    }
+
+    private Event nextEvent() {
+        eventIndex = (eventIndex + 1) & (events.length - 1);
+        return events[eventIndex];
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(RuleMatchingIndexBenchmark.class.getSimpleName()).build()).run();
+    }
+}
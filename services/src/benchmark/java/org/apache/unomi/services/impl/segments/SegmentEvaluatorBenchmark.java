@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.unomi.services.impl.segments;
+
+import org.apache.unomi.api.Metadata;
+import org.apache.unomi.api.Profile;
+import org.apache.unomi.api.conditions.Condition;
+import org.apache.unomi.api.segments.Scoring;
+import org.apache.unomi.api.segments.Segment;
+import org.apache.unomi.services.impl.TestConditions;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static org.apache.unomi.services.impl.TestConditions.*;
+
+/**
+ * Compares the compiled segment evaluator with a separate evaluation of the condition of every segment. Segments
+ * share some of their sub-conditions, like real segments built from a few common criteria. Both strategies evaluate
+ * the leaf conditions with the same simplified condition evaluator, so the difference is the cost of the conditions
+ * that are evaluated more than once.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SegmentEvaluatorBenchmark {
+
+    private static final String[] COUNTRIES = {"Switzerland", "France", "Germany", "Italy", "Spain"};
+
+    @Param({"1000"})
+    public int segmentCount;
+
+    private List<Segment> segments;
+    private SegmentEvaluator evaluator;
+    private Profile[] profiles;
+    private int profileIndex;
+
+    @Setup
+    public void setup() {
+        segments = new ArrayList<>(segmentCount);
+        for (int i = 0; i < segmentCount; i++) {
+            Segment segment = new Segment(new Metadata(null, "segment" + i, "segment" + i, null));
+            List<Condition> subConditions = new ArrayList<>();
+            subConditions.add(notCondition(propertyCondition("optOut", true)));
+            subConditions.add(propertyCondition("country", COUNTRIES[i % COUNTRIES.length]));
+            subConditions.add(booleanCondition("or", Arrays.asList(propertyCondition("interest", "interest" + (i % 50)),
+                    propertyCondition("ageGroup", "group" + (i % 7)))));
+            segment.setCondition(booleanCondition("and", subConditions));
+            segments.add(segment);
+        }
+        evaluator = SegmentEvaluator.build(segments, Collections.<Scoring>emptyList());
+
+        profiles = new Profile[256];
+        Random random = new Random(42);
+        for (int i = 0; i < profiles.length; i++) {
+            Profile profile = new Profile("profile" + i);
+            profile.setProperty("optOut", random.nextInt(10) == 0);
+            profile.setProperty("country", COUNTRIES[random.nextInt(COUNTRIES.length)]);
+            profile.setProperty("interest", "interest" + random.nextInt(50));
+            profile.setProperty("ageGroup", "group" + random.nextInt(7));
+            profiles[i] = profile;
+        }
+    }
+
+    @Benchmark
+    public int segmentBySegment() {
+        Profile profile = nextProfile();
+        int matches = 0;
+        for (Segment segment : segments) {
+            if (TestConditions.evaluate(segment.getCondition(), profile)) {
+                matches++;
+            }
+        }
+        return matches;
+    }
+
+    @Benchmark
+    public int compiledEvaluator() {
+        return evaluator.evaluate(nextProfile(), TestConditions::evaluate).getSegments().size();
+    }
+
+    private Profile nextProfile() {
+        profileIndex = (profileIndex + 1) & (profiles.length - 1);
+        return profiles[profileIndex];
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(SegmentEvaluatorBenchmark.class.getSimpleName()).build()).run();
+    }
+}
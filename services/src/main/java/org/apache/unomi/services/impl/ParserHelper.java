@@ -25,6 +25,7 @@ import org.apache.unomi.api.conditions.Condition;
 import org.apache.unomi.api.conditions.ConditionType;
 import org.apache.unomi.api.rules.Rule;
 import org.apache.unomi.api.services.DefinitionsService;
+import org.apache.unomi.persistence.spi.PersistenceService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -71,6 +72,29 @@ public class ParserHelper {
         return result.isEmpty();
     }
 
+    /**
+     * Checks whether a resolved condition can be evaluated locally, logging a warning otherwise: each evaluation of the condition then either queries the persistence
+     * backend, or evaluates to false when an evaluator is missing.
+     *
+     * @return {@code true} if the whole condition can be evaluated locally
+     */
+    public static boolean checkLocalEvaluation(PersistenceService persistenceService, Condition rootCondition, String contextObjectName) {
+        boolean local = true;
+        Set<String> remotelyEvaluatedConditionTypeIds = persistenceService.getRemotelyEvaluatedConditionTypeIds(rootCondition);
+        if (!remotelyEvaluatedConditionTypeIds.isEmpty()) {
+            logger.warn("Condition types {} of {} cannot be evaluated locally, each evaluation will query the persistence backend",
+                    remotelyEvaluatedConditionTypeIds, contextObjectName);
+            local = false;
+        }
+        Set<String> conditionTypeIdsEvaluatedToFalse = persistenceService.getConditionTypeIdsEvaluatedToFalse(rootCondition);
+        if (!conditionTypeIdsEvaluatedToFalse.isEmpty()) {
+            logger.warn("Condition types {} of {} have no available evaluator, their evaluation will always be false",
+                    conditionTypeIdsEvaluatedToFalse, contextObjectName);
+            local = false;
+        }
+        return local;
+    }
+
     public static List<String> getConditionTypeIds(Condition rootCondition) {
         final List<String> result = new ArrayList<String>();
         visitConditions(rootCondition, new ConditionVisitor() {
@@ -86,6 +110,21 @@ public class ParserHelper {
         return result;
     }
 
+    public static List<ConditionType> getConditionTypes(Condition rootCondition) {
+        final List<ConditionType> result = new ArrayList<ConditionType>();
+        visitConditions(rootCondition, new ConditionVisitor() {
+            @Override
+            public void visit(Condition condition) {
+                result.add(condition.getConditionType());
+            }
+
+            @Override
+            public void postVisit(Condition condition) {
+            }
+        });
+        return result;
+    }
+
     private static void visitConditions(Condition rootCondition, ConditionVisitor visitor) {
         visitor.visit(rootCondition);
         // recursive call for sub-conditions as parameters
@@ -0,0 +1,174 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.unomi.services.impl.events;
+
+import org.apache.unomi.api.Event;
+import org.apache.unomi.api.services.EventService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+import java.util.function.ToIntFunction;
+
+/**
+ * Processes lists of events on a fixed set of worker threads. Each worker has its own bounded queue, and the lists of
+ * events are assigned to a worker using an ordering key (the profile), so that the events of a profile are processed
+ * in the order they were submitted. Submitting never blocks: if the queue of the worker is full, the events are
+ * rejected so that the caller can ask the client to retry later.
+ */
+class EventIngestionPipeline {
+
+    private static final Logger logger = LoggerFactory.getLogger(EventIngestionPipeline.class.getName());
+
+    private final ToIntFunction<List<Event>> eventsProcessor;
+    private final int batchSize;
+    private final List<BlockingQueue<Task>> queues;
+    private final List<Thread> workers;
+    private volatile boolean running;
+
+    /**
+     * @param workerCount     the number of worker threads
+     * @param queueCapacity   the total number of lists of events that can wait to be processed, split between workers
+     * @param batchSize       the maximum number of lists of events a worker takes from its queue at once
+     * @param eventsProcessor the function processing a list of events, returning the combined EventService flags
+     */
+    EventIngestionPipeline(int workerCount, int queueCapacity, int batchSize, ToIntFunction<List<Event>> eventsProcessor) {
+        this.eventsProcessor = eventsProcessor;
+        this.batchSize = Math.max(1, batchSize);
+        int count = Math.max(1, workerCount);
+        int workerQueueCapacity = Math.max(1, queueCapacity / count);
+        this.queues = new ArrayList<>(count);
+        this.workers = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final BlockingQueue<Task> queue = new ArrayBlockingQueue<>(workerQueueCapacity);
+            queues.add(queue);
+            Thread worker = new Thread(() -> processQueue(queue), "unomi-event-ingestion-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+        }
+    }
+
+    void start() {
+        running = true;
+        for (Thread worker : workers) {
+            worker.start();
+        }
+    }
+
+    /**
+     * Stops accepting events and waits for the events already queued to be processed.
+     *
+     * @param timeoutMillis the maximum time to wait for each worker
+     */
+    void stop(long timeoutMillis) {
+        running = false;
+        for (Thread worker : workers) {
+            try {
+                worker.join(timeoutMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (worker.isAlive()) {
+                logger.warn("Event ingestion worker {} did not finish processing its queue in time", worker.getName());
+                worker.interrupt();
+            }
+        }
+    }
+
+    /**
+     * Queues a list of events.
+     *
+     * @param orderingKey the key used to keep the processing order, lists of events with the same key are processed
+     *                    in submission order
+     * @param events      the events to process
+     * @param callback    called on the worker thread with the combined EventService flags once all the events were
+     *                    processed, may be null
+     * @return {@code true} if the events were queued, {@code false} if the pipeline is stopped or the queue is full
+     */
+    boolean submit(String orderingKey, List<Event> events, IntConsumer callback) {
+        if (!running) {
+            return false;
+        }
+        int index = orderingKey != null ? (orderingKey.hashCode() & Integer.MAX_VALUE) % queues.size() : 0;
+        return queues.get(index).offer(new Task(events, callback));
+    }
+
+    int getQueuedCount() {
+        int queuedCount = 0;
+        for (BlockingQueue<Task> queue : queues) {
+            queuedCount += queue.size();
+        }
+        return queuedCount;
+    }
+
+    private void processQueue(BlockingQueue<Task> queue) {
+        List<Task> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                Task task = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (task == null) {
+                    continue;
+                }
+                batch.add(task);
+                queue.drainTo(batch, batchSize - 1);
+                for (Task batchTask : batch) {
+                    process(batchTask);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logger.warn("Event ingestion worker interrupted, {} queued event lists were not processed", queue.size());
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void process(Task task) {
+        int changes;
+        try {
+            changes = eventsProcessor.applyAsInt(task.events);
+        } catch (Throwable t) {
+            logger.error("Error processing events asynchronously", t);
+            changes = EventService.ERROR;
+        }
+        if (task.callback != null) {
+            try {
+                task.callback.accept(changes);
+            } catch (Throwable t) {
+                logger.error("Error in the callback of asynchronously processed events", t);
+            }
+        }
+    }
+
+    private static class Task {
+        private final List<Event> events;
+        private final IntConsumer callback;
+
+        private Task(List<Event> events, IntConsumer callback) {
+            this.events = events;
+            this.callback = callback;
+        }
+    }
+}
@@ -25,6 +25,7 @@ import org.apache.unomi.api.EventProperty;
 import org.apache.unomi.api.EventType;
 import org.apache.unomi.api.Metadata;
 import org.apache.unomi.api.PartialList;
+import org.apache.unomi.api.Profile;
 import org.apache.unomi.api.PropertyType;
 import org.apache.unomi.api.Session;
 import org.apache.unomi.api.ValueType;
@@ -36,6 +37,7 @@ import org.apache.unomi.api.services.EventListenerService;
 import org.apache.unomi.api.services.EventService;
 import org.apache.unomi.api.services.EventTypeRegistry;
 import org.apache.unomi.api.services.SourceService;
+import org.apache.unomi.api.utils.RequestScopedCache;
 import org.apache.unomi.persistence.spi.PersistenceService;
 import org.apache.unomi.persistence.spi.aggregate.TermsAggregate;
 import org.apache.unomi.services.impl.ParserHelper;
@@ -53,6 +55,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.IntConsumer;
 
 public class EventServiceImpl implements EventService {
     private static final Logger logger = LoggerFactory.getLogger(EventServiceImpl.class.getName());
@@ -78,6 +81,29 @@ public class EventServiceImpl implements EventService {
 
     private Boolean shouldBeCheckedEventSourceId;
 
+    private boolean asyncIngestionEnabled = false;
+    private int asyncIngestionWorkers = 4;
+    private int asyncIngestionQueueSize = 10000;
+    private int asyncIngestionBatchSize = 100;
+    private long asyncIngestionShutdownTimeout = 10000;
+
+    private EventIngestionPipeline eventIngestionPipeline;
+
+    public void postConstruct() {
+        if (asyncIngestionEnabled) {
+            eventIngestionPipeline = new EventIngestionPipeline(asyncIngestionWorkers, asyncIngestionQueueSize, asyncIngestionBatchSize, this::sendAll);
+            eventIngestionPipeline.start();
+            logger.info("Asynchronous event ingestion started with {} workers", asyncIngestionWorkers);
+        }
+    }
+
+    public void preDestroy() {
+        if (eventIngestionPipeline != null) {
+            eventIngestionPipeline.stop(asyncIngestionShutdownTimeout);
+            eventIngestionPipeline = null;
+        }
+    }
+
     public void setThirdPartyConfiguration(Map<String, String> thirdPartyConfiguration) {
         this.thirdPartyServers = new HashMap<>();
         for (Map.Entry<String, String> entry : thirdPartyConfiguration.entrySet()) {
@@ -117,6 +143,26 @@ public class EventServiceImpl implements EventService {
         this.shouldBeCheckedEventSourceId = shouldBeCheckedEventSourceId;
     }
 
+    public void setAsyncIngestionEnabled(boolean asyncIngestionEnabled) {
+        this.asyncIngestionEnabled = asyncIngestionEnabled;
+    }
+
+    public void setAsyncIngestionWorkers(int asyncIngestionWorkers) {
+        this.asyncIngestionWorkers = asyncIngestionWorkers;
+    }
+
+    public void setAsyncIngestionQueueSize(int asyncIngestionQueueSize) {
+        this.asyncIngestionQueueSize = asyncIngestionQueueSize;
+    }
+
+    public void setAsyncIngestionBatchSize(int asyncIngestionBatchSize) {
+        this.asyncIngestionBatchSize = asyncIngestionBatchSize;
+    }
+
+    public void setAsyncIngestionShutdownTimeout(long asyncIngestionShutdownTimeout) {
+        this.asyncIngestionShutdownTimeout = asyncIngestionShutdownTimeout;
+    }
+
     public void setEventTypeRegistry(EventTypeRegistry eventTypeRegistry) {
         this.eventTypeRegistry = eventTypeRegistry;
     }
@@ -168,10 +214,81 @@ public class EventServiceImpl implements EventService {
     }
 
     public int send(Event event) {
-        return send(event, 0);
+        return send(event, 0, null);
+    }
+
+    @Override
+    public boolean isAsyncIngestionEnabled() {
+        return eventIngestionPipeline != null;
+    }
+
+    @Override
+    public boolean sendAsync(List<Event> events, IntConsumer callback) {
+        EventIngestionPipeline pipeline = eventIngestionPipeline;
+        if (pipeline == null || events.isEmpty()) {
+            return false;
+        }
+        Event firstEvent = events.get(0);
+        String orderingKey = firstEvent.getProfile() != null ? firstEvent.getProfile().getItemId() : firstEvent.getProfileId();
+        if (!pipeline.submit(orderingKey, events, callback)) {
+            logger.debug("Asynchronous event ingestion queue is full, {} events were rejected", events.size());
+            return false;
+        }
+        return true;
+    }
+
+    private int sendAll(List<Event> events) {
+        int changes = NO_CHANGE;
+        Profile profile = null;
+        try (RequestScopedCache ignored = RequestScopedCache.open()) {
+            reloadProfileAndSession(events);
+            for (Event event : events) {
+                // the previous events may have replaced the profile, for example when merging profiles
+                if (profile != null) {
+                    event.setProfile(profile);
+                }
+                // events are persisted through the bulk processor, as nothing waits for them on this thread
+                changes |= send(event, 0, true);
+                if ((changes & PROFILE_UPDATED) == PROFILE_UPDATED) {
+                    profile = event.getProfile();
+                }
+                if ((changes & ERROR) == ERROR) {
+                    logger.error("Error processing events asynchronously, the remaining events of the request were ignored");
+                    break;
+                }
+            }
+        }
+        return changes;
     }
 
-    private int send(Event event, int depth) {
+    /**
+     * Replaces the profile and the session of queued events with their current version. They were loaded when the
+     * events were queued, and the events of the profile processed in the meantime may have modified them, so saving
+     * the queued copies would overwrite these changes. Profiles and sessions that were not saved yet are kept.
+     */
+    private void reloadProfileAndSession(List<Event> events) {
+        Event firstEvent = events.get(0);
+        Profile profile = firstEvent.getProfile();
+        if (profile != null && profile.getItemId() != null) {
+            Profile currentProfile = persistenceService.load(profile.getItemId(), Profile.class);
+            if (currentProfile != null) {
+                profile = currentProfile;
+            }
+        }
+        Session session = firstEvent.getSession();
+        if (session != null && session.getItemId() != null) {
+            Session currentSession = persistenceService.load(session.getItemId(), session.getTimeStamp(), Session.class);
+            if (currentSession != null) {
+                session = currentSession;
+            }
+        }
+        for (Event event : events) {
+            event.setProfile(profile);
+            event.setSession(session);
+        }
+    }
+
+    private int send(Event event, int depth, Boolean useBatching) {
         if (shouldBeCheckedEventSourceId == Boolean.TRUE && sourceService.load(event.getSourceId()) == null) {
             logger.warn("Event sending was rejected, because source with sourceId=\"{}\" does not registered in the system.", event.getSourceId());
             return NO_CHANGE;
@@ -184,7 +301,11 @@ public class EventServiceImpl implements EventService {
 
         boolean saveSucceeded = true;
         if (event.isPersistent()) {
-            saveSucceeded = persistenceService.save(event, null, true);
+            saveSucceeded = persistenceService.save(event, useBatching, true);
+            // the event may now be found by the lookups cached for the request
+            RequestScopedCache.invalidate(RequestScopedCache.EVENTS, event.getItemId());
+            RequestScopedCache.invalidate(RequestScopedCache.RAISED_EVENTS, getRaisedEventKey(event, true));
+            RequestScopedCache.invalidate(RequestScopedCache.RAISED_EVENTS, getRaisedEventKey(event, false));
         }
 
         int changes;
@@ -211,7 +332,7 @@ public class EventServiceImpl implements EventService {
                     Event profileUpdated = new Event("profileUpdated", session, event.getProfile(), event.getSourceId(), event.getSource(), event.getProfile(), event.getTimeStamp());
                     profileUpdated.setPersistent(false);
                     profileUpdated.getAttributes().putAll(event.getAttributes());
-                    changes |= send(profileUpdated, depth + 1);
+                    changes |= send(profileUpdated, depth + 1, useBatching);
                     if (session != null && session.getProfileId() != null) {
                         changes |= SESSION_UPDATED;
                         session.setProfile(event.getProfile());
@@ -373,7 +494,8 @@ public class EventServiceImpl implements EventService {
     }
 
     public boolean hasEventAlreadyBeenRaised(Event event) {
-        Event pastEvent = this.persistenceService.load(event.getItemId(), Event.class);
+        Event pastEvent = RequestScopedCache.get(RequestScopedCache.EVENTS, event.getItemId(),
+                () -> this.persistenceService.load(event.getItemId(), Event.class));
         if (pastEvent != null && pastEvent.getVersion() >= 1) {
             if ((pastEvent.getSessionId() != null && pastEvent.getSessionId().equals(event.getSessionId())) ||
                     (pastEvent.getProfileId() != null && pastEvent.getProfileId().equals(event.getProfileId())))  {
@@ -384,6 +506,19 @@ public class EventServiceImpl implements EventService {
     }
 
     public boolean hasEventAlreadyBeenRaised(Event event, boolean session) {
+        return RequestScopedCache.get(RequestScopedCache.RAISED_EVENTS, getRaisedEventKey(event, session),
+                () -> queryEventAlreadyBeenRaised(event, session));
+    }
+
+    private String getRaisedEventKey(Event event, boolean session) {
+        if (event.getTarget() == null) {
+            return null;
+        }
+        return (session ? "session:" + event.getSessionId() : "profile:" + event.getProfileId()) + "/" + event.getEventType()
+                + "/" + event.getTarget().getItemType() + "/" + event.getTarget().getItemId();
+    }
+
+    private boolean queryEventAlreadyBeenRaised(Event event, boolean session) {
         List<Condition> conditions = new ArrayList<Condition>();
 
         Condition profileIdCondition = new Condition(definitionsService.getConditionType("eventPropertyCondition"));
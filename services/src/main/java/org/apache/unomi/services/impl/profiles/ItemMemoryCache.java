@@ -0,0 +1,217 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.unomi.services.impl.profiles;
+
+import org.apache.unomi.api.Item;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * A cache of items kept in memory on this node, used to avoid loading the profile and the session from the persistence
+ * service on every request of a session. The items are stored serialized, so that every caller gets its own copy that
+ * it can modify, and so that the memory used by the cache can be bounded. Entries expire a fixed time after they were
+ * cached, whether they are used or not, which bounds how long a change made on another node can be missed. The oldest
+ * entries are evicted first when the memory bound is reached.
+ *
+ * The cache is only updated with items that are at least as recent as the cached ones, based on their version, so that
+ * a slower concurrent update cannot replace a more recent item.
+ */
+class ItemMemoryCache<T extends Item> {
+
+    private static final Logger logger = LoggerFactory.getLogger(ItemMemoryCache.class.getName());
+
+    private final Class<T> itemClass;
+    private final long maxMemory;
+    private final long timeToLive;
+    private final LongSupplier clock;
+    // in insertion order, which is also the expiration order as an updated entry is inserted again
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+    private long memory = 0;
+
+    /**
+     * @param itemClass  the class of the cached items
+     * @param maxMemory  the maximum size of the serialized items kept in the cache, in bytes
+     * @param timeToLive the time after which an entry expires, in milliseconds
+     */
+    ItemMemoryCache(Class<T> itemClass, long maxMemory, long timeToLive) {
+        this(itemClass, maxMemory, timeToLive, System::currentTimeMillis);
+    }
+
+    /**
+     * @param itemClass  the class of the cached items
+     * @param maxMemory  the maximum size of the serialized items kept in the cache, in bytes
+     * @param timeToLive the time after which an entry expires, in milliseconds
+     * @param clock      the source of the current time, in milliseconds
+     */
+    ItemMemoryCache(Class<T> itemClass, long maxMemory, long timeToLive, LongSupplier clock) {
+        this.itemClass = itemClass;
+        this.maxMemory = maxMemory;
+        this.timeToLive = timeToLive;
+        this.clock = clock;
+    }
+
+    /**
+     * @param itemId the identifier of the item
+     * @return a copy of the cached item, or {@code null} if it is not cached
+     */
+    T get(String itemId) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(itemId);
+            if (entry == null) {
+                return null;
+            }
+            if (clock.getAsLong() - entry.creationTime > timeToLive) {
+                remove(itemId);
+                return null;
+            }
+        }
+        return deserialize(entry.bytes);
+    }
+
+    /**
+     * Caches a copy of an item, unless a more recent version of the item is already cached.
+     *
+     * @param item the item to cache
+     */
+    void put(T item) {
+        if (item == null || item.getItemId() == null) {
+            return;
+        }
+        byte[] bytes = serialize(item);
+        synchronized (this) {
+            Entry previousEntry = entries.get(item.getItemId());
+            if (previousEntry != null && isOlder(item.getVersion(), previousEntry.version)) {
+                return;
+            }
+            if (bytes == null || bytes.length > maxMemory) {
+                remove(item.getItemId());
+                return;
+            }
+            remove(item.getItemId());
+            entries.put(item.getItemId(), new Entry(bytes, item.getVersion(), clock.getAsLong()));
+            memory += bytes.length;
+            evict();
+        }
+    }
+
+    synchronized void invalidate(String itemId) {
+        if (itemId != null) {
+            remove(itemId);
+        }
+    }
+
+    synchronized void invalidateAll() {
+        entries.clear();
+        memory = 0;
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized long getMemory() {
+        return memory;
+    }
+
+    private void remove(String itemId) {
+        Entry entry = entries.remove(itemId);
+        if (entry != null) {
+            memory -= entry.bytes.length;
+        }
+    }
+
+    private void evict() {
+        long now = clock.getAsLong();
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            // entries are in insertion order, so the first entry that has not expired ends the expired ones
+            if (memory <= maxMemory && now - entry.creationTime <= timeToLive) {
+                return;
+            }
+            iterator.remove();
+            memory -= entry.bytes.length;
+        }
+    }
+
+    private static boolean isOlder(Long version, Long cachedVersion) {
+        return cachedVersion != null && (version == null || version < cachedVersion);
+    }
+
+    private byte[] serialize(T item) {
+        try (ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+             ObjectOutputStream objectOutputStream = new ObjectOutputStream(byteArrayOutputStream)) {
+            objectOutputStream.writeObject(item);
+            objectOutputStream.flush();
+            return byteArrayOutputStream.toByteArray();
+        } catch (IOException e) {
+            logger.warn("Error serializing item {}, it will not be cached", item.getItemId(), e);
+            return null;
+        }
+    }
+
+    private T deserialize(byte[] bytes) {
+        try (ObjectInputStream objectInputStream = new ClassLoaderObjectInputStream(new ByteArrayInputStream(bytes), itemClass.getClassLoader())) {
+            return itemClass.cast(objectInputStream.readObject());
+        } catch (IOException | ClassNotFoundException e) {
+            logger.warn("Error deserializing cached item", e);
+            return null;
+        }
+    }
+
+    private static class Entry {
+        private final byte[] bytes;
+        private final Long version;
+        private final long creationTime;
+
+        private Entry(byte[] bytes, Long version, long creationTime) {
+            this.bytes = bytes;
+            this.version = version;
+            this.creationTime = creationTime;
+        }
+    }
+
+    /**
+     * Resolves the classes of the cached items with the class loader of the API bundle instead of the one of the
+     * caller, as property values may be of any class visible from there.
+     */
+    private static class ClassLoaderObjectInputStream extends ObjectInputStream {
+        private final ClassLoader classLoader;
+
+        private ClassLoaderObjectInputStream(InputStream inputStream, ClassLoader classLoader) throws IOException {
+            super(inputStream);
+            this.classLoader = classLoader;
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            try {
+                return Class.forName(desc.getName(), false, classLoader);
+            } catch (ClassNotFoundException e) {
+                return super.resolveClass(desc);
+            }
+        }
+    }
+}
@@ -39,7 +39,9 @@ import org.apache.unomi.api.services.DefinitionsService;
 import org.apache.unomi.api.services.ProfileService;
 import org.apache.unomi.api.services.SchedulerService;
 import org.apache.unomi.api.services.SegmentService;
+import org.apache.unomi.api.utils.RequestScopedCache;
 import org.apache.unomi.persistence.spi.CustomObjectMapper;
+import org.apache.unomi.persistence.spi.ItemChangeListener;
 import org.apache.unomi.persistence.spi.PersistenceService;
 import org.apache.unomi.persistence.spi.PropertyHelper;
 import org.apache.unomi.services.impl.ParserHelper;
@@ -52,8 +54,14 @@ import org.osgi.framework.SynchronousBundleListener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
@@ -64,6 +72,7 @@ import java.util.Enumeration;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -72,7 +81,9 @@ import java.util.Set;
 import java.util.TimerTask;
 import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -186,6 +197,8 @@ public class ProfileServiceImpl implements ProfileService, SynchronousBundleList
 
     private static final Logger logger = LoggerFactory.getLogger(ProfileServiceImpl.class.getName());
 
+    private static final int EXPORT_PAGE_SIZE = 1000;
+
     private BundleContext bundleContext;
 
     private PersistenceService persistenceService;
@@ -207,6 +220,14 @@ public class ProfileServiceImpl implements ProfileService, SynchronousBundleList
 
     private boolean forceRefreshOnSave = false;
 
+    private boolean cacheEnabled = false;
+    private long cacheMaxMemoryInMB = 64;
+    private long cacheTimeToLiveInSeconds = 60;
+    private ItemMemoryCache<Profile> profileCache;
+    private ItemMemoryCache<Session> sessionCache;
+    // invalidates the cached profiles and sessions written by any service, not only through this one
+    private final ItemChangeListener cacheInvalidationListener = this::invalidateCachedItem;
+
     public ProfileServiceImpl() {
         logger.info("Initializing profile service...");
     }
@@ -239,9 +260,22 @@ public class ProfileServiceImpl implements ProfileService, SynchronousBundleList
         this.propertiesRefreshInterval = propertiesRefreshInterval;
     }
 
+    public void setCacheEnabled(boolean cacheEnabled) {
+        this.cacheEnabled = cacheEnabled;
+    }
+
+    public void setCacheMaxMemoryInMB(long cacheMaxMemoryInMB) {
+        this.cacheMaxMemoryInMB = cacheMaxMemoryInMB;
+    }
+
+    public void setCacheTimeToLiveInSeconds(long cacheTimeToLiveInSeconds) {
+        this.cacheTimeToLiveInSeconds = cacheTimeToLiveInSeconds;
+    }
+
     public void postConstruct() {
         logger.debug("postConstruct {" + bundleContext.getBundle() + "}");
 
+        initializeCaches();
         loadPropertyTypesFromPersistence();
         processBundleStartup(bundleContext);
         for (Bundle bundle : bundleContext.getBundles()) {
@@ -255,8 +289,24 @@ public class ProfileServiceImpl implements ProfileService, SynchronousBundleList
         logger.info("Profile service initialized.");
     }
 
+    void initializeCaches() {
+        if (cacheEnabled) {
+            // the memory is split between profiles and sessions
+            long cacheMaxMemory = cacheMaxMemoryInMB * 1024 * 1024 / 2;
+            long cacheTimeToLive = TimeUnit.SECONDS.toMillis(cacheTimeToLiveInSeconds);
+            profileCache = new ItemMemoryCache<>(Profile.class, cacheMaxMemory, cacheTimeToLive);
+            sessionCache = new ItemMemoryCache<>(Session.class, cacheMaxMemory, cacheTimeToLive);
+            persistenceService.addItemChangeListener(cacheInvalidationListener);
+        }
+    }
+
     public void preDestroy() {
         bundleContext.removeBundleListener(this);
+        if (profileCache != null) {
+            persistenceService.removeItemChangeListener(cacheInvalidationListener);
+        }
+        profileCache = null;
+        sessionCache = null;
         logger.info("Profile service shutdown.");
     }
 
@@ -472,65 +522,118 @@ public class ProfileServiceImpl implements ProfileService, SynchronousBundleList
     }
 
     public String exportProfilesPropertiesToCsv(Query query) {
-        StringBuilder sb = new StringBuilder();
+        List<Profile> profiles = search(query, Profile.class).getList();
+        StringWriter writer = new StringWriter();
+        try {
+            writeProfilesPropertiesToCsv(writer, profiles::stream);
+        } catch (IOException e) {
+            // a StringWriter never throws IOException
+            throw new IllegalStateException(e);
+        }
+        return writer.toString();
+    }
+
+    @Override
+    public void exportProfilesPropertiesToCsv(Query query, OutputStream outputStream) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+        if (StringUtils.isNotBlank(query.getText())) {
+            // full text queries can't be streamed
+            List<Profile> profiles = search(query, Profile.class).getList();
+            writeProfilesPropertiesToCsv(writer, profiles::stream);
+        } else {
+            writeProfilesPropertiesToCsv(writer, () -> streamProfiles(query));
+        }
+        writer.flush();
+    }
+
+    private Stream<Profile> streamProfiles(Query query) {
+        Condition condition = query.getCondition();
+        if (condition == null || !definitionsService.resolveConditionType(condition)) {
+            condition = new Condition(definitionsService.getConditionType("matchAllCondition"));
+        }
+        Stream<Profile> profiles = persistenceService.stream(condition, Profile.class, EXPORT_PAGE_SIZE);
+        if (query.getOffset() > 0) {
+            profiles = profiles.skip(query.getOffset());
+        }
+        if (query.getLimit() >= 0) {
+            profiles = profiles.limit(query.getLimit());
+        }
+        return profiles;
+    }
+
+    /**
+     * Writes the profiles as CSV, reading them twice: the first time to collect the properties used as columns and the
+     * segments of the profiles, the second time to write the rows, so that the profiles never need to be all in memory.
+     */
+    private void writeProfilesPropertiesToCsv(Writer writer, Supplier<Stream<Profile>> profilesSupplier) throws IOException {
         Set<PropertyType> propertyTypes = getExistingProperties("profileProperties", Profile.ITEM_TYPE);
-        PartialList<Profile> profiles = search(query, Profile.class);
 
         HashMap<String, PropertyType> propertyTypesById = new LinkedHashMap<>();
         for (PropertyType propertyType : propertyTypes) {
             propertyTypesById.put(propertyType.getMetadata().getId(), propertyType);
         }
-        for (Profile profile : profiles.getList()) {
-            for (String key : profile.getProperties().keySet()) {
-                if (!propertyTypesById.containsKey(key)) {
-                    propertyTypesById.put(key, null);
+        Set<String> segmentIds = new HashSet<>();
+        try (Stream<Profile> profiles = profilesSupplier.get()) {
+            profiles.forEach(profile -> {
+                for (String key : profile.getProperties().keySet()) {
+                    if (!propertyTypesById.containsKey(key)) {
+                        propertyTypesById.put(key, null);
+                    }
                 }
-            }
+                segmentIds.addAll(profile.getSegments());
+            });
+        }
+        Map<String, String> segmentNamesById = new HashMap<>();
+        for (Segment segment : persistenceService.loadAll(segmentIds, Segment.class)) {
+            segmentNamesById.put(segment.getItemId(), segment.getMetadata().getName());
         }
 
-        sb.append("profileId;");
+        writer.append("profileId;");
         // headers
         for (String propertyId : propertyTypesById.keySet()) {
-            sb.append(propertyId);
-            sb.append(";");
+            writer.append(propertyId);
+            writer.append(";");
         }
-        sb.append("segments\n");
+        writer.append("segments\n");
 
         // rows
-        for (Profile profile : profiles.getList()) {
-            sb.append(profile.getItemId());
-            sb.append(";");
-            for (Map.Entry<String, PropertyType> propertyIdAndType : propertyTypesById.entrySet()) {
-                String propertyId = propertyIdAndType.getKey();
-                if (profile.getProperties().get(propertyId) != null) {
-                    handleExportProperty(sb, profile.getProperties().get(propertyId), propertyIdAndType.getValue());
-                } else {
-                    sb.append("");
+        try (Stream<Profile> profiles = profilesSupplier.get()) {
+            Iterator<Profile> profileIterator = profiles.iterator();
+            while (profileIterator.hasNext()) {
+                Profile profile = profileIterator.next();
+                writer.append(profile.getItemId());
+                writer.append(";");
+                for (Map.Entry<String, PropertyType> propertyIdAndType : propertyTypesById.entrySet()) {
+                    String propertyId = propertyIdAndType.getKey();
+                    if (profile.getProperties().get(propertyId) != null) {
+                        handleExportProperty(writer, profile.getProperties().get(propertyId), propertyIdAndType.getValue());
+                    }
+                    writer.append(";");
                 }
-                sb.append(";");
-            }
-            List<String> segmentNames = new ArrayList<String>();
-            for (String segment : profile.getSegments()) {
-                Segment s = segmentService.getSegmentDefinition(segment);
-                segmentNames.add(csvEncode(s.getMetadata().getName()));
+                List<String> segmentNames = new ArrayList<String>();
+                for (String segment : profile.getSegments()) {
+                    String segmentName = segmentNamesById.get(segment);
+                    if (segmentName != null) {
+                        segmentNames.add(csvEncode(segmentName));
+                    }
+                }
+                writer.append(csvEncode(StringUtils.join(segmentNames, ",")));
+                writer.append('\n');
             }
-            sb.append(csvEncode(StringUtils.join(segmentNames, ",")));
-            sb.append('\n');
         }
-        return sb.toString();
     }
 
     // TODO may be moved this in a specific Export Utils Class and improve it to handle date format, ...
-    private void handleExportProperty(StringBuilder sb, Object propertyValue, PropertyType propertyType) {
+    private void handleExportProperty(Writer writer, Object propertyValue, PropertyType propertyType) throws IOException {
         if (propertyValue instanceof Collection && propertyType != null && propertyType.isMultivalued() != null && propertyType.isMultivalued()) {
             Collection propertyValues = (Collection) propertyValue;
             Collection encodedValues = new ArrayList(propertyValues.size());
             for (Object value : propertyValues) {
                 encodedValues.add(csvEncode(value.toString()));
             }
-            sb.append(csvEncode(StringUtils.join(encodedValues, ",")));
+            writer.append(csvEncode(StringUtils.join(encodedValues, ",")));
         } else {
-            sb.append(csvEncode(propertyValue.toString()));
+            writer.append(csvEncode(propertyValue.toString()));
         }
     }
 
@@ -546,7 +649,20 @@ public class ProfileServiceImpl implements ProfileService, SynchronousBundleList
     }
 
     public Profile load(String profileId) {
-        return persistenceService.load(profileId, Profile.class);
+        return RequestScopedCache.get(RequestScopedCache.PROFILES, profileId, () -> loadProfileThroughCache(profileId));
+    }
+
+    private Profile loadProfileThroughCache(String profileId) {
+        ItemMemoryCache<Profile> profileCache = this.profileCache;
+        if (profileCache == null) {
+            return persistenceService.load(profileId, Profile.class);
+        }
+        Profile profile = profileCache.get(profileId);
+        if (profile == null) {
+            profile = persistenceService.load(profileId, Profile.class);
+            profileCache.put(profile);
+        }
+        return profile;
     }
 
     public Profile save(Profile profile) {
@@ -558,16 +674,22 @@ public class ProfileServiceImpl implements ProfileService, SynchronousBundleList
             return null;
         }
         profile.setSystemProperty("lastUpdated", new Date());
+        invalidateProfile(profile.getItemId());
         if (persistenceService.save(profile)) {
             if (forceRefresh) {
                 persistenceService.refreshIndex(Profile.class, null);
             }
+            RequestScopedCache.put(RequestScopedCache.PROFILES, profile.getItemId(), profile);
+            if (profileCache != null) {
+                profileCache.put(profile);
+            }
             return profile;
         }
         return null;
     }
 
     public Profile saveOrMerge(Profile profile) {
+        invalidateProfile(profile.getItemId());
         Profile previousProfile = persistenceService.load(profile.getItemId(), Profile.class);
         profile.setSystemProperty("lastUpdated", new Date());
         if (previousProfile == null) {
@@ -577,6 +699,7 @@ public class ProfileServiceImpl implements ProfileService, SynchronousBundleList
                 return null;
             }
         } else if (merge(previousProfile, profile)) {
+            previousProfile.setSystemProperty("lastUpdated", new Date());
             if (persistenceService.save(previousProfile)) {
                 return previousProfile;
             } else {
@@ -587,6 +710,7 @@ public class ProfileServiceImpl implements ProfileService, SynchronousBundleList
     }
 
     public Persona savePersona(Persona profile) {
+        invalidateProfile(profile.getItemId());
         profile.setSystemProperty("lastUpdated", new Date());
         if (persistenceService.load(profile.getItemId(), Persona.class) == null) {
             Session session = new PersonaSession(UUID.randomUUID().toString(), profile, new Date());
@@ -600,6 +724,8 @@ public class ProfileServiceImpl implements ProfileService, SynchronousBundleList
     }
 
     public void delete(String profileId, boolean persona) {
+        // profiles merged with the deleted one are removed as well
+        invalidateAllProfiles();
         if (persona) {
             persistenceService.remove(profileId, Persona.class);
         } else {
@@ -614,6 +740,11 @@ public class ProfileServiceImpl implements ProfileService, SynchronousBundleList
     }
 
     public Profile mergeProfiles(Profile masterProfile, List<Profile> profilesToMerge) {
+        // the merged profiles are modified without going through this service
+        invalidateProfile(masterProfile.getItemId());
+        for (Profile profileToMerge : profilesToMerge) {
+            invalidateProfile(profileToMerge.getItemId());
+        }
 
         // now let's remove all the already merged profiles from the list.
         List<Profile> filteredProfilesToMerge = new ArrayList<>();
@@ -721,6 +852,7 @@ public class ProfileServiceImpl implements ProfileService, SynchronousBundleList
         }
 
         if (masterProfileChanged) {
+            masterProfile.setSystemProperty("lastUpdated", new Date());
             persistenceService.save(masterProfile);
         }
 
@@ -743,19 +875,88 @@ public class ProfileServiceImpl implements ProfileService, SynchronousBundleList
         return null;
     }
 
+    /**
+     * The sessions loaded while processing a request are kept by sessionId only: the date hint only selects the index
+     * the session is looked up in, so a session which was found is the same whatever the date hint, and the events of
+     * the request share the same instance. A session missing from the index of a date hint may however be found with
+     * another date hint, so the sessions which were not found are not kept.
+     */
     public Session loadSession(String sessionId, Date dateHint) {
-        Session s = persistenceService.load(sessionId, dateHint, Session.class);
-        if (s == null && dateHint != null) {
-            GregorianCalendar gc = new GregorianCalendar();
-            gc.setTime(dateHint);
-            if (gc.get(Calendar.DAY_OF_MONTH) == 1) {
-                gc.add(Calendar.DAY_OF_MONTH, -1);
-                s = persistenceService.load(sessionId, gc.getTime(), Session.class);
+        Session session = RequestScopedCache.get(RequestScopedCache.SESSIONS, sessionId, () -> loadSessionThroughCache(sessionId, dateHint));
+        if (session == null) {
+            RequestScopedCache.invalidate(RequestScopedCache.SESSIONS, sessionId);
+        }
+        return session;
+    }
+
+    private Session loadSessionThroughCache(String sessionId, Date dateHint) {
+        ItemMemoryCache<Session> sessionCache = this.sessionCache;
+        if (sessionCache == null) {
+            return loadSessionFromPersistence(sessionId, dateHint);
+        }
+        Session session = sessionCache.get(sessionId);
+        if (session == null) {
+            session = loadSessionFromPersistence(sessionId, dateHint);
+            sessionCache.put(session);
+        }
+        return session;
+    }
+
+    @Override
+    public CompletableFuture<Session> loadSessionAsync(String sessionId, Date dateHint) {
+        ItemMemoryCache<Session> sessionCache = this.sessionCache;
+        if (sessionCache == null) {
+            return loadSessionFromPersistenceAsync(sessionId, dateHint);
+        }
+        Session session = sessionCache.get(sessionId);
+        if (session != null) {
+            return CompletableFuture.completedFuture(session);
+        }
+        return loadSessionFromPersistenceAsync(sessionId, dateHint).thenApply(loadedSession -> {
+            sessionCache.put(loadedSession);
+            return loadedSession;
+        });
+    }
+
+    private CompletableFuture<Session> loadSessionFromPersistenceAsync(String sessionId, Date dateHint) {
+        return persistenceService.loadAsync(sessionId, dateHint, Session.class).thenCompose(s -> {
+            Date previousMonthDateHint = s == null ? getPreviousMonthDateHint(dateHint) : null;
+            if (previousMonthDateHint != null) {
+                return persistenceService.loadAsync(sessionId, previousMonthDateHint, Session.class);
             }
+            return CompletableFuture.completedFuture(s);
+        });
+    }
+
+    private Session loadSessionFromPersistence(String sessionId, Date dateHint) {
+        Session s = persistenceService.load(sessionId, dateHint, Session.class);
+        Date previousMonthDateHint = s == null ? getPreviousMonthDateHint(dateHint) : null;
+        if (previousMonthDateHint != null) {
+            s = persistenceService.load(sessionId, previousMonthDateHint, Session.class);
         }
         return s;
     }
 
+    /**
+     * A session started at the end of a month may still be used on the first day of the next month, while it is stored
+     * in the index of the month it started in.
+     *
+     * @param dateHint the date hint used to load the session
+     * @return the day before the date hint if it is the first day of a month, {@code null} otherwise
+     */
+    private static Date getPreviousMonthDateHint(Date dateHint) {
+        if (dateHint == null) {
+            return null;
+        }
+        GregorianCalendar gc = new GregorianCalendar();
+        gc.setTime(dateHint);
+        if (gc.get(Calendar.DAY_OF_MONTH) != 1) {
+            return null;
+        }
+        gc.add(Calendar.DAY_OF_MONTH, -1);
+        return gc.getTime();
+    }
+
     public Session saveSession(Session session) {
         if (session.getItemId() == null) {
             return null;
@@ -763,7 +964,15 @@ public class ProfileServiceImpl implements ProfileService, SynchronousBundleList
         if (session.getProfile() != null && session.getProfile().getProperties() != null) {
             session.getProfile().setProperties(removePersonalIdentifiersFromSessionProfile(session.getProfile().getProperties()));
         }
-        return persistenceService.save(session) ? session : null;
+        invalidateSession(session.getItemId());
+        if (persistenceService.save(session)) {
+            RequestScopedCache.put(RequestScopedCache.SESSIONS, session.getItemId(), session);
+            if (sessionCache != null) {
+                sessionCache.put(session);
+            }
+            return session;
+        }
+        return null;
     }
 
     private Map removePersonalIdentifiersFromSessionProfile(final Map<String, Object> profileProperties) {
@@ -792,6 +1001,48 @@ public class ProfileServiceImpl implements ProfileService, SynchronousBundleList
         profileCondition.setParameter("propertyValue", profileId);
 
         persistenceService.removeByQuery(profileCondition, Session.class);
+        RequestScopedCache.invalidateAll(RequestScopedCache.SESSIONS);
+        if (sessionCache != null) {
+            sessionCache.invalidateAll();
+        }
+    }
+
+    private void invalidateCachedItem(String itemType, String itemId) {
+        ItemMemoryCache<? extends Item> cache = null;
+        if (Profile.ITEM_TYPE.equalsIgnoreCase(itemType)) {
+            cache = profileCache;
+        } else if (Session.ITEM_TYPE.equalsIgnoreCase(itemType)) {
+            cache = sessionCache;
+        }
+        if (cache == null) {
+            return;
+        }
+        if (itemId == null) {
+            cache.invalidateAll();
+        } else {
+            cache.invalidate(itemId);
+        }
+    }
+
+    private void invalidateProfile(String profileId) {
+        RequestScopedCache.invalidate(RequestScopedCache.PROFILES, profileId);
+        if (profileCache != null) {
+            profileCache.invalidate(profileId);
+        }
+    }
+
+    private void invalidateAllProfiles() {
+        RequestScopedCache.invalidateAll(RequestScopedCache.PROFILES);
+        if (profileCache != null) {
+            profileCache.invalidateAll();
+        }
+    }
+
+    private void invalidateSession(String sessionId) {
+        RequestScopedCache.invalidate(RequestScopedCache.SESSIONS, sessionId);
+        if (sessionCache != null) {
+            sessionCache.invalidate(sessionId);
+        }
     }
 
     @Override
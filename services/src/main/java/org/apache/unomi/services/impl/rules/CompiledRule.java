@@ -0,0 +1,192 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.unomi.services.impl.rules;
+
+import org.apache.unomi.api.actions.Action;
+import org.apache.unomi.api.conditions.Condition;
+import org.apache.unomi.api.conditions.ConditionType;
+import org.apache.unomi.api.rules.Rule;
+import org.apache.unomi.api.services.DefinitionsService;
+import org.apache.unomi.services.impl.ParserHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+/**
+ * A rule with its system tagged sub-conditions already extracted, so that the condition tree of the rule doesn't need
+ * to be walked and rebuilt every time an event is evaluated against it.
+ *
+ * A compiled rule depends on the condition and on the condition types of the rule it was built from, it must be
+ * rebuilt when any of them changes (see {@link #isUpToDate(Rule)}).
+ */
+public class CompiledRule {
+
+    private static final Logger logger = LoggerFactory.getLogger(CompiledRule.class.getName());
+
+    /**
+     * The system tag of the action types reading the HTTP request or response attached to the events.
+     */
+    static final String HTTP_REQUEST_TAG = "httpRequest";
+
+    private final Rule rule;
+    private final List<ConditionType> conditionTypes;
+    private final boolean valid;
+    private final Condition eventCondition;
+    private final Condition sourceEventCondition;
+    private final Condition profileCondition;
+    private final Condition sessionCondition;
+    private final Condition trackedCondition;
+    private final boolean requestRequired;
+
+    CompiledRule(Rule rule, Condition eventCondition, Condition sourceEventCondition, Condition profileCondition,
+                 Condition sessionCondition, Condition trackedCondition) {
+        this(rule, rule.getCondition() != null ? ParserHelper.getConditionTypes(rule.getCondition()) : null, true,
+                eventCondition, sourceEventCondition, profileCondition, sessionCondition, trackedCondition);
+    }
+
+    private CompiledRule(Rule rule, List<ConditionType> conditionTypes, boolean valid, Condition eventCondition,
+                         Condition sourceEventCondition, Condition profileCondition, Condition sessionCondition,
+                         Condition trackedCondition) {
+        this.rule = rule;
+        this.conditionTypes = conditionTypes;
+        this.valid = valid;
+        this.eventCondition = eventCondition;
+        this.sourceEventCondition = sourceEventCondition;
+        this.profileCondition = profileCondition;
+        this.sessionCondition = sessionCondition;
+        this.trackedCondition = trackedCondition;
+        this.requestRequired = hasRequestAction(rule);
+    }
+
+    private static boolean hasRequestAction(Rule rule) {
+        if (rule.getActions() == null) {
+            return false;
+        }
+        for (Action action : rule.getActions()) {
+            if (action.getActionType() != null && action.getActionType().getMetadata().getSystemTags() != null
+                    && action.getActionType().getMetadata().getSystemTags().contains(HTTP_REQUEST_TAG)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Compiles a rule whose condition types have already been resolved.
+     *
+     * @param rule               the rule to compile
+     * @param definitionsService the definitions service used to extract the sub-conditions
+     * @return the compiled rule, which is not {@link #isValid() valid} if its sub-conditions couldn't be extracted
+     */
+    public static CompiledRule compile(Rule rule, DefinitionsService definitionsService) {
+        Condition condition = rule.getCondition();
+        if (condition == null) {
+            return new CompiledRule(rule, null, false, null, null, null, null, null);
+        }
+        try {
+            return new CompiledRule(rule,
+                    definitionsService.extractConditionBySystemTag(condition, "eventCondition"),
+                    definitionsService.extractConditionBySystemTag(condition, "sourceEventCondition"),
+                    definitionsService.extractConditionBySystemTag(condition, "profileCondition"),
+                    definitionsService.extractConditionBySystemTag(condition, "sessionCondition"),
+                    definitionsService.extractConditionBySystemTag(condition, "trackedCondition"));
+        } catch (RuntimeException e) {
+            logger.error("Couldn't extract sub-conditions of rule {}, it will not be evaluated", rule.getItemId(), e);
+            return new CompiledRule(rule, ParserHelper.getConditionTypes(condition), false, null, null, null, null, null);
+        }
+    }
+
+    /**
+     * Checks if this compiled rule can still be used for the specified version of the rule, which is the case if the
+     * conditions are equal and resolved to the same condition type instances (condition types are reloaded when they
+     * change).
+     *
+     * @param rule a version of the rule, with its condition types resolved
+     * @return {@code true} if this compiled rule is still valid for the specified rule, {@code false} otherwise
+     */
+    public boolean isUpToDate(Rule rule) {
+        if (rule.getCondition() == null || this.rule.getCondition() == null) {
+            return false;
+        }
+        if (!rule.getCondition().equals(this.rule.getCondition())) {
+            return false;
+        }
+        List<ConditionType> newConditionTypes = ParserHelper.getConditionTypes(rule.getCondition());
+        if (conditionTypes == null || newConditionTypes.size() != conditionTypes.size()) {
+            return false;
+        }
+        for (int i = 0; i < newConditionTypes.size(); i++) {
+            if (newConditionTypes.get(i) == null || newConditionTypes.get(i) != conditionTypes.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reuses the extracted sub-conditions for another, up-to-date, version of the rule, for example because its
+     * actions have changed.
+     *
+     * @param rule the new version of the rule
+     * @return a compiled rule for the new version of the rule
+     */
+    public CompiledRule withRule(Rule rule) {
+        return new CompiledRule(rule, conditionTypes, valid, eventCondition, sourceEventCondition, profileCondition,
+                sessionCondition, trackedCondition);
+    }
+
+    public Rule getRule() {
+        return rule;
+    }
+
+    /**
+     * @return {@code false} if the sub-conditions of the rule couldn't be extracted, in which case the rule must not
+     * be evaluated
+     */
+    public boolean isValid() {
+        return valid;
+    }
+
+    public Condition getEventCondition() {
+        return eventCondition;
+    }
+
+    public Condition getSourceEventCondition() {
+        return sourceEventCondition;
+    }
+
+    public Condition getProfileCondition() {
+        return profileCondition;
+    }
+
+    public Condition getSessionCondition() {
+        return sessionCondition;
+    }
+
+    public Condition getTrackedCondition() {
+        return trackedCondition;
+    }
+
+    /**
+     * @return {@code true} if one of the actions of the rule reads the HTTP request or response attached to the event
+     */
+    public boolean isRequestRequired() {
+        return requestRequired;
+    }
+}
@@ -0,0 +1,457 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.unomi.services.impl.rules;
+
+import org.apache.unomi.api.CustomItem;
+import org.apache.unomi.api.Event;
+import org.apache.unomi.api.Item;
+import org.apache.unomi.api.Metadata;
+import org.apache.unomi.api.conditions.Condition;
+import org.apache.unomi.api.conditions.ConditionType;
+import org.apache.unomi.api.rules.Rule;
+import org.apache.unomi.services.impl.ParserHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+/**
+ * A compiled, read-only index of the rules used to quickly find the rules that may match an event. It is rebuilt
+ * every time the rules are refreshed and replaced atomically, so it never needs to be synchronized.
+ *
+ * Rules are partitioned by event type and scope, and the "equals" and "in" property conditions that must hold for
+ * the event condition of a rule to match (the ones only reachable through "and" boolean conditions) are indexed by
+ * property name and value. The index is conservative: every rule that could match an event is returned as a
+ * candidate, but candidates must still be evaluated against their full condition.
+ */
+public class RuleMatchingIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(RuleMatchingIndex.class.getName());
+
+    public static final RuleMatchingIndex EMPTY = new RuleMatchingIndex(Collections.<CompiledRule>emptyList());
+
+    static final Object UNKNOWN_VALUE = new Object();
+
+    private static final String ALL_EVENT_TYPES = "*";
+    private static final String PROPERTY_CONDITION_EVALUATOR = "propertyConditionEvaluator";
+    private static final String BOOLEAN_CONDITION_EVALUATOR = "booleanConditionEvaluator";
+    private static final String PARAMETER_PREFIX = "parameter::";
+    private static final String SCRIPT_PREFIX = "script::";
+
+    private final List<CompiledRule> rules;
+    private final Map<String, BitSet> rulesByEventType = new HashMap<>();
+    private final Map<String, BitSet> rulesByScope = new HashMap<>();
+    private final Map<String, PropertyIndex> propertyIndexes = new LinkedHashMap<>();
+
+    private RuleMatchingIndex(List<CompiledRule> rules) {
+        this.rules = rules;
+    }
+
+    /**
+     * Builds a new index for the given rules.
+     *
+     * @param rules the rules to index, in the order in which they should be evaluated
+     * @return the new index
+     */
+    public static RuleMatchingIndex build(List<CompiledRule> rules) {
+        List<CompiledRule> indexedRules = new ArrayList<>(rules.size());
+        RuleMatchingIndex index = new RuleMatchingIndex(indexedRules);
+        for (CompiledRule compiledRule : rules) {
+            Rule rule = compiledRule.getRule();
+            if (!compiledRule.isValid() || !rule.getMetadata().isEnabled() || rule.getMetadata().getScope() == null) {
+                continue;
+            }
+            Set<String> eventTypeIds = ParserHelper.resolveConditionEventTypes(rule.getCondition());
+            if (eventTypeIds.isEmpty()) {
+                continue;
+            }
+            Condition eventCondition = compiledRule.getEventCondition();
+            if (eventCondition == null) {
+                // rules without event condition never match
+                continue;
+            }
+            List<IndexedPredicate> predicates = new ArrayList<>();
+            try {
+                collectRequiredPredicates(eventCondition, null, predicates);
+            } catch (RuntimeException e) {
+                // the rule will always be a candidate, any error will be reported when it is evaluated
+                logger.debug("Couldn't extract indexable predicates from rule {}", rule.getItemId(), e);
+                predicates.clear();
+            }
+
+            int position = indexedRules.size();
+            indexedRules.add(compiledRule);
+            for (String eventTypeId : eventTypeIds) {
+                index.rulesByEventType.computeIfAbsent(eventTypeId, k -> new BitSet()).set(position);
+            }
+            index.rulesByScope.computeIfAbsent(rule.getMetadata().getScope(), k -> new BitSet()).set(position);
+            for (IndexedPredicate predicate : predicates) {
+                index.propertyIndexes.computeIfAbsent(predicate.propertyName, PropertyIndex::new).add(position, predicate.values);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Retrieves the rules that may match the specified event, in evaluation order.
+     *
+     * @param event the event to match rules against
+     * @return the candidate rules, that still need to be evaluated
+     */
+    public List<CompiledRule> getCandidateRules(Event event) {
+        if (rules.isEmpty()) {
+            return Collections.emptyList();
+        }
+        BitSet candidates = new BitSet(rules.size());
+        BitSet eventTypeRules = rulesByEventType.get(event.getEventType());
+        if (eventTypeRules != null) {
+            candidates.or(eventTypeRules);
+        }
+        BitSet allEventTypesRules = rulesByEventType.get(ALL_EVENT_TYPES);
+        if (allEventTypesRules != null) {
+            candidates.or(allEventTypesRules);
+        }
+        if (candidates.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        BitSet scopeRules = new BitSet(rules.size());
+        BitSet systemScopeRules = rulesByScope.get(Metadata.SYSTEM_SCOPE);
+        if (systemScopeRules != null) {
+            scopeRules.or(systemScopeRules);
+        }
+        if (event.getSourceId() != null) {
+            BitSet sourceScopeRules = rulesByScope.get(event.getSourceId());
+            if (sourceScopeRules != null) {
+                scopeRules.or(sourceScopeRules);
+            }
+        }
+        candidates.and(scopeRules);
+
+        for (PropertyIndex propertyIndex : propertyIndexes.values()) {
+            if (candidates.isEmpty()) {
+                return Collections.emptyList();
+            }
+            if (!candidates.intersects(propertyIndex.constrainedRules)) {
+                continue;
+            }
+            Collection<String> keys = getValueKeys(readEventProperty(event, propertyIndex.propertyName));
+            if (keys == null) {
+                // the value can't be compared against the index, keep all rules
+                continue;
+            }
+            BitSet rejectedRules = (BitSet) propertyIndex.constrainedRules.clone();
+            for (String key : keys) {
+                BitSet matchingRules = propertyIndex.rulesByValue.get(key);
+                if (matchingRules != null) {
+                    rejectedRules.andNot(matchingRules);
+                }
+            }
+            candidates.andNot(rejectedRules);
+        }
+
+        List<CompiledRule> candidateRules = new ArrayList<>(candidates.cardinality());
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+            candidateRules.add(rules.get(i));
+        }
+        return candidateRules;
+    }
+
+    /**
+     * @return the number of rules in this index
+     */
+    public int size() {
+        return rules.size();
+    }
+
+    /**
+     * @return the names of the properties for which at least one rule has an indexed predicate
+     */
+    public Set<String> getIndexedPropertyNames() {
+        return Collections.unmodifiableSet(propertyIndexes.keySet());
+    }
+
+    private static void collectRequiredPredicates(Condition condition, Map<String, Object> wrapperParameters, List<IndexedPredicate> predicates) {
+        ConditionType conditionType = condition.getConditionType();
+        if (conditionType == null) {
+            return;
+        }
+        // parameters are resolved against the context built by the condition evaluators, in which the parameters of
+        // the wrapping condition are the last ones to be added before evaluating the parent condition.
+        Map<String, Object> parameters = resolveParameters(condition.getParameterValues(), wrapperParameters);
+        if (parameters == null) {
+            return;
+        }
+        if (conditionType.getParentCondition() != null) {
+            collectRequiredPredicates(conditionType.getParentCondition(), condition.getParameterValues(), predicates);
+            return;
+        }
+        String conditionEvaluator = conditionType.getConditionEvaluator();
+        if (BOOLEAN_CONDITION_EVALUATOR.equals(conditionEvaluator)) {
+            Object operator = parameters.get("operator");
+            Object subConditions = parameters.get("subConditions");
+            if (operator instanceof String && "and".equalsIgnoreCase((String) operator) && subConditions instanceof List) {
+                for (Object subCondition : (List<?>) subConditions) {
+                    if (subCondition instanceof Condition) {
+                        collectRequiredPredicates((Condition) subCondition, null, predicates);
+                    }
+                }
+            }
+        } else if (PROPERTY_CONDITION_EVALUATOR.equals(conditionEvaluator)) {
+            IndexedPredicate predicate = getPropertyPredicate(parameters);
+            if (predicate != null) {
+                predicates.add(predicate);
+            }
+        }
+    }
+
+    private static IndexedPredicate getPropertyPredicate(Map<String, Object> parameters) {
+        Object propertyName = parameters.get("propertyName");
+        Object operator = parameters.get("comparisonOperator");
+        if (!(propertyName instanceof String) || !isSupportedEventProperty((String) propertyName)) {
+            return null;
+        }
+        if ("equals".equals(operator)) {
+            Object propertyValue = parameters.get("propertyValue");
+            if (!(propertyValue instanceof String) || parameters.get("propertyValueInteger") != null || parameters.get("propertyValueDouble") != null
+                    || parameters.get("propertyValueDate") != null || parameters.get("propertyValueDateExpr") != null) {
+                return null;
+            }
+            String key = getKey((String) propertyValue);
+            return key != null ? new IndexedPredicate((String) propertyName, Collections.singleton(key)) : null;
+        } else if ("in".equals(operator)) {
+            Object propertyValues = parameters.get("propertyValues");
+            if (!(propertyValues instanceof List)) {
+                return null;
+            }
+            Set<String> keys = new HashSet<>();
+            for (Object propertyValue : (List<?>) propertyValues) {
+                String key = propertyValue instanceof String ? getKey((String) propertyValue) : null;
+                if (key == null) {
+                    return null;
+                }
+                keys.add(key);
+            }
+            return new IndexedPredicate((String) propertyName, keys);
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> resolveParameters(Map<String, Object> parameterValues, Map<String, Object> wrapperParameters) {
+        Map<String, Object> resolvedParameters = new HashMap<>(parameterValues.size());
+        for (Map.Entry<String, Object> entry : parameterValues.entrySet()) {
+            Object value = resolveParameter(entry.getValue(), wrapperParameters);
+            if (value == null || value == UNKNOWN_VALUE) {
+                // conditions with missing contextual parameters are not evaluated and always match
+                return null;
+            }
+            resolvedParameters.put(entry.getKey(), value);
+        }
+        return resolvedParameters;
+    }
+
+    private static Object resolveParameter(Object value, Map<String, Object> wrapperParameters) {
+        if (value instanceof String) {
+            String stringValue = (String) value;
+            if (stringValue.startsWith(PARAMETER_PREFIX)) {
+                String parameterName = stringValue.substring(PARAMETER_PREFIX.length());
+                if (wrapperParameters == null || !wrapperParameters.containsKey(parameterName)) {
+                    return UNKNOWN_VALUE;
+                }
+                return wrapperParameters.get(parameterName);
+            } else if (stringValue.startsWith(SCRIPT_PREFIX)) {
+                return UNKNOWN_VALUE;
+            }
+        } else if (value instanceof Map) {
+            Map<String, Object> values = new HashMap<>();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                Object resolvedValue = resolveParameter(entry.getValue(), wrapperParameters);
+                if (resolvedValue == null || resolvedValue == UNKNOWN_VALUE) {
+                    return resolvedValue;
+                }
+                values.put((String) entry.getKey(), resolvedValue);
+            }
+            return values;
+        } else if (value instanceof List) {
+            List<Object> values = new ArrayList<>();
+            for (Object o : (List<?>) value) {
+                Object resolvedValue = resolveParameter(o, wrapperParameters);
+                if (resolvedValue == UNKNOWN_VALUE) {
+                    return UNKNOWN_VALUE;
+                } else if (resolvedValue != null) {
+                    values.add(resolvedValue);
+                }
+            }
+            return values;
+        }
+        return value;
+    }
+
+    /**
+     * Returns the key under which a value is indexed. Property conditions compare lower cased and ASCII folded
+     * values, so only values that are plain ASCII once lower cased can be indexed.
+     */
+    private static String getKey(String value) {
+        String key = value.toLowerCase();
+        for (int i = 0; i < key.length(); i++) {
+            if (key.charAt(i) > 127) {
+                return null;
+            }
+        }
+        return key;
+    }
+
+    private static Collection<String> getValueKeys(Object value) {
+        if (value == UNKNOWN_VALUE) {
+            return null;
+        } else if (value == null) {
+            return Collections.emptyList();
+        } else if (value instanceof Collection) {
+            List<String> keys = new ArrayList<>(((Collection<?>) value).size());
+            for (Object o : (Collection<?>) value) {
+                if (o != null) {
+                    String key = getKey(o.toString());
+                    if (key == null) {
+                        return null;
+                    }
+                    keys.add(key);
+                }
+            }
+            return keys;
+        }
+        String key = getKey(value.toString());
+        return key != null ? Collections.singletonList(key) : null;
+    }
+
+    private static boolean isSupportedEventProperty(String propertyName) {
+        if ("eventType".equals(propertyName) || "profileId".equals(propertyName) || "sessionId".equals(propertyName)
+                || isSupportedItemProperty(propertyName)) {
+            return true;
+        }
+        if (propertyName.startsWith("target.")) {
+            return isSupportedItemProperty(propertyName.substring("target.".length()));
+        }
+        if (propertyName.startsWith("source.")) {
+            return isSupportedItemProperty(propertyName.substring("source.".length()));
+        }
+        return false;
+    }
+
+    private static boolean isSupportedItemProperty(String propertyName) {
+        return "itemId".equals(propertyName) || "itemType".equals(propertyName) || "scope".equals(propertyName)
+                || (propertyName.startsWith("properties.") && propertyName.length() > "properties.".length()
+                && !propertyName.contains("[") && !propertyName.contains("..") && !propertyName.endsWith("."));
+    }
+
+    /**
+     * Reads an event property the same way the property condition evaluator does, for the subset of properties that
+     * can be indexed.
+     *
+     * @param event        the event to read the property from
+     * @param propertyName the name of the property
+     * @return the value of the property, or {@link #UNKNOWN_VALUE} if it can't be determined
+     */
+    static Object readEventProperty(Event event, String propertyName) {
+        if (event.getClass() != Event.class) {
+            return UNKNOWN_VALUE;
+        }
+        switch (propertyName) {
+            case "eventType":
+                return event.getEventType();
+            case "profileId":
+                return event.getProfileId();
+            case "sessionId":
+                return event.getSessionId();
+            default:
+                if (propertyName.startsWith("target.")) {
+                    return readItemProperty(event.getTarget(), propertyName.substring("target.".length()));
+                } else if (propertyName.startsWith("source.")) {
+                    return readItemProperty(event.getSource(), propertyName.substring("source.".length()));
+                }
+                return readItemProperty(event, propertyName);
+        }
+    }
+
+    private static Object readItemProperty(Item item, String propertyName) {
+        if (item == null) {
+            return null;
+        }
+        if (item.getClass() != Event.class && item.getClass() != CustomItem.class) {
+            return UNKNOWN_VALUE;
+        }
+        switch (propertyName) {
+            case "itemId":
+                return item.getItemId();
+            case "itemType":
+                return item.getItemType();
+            case "scope":
+                return item.getScope();
+            default:
+                Map<String, Object> properties = item instanceof Event ? ((Event) item).getProperties() : ((CustomItem) item).getProperties();
+                return readMapProperty(properties, propertyName.substring("properties.".length()));
+        }
+    }
+
+    private static Object readMapProperty(Map<String, Object> map, String path) {
+        Object value = map;
+        int start = 0;
+        while (start <= path.length()) {
+            if (value == null) {
+                return null;
+            }
+            if (!(value instanceof Map)) {
+                return UNKNOWN_VALUE;
+            }
+            int end = path.indexOf('.', start);
+            if (end < 0) {
+                end = path.length();
+            }
+            value = ((Map<?, ?>) value).get(path.substring(start, end));
+            start = end + 1;
+        }
+        return value;
+    }
+
+    private static class IndexedPredicate {
+        private final String propertyName;
+        private final Set<String> values;
+
+        IndexedPredicate(String propertyName, Set<String> values) {
+            this.propertyName = propertyName;
+            this.values = values;
+        }
+    }
+
+    private static class PropertyIndex {
+        private final String propertyName;
+        private final BitSet constrainedRules = new BitSet();
+        private final Map<String, BitSet> rulesByValue = new HashMap<>();
+
+        PropertyIndex(String propertyName) {
+            this.propertyName = propertyName;
+        }
+
+        void add(int position, Set<String> values) {
+            constrainedRules.set(position);
+            for (String value : values) {
+                rulesByValue.computeIfAbsent(value, k -> new BitSet()).set(position);
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.unomi.services.impl.rules;
+
+import org.apache.unomi.api.rules.RuleStatistics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The statistics of a rule on this node since the last sync with the cluster. They are updated concurrently by the
+ * threads processing events without locking, and drained by the statistics synchronization task.
+ */
+class RuleStatisticsCounters {
+
+    private static final long NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final LongAdder executionCount = new LongAdder();
+    private final LongAdder conditionsNanos = new LongAdder();
+    private final LongAdder actionsNanos = new LongAdder();
+    private final LatencyHistogram conditionsHistogram = new LatencyHistogram();
+    private final LatencyHistogram actionsHistogram = new LatencyHistogram();
+    private volatile long[] lastPeriodPercentiles;
+
+    void recordConditions(long nanos) {
+        conditionsNanos.add(nanos);
+        conditionsHistogram.record(nanos);
+    }
+
+    void recordExecution(long actionsNanos) {
+        executionCount.increment();
+        this.actionsNanos.add(actionsNanos);
+        actionsHistogram.record(actionsNanos);
+    }
+
+    long getExecutionCount() {
+        return executionCount.sum();
+    }
+
+    long getConditionsTime() {
+        return conditionsNanos.sum() / NANOS_PER_MILLI;
+    }
+
+    long getActionsTime() {
+        return actionsNanos.sum() / NANOS_PER_MILLI;
+    }
+
+    /**
+     * Removes the executions counted so far, executions recorded concurrently are kept for the next drain.
+     *
+     * @return the number of executions that were removed
+     */
+    long drainExecutionCount() {
+        long count = executionCount.sum();
+        executionCount.add(-count);
+        return count;
+    }
+
+    /**
+     * Removes the whole milliseconds spent evaluating conditions so far, the remaining nanoseconds are kept for the
+     * next drain so that short evaluations are not lost to rounding.
+     *
+     * @return the removed time, in milliseconds
+     */
+    long drainConditionsTime() {
+        return drainMillis(conditionsNanos);
+    }
+
+    /**
+     * @return the removed time spent executing actions, in milliseconds
+     * @see #drainConditionsTime()
+     */
+    long drainActionsTime() {
+        return drainMillis(actionsNanos);
+    }
+
+    /**
+     * Ends the current sync period. The histograms are reset, so that the percentiles describe the recent durations
+     * instead of all the durations since the node started, and the percentiles of the period that ended are reported
+     * until the next one ends.
+     */
+    void endPeriod() {
+        lastPeriodPercentiles = getPercentiles(conditionsHistogram.drain(), actionsHistogram.drain());
+    }
+
+    /**
+     * Copies the latency percentiles recorded on this node during the last sync period, or since the node started if
+     * no period has ended yet, to the specified statistics.
+     *
+     * @param ruleStatistics the statistics to update
+     */
+    void copyPercentiles(RuleStatistics ruleStatistics) {
+        long[] percentiles = lastPeriodPercentiles;
+        if (percentiles == null) {
+            percentiles = getPercentiles(conditionsHistogram, actionsHistogram);
+        }
+        ruleStatistics.setConditionsTimeP50(percentiles[0]);
+        ruleStatistics.setConditionsTimeP99(percentiles[1]);
+        ruleStatistics.setActionsTimeP50(percentiles[2]);
+        ruleStatistics.setActionsTimeP99(percentiles[3]);
+    }
+
+    private static long[] getPercentiles(LatencyHistogram conditionsHistogram, LatencyHistogram actionsHistogram) {
+        return new long[]{conditionsHistogram.getValueAtPercentile(50), conditionsHistogram.getValueAtPercentile(99),
+                actionsHistogram.getValueAtPercentile(50), actionsHistogram.getValueAtPercentile(99)};
+    }
+
+    private static long drainMillis(LongAdder nanos) {
+        long millis = nanos.sum() / NANOS_PER_MILLI;
+        nanos.add(-millis * NANOS_PER_MILLI);
+        return millis;
+    }
+}
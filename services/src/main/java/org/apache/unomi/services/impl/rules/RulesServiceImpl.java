@@ -55,16 +55,19 @@ public class RulesServiceImpl implements RulesService, EventListenerService, Syn
     private SchedulerService schedulerService;
 
     private ActionExecutorDispatcher actionExecutorDispatcher;
-    private List<Rule> allRules;
+    private List<CompiledRule> allRules = Collections.emptyList();
+    private Map<String, CompiledRule> compiledRulesById = new HashMap<>();
 
-    private Map<String,RuleStatistics> allRuleStatistics = new ConcurrentHashMap<>();
+    // statistics as of the last sync with the cluster, the map is replaced on each sync and never modified
+    private volatile Map<String,RuleStatistics> allRuleStatistics = new HashMap<>();
+    private Map<String,RuleStatisticsCounters> localRuleStatistics = new ConcurrentHashMap<>();
 
     private Integer rulesRefreshInterval = 1000;
     private Integer rulesStatisticsRefreshInterval = 10000;
 
     private List<RuleListenerService> ruleListeners = new CopyOnWriteArrayList<RuleListenerService>();
 
-    private Map<String,Set<Rule>> rulesByEventType = new HashMap<>();
+    private RuleMatchingIndex ruleMatchingIndex = RuleMatchingIndex.EMPTY;
     private Boolean optimizedRulesActivated = true;
 
     public void setBundleContext(BundleContext bundleContext) {
@@ -164,31 +167,27 @@ public class RulesServiceImpl implements RulesService, EventListenerService, Syn
         Boolean hasEventAlreadyBeenRaisedForSession = null;
         Boolean hasEventAlreadyBeenRaisedForProfile = null;
 
-        Set<Rule> eventTypeRules = new HashSet<>(allRules); // local copy to avoid concurrency issues
+        Collection<CompiledRule> eventTypeRules;
         if (optimizedRulesActivated) {
-            eventTypeRules = rulesByEventType.get(event.getEventType());
-            if (eventTypeRules == null) {
-                eventTypeRules = new HashSet<>();
-            }
-            eventTypeRules = new HashSet<>(eventTypeRules); // local copy to avoid concurrency issues
-            Set<Rule> allEventRules = rulesByEventType.get("*");
-            if (allEventRules != null && !allEventRules.isEmpty()) {
-                eventTypeRules.addAll(allEventRules); // retrieve rules that should always be evaluated.
-            }
+            // only retrieve the rules that may match the event, the index is replaced on refresh so it is safe to use
+            eventTypeRules = ruleMatchingIndex.getCandidateRules(event);
             if (eventTypeRules.isEmpty()) {
                 return matchedRules;
             }
+        } else {
+            eventTypeRules = allRules; // the list is replaced on refresh and never modified
         }
 
-        for (Rule rule : eventTypeRules) {
-            if (!rule.getMetadata().isEnabled()) {
+        for (CompiledRule compiledRule : eventTypeRules) {
+            Rule rule = compiledRule.getRule();
+            if (!rule.getMetadata().isEnabled() || !compiledRule.isValid()) {
                 continue;
             }
-            RuleStatistics ruleStatistics = getLocalRuleStatistics(rule);
-            long ruleConditionStartTime = System.currentTimeMillis();
+            RuleStatisticsCounters ruleStatistics = getLocalRuleStatistics(rule);
+            long ruleConditionStartTime = System.nanoTime();
             String scope = rule.getMetadata().getScope();
             if (scope.equals(Metadata.SYSTEM_SCOPE) || scope.equals(event.getSourceId())) {
-                Condition eventCondition = definitionsService.extractConditionBySystemTag(rule.getCondition(), "eventCondition");
+                Condition eventCondition = compiledRule.getEventCondition();
 
                 if (eventCondition == null) {
                     updateRuleStatistics(ruleStatistics, ruleConditionStartTime);
@@ -202,7 +201,7 @@ public class RulesServiceImpl implements RulesService, EventListenerService, Syn
                     continue;
                 }
 
-                Condition sourceCondition = definitionsService.extractConditionBySystemTag(rule.getCondition(), "sourceEventCondition");
+                Condition sourceCondition = compiledRule.getSourceEventCondition();
                 if (sourceCondition != null && !persistenceService.testMatch(sourceCondition, event.getSource())) {
                     updateRuleStatistics(ruleStatistics, ruleConditionStartTime);
                     continue;
@@ -230,12 +229,12 @@ public class RulesServiceImpl implements RulesService, EventListenerService, Syn
                     }
                 }
 
-                Condition profileCondition = definitionsService.extractConditionBySystemTag(rule.getCondition(), "profileCondition");
+                Condition profileCondition = compiledRule.getProfileCondition();
                 if (profileCondition != null && !persistenceService.testMatch(profileCondition, event.getProfile())) {
                     updateRuleStatistics(ruleStatistics, ruleConditionStartTime);
                     continue;
                 }
-                Condition sessionCondition = definitionsService.extractConditionBySystemTag(rule.getCondition(), "sessionCondition");
+                Condition sessionCondition = compiledRule.getSessionCondition();
                 if (sessionCondition != null && !persistenceService.testMatch(sessionCondition, event.getSession())) {
                     updateRuleStatistics(ruleStatistics, ruleConditionStartTime);
                     continue;
@@ -247,47 +246,60 @@ public class RulesServiceImpl implements RulesService, EventListenerService, Syn
         return matchedRules;
     }
 
-    private RuleStatistics getLocalRuleStatistics(Rule rule) {
-        RuleStatistics ruleStatistics = this.allRuleStatistics.get(rule.getItemId());
+    public boolean isRequestRequired(Event event) {
+        Collection<CompiledRule> candidateRules = optimizedRulesActivated ? ruleMatchingIndex.getCandidateRules(event) : allRules;
+        for (CompiledRule compiledRule : candidateRules) {
+            if (compiledRule.isRequestRequired() && compiledRule.getRule().getMetadata().isEnabled()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private RuleStatisticsCounters getLocalRuleStatistics(Rule rule) {
+        // get first, as computeIfAbsent locks the entry even when it is present
+        RuleStatisticsCounters ruleStatistics = localRuleStatistics.get(rule.getItemId());
         if (ruleStatistics == null) {
-            ruleStatistics = new RuleStatistics(rule.getItemId());
+            ruleStatistics = localRuleStatistics.computeIfAbsent(rule.getItemId(), ruleId -> new RuleStatisticsCounters());
         }
         return ruleStatistics;
     }
 
-    private void updateRuleStatistics(RuleStatistics ruleStatistics, long ruleConditionStartTime) {
-        long totalRuleConditionTime = System.currentTimeMillis() - ruleConditionStartTime;
-        ruleStatistics.setLocalConditionsTime(ruleStatistics.getLocalConditionsTime() + totalRuleConditionTime);
-        allRuleStatistics.put(ruleStatistics.getItemId(), ruleStatistics);
+    private void updateRuleStatistics(RuleStatisticsCounters ruleStatistics, long ruleConditionStartTime) {
+        ruleStatistics.recordConditions(System.nanoTime() - ruleConditionStartTime);
     }
 
     public void refreshRules() {
         try {
             // we use local variables to make sure we quickly switch the collections since the refresh is called often
             // we want to avoid concurrency issues with the shared collections
-            List<Rule> newAllRules = getAllRules();
-            this.rulesByEventType = getRulesByEventType(newAllRules);
+            List<CompiledRule> newAllRules = getAllRules();
+            this.ruleMatchingIndex = RuleMatchingIndex.build(newAllRules);
             this.allRules = newAllRules;
         } catch (Throwable t) {
             logger.error("Error loading rules from persistence back-end", t);
         }
     }
 
-    private List<Rule> getAllRules() {
+    private List<CompiledRule> getAllRules() {
         List<Rule> rules = persistenceService.getAllItems(Rule.class, 0, -1, "priority").getList();
+        List<CompiledRule> compiledRules = new ArrayList<>(rules.size());
+        Map<String, CompiledRule> newCompiledRulesById = new HashMap<>();
         for (Rule rule : rules) {
             ParserHelper.resolveConditionType(definitionsService, rule.getCondition(), "rule " + rule.getItemId());
             ParserHelper.resolveActionTypes(definitionsService, rule);
+            // the sub-conditions are only extracted again if the condition or its condition types have changed
+            CompiledRule compiledRule = compiledRulesById.get(rule.getItemId());
+            if (compiledRule != null && compiledRule.isUpToDate(rule)) {
+                compiledRule = compiledRule.withRule(rule);
+            } else {
+                compiledRule = CompiledRule.compile(rule, definitionsService);
+            }
+            compiledRules.add(compiledRule);
+            newCompiledRulesById.put(rule.getItemId(), compiledRule);
         }
-        return rules;
-    }
-
-    private Map<String,Set<Rule>> getRulesByEventType(List<Rule> rules) {
-        Map<String,Set<Rule>> newRulesByEventType = new HashMap<>();
-        for (Rule rule : rules) {
-            updateRulesByEventType(newRulesByEventType, rule);
-        }
-        return newRulesByEventType;
+        this.compiledRulesById = newCompiledRulesById;
+        return compiledRules;
     }
 
     public boolean canHandle(Event event) {
@@ -302,41 +314,68 @@ public class RulesServiceImpl implements RulesService, EventListenerService, Syn
             logger.debug("Fired rule " + rule.getMetadata().getId() + " for " + event.getEventType() + " - " + event.getItemId());
             fireExecuteActions(rule, event);
 
-            long actionsStartTime = System.currentTimeMillis();
+            long actionsStartTime = System.nanoTime();
             for (Action action : rule.getActions()) {
                 changes |= actionExecutorDispatcher.execute(action, event);
             }
-            long totalActionsTime = System.currentTimeMillis() - actionsStartTime;
+            long totalActionsTime = System.nanoTime() - actionsStartTime;
             Event ruleFired = new Event("ruleFired", event.getSession(), event.getProfile(), event.getSourceId(), event, rule, event.getTimeStamp());
             ruleFired.getAttributes().putAll(event.getAttributes());
             ruleFired.setPersistent(false);
             changes |= eventService.send(ruleFired);
 
-            RuleStatistics ruleStatistics = getLocalRuleStatistics(rule);
-            ruleStatistics.setLocalExecutionCount(ruleStatistics.getLocalExecutionCount()+1);
-            ruleStatistics.setLocalActionsTime(ruleStatistics.getLocalActionsTime() + totalActionsTime);
-            this.allRuleStatistics.put(rule.getItemId(), ruleStatistics);
+            getLocalRuleStatistics(rule).recordExecution(totalActionsTime);
         }
         return changes;
     }
 
     @Override
     public RuleStatistics getRuleStatistics(String ruleId) {
-        if (allRuleStatistics.containsKey(ruleId)) {
-            return allRuleStatistics.get(ruleId);
+        RuleStatistics syncedRuleStatistics = allRuleStatistics.get(ruleId);
+        RuleStatisticsCounters ruleStatistics = localRuleStatistics.get(ruleId);
+        if (syncedRuleStatistics == null && ruleStatistics == null) {
+            return persistenceService.load(ruleId, RuleStatistics.class);
         }
-        return persistenceService.load(ruleId, RuleStatistics.class);
+        return getRuleStatisticsSnapshot(ruleId, syncedRuleStatistics, ruleStatistics);
     }
 
     public Map<String,RuleStatistics> getAllRuleStatistics() {
-        return allRuleStatistics;
+        Map<String, RuleStatistics> syncedRuleStatistics = allRuleStatistics;
+        Map<String, RuleStatistics> ruleStatisticsSnapshot = new HashMap<>();
+        for (Map.Entry<String, RuleStatistics> entry : syncedRuleStatistics.entrySet()) {
+            ruleStatisticsSnapshot.put(entry.getKey(), getRuleStatisticsSnapshot(entry.getKey(), entry.getValue(), localRuleStatistics.get(entry.getKey())));
+        }
+        for (Map.Entry<String, RuleStatisticsCounters> entry : localRuleStatistics.entrySet()) {
+            if (!ruleStatisticsSnapshot.containsKey(entry.getKey())) {
+                ruleStatisticsSnapshot.put(entry.getKey(), getRuleStatisticsSnapshot(entry.getKey(), null, entry.getValue()));
+            }
+        }
+        return ruleStatisticsSnapshot;
+    }
+
+    private RuleStatistics getRuleStatisticsSnapshot(String ruleId, RuleStatistics syncedRuleStatistics, RuleStatisticsCounters ruleStatistics) {
+        RuleStatistics ruleStatisticsSnapshot = new RuleStatistics(ruleId);
+        if (syncedRuleStatistics != null) {
+            ruleStatisticsSnapshot.setExecutionCount(syncedRuleStatistics.getExecutionCount());
+            ruleStatisticsSnapshot.setConditionsTime(syncedRuleStatistics.getConditionsTime());
+            ruleStatisticsSnapshot.setActionsTime(syncedRuleStatistics.getActionsTime());
+            ruleStatisticsSnapshot.setLastSyncDate(syncedRuleStatistics.getLastSyncDate());
+        }
+        if (ruleStatistics != null) {
+            ruleStatisticsSnapshot.setLocalExecutionCount(ruleStatistics.getExecutionCount());
+            ruleStatisticsSnapshot.setLocalConditionsTime(ruleStatistics.getConditionsTime());
+            ruleStatisticsSnapshot.setLocalActionsTime(ruleStatistics.getActionsTime());
+            ruleStatistics.copyPercentiles(ruleStatisticsSnapshot);
+        }
+        return ruleStatisticsSnapshot;
     }
 
     @Override
     public void resetAllRuleStatistics() {
         Condition matchAllCondition = new Condition(definitionsService.getConditionType("matchAllCondition"));
         persistenceService.removeByQuery(matchAllCondition,RuleStatistics.class);
-        allRuleStatistics.clear();
+        localRuleStatistics.clear();
+        allRuleStatistics = new HashMap<>();
     }
 
     public Set<Metadata> getRuleMetadatas() {
@@ -387,7 +426,9 @@ public class RulesServiceImpl implements RulesService, EventListenerService, Syn
         Condition condition = rule.getCondition();
         if (condition != null) {
             if (rule.getMetadata().isEnabled() && !rule.getMetadata().isMissingPlugins()) {
-                ParserHelper.resolveConditionType(definitionsService, condition, "rule " + rule.getItemId());
+                if (ParserHelper.resolveConditionType(definitionsService, condition, "rule " + rule.getItemId())) {
+                    ParserHelper.checkLocalEvaluation(persistenceService, condition, "rule " + rule.getItemId());
+                }
                 definitionsService.extractConditionBySystemTag(condition, "eventCondition");
             }
         }
@@ -396,15 +437,14 @@ public class RulesServiceImpl implements RulesService, EventListenerService, Syn
 
     public Set<Condition> getTrackedConditions(Item source){
         Set<Condition> trackedConditions = new HashSet<>();
-        for (Rule r : allRules) {
-            if (!r.getMetadata().isEnabled()) {
+        for (CompiledRule compiledRule : allRules) {
+            if (!compiledRule.getRule().getMetadata().isEnabled() || !compiledRule.isValid()) {
                 continue;
             }
-            Condition trackedCondition = definitionsService.extractConditionBySystemTag(r.getCondition(), "trackedCondition");
+            Condition trackedCondition = compiledRule.getTrackedCondition();
             if(trackedCondition != null){
-                Condition sourceEventPropertyCondition = definitionsService.extractConditionBySystemTag(r.getCondition(), "sourceEventCondition");
+                Condition sourceEventPropertyCondition = compiledRule.getSourceEventCondition();
                 if(source != null && sourceEventPropertyCondition != null) {
-                    ParserHelper.resolveConditionType(definitionsService, sourceEventPropertyCondition, "rule " + r.getItemId() + " source event condition");
                     if(persistenceService.testMatch(sourceEventPropertyCondition, source)){
                         trackedConditions.add(trackedCondition);
                     }
@@ -460,57 +500,44 @@ public class RulesServiceImpl implements RulesService, EventListenerService, Syn
         for (RuleStatistics ruleStatistics : allPersistedRuleStatisticsList) {
             allPersistedRuleStatistics.put(ruleStatistics.getItemId(), ruleStatistics);
         }
-        // first we iterate over the rules we have in memory
-        for (RuleStatistics ruleStatistics : allRuleStatistics.values()) {
-            boolean mustPersist = false;
-            if (allPersistedRuleStatistics.containsKey(ruleStatistics.getItemId())) {
-                // we must sync with the data coming from the persistence service.
-                RuleStatistics persistedRuleStatistics = allPersistedRuleStatistics.get(ruleStatistics.getItemId());
-                ruleStatistics.setExecutionCount(persistedRuleStatistics.getExecutionCount() + ruleStatistics.getLocalExecutionCount());
-                if (ruleStatistics.getLocalExecutionCount() > 0) {
-                    ruleStatistics.setLocalExecutionCount(0);
-                    mustPersist = true;
-                }
-                ruleStatistics.setConditionsTime(persistedRuleStatistics.getConditionsTime() + ruleStatistics.getLocalConditionsTime());
-                if (ruleStatistics.getLocalConditionsTime() > 0) {
-                    ruleStatistics.setLocalConditionsTime(0);
-                    mustPersist = true;
-                }
-                ruleStatistics.setActionsTime(persistedRuleStatistics.getActionsTime() + ruleStatistics.getLocalActionsTime());
-                if (ruleStatistics.getLocalActionsTime() > 0) {
-                    ruleStatistics.setLocalActionsTime(0);
-                    mustPersist = true;
-                }
-                ruleStatistics.setLastSyncDate(new Date());
-            } else {
-                ruleStatistics.setExecutionCount(ruleStatistics.getExecutionCount() + ruleStatistics.getLocalExecutionCount());
-                if (ruleStatistics.getLocalExecutionCount() > 0) {
-                    ruleStatistics.setLocalExecutionCount(0);
-                    mustPersist = true;
-                }
-                ruleStatistics.setConditionsTime(ruleStatistics.getConditionsTime() + ruleStatistics.getLocalConditionsTime());
-                if (ruleStatistics.getLocalConditionsTime() > 0) {
-                    ruleStatistics.setLocalConditionsTime(0);
-                    mustPersist = true;
-                }
-                ruleStatistics.setActionsTime(ruleStatistics.getActionsTime() + ruleStatistics.getLocalActionsTime());
-                if (ruleStatistics.getLocalActionsTime() > 0) {
-                    ruleStatistics.setLocalActionsTime(0);
-                    mustPersist = true;
-                }
-                ruleStatistics.setLastSyncDate(new Date());
+        Map<String,RuleStatistics> newAllRuleStatistics = new HashMap<>();
+        // first we iterate over the rules we have in memory, draining the values counted locally since the last sync
+        for (Map.Entry<String, RuleStatisticsCounters> entry : localRuleStatistics.entrySet()) {
+            String ruleId = entry.getKey();
+            RuleStatisticsCounters localStatistics = entry.getValue();
+            // we must sync with the data coming from the persistence service if there is any
+            RuleStatistics previousRuleStatistics = allPersistedRuleStatistics.get(ruleId);
+            if (previousRuleStatistics == null) {
+                previousRuleStatistics = allRuleStatistics.get(ruleId);
+            }
+            long localExecutionCount = localStatistics.drainExecutionCount();
+            long localConditionsTime = localStatistics.drainConditionsTime();
+            long localActionsTime = localStatistics.drainActionsTime();
+
+            RuleStatistics ruleStatistics = new RuleStatistics(ruleId);
+            if (previousRuleStatistics != null) {
+                ruleStatistics.setExecutionCount(previousRuleStatistics.getExecutionCount());
+                ruleStatistics.setConditionsTime(previousRuleStatistics.getConditionsTime());
+                ruleStatistics.setActionsTime(previousRuleStatistics.getActionsTime());
             }
-            allRuleStatistics.put(ruleStatistics.getItemId(), ruleStatistics);
-            if (mustPersist) {
+            ruleStatistics.setExecutionCount(ruleStatistics.getExecutionCount() + localExecutionCount);
+            ruleStatistics.setConditionsTime(ruleStatistics.getConditionsTime() + localConditionsTime);
+            ruleStatistics.setActionsTime(ruleStatistics.getActionsTime() + localActionsTime);
+            // the latency percentiles are only reported for this node, they are not synced with the cluster
+            localStatistics.endPeriod();
+            ruleStatistics.setLastSyncDate(new Date());
+            newAllRuleStatistics.put(ruleId, ruleStatistics);
+            if (localExecutionCount > 0 || localConditionsTime > 0 || localActionsTime > 0) {
                 persistenceService.save(ruleStatistics, null, true);
             }
         }
-        // now let's iterate over the rules coming from the persistence service, as we may have new ones.
+        // now let's add the rules coming from the persistence service, as we may have new ones.
         for (RuleStatistics ruleStatistics : allPersistedRuleStatistics.values()) {
-            if (!allRuleStatistics.containsKey(ruleStatistics.getItemId())) {
-                allRuleStatistics.put(ruleStatistics.getItemId(), ruleStatistics);
+            if (!newAllRuleStatistics.containsKey(ruleStatistics.getItemId())) {
+                newAllRuleStatistics.put(ruleStatistics.getItemId(), ruleStatistics);
             }
         }
+        allRuleStatistics = newAllRuleStatistics;
     }
 
     public void bind(ServiceReference<RuleListenerService> serviceReference) {
@@ -543,16 +570,4 @@ public class RulesServiceImpl implements RulesService, EventListenerService, Syn
         }
     }
 
-    private void updateRulesByEventType(Map<String,Set<Rule>> rulesByEventType, Rule rule) {
-        Set<String> eventTypeIds = ParserHelper.resolveConditionEventTypes(rule.getCondition());
-        for (String eventTypeId : eventTypeIds) {
-            Set<Rule> rules = rulesByEventType.get(eventTypeId);
-            if (rules == null) {
-                rules = new HashSet<>();
-            }
-            rules.add(rule);
-            rulesByEventType.put(eventTypeId, rules);
-        }
-    }
-
 }
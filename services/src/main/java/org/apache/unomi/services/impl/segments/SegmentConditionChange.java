@@ -0,0 +1,166 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.unomi.services.impl.segments;
+
+import org.apache.unomi.api.conditions.Condition;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The kind of change made to the condition of a segment, used to avoid the passes over the profiles that cannot change
+ * the segment membership. A condition is only known to be narrowed or widened when an "and" or an "or" boolean
+ * condition was added around it, or when operands were added to or removed from its top level boolean condition.
+ */
+enum SegmentConditionChange {
+
+    /**
+     * The condition did not change.
+     */
+    UNCHANGED,
+
+    /**
+     * The new condition matches a subset of the profiles matched by the previous one, so no profile can be added to
+     * the segment.
+     */
+    NARROWED,
+
+    /**
+     * The new condition matches a superset of the profiles matched by the previous one, so no profile can be removed
+     * from the segment.
+     */
+    WIDENED,
+
+    /**
+     * The condition changed in any other way.
+     */
+    CHANGED;
+
+    private static final Set<String> DATE_PARAMETERS = new HashSet<>(Arrays.asList("propertyValueDate", "propertyValuesDate",
+            "propertyValueDateExpr", "propertyValuesDateExpr", "fromDate", "toDate"));
+
+    /**
+     * @param previousCondition the previous condition of the segment, may be {@code null}
+     * @param newCondition      the new condition of the segment, may be {@code null}
+     * @return the kind of change made to the condition
+     */
+    static SegmentConditionChange of(Condition previousCondition, Condition newCondition) {
+        if (previousCondition == null || newCondition == null) {
+            return CHANGED;
+        }
+        if (previousCondition.equals(newCondition)) {
+            return UNCHANGED;
+        }
+        if (containsAllOperands(newCondition, previousCondition, "and") || containsAllOperands(previousCondition, newCondition, "or")) {
+            return NARROWED;
+        }
+        if (containsAllOperands(newCondition, previousCondition, "or") || containsAllOperands(previousCondition, newCondition, "and")) {
+            return WIDENED;
+        }
+        return CHANGED;
+    }
+
+    /**
+     * @return whether the condition is a boolean condition with the given operator whose operands include the other
+     * condition, or all the operands of the other condition if it is a boolean condition with the same operator
+     */
+    private static boolean containsAllOperands(Condition condition, Condition otherCondition, String operator) {
+        List<Condition> operands = getOperands(condition, operator);
+        if (operands == null) {
+            return false;
+        }
+        if (operands.contains(otherCondition)) {
+            return true;
+        }
+        List<Condition> otherOperands = getOperands(otherCondition, operator);
+        return otherOperands != null && operands.containsAll(otherOperands);
+    }
+
+    private static List<Condition> getOperands(Condition condition, String operator) {
+        if (!"booleanCondition".equals(condition.getConditionTypeId()) || !operator.equals(condition.getParameter("operator"))) {
+            return null;
+        }
+        Object subConditions = condition.getParameter("subConditions");
+        if (!(subConditions instanceof List)) {
+            return null;
+        }
+        List<Condition> operands = new ArrayList<>();
+        for (Object subCondition : (List<?>) subConditions) {
+            if (!(subCondition instanceof Condition)) {
+                return null;
+            }
+            operands.add((Condition) subCondition);
+        }
+        return operands;
+    }
+
+    /**
+     * A condition is time dependent when one of its conditions, or of the parent conditions of their types, compares
+     * a date to a date relative to the current time ("now-1d" for example, or a script building such a date), or counts
+     * the events of the last days. The profiles matched by such a condition change even if they are not modified.
+     *
+     * @param condition the condition to check, may be {@code null}
+     * @return whether the profiles matched by the condition depend on the current time
+     */
+    static boolean isTimeDependent(Condition condition) {
+        if (condition == null) {
+            return false;
+        }
+        if (condition.getConditionType() != null && isTimeDependent(condition.getConditionType().getParentCondition())) {
+            return true;
+        }
+        for (Map.Entry<String, Object> parameter : condition.getParameterValues().entrySet()) {
+            if ("numberOfDays".equals(parameter.getKey()) && parameter.getValue() != null) {
+                return true;
+            }
+            if (DATE_PARAMETERS.contains(parameter.getKey()) && isRelativeDate(parameter.getValue())) {
+                return true;
+            }
+            if (isTimeDependent(parameter.getValue())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isTimeDependent(Object parameterValue) {
+        if (parameterValue instanceof Condition) {
+            return isTimeDependent((Condition) parameterValue);
+        }
+        if (parameterValue instanceof Collection) {
+            return ((Collection<?>) parameterValue).stream().anyMatch(SegmentConditionChange::isTimeDependent);
+        }
+        if (parameterValue instanceof Map) {
+            return ((Map<?, ?>) parameterValue).values().stream().anyMatch(SegmentConditionChange::isTimeDependent);
+        }
+        return false;
+    }
+
+    private static boolean isRelativeDate(Object date) {
+        if (date instanceof Collection) {
+            return ((Collection<?>) date).stream().anyMatch(SegmentConditionChange::isRelativeDate);
+        }
+        return date != null && !(date instanceof Date) && (date.toString().contains("now") || date.toString().startsWith("script::"));
+    }
+}
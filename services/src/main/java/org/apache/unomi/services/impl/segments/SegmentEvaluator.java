@@ -0,0 +1,277 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.unomi.services.impl.segments;
+
+import org.apache.unomi.api.Item;
+import org.apache.unomi.api.Metadata;
+import org.apache.unomi.api.Profile;
+import org.apache.unomi.api.conditions.Condition;
+import org.apache.unomi.api.segments.Scoring;
+import org.apache.unomi.api.segments.ScoringElement;
+import org.apache.unomi.api.segments.Segment;
+import org.apache.unomi.api.segments.SegmentsAndScores;
+
+import java.util.*;
+import java.util.function.BiPredicate;
+
+/**
+ * A compiled, read-only evaluator of the conditions of all the enabled segments and scorings against a profile. It is
+ * rebuilt every time the segments and scorings are refreshed and replaced atomically, so it never needs to be
+ * synchronized.
+ *
+ * The condition trees are merged into a table of distinct nodes: identical conditions used by several segments or
+ * scoring elements, at any depth, are only stored once. "and", "or" and "not" conditions are evaluated by this class,
+ * all the other conditions are leaves evaluated by the given leaf evaluator. The result of every node is kept for the
+ * duration of the evaluation of a profile, so each distinct condition is evaluated at most once per profile.
+ */
+class SegmentEvaluator {
+
+    static final SegmentEvaluator EMPTY = build(Collections.<Segment>emptyList(), Collections.<Scoring>emptyList());
+
+    private static final byte AND = 0;
+    private static final byte OR = 1;
+    private static final byte NOT = 2;
+    private static final byte LEAF = 3;
+
+    private static final byte UNKNOWN = 0;
+    private static final byte TRUE = 1;
+    private static final byte FALSE = 2;
+
+    private final byte[] nodeTypes;
+    private final int[][] nodeChildren;
+    private final Condition[] leafConditions;
+
+    private final Metadata[] segmentMetadatas;
+    private final int[] segmentNodes;
+
+    private final String[] scoringIds;
+    private final int[][] scoringElementNodes;
+    private final int[][] scoringElementValues;
+
+    private SegmentEvaluator(Builder builder, List<Metadata> segmentMetadatas, List<Integer> segmentNodes, List<String> scoringIds,
+                             List<int[]> scoringElementNodes, List<int[]> scoringElementValues) {
+        int nodeCount = builder.nodeTypes.size();
+        this.nodeTypes = new byte[nodeCount];
+        this.nodeChildren = new int[nodeCount][];
+        this.leafConditions = new Condition[nodeCount];
+        for (int i = 0; i < nodeCount; i++) {
+            this.nodeTypes[i] = builder.nodeTypes.get(i);
+            this.nodeChildren[i] = builder.nodeChildren.get(i);
+            this.leafConditions[i] = builder.leafConditions.get(i);
+        }
+        this.segmentMetadatas = segmentMetadatas.toArray(new Metadata[0]);
+        this.segmentNodes = new int[segmentNodes.size()];
+        for (int i = 0; i < this.segmentNodes.length; i++) {
+            this.segmentNodes[i] = segmentNodes.get(i);
+        }
+        this.scoringIds = scoringIds.toArray(new String[0]);
+        this.scoringElementNodes = scoringElementNodes.toArray(new int[0][]);
+        this.scoringElementValues = scoringElementValues.toArray(new int[0][]);
+    }
+
+    /**
+     * Builds a new evaluator for the given segments and scorings, ignoring the disabled ones.
+     *
+     * @param segments the segments to evaluate
+     * @param scorings the scorings to evaluate
+     * @return the new evaluator
+     */
+    static SegmentEvaluator build(List<Segment> segments, List<Scoring> scorings) {
+        Builder builder = new Builder();
+
+        List<Metadata> segmentMetadatas = new ArrayList<>();
+        List<Integer> segmentNodes = new ArrayList<>();
+        if (segments != null) {
+            for (Segment segment : segments) {
+                if (segment.getMetadata().isEnabled()) {
+                    segmentMetadatas.add(segment.getMetadata());
+                    segmentNodes.add(builder.addNode(segment.getCondition()));
+                }
+            }
+        }
+
+        List<String> scoringIds = new ArrayList<>();
+        List<int[]> scoringElementNodes = new ArrayList<>();
+        List<int[]> scoringElementValues = new ArrayList<>();
+        if (scorings != null) {
+            for (Scoring scoring : scorings) {
+                if (scoring.getMetadata().isEnabled()) {
+                    List<ScoringElement> elements = scoring.getElements() != null ? scoring.getElements() : Collections.<ScoringElement>emptyList();
+                    int[] elementNodes = new int[elements.size()];
+                    int[] elementValues = new int[elements.size()];
+                    for (int i = 0; i < elements.size(); i++) {
+                        elementNodes[i] = builder.addNode(elements.get(i).getCondition());
+                        elementValues[i] = elements.get(i).getValue();
+                    }
+                    scoringIds.add(scoring.getMetadata().getId());
+                    scoringElementNodes.add(elementNodes);
+                    scoringElementValues.add(elementValues);
+                }
+            }
+        }
+
+        return new SegmentEvaluator(builder, segmentMetadatas, segmentNodes, scoringIds, scoringElementNodes, scoringElementValues);
+    }
+
+    /**
+     * Evaluates all the segments and scorings against a profile.
+     *
+     * @param profile       the profile to evaluate
+     * @param leafEvaluator the evaluator of the conditions that are not boolean conditions
+     * @return the identifiers of the matching segments and the scores of the profile, without the score modifiers
+     */
+    SegmentsAndScores evaluate(Profile profile, BiPredicate<Condition, Item> leafEvaluator) {
+        byte[] results = new byte[nodeTypes.length];
+
+        Set<String> segments = new HashSet<>();
+        for (int i = 0; i < segmentNodes.length; i++) {
+            if (evaluate(segmentNodes[i], profile, leafEvaluator, results)) {
+                segments.add(segmentMetadatas[i].getId());
+            }
+        }
+
+        Map<String, Integer> scores = new HashMap<>();
+        for (int i = 0; i < scoringIds.length; i++) {
+            int score = 0;
+            int[] elementNodes = scoringElementNodes[i];
+            for (int j = 0; j < elementNodes.length; j++) {
+                if (evaluate(elementNodes[j], profile, leafEvaluator, results)) {
+                    score += scoringElementValues[i][j];
+                }
+            }
+            scores.put(scoringIds[i], score);
+        }
+
+        return new SegmentsAndScores(segments, scores);
+    }
+
+    /**
+     * Evaluates all the segments against a profile.
+     *
+     * @param profile       the profile to evaluate
+     * @param leafEvaluator the evaluator of the conditions that are not boolean conditions
+     * @return the metadata of the matching segments
+     */
+    List<Metadata> getMatchingSegmentMetadatas(Profile profile, BiPredicate<Condition, Item> leafEvaluator) {
+        byte[] results = new byte[nodeTypes.length];
+        List<Metadata> metadatas = new ArrayList<>();
+        for (int i = 0; i < segmentNodes.length; i++) {
+            if (evaluate(segmentNodes[i], profile, leafEvaluator, results)) {
+                metadatas.add(segmentMetadatas[i]);
+            }
+        }
+        return metadatas;
+    }
+
+    /**
+     * @return the number of distinct conditions of the segments and scorings
+     */
+    int getNodeCount() {
+        return nodeTypes.length;
+    }
+
+    private boolean evaluate(int node, Profile profile, BiPredicate<Condition, Item> leafEvaluator, byte[] results) {
+        if (results[node] != UNKNOWN) {
+            return results[node] == TRUE;
+        }
+        boolean result;
+        switch (nodeTypes[node]) {
+            case AND:
+                result = true;
+                for (int child : nodeChildren[node]) {
+                    if (!evaluate(child, profile, leafEvaluator, results)) {
+                        result = false;
+                        break;
+                    }
+                }
+                break;
+            case OR:
+                result = false;
+                for (int child : nodeChildren[node]) {
+                    if (evaluate(child, profile, leafEvaluator, results)) {
+                        result = true;
+                        break;
+                    }
+                }
+                break;
+            case NOT:
+                result = !evaluate(nodeChildren[node][0], profile, leafEvaluator, results);
+                break;
+            default:
+                result = leafEvaluator.test(leafConditions[node], profile);
+        }
+        results[node] = result ? TRUE : FALSE;
+        return result;
+    }
+
+    /**
+     * Builds the table of distinct nodes, indexed by their condition.
+     */
+    private static class Builder {
+        private final Map<Condition, Integer> nodesByCondition = new HashMap<>();
+        private final List<Byte> nodeTypes = new ArrayList<>();
+        private final List<int[]> nodeChildren = new ArrayList<>();
+        private final List<Condition> leafConditions = new ArrayList<>();
+
+        private int addNode(Condition condition) {
+            Integer node = nodesByCondition.get(condition);
+            if (node != null) {
+                return node;
+            }
+            byte nodeType = LEAF;
+            int[] children = null;
+            List<Condition> subConditions = getSubConditions(condition);
+            if (subConditions != null) {
+                // same as the boolean condition evaluator, any operator other than "and" is an "or"
+                nodeType = "and".equalsIgnoreCase((String) condition.getParameter("operator")) ? AND : OR;
+                children = new int[subConditions.size()];
+                for (int i = 0; i < children.length; i++) {
+                    children[i] = addNode(subConditions.get(i));
+                }
+            } else if (condition != null && "notCondition".equals(condition.getConditionTypeId())
+                    && condition.getParameter("subCondition") instanceof Condition) {
+                nodeType = NOT;
+                children = new int[]{addNode((Condition) condition.getParameter("subCondition"))};
+            }
+            node = nodeTypes.size();
+            nodeTypes.add(nodeType);
+            nodeChildren.add(children);
+            leafConditions.add(nodeType == LEAF ? condition : null);
+            nodesByCondition.put(condition, node);
+            return node;
+        }
+
+        private static List<Condition> getSubConditions(Condition condition) {
+            if (condition == null || !"booleanCondition".equals(condition.getConditionTypeId())) {
+                return null;
+            }
+            Object subConditions = condition.getParameter("subConditions");
+            if (!(subConditions instanceof List)) {
+                return null;
+            }
+            List<Condition> result = new ArrayList<>();
+            for (Object subCondition : (List<?>) subConditions) {
+                if (!(subCondition instanceof Condition)) {
+                    return null;
+                }
+                result.add((Condition) subCondition);
+            }
+            return result;
+        }
+    }
+}
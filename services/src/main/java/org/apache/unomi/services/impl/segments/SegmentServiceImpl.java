@@ -19,11 +19,13 @@ package org.apache.unomi.services.impl.segments;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import net.jodah.failsafe.Failsafe;
+import net.jodah.failsafe.FailsafeException;
 import net.jodah.failsafe.RetryPolicy;
 import org.apache.unomi.api.Event;
 import org.apache.unomi.api.Item;
 import org.apache.unomi.api.Metadata;
 import org.apache.unomi.api.PartialList;
+import org.apache.unomi.api.PastEventCounters;
 import org.apache.unomi.api.Profile;
 import org.apache.unomi.api.actions.Action;
 import org.apache.unomi.api.conditions.Condition;
@@ -53,17 +55,30 @@ import java.io.IOException;
 import java.net.URL;
 import java.security.MessageDigest;
 import java.time.Duration;
+import java.time.LocalDate;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class SegmentServiceImpl extends AbstractServiceImpl implements SegmentService, SynchronousBundleListener {
 
     private static final Logger logger = LoggerFactory.getLogger(SegmentServiceImpl.class.getName());
 
     private static final String VALIDATION_PROFILE_ID = "validation-profile-id";
+    // profiles modified shortly before an update of a segment started may not have been visible to the update yet
+    private static final long PROFILES_UPDATE_DATE_MARGIN = 60000;
+    // system tag of the auto generated rules whose past event counters were initialized from the existing events
+    private static final String PAST_EVENT_COUNTERS_INITIALIZED_TAG = "pastEventCountersInitialized";
+    // the only profile fields needed to update the segments of the profiles, when no profile updated event is sent
+    private static final String[] SEGMENT_UPDATE_PROFILE_FIELDS = {"segments", "systemProperties"};
     private BundleContext bundleContext;
 
     private EventService eventService;
@@ -73,7 +88,13 @@ public class SegmentServiceImpl extends AbstractServiceImpl implements SegmentSe
     private long taskExecutionPeriod = 1;
     private List<Segment> allSegments;
     private List<Scoring> allScoring;
+    private volatile SegmentEvaluator segmentEvaluator = SegmentEvaluator.EMPTY;
     private int segmentUpdateBatchSize = 1000;
+    private int segmentUpdateSlices = 1;
+    private boolean segmentUpdateProgressEstimation = false;
+    private ExecutorService segmentUpdateExecutor;
+    private ExecutorService pastEventCountersExecutor;
+    private int pastEventCountersReconciliationIntervalInDays = 7;
     private long segmentRefreshInterval = 1000;
     private int aggregateQueryBucketSize = 5000;
     private int maxRetriesForUpdateProfileSegment = 0;
@@ -108,6 +129,14 @@ public class SegmentServiceImpl extends AbstractServiceImpl implements SegmentSe
         this.segmentUpdateBatchSize = segmentUpdateBatchSize;
     }
 
+    public void setSegmentUpdateSlices(int segmentUpdateSlices) {
+        this.segmentUpdateSlices = Math.max(1, segmentUpdateSlices);
+    }
+
+    public void setSegmentUpdateProgressEstimation(boolean segmentUpdateProgressEstimation) {
+        this.segmentUpdateProgressEstimation = segmentUpdateProgressEstimation;
+    }
+
     public void setAggregateQueryBucketSize(int aggregateQueryBucketSize) {
         this.aggregateQueryBucketSize = aggregateQueryBucketSize;
     }
@@ -146,6 +175,18 @@ public class SegmentServiceImpl extends AbstractServiceImpl implements SegmentSe
 
     public void postConstruct() {
         logger.debug("postConstruct {" + bundleContext.getBundle() + "}");
+        // each slice of the profiles to update is processed by its own thread
+        final AtomicInteger segmentUpdateThreadCount = new AtomicInteger();
+        segmentUpdateExecutor = Executors.newFixedThreadPool(segmentUpdateSlices, runnable -> {
+            Thread thread = new Thread(runnable, "unomi-segment-update-" + segmentUpdateThreadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        pastEventCountersExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "unomi-past-event-counters");
+            thread.setDaemon(true);
+            return thread;
+        });
         loadPredefinedSegments(bundleContext);
         loadPredefinedScorings(bundleContext);
         for (Bundle bundle : bundleContext.getBundles()) {
@@ -161,6 +202,8 @@ public class SegmentServiceImpl extends AbstractServiceImpl implements SegmentSe
 
     public void preDestroy() {
         bundleContext.removeBundleListener(this);
+        segmentUpdateExecutor.shutdown();
+        pastEventCountersExecutor.shutdown();
         logger.info("Segment service shutdown.");
     }
 
@@ -261,7 +304,9 @@ public class SegmentServiceImpl extends AbstractServiceImpl implements SegmentSe
 
     public void setSegmentDefinition(Segment segment) {
         if (segment.getMetadata().isEnabled()) {
-            ParserHelper.resolveConditionType(definitionsService, segment.getCondition(), "segment " + segment.getItemId());
+            if (ParserHelper.resolveConditionType(definitionsService, segment.getCondition(), "segment " + segment.getItemId())) {
+                ParserHelper.checkLocalEvaluation(persistenceService, segment.getCondition(), "segment " + segment.getItemId());
+            }
             if (!persistenceService.isValidCondition(segment.getCondition(), new Profile(VALIDATION_PROFILE_ID))) {
                 throw new BadSegmentConditionException();
             }
@@ -270,9 +315,14 @@ public class SegmentServiceImpl extends AbstractServiceImpl implements SegmentSe
             }
         }
 
+        Segment previousSegment = persistenceService.load(segment.getItemId(), Segment.class);
+        if (previousSegment != null) {
+            segment.setProfilesUpdateDate(previousSegment.getProfilesUpdateDate());
+        }
+
         // make sure we update the name and description metadata that might not match, so first we remove the entry from the map
         persistenceService.save(segment, null, true);
-        updateExistingProfilesForSegment(segment);
+        updateExistingProfilesForSegment(segment, previousSegment);
     }
 
     private boolean checkSegmentDeletionImpact(Condition condition, String segmentToDeleteId) {
@@ -482,48 +532,24 @@ public class SegmentServiceImpl extends AbstractServiceImpl implements SegmentSe
     }
 
     public SegmentsAndScores getSegmentsAndScoresForProfile(Profile profile) {
-        Set<String> segments = new HashSet<String>();
-        Map<String, Integer> scores = new HashMap<String, Integer>();
-
-        List<Segment> allSegments = this.allSegments;
-        for (Segment segment : allSegments) {
-            if (segment.getMetadata().isEnabled() && persistenceService.testMatch(segment.getCondition(), profile)) {
-                segments.add(segment.getMetadata().getId());
-            }
-        }
+        SegmentsAndScores segmentsAndScores = segmentEvaluator.evaluate(profile, persistenceService::testMatch);
 
-        List<Scoring> allScoring = this.allScoring;
+        Map<String, Integer> scores = segmentsAndScores.getScores();
         Map<String, Integer> scoreModifiers = (Map<String, Integer>) profile.getSystemProperties().get("scoreModifiers");
-        for (Scoring scoring : allScoring) {
-            if (scoring.getMetadata().isEnabled()) {
-                int score = 0;
-                for (ScoringElement scoringElement : scoring.getElements()) {
-                    if (persistenceService.testMatch(scoringElement.getCondition(), profile)) {
-                        score += scoringElement.getValue();
-                    }
+        if (scoreModifiers != null) {
+            for (Map.Entry<String, Integer> score : scores.entrySet()) {
+                Integer scoreModifier = scoreModifiers.get(score.getKey());
+                if (scoreModifier != null) {
+                    score.setValue(score.getValue() + scoreModifier);
                 }
-                String scoringId = scoring.getMetadata().getId();
-                if (scoreModifiers != null && scoreModifiers.containsKey(scoringId) && scoreModifiers.get(scoringId) != null) {
-                    score += scoreModifiers.get(scoringId);
-                }
-                scores.put(scoringId, score);
             }
         }
 
-        return new SegmentsAndScores(segments, scores);
+        return segmentsAndScores;
     }
 
     public List<Metadata> getSegmentMetadatasForProfile(Profile profile) {
-        List<Metadata> metadatas = new ArrayList<>();
-
-        List<Segment> allSegments = this.allSegments;
-        for (Segment segment : allSegments) {
-            if (segment.getMetadata().isEnabled() && persistenceService.testMatch(segment.getCondition(), profile)) {
-                metadatas.add(segment.getMetadata());
-            }
-        }
-
-        return metadatas;
+        return segmentEvaluator.getMatchingSegmentMetadatas(profile, persistenceService::testMatch);
     }
 
     public PartialList<Metadata> getScoringMetadatas(int offset, int size, String sortBy) {
@@ -559,7 +585,9 @@ public class SegmentServiceImpl extends AbstractServiceImpl implements SegmentSe
     public void setScoringDefinition(Scoring scoring) {
         if (scoring.getMetadata().isEnabled()) {
             for (ScoringElement element : scoring.getElements()) {
-                ParserHelper.resolveConditionType(definitionsService, element.getCondition(), "scoring " + scoring.getItemId() + " element ");
+                if (ParserHelper.resolveConditionType(definitionsService, element.getCondition(), "scoring " + scoring.getItemId() + " element ")) {
+                    ParserHelper.checkLocalEvaluation(persistenceService, element.getCondition(), "scoring " + scoring.getItemId() + " element");
+                }
                 if (!scoring.getMetadata().isMissingPlugins()) {
                     updateAutoGeneratedRules(scoring.getMetadata(), element.getCondition());
                 }
@@ -783,7 +811,12 @@ public class SegmentServiceImpl extends AbstractServiceImpl implements SegmentSe
                     rule.setLinkedItems(Arrays.asList(metadata.getId()));
                     rules.add(rule);
 
-                    updateExistingProfilesForPastEventCondition(condition, parentCondition, true);
+                    if (isPastEventCountersCondition(parentCondition)) {
+                        // the rule is tagged once its counters are initialized
+                        initializePastEventCountersAsync(rule, condition, parentCondition);
+                    } else {
+                        updateExistingProfilesForPastEventCondition(condition, parentCondition, true);
+                    }
                 } else {
                     rule.getLinkedItems().add(metadata.getId());
                     rules.add(rule);
@@ -807,6 +840,31 @@ public class SegmentServiceImpl extends AbstractServiceImpl implements SegmentSe
 
     private void updateExistingProfilesForPastEventCondition(Condition eventCondition, Condition parentCondition, boolean forceRefresh) {
         long t = System.currentTimeMillis();
+        Condition andCondition = getPastEventQueryCondition(eventCondition, parentCondition);
+        String propertyKey = (String) parentCondition.getParameter("generatedPropertyKey");
+
+        int updatedProfileCount = 0;
+        if(pastEventsDisablePartitions) {
+            Map<String, Long> eventCountByProfile = persistenceService.aggregateWithOptimizedQuery(eventCondition, new TermsAggregate("profileId"), Event.ITEM_TYPE, maximumIdsQueryCount);
+            updatedProfileCount = updateProfilesWithPastEventProperty(eventCountByProfile, propertyKey);
+        } else {
+            Map<String, Double> m = persistenceService.getSingleValuesMetrics(andCondition, new String[]{"card"}, "profileId.keyword", Event.ITEM_TYPE);
+            long card = m.get("_card").longValue();
+            int numParts = (int) (card / aggregateQueryBucketSize) + 2;
+            for (int i = 0; i < numParts; i++) {
+                Map<String, Long> eventCountByProfile = persistenceService.aggregateWithOptimizedQuery(andCondition, new TermsAggregate("profileId", i, numParts), Event.ITEM_TYPE);
+                updatedProfileCount += updateProfilesWithPastEventProperty(eventCountByProfile, propertyKey);
+            }
+        }
+
+        if (forceRefresh && updatedProfileCount > 0) {
+            persistenceService.refreshIndex(Profile.class, null);
+        }
+
+        logger.info("{} profiles updated for past event condition in {}ms", updatedProfileCount, System.currentTimeMillis() - t);
+    }
+
+    private Condition getPastEventQueryCondition(Condition eventCondition, Condition parentCondition) {
         List<Condition> l = new ArrayList<Condition>();
         Condition andCondition = new Condition();
         andCondition.setConditionType(definitionsService.getConditionType("booleanCondition"));
@@ -843,28 +901,183 @@ public class SegmentServiceImpl extends AbstractServiceImpl implements SegmentSe
             endDateCondition.setParameter("propertyValueDate", toDate);
             l.add(endDateCondition);
         }
+        return andCondition;
+    }
+
+    /**
+     * Past event conditions that only count the events of the last days are computed from the daily past event counters
+     * of the profiles, the conditions with a date range are still computed by aggregating the events.
+     */
+    private static boolean isPastEventCountersCondition(Condition pastEventCondition) {
+        return pastEventCondition.getParameter("numberOfDays") != null && pastEventCondition.getParameter("fromDate") == null
+                && pastEventCondition.getParameter("toDate") == null;
+    }
+
+    /**
+     * Initializes the past event counters of a new past event condition in the background, as aggregating the events of
+     * all its days can take a while. The segments and scorings using the condition are then updated, as the profiles
+     * only get their number of events once the counters are initialized. The rule and the segment or scoring may not
+     * be saved yet when the counters are initialized, in which case the tag is saved with the rule and the profiles are
+     * updated when the segment or scoring is saved.
+     */
+    private void initializePastEventCountersAsync(Rule rule, Condition eventCondition, Condition parentCondition) {
+        String ruleId = rule.getItemId();
+        pastEventCountersExecutor.execute(() -> {
+            try {
+                initializePastEventCounters(eventCondition, parentCondition, true);
+                rule.getMetadata().getSystemTags().add(PAST_EVENT_COUNTERS_INITIALIZED_TAG);
+                if (rulesService.getRule(ruleId) != null) {
+                    rulesService.setRule(rule);
+                }
+                for (String linkedItemId : rule.getLinkedItems()) {
+                    Segment segment = getSegmentDefinition(linkedItemId);
+                    if (segment != null) {
+                        updateExistingProfilesForSegment(segment);
+                    } else {
+                        Scoring scoring = getScoringDefinition(linkedItemId);
+                        if (scoring != null) {
+                            updateExistingProfilesForScoring(scoring);
+                        }
+                    }
+                }
+            } catch (Throwable t) {
+                logger.error("Error while initializing the past event counters of rule {}, they will be initialized by the next daily update", ruleId, t);
+            }
+        });
+    }
 
+    /**
+     * Initializes the daily past event counters of the profiles from the existing events, aggregating the events of one
+     * day at a time, and sets the number of events of the profiles. This is done once for each past event condition,
+     * the counters are then updated as the events are received, and again periodically to correct counts that drifted.
+     */
+    private void initializePastEventCounters(Condition eventCondition, Condition parentCondition, boolean forceRefresh) {
+        long t = System.currentTimeMillis();
         String propertyKey = (String) parentCondition.getParameter("generatedPropertyKey");
+        Date now = new Date();
+        long firstDay = PastEventCounters.getFirstDay(now, (Integer) parentCondition.getParameter("numberOfDays"));
+        long today = PastEventCounters.getEpochDay(now);
+
+        Map<String, Double> m = persistenceService.getSingleValuesMetrics(getPastEventQueryCondition(eventCondition, parentCondition),
+                new String[]{"card"}, "profileId.keyword", Event.ITEM_TYPE);
+        long card = m.get("_card").longValue();
+        int numParts = (int) (card / aggregateQueryBucketSize) + 2;
 
         int updatedProfileCount = 0;
-        if(pastEventsDisablePartitions) {
-            Map<String, Long> eventCountByProfile = persistenceService.aggregateWithOptimizedQuery(eventCondition, new TermsAggregate("profileId"), Event.ITEM_TYPE, maximumIdsQueryCount);
-            updatedProfileCount = updateProfilesWithPastEventProperty(eventCountByProfile, propertyKey);
-        } else {
-            Map<String, Double> m = persistenceService.getSingleValuesMetrics(andCondition, new String[]{"card"}, "profileId.keyword", Event.ITEM_TYPE);
-            long card = m.get("_card").longValue();
-            int numParts = (int) (card / aggregateQueryBucketSize) + 2;
-            for (int i = 0; i < numParts; i++) {
-                Map<String, Long> eventCountByProfile = persistenceService.aggregateWithOptimizedQuery(andCondition, new TermsAggregate("profileId", i, numParts), Event.ITEM_TYPE);
-                updatedProfileCount += updateProfilesWithPastEventProperty(eventCountByProfile, propertyKey);
+        for (int i = 0; i < numParts; i++) {
+            Map<String, PastEventCounters> countersByProfile = new LinkedHashMap<>();
+            for (long day = firstDay; day <= today; day++) {
+                Map<String, Long> eventCountByProfile = persistenceService.aggregateWithOptimizedQuery(
+                        getPastEventPeriodCondition(eventCondition, "greaterThanOrEqualTo", getStartOfDay(day), getStartOfDay(day + 1)),
+                        new TermsAggregate("profileId", i, numParts), Event.ITEM_TYPE);
+                for (Map.Entry<String, Long> entry : eventCountByProfile.entrySet()) {
+                    if (!entry.getKey().startsWith("_") && entry.getValue() > 0) {
+                        countersByProfile.computeIfAbsent(entry.getKey(), PastEventCounters::new).increment(propertyKey, day, entry.getValue());
+                    }
+                }
             }
+
+            Map<String, Long> eventCountByProfile = new LinkedHashMap<>();
+            List<String> profileIds = new ArrayList<>(countersByProfile.keySet());
+            for (int j = 0; j < profileIds.size(); j += segmentUpdateBatchSize) {
+                // the counters of the other past event conditions of the profiles are kept
+                List<String> batchProfileIds = profileIds.subList(j, Math.min(profileIds.size(), j + segmentUpdateBatchSize));
+                for (PastEventCounters existingCounters : persistenceService.loadAll(batchProfileIds, PastEventCounters.class)) {
+                    PastEventCounters counters = countersByProfile.get(existingCounters.getItemId());
+                    existingCounters.getDailyCounts().put(propertyKey, counters.getDailyCounts().get(propertyKey));
+                    countersByProfile.put(existingCounters.getItemId(), existingCounters);
+                }
+                for (String profileId : batchProfileIds) {
+                    PastEventCounters counters = countersByProfile.get(profileId);
+                    persistenceService.save(counters, true);
+                    eventCountByProfile.put(profileId, counters.getCount(propertyKey, firstDay, today));
+                }
+            }
+            updatedProfileCount += updateProfilesWithPastEventProperty(eventCountByProfile, propertyKey);
         }
 
         if (forceRefresh && updatedProfileCount > 0) {
             persistenceService.refreshIndex(Profile.class, null);
         }
 
-        logger.info("{} profiles updated for past event condition in {}ms", updatedProfileCount, System.currentTimeMillis() - t);
+        logger.info("{} profiles updated while initializing the past event counters in {}ms", updatedProfileCount, System.currentTimeMillis() - t);
+    }
+
+    private static Date getStartOfDay(long epochDay) {
+        return Date.from(LocalDate.ofEpochDay(epochDay).atStartOfDay(ZoneOffset.UTC).toInstant());
+    }
+
+    private Condition getPastEventPeriodCondition(Condition eventCondition, String startComparisonOperator, Date start, Date end) {
+        Condition startDateCondition = new Condition();
+        startDateCondition.setConditionType(definitionsService.getConditionType("sessionPropertyCondition"));
+        startDateCondition.setParameter("propertyName", "timeStamp");
+        startDateCondition.setParameter("comparisonOperator", startComparisonOperator);
+        startDateCondition.setParameter("propertyValueDate", start.toInstant().toString());
+
+        Condition endDateCondition = new Condition();
+        endDateCondition.setConditionType(definitionsService.getConditionType("sessionPropertyCondition"));
+        endDateCondition.setParameter("propertyName", "timeStamp");
+        endDateCondition.setParameter("comparisonOperator", "lessThan");
+        endDateCondition.setParameter("propertyValueDate", end.toInstant().toString());
+
+        Condition andCondition = new Condition();
+        andCondition.setConditionType(definitionsService.getConditionType("booleanCondition"));
+        andCondition.setParameter("operator", "and");
+        andCondition.setParameter("subConditions", Arrays.asList(eventCondition, startDateCondition, endDateCondition));
+        return andCondition;
+    }
+
+    /**
+     * Updates the number of events of the profiles whose past event counts changed since the previous day, which are the
+     * profiles with events in a day that left the last days of a past event condition. The counts are read from the
+     * counter store, without aggregating the events.
+     *
+     * @param numberOfDaysByKey the number of days of the past event conditions, indexed by their generated property key
+     */
+    private void updateProfilesWithPastEventCounters(Map<String, Integer> numberOfDaysByKey) {
+        if (numberOfDaysByKey.isEmpty()) {
+            return;
+        }
+        long t = System.currentTimeMillis();
+        Date now = new Date();
+        long today = PastEventCounters.getEpochDay(now);
+        Map<String, Long> firstDayByKey = new HashMap<>();
+        for (Map.Entry<String, Integer> entry : numberOfDaysByKey.entrySet()) {
+            firstDayByKey.put(entry.getKey(), PastEventCounters.getFirstDay(now, entry.getValue()));
+        }
+        Condition matchAllCondition = new Condition(definitionsService.getConditionType("matchAllCondition"));
+
+        int updatedProfileCount = 0;
+        Map<String, Map<String, Long>> pastEventCountsByProfile = new LinkedHashMap<>();
+        try (Stream<PastEventCounters> stream = persistenceService.stream(matchAllCondition, PastEventCounters.class, segmentUpdateBatchSize)) {
+            Iterator<PastEventCounters> iterator = stream.iterator();
+            while (iterator.hasNext()) {
+                PastEventCounters counters = iterator.next();
+                Map<String, Long> pastEventCounts = new HashMap<>();
+                boolean countsRemoved = false;
+                for (Map.Entry<String, Long> entry : firstDayByKey.entrySet()) {
+                    String key = entry.getKey();
+                    if (counters.removeCountsBefore(key, entry.getValue())) {
+                        pastEventCounts.put(key, counters.getCount(key, entry.getValue(), today));
+                        countsRemoved = true;
+                    }
+                }
+                if (countsRemoved) {
+                    // saved with a version check, so that the counts incremented in the meantime are not overwritten,
+                    // the old counts are otherwise removed with the next event of the profile
+                    persistenceService.save(counters, false, false);
+                }
+                if (!pastEventCounts.isEmpty()) {
+                    pastEventCountsByProfile.put(counters.getItemId(), pastEventCounts);
+                }
+                if (pastEventCountsByProfile.size() == segmentUpdateBatchSize || (!iterator.hasNext() && pastEventCountsByProfile.size() > 0)) {
+                    updatedProfileCount += updateProfilesWithPastEventCounts(pastEventCountsByProfile);
+                    pastEventCountsByProfile.clear();
+                }
+            }
+        }
+
+        logger.info("{} profiles updated from the past event counters in {}ms", updatedProfileCount, System.currentTimeMillis() - t);
     }
 
     public String getGeneratedPropertyKey(Condition condition, Condition parentCondition) {
@@ -891,17 +1104,23 @@ public class SegmentServiceImpl extends AbstractServiceImpl implements SegmentSe
     }
 
     private int updateProfilesWithPastEventProperty(Map<String, Long> eventCountByProfile, String propertyKey) {
+        Map<String, Map<String, Long>> pastEventCountsByProfile = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> entry : eventCountByProfile.entrySet()) {
+            pastEventCountsByProfile.put(entry.getKey(), Collections.singletonMap(propertyKey, entry.getValue()));
+        }
+        return updateProfilesWithPastEventCounts(pastEventCountsByProfile);
+    }
+
+    private int updateProfilesWithPastEventCounts(Map<String, Map<String, Long>> pastEventCountsByProfile) {
         int profileUpdatedCount = 0;
         Map<Item, Map> batch = new HashMap<>();
-        Iterator<Map.Entry<String, Long>> entryIterator = eventCountByProfile.entrySet().iterator();
+        Iterator<Map.Entry<String, Map<String, Long>>> entryIterator = pastEventCountsByProfile.entrySet().iterator();
         while (entryIterator.hasNext()){
-            Map.Entry<String, Long> entry = entryIterator.next();
+            Map.Entry<String, Map<String, Long>> entry = entryIterator.next();
             String profileId = entry.getKey();
             if (!profileId.startsWith("_")) {
-                Map<String, Long> pastEventCounts = new HashMap<>();
-                pastEventCounts.put(propertyKey, entry.getValue());
                 Map<String, Object> systemProperties = new HashMap<>();
-                systemProperties.put("pastEvents", pastEventCounts);
+                systemProperties.put("pastEvents", entry.getValue());
                 systemProperties.put("lastUpdated", new Date());
 
                 Profile profile = new Profile();
@@ -938,6 +1157,19 @@ public class SegmentServiceImpl extends AbstractServiceImpl implements SegmentSe
     }
 
     private void updateExistingProfilesForSegment(Segment segment) {
+        updateExistingProfilesForSegment(segment, null);
+    }
+
+    /**
+     * Updates the membership of the existing profiles to a segment. When the profiles were already updated for the
+     * previous definition of the segment, only the profiles that may have a different membership are evaluated: the
+     * profiles modified since the last update if the condition did not change, and only the profiles to remove or to add
+     * if the condition was narrowed or widened.
+     *
+     * @param segment         the segment
+     * @param previousSegment the previous definition of the segment, or {@code null} to evaluate all the profiles
+     */
+    private void updateExistingProfilesForSegment(Segment segment, Segment previousSegment) {
         long updateProfilesForSegmentStartTime = System.currentTimeMillis();
         long updatedProfileCount = 0;
         final String segmentId = segment.getItemId();
@@ -948,8 +1180,16 @@ public class SegmentServiceImpl extends AbstractServiceImpl implements SegmentSe
         segmentCondition.setParameter("comparisonOperator", "equals");
         segmentCondition.setParameter("propertyValue", segmentId);
 
+        SegmentUpdateProgress progress;
         if (segment.getMetadata().isEnabled()) {
 
+            SegmentConditionChange conditionChange = SegmentConditionChange.CHANGED;
+            Date profilesUpdateDate = segment.getProfilesUpdateDate();
+            // the profiles matched by time dependent segments may have to be updated even if they were not modified
+            if (previousSegment != null && previousSegment.getMetadata().isEnabled() && profilesUpdateDate != null && !isDateExprSegment(segment)) {
+                conditionChange = SegmentConditionChange.of(previousSegment.getCondition(), segment.getCondition());
+            }
+
             ConditionType booleanConditionType = definitionsService.getConditionType("booleanCondition");
             ConditionType notConditionType = definitionsService.getConditionType("notCondition");
 
@@ -971,68 +1211,158 @@ public class SegmentServiceImpl extends AbstractServiceImpl implements SegmentSe
             profilesToRemoveSubConditions.add(notNewSegmentCondition);
             profilesToRemoveCondition.setParameter("subConditions", profilesToRemoveSubConditions);
 
-            updatedProfileCount += updateProfilesSegment(profilesToAddCondition, segmentId, true);
-            updatedProfileCount += updateProfilesSegment(profilesToRemoveCondition, segmentId, false);
+            if (conditionChange == SegmentConditionChange.UNCHANGED) {
+                Condition modifiedProfilesCondition = new Condition(definitionsService.getConditionType("profilePropertyCondition"));
+                modifiedProfilesCondition.setParameter("propertyName", "systemProperties.lastUpdated");
+                modifiedProfilesCondition.setParameter("comparisonOperator", "greaterThanOrEqualTo");
+                modifiedProfilesCondition.setParameter("propertyValueDate", new Date(profilesUpdateDate.getTime() - PROFILES_UPDATE_DATE_MARGIN));
+                profilesToAddSubConditions.add(modifiedProfilesCondition);
+                profilesToRemoveSubConditions.add(modifiedProfilesCondition);
+            }
+            boolean addProfiles = conditionChange != SegmentConditionChange.NARROWED;
+            boolean removeProfiles = conditionChange != SegmentConditionChange.WIDENED;
+            logger.info("Updating profiles of segment {}, condition change: {}", segmentId, conditionChange);
+
+            progress = new SegmentUpdateProgress(segmentId, segmentUpdateProgressEstimation ?
+                    (addProfiles ? persistenceService.queryCount(profilesToAddCondition, Profile.ITEM_TYPE) : 0) +
+                            (removeProfiles ? persistenceService.queryCount(profilesToRemoveCondition, Profile.ITEM_TYPE) : 0) : -1);
+            // the profiles are removed once they are all added, as the segment condition may depend on the properties
+            // updated by the add pass (the segments or the last update date of the profiles)
+            if (addProfiles) {
+                updatedProfileCount += updateProfilesSegmentSlices(profilesToAddCondition, segmentId, true, progress);
+            }
+            if (removeProfiles) {
+                updatedProfileCount += updateProfilesSegmentSlices(profilesToRemoveCondition, segmentId, false, progress);
+            }
         } else {
-            updatedProfileCount += updateProfilesSegment(segmentCondition, segmentId, false);
+            progress = new SegmentUpdateProgress(segmentId, segmentUpdateProgressEstimation ?
+                    persistenceService.queryCount(segmentCondition, Profile.ITEM_TYPE) : -1);
+            updatedProfileCount += updateProfilesSegmentSlices(segmentCondition, segmentId, false, progress);
         }
-        logger.info("{} profiles updated in {}ms", updatedProfileCount, System.currentTimeMillis() - updateProfilesForSegmentStartTime);
+        if (progress.isFailed()) {
+            logger.error("Segment {}: {} profiles updated in {}ms, {} slices failed and {} profiles could not be updated", segmentId,
+                    updatedProfileCount, System.currentTimeMillis() - updateProfilesForSegmentStartTime, progress.getFailedSliceCount(),
+                    progress.getFailedProfileCount());
+        } else {
+            logger.info("{} profiles updated in {}ms", updatedProfileCount, System.currentTimeMillis() - updateProfilesForSegmentStartTime);
+        }
+
+        // the next updates can only skip the profiles that are known to be up to date
+        Date profilesUpdateDate = segment.getMetadata().isEnabled() && !progress.isFailed() ? new Date(updateProfilesForSegmentStartTime) : null;
+        segment.setProfilesUpdateDate(profilesUpdateDate);
+        persistenceService.update(segment, null, Segment.class, "profilesUpdateDate", profilesUpdateDate);
     }
 
-    private long updateProfilesSegment(Condition profilesToUpdateCondition, String segmentId, boolean isAdd){
-        long updatedProfileCount= 0;
-        PartialList<Profile> profiles = persistenceService.query(profilesToUpdateCondition, null, Profile.class, 0, segmentUpdateBatchSize, "10m");
+    private static boolean isDateExprSegment(Segment segment) {
+        return SegmentConditionChange.isTimeDependent(segment.getCondition());
+    }
 
-        while (profiles != null && profiles.getList().size() > 0) {
-            long startTime = System.currentTimeMillis();
-            if (batchSegmentProfileUpdate) {
-                batchUpdateProfilesSegment(segmentId, profiles.getList(), isAdd);
-            }
-            else { //send update profile one by one
-                for (Profile profileToUpdate : profiles.getList()) {
-                    Map<String, Object> sourceMap = buildPropertiesMapForUpdateSegment(profileToUpdate, segmentId, isAdd);
-                    persistenceService.update(profileToUpdate, null, Profile.class, sourceMap);
-                }
+    private long updateProfilesSegmentSlices(Condition profilesToUpdateCondition, String segmentId, boolean isAdd, SegmentUpdateProgress progress) {
+        List<Future<Long>> updates = new ArrayList<>(segmentUpdateSlices);
+        for (int i = 0; i < segmentUpdateSlices; i++) {
+            final int sliceId = i;
+            updates.add(segmentUpdateExecutor.submit(() -> updateProfilesSegment(profilesToUpdateCondition, segmentId, isAdd, sliceId, progress)));
+        }
+        long updatedProfileCount = 0;
+        for (int i = 0; i < updates.size(); i++) {
+            try {
+                updatedProfileCount += updates.get(i).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logger.warn("Interrupted while waiting for the profiles of segment {} to be updated", segmentId);
+                updates.forEach(update -> update.cancel(true));
+                progress.addFailedSlices(updates.size() - i);
+                return updatedProfileCount;
+            } catch (ExecutionException e) {
+                progress.addFailedSlices(1);
+                logger.error("Error updating the profiles of segment {}, slice {}/{}", segmentId, i + 1, updates.size(), e.getCause());
             }
-           if (sendProfileUpdateEventForSegmentUpdate)
-                sendProfileUpdatedEvent(profiles.getList());
+        }
+        return updatedProfileCount;
+    }
 
-            updatedProfileCount += profiles.size();
-            logger.info("{} profiles {} to segment {} in {}ms", profiles.size(), isAdd ? "added" : "removed", segmentId, System.currentTimeMillis() - startTime);
+    private long updateProfilesSegment(Condition profilesToUpdateCondition, String segmentId, boolean isAdd, int sliceId, SegmentUpdateProgress progress){
+        long updatedProfileCount= 0;
+        String[] includeFields = sendProfileUpdateEventForSegmentUpdate ? null : SEGMENT_UPDATE_PROFILE_FIELDS;
+        try (Stream<Profile> profileStream = persistenceService.stream(profilesToUpdateCondition, Profile.class, segmentUpdateBatchSize, sliceId, segmentUpdateSlices,
+                includeFields, null)) {
+            Iterator<Profile> profileIterator = profileStream.iterator();
+            List<Profile> profiles = new ArrayList<>(segmentUpdateBatchSize);
+            while (profileIterator.hasNext()) {
+                profiles.add(profileIterator.next());
+                if (profiles.size() < segmentUpdateBatchSize && profileIterator.hasNext()) {
+                    continue;
+                }
+                long startTime = System.currentTimeMillis();
+                if (batchSegmentProfileUpdate || segmentUpdateSlices > 1) {
+                    progress.addFailedProfiles(batchUpdateProfilesSegment(segmentId, profiles, isAdd));
+                }
+                else { //send update profile one by one
+                    for (Profile profileToUpdate : profiles) {
+                        Map<String, Object> sourceMap = buildPropertiesMapForUpdateSegment(profileToUpdate, segmentId, isAdd);
+                        if (!persistenceService.update(profileToUpdate, null, Profile.class, sourceMap)) {
+                            progress.addFailedProfiles(1);
+                        }
+                    }
+                }
+                if (sendProfileUpdateEventForSegmentUpdate)
+                    sendProfileUpdatedEvent(profiles);
 
-            profiles = persistenceService.continueScrollQuery(Profile.class, profiles.getScrollIdentifier(), profiles.getScrollTimeValidity());
+                updatedProfileCount += profiles.size();
+                logger.debug("{} profiles {} to segment {} in {}ms", profiles.size(), isAdd ? "added" : "removed", segmentId, System.currentTimeMillis() - startTime);
+                progress.add(profiles.size());
+                profiles = new ArrayList<>(segmentUpdateBatchSize);
+            }
         }
 
         return updatedProfileCount;
     }
 
-    private void batchUpdateProfilesSegment(String segmentId, List<Profile> profiles, boolean isAdd) {
+    /**
+     * @return the number of profiles that could not be updated, even after being retried
+     */
+    private int batchUpdateProfilesSegment(String segmentId, List<Profile> profiles, boolean isAdd) {
         Map<Item, Map> profileToPropertiesMap = new HashMap<>();
         for (Profile profileToUpdate : profiles) {
             Map<String,Object> propertiesToUpdate = buildPropertiesMapForUpdateSegment(profileToUpdate, segmentId, isAdd);
             profileToPropertiesMap.put(profileToUpdate, propertiesToUpdate);
         }
         List<String> failedItemsIds = persistenceService.update(profileToPropertiesMap, null, Profile.class);
-        if (failedItemsIds != null)
-            failedItemsIds.forEach(s -> retryFailedSegmentUpdate(s, segmentId, isAdd));
+        int failedCount = 0;
+        if (failedItemsIds != null) {
+            for (String failedItemId : failedItemsIds) {
+                if (!retryFailedSegmentUpdate(failedItemId, segmentId, isAdd)) {
+                    failedCount++;
+                }
+            }
+        }
+        return failedCount;
     }
 
-    private void retryFailedSegmentUpdate(String profileId, String segmentId, boolean isAdd){
+    private boolean retryFailedSegmentUpdate(String profileId, String segmentId, boolean isAdd){
         if (maxRetriesForUpdateProfileSegment > 0){
             RetryPolicy retryPolicy = new RetryPolicy()
                     .withDelay(Duration.ofSeconds(secondsDelayForRetryUpdateProfileSegment))
                     .withMaxRetries(maxRetriesForUpdateProfileSegment);
 
-            Failsafe.with(retryPolicy).
-                    run(executionContext -> {
-                        logger.warn("retry updating profile segment {}, profile {}, time {}", segmentId, profileId, new Date());
-                        Profile profileToAddUpdated = persistenceService.load(profileId, Profile.class);
-                        Map<String, Object> sourceMapToUpdate = buildPropertiesMapForUpdateSegment(profileToAddUpdated, segmentId, isAdd);
-                        boolean isUpdated = persistenceService.update(profileToAddUpdated, null, Profile.class, sourceMapToUpdate);
-                        if (isUpdated == false)
-                            throw new Exception(String.format("failed retry update profile segment {}, profile {}, time {}", segmentId, profileId, new Date()));
-                    });
+            try {
+                Failsafe.with(retryPolicy).
+                        run(executionContext -> {
+                            logger.warn("retry updating profile segment {}, profile {}, time {}", segmentId, profileId, new Date());
+                            Profile profileToAddUpdated = persistenceService.load(profileId, Profile.class);
+                            Map<String, Object> sourceMapToUpdate = buildPropertiesMapForUpdateSegment(profileToAddUpdated, segmentId, isAdd);
+                            boolean isUpdated = persistenceService.update(profileToAddUpdated, null, Profile.class, sourceMapToUpdate);
+                            if (isUpdated == false)
+                                throw new Exception(String.format("failed retry update profile segment %s, profile %s, time %s", segmentId, profileId, new Date()));
+                        });
+                return true;
+            } catch (FailsafeException e) {
+                logger.error("Profile {} could not be updated for segment {}", profileId, segmentId, e.getCause());
+            }
+        } else {
+            logger.error("Profile {} could not be updated for segment {}", profileId, segmentId);
         }
+        return false;
     }
 
     private void sendProfileUpdatedEvent(List<Profile> profiles) {
@@ -1136,17 +1466,34 @@ public class SegmentServiceImpl extends AbstractServiceImpl implements SegmentSe
                 try {
                     logger.info("running scheduled task to recalculate segments with pastEventCondition conditions");
                     long pastEventsTaskStartTime = System.currentTimeMillis();
+                    Map<String, Integer> numberOfDaysByKey = new HashMap<>();
+                    boolean reconcileCounters = pastEventCountersReconciliationIntervalInDays > 0
+                            && LocalDate.now(ZoneOffset.UTC).toEpochDay() % pastEventCountersReconciliationIntervalInDays == 0;
                     for (Metadata metadata : rulesService.getRuleMetadatas()) {
                         Rule rule = rulesService.getRule(metadata.getId());
                         for (Action action : rule.getActions()) {
                             if (action.getActionTypeId().equals("setEventOccurenceCountAction")) {
                                 Condition pastEventCondition = (Condition) action.getParameterValues().get("pastEventCondition");
-                                if (pastEventCondition.containsParameter("numberOfDays")) {
+                                if (isPastEventCountersCondition(pastEventCondition)) {
+                                    if (!rule.getMetadata().getSystemTags().contains(PAST_EVENT_COUNTERS_INITIALIZED_TAG)) {
+                                        // rules created before the past event counters existed, or whose initialization failed
+                                        initializePastEventCounters(rule.getCondition(), pastEventCondition, false);
+                                        rule.getMetadata().getSystemTags().add(PAST_EVENT_COUNTERS_INITIALIZED_TAG);
+                                        rulesService.setRule(rule);
+                                    } else if (reconcileCounters) {
+                                        // increments can be lost or counted twice, for example when an event is counted
+                                        // while the counters of its profile are initialized
+                                        initializePastEventCounters(rule.getCondition(), pastEventCondition, false);
+                                    }
+                                    String key = (String) pastEventCondition.getParameter("generatedPropertyKey");
+                                    numberOfDaysByKey.put(key, (Integer) pastEventCondition.getParameter("numberOfDays"));
+                                } else if (pastEventCondition.containsParameter("numberOfDays")) {
                                     updateExistingProfilesForPastEventCondition(rule.getCondition(), pastEventCondition, false);
                                 }
                             }
                         }
                     }
+                    updateProfilesWithPastEventCounters(numberOfDaysByKey);
                     logger.info("finished recalculate segments with pastEventCondition conditions in {}ms. ", System.currentTimeMillis() - pastEventsTaskStartTime);
                 } catch (Throwable t) {
                     logger.error("Error while updating profiles for past event conditions", t);
@@ -1159,8 +1506,11 @@ public class SegmentServiceImpl extends AbstractServiceImpl implements SegmentSe
             @Override
             public void run() {
                 try {
-                    allSegments = getAllSegmentDefinitions();
-                    allScoring = getAllScoringDefinitions();
+                    List<Segment> newAllSegments = getAllSegmentDefinitions();
+                    List<Scoring> newAllScoring = getAllScoringDefinitions();
+                    allSegments = newAllSegments;
+                    allScoring = newAllScoring;
+                    segmentEvaluator = SegmentEvaluator.build(newAllSegments, newAllScoring);
                 } catch (Throwable t) {
                     logger.error("Error while loading segments and scoring definitions from persistence back-end", t);
                 }
@@ -1173,8 +1523,7 @@ public class SegmentServiceImpl extends AbstractServiceImpl implements SegmentSe
             public void run() {
                 try {
                     long dateExprTaskStartTime = System.currentTimeMillis();
-                    List<Segment> dateExprSegments = allSegments.stream().filter(segment ->
-                            segment.getCondition().toString().contains("propertyValueDateExpr")).collect(Collectors.toList());
+                    List<Segment> dateExprSegments = allSegments.stream().filter(SegmentServiceImpl::isDateExprSegment).collect(Collectors.toList());
                     logger.info("running scheduled task to recalculate segments with DateExpr condition, found {} segments", dateExprSegments.size());
                     dateExprSegments.forEach(segment -> updateExistingProfilesForSegment(segment));
                     logger.info("finished recalculate segments with DateExpr conditions in {}ms. ", System.currentTimeMillis() - dateExprTaskStartTime);
@@ -1192,4 +1541,8 @@ public class SegmentServiceImpl extends AbstractServiceImpl implements SegmentSe
     public void setTaskExecutionPeriod(long taskExecutionPeriod) {
         this.taskExecutionPeriod = taskExecutionPeriod;
     }
+
+    public void setPastEventCountersReconciliationIntervalInDays(int pastEventCountersReconciliationIntervalInDays) {
+        this.pastEventCountersReconciliationIntervalInDays = pastEventCountersReconciliationIntervalInDays;
+    }
 }
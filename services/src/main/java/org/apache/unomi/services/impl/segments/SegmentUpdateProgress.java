@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.unomi.services.impl.segments;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks the progress of the update of the profiles of a segment, which may be done by several threads, and logs the
+ * number of updated profiles, along with an estimation of the remaining time when the number of profiles to update is
+ * known.
+ */
+class SegmentUpdateProgress {
+
+    private static final Logger logger = LoggerFactory.getLogger(SegmentUpdateProgress.class.getName());
+
+    private final String segmentId;
+    private final long totalCount;
+    private final long startTime;
+    private final AtomicLong updatedCount = new AtomicLong();
+    private final AtomicInteger failedSliceCount = new AtomicInteger();
+    private final AtomicLong failedProfileCount = new AtomicLong();
+
+    /**
+     * @param segmentId  the identifier of the updated segment
+     * @param totalCount the estimated number of profiles to update, or -1 if it is unknown
+     */
+    SegmentUpdateProgress(String segmentId, long totalCount) {
+        this(segmentId, totalCount, System.currentTimeMillis());
+    }
+
+    SegmentUpdateProgress(String segmentId, long totalCount, long startTime) {
+        this.segmentId = segmentId;
+        this.totalCount = totalCount;
+        this.startTime = startTime;
+    }
+
+    /**
+     * Records a batch of updated profiles and logs the progress.
+     *
+     * @param count the number of profiles in the batch
+     */
+    void add(long count) {
+        long updated = updatedCount.addAndGet(count);
+        if (logger.isInfoEnabled()) {
+            long remainingTime = getEstimatedRemainingTime(updated, System.currentTimeMillis());
+            if (remainingTime >= 0) {
+                logger.info("Segment {}: {}/{} profiles updated, about {}s remaining", segmentId, updated, totalCount,
+                        TimeUnit.MILLISECONDS.toSeconds(remainingTime));
+            } else {
+                logger.info("Segment {}: {} profiles updated", segmentId, updated);
+            }
+        }
+    }
+
+    long getUpdatedCount() {
+        return updatedCount.get();
+    }
+
+    /**
+     * Records slices of profiles that could not be processed, because of an error or an interruption.
+     *
+     * @param count the number of failed slices
+     */
+    void addFailedSlices(int count) {
+        failedSliceCount.addAndGet(count);
+    }
+
+    /**
+     * Records profiles that could not be updated, even after being retried.
+     *
+     * @param count the number of failed profiles
+     */
+    void addFailedProfiles(long count) {
+        failedProfileCount.addAndGet(count);
+    }
+
+    int getFailedSliceCount() {
+        return failedSliceCount.get();
+    }
+
+    long getFailedProfileCount() {
+        return failedProfileCount.get();
+    }
+
+    boolean isFailed() {
+        return failedSliceCount.get() > 0 || failedProfileCount.get() > 0;
+    }
+
+    /**
+     * @param updated the number of updated profiles
+     * @param now     the current time
+     * @return the estimated time needed to update the remaining profiles at the average rate so far, in milliseconds,
+     * or -1 if it can't be estimated
+     */
+    long getEstimatedRemainingTime(long updated, long now) {
+        if (updated <= 0 || totalCount <= 0) {
+            return -1;
+        }
+        long remaining = Math.max(0, totalCount - updated);
+        return (now - startTime) * remaining / updated;
+    }
+}
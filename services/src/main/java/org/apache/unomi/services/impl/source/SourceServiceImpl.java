@@ -18,6 +18,7 @@ package org.apache.unomi.services.impl.source;
 
 import org.apache.unomi.api.SourceItem;
 import org.apache.unomi.api.services.SourceService;
+import org.apache.unomi.api.utils.RequestScopedCache;
 import org.apache.unomi.persistence.spi.PersistenceService;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.BundleEvent;
@@ -33,11 +34,12 @@ public class SourceServiceImpl implements SourceService, SynchronousBundleListen
 
     @Override
     public SourceItem load(String sourceId) {
-        return persistenceService.load(sourceId, SourceItem.class);
+        return RequestScopedCache.get(RequestScopedCache.SOURCES, sourceId, () -> persistenceService.load(sourceId, SourceItem.class));
     }
 
     @Override
     public SourceItem save(SourceItem source) {
+        RequestScopedCache.invalidate(RequestScopedCache.SOURCES, source.getItemId());
         if (persistenceService.save(source)) {
             persistenceService.refreshIndex(SourceItem.class, null);
 
@@ -54,6 +56,7 @@ public class SourceServiceImpl implements SourceService, SynchronousBundleListen
 
     @Override
     public boolean delete(String sourceId) {
+        RequestScopedCache.invalidate(RequestScopedCache.SOURCES, sourceId);
         return persistenceService.remove(sourceId, SourceItem.class);
     }
 
@@ -0,0 +1,173 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.unomi.services.impl;
+
+import org.apache.unomi.api.CustomItem;
+import org.apache.unomi.api.Event;
+import org.apache.unomi.api.Item;
+import org.apache.unomi.api.Metadata;
+import org.apache.unomi.api.Profile;
+import org.apache.unomi.api.conditions.Condition;
+import org.apache.unomi.api.conditions.ConditionType;
+
+import java.util.*;
+
+/**
+ * Builds the condition types and conditions used by the rules and segments tests and benchmarks, mimicking the base
+ * plugin definitions, and provides a simplified evaluator for them.
+ */
+public class TestConditions {
+
+    public static final ConditionType BOOLEAN_CONDITION_TYPE = conditionType("booleanCondition", "booleanConditionEvaluator", null,
+            "profileCondition", "eventCondition");
+    public static final ConditionType NOT_CONDITION_TYPE = conditionType("notCondition", "notConditionEvaluator", null,
+            "profileCondition", "eventCondition");
+    public static final ConditionType PROFILE_PROPERTY_CONDITION_TYPE = conditionType("profilePropertyCondition", "propertyConditionEvaluator", null,
+            "profileCondition");
+    public static final ConditionType EVENT_PROPERTY_CONDITION_TYPE = conditionType("eventPropertyCondition", "propertyConditionEvaluator", null,
+            "eventCondition");
+    public static final ConditionType EVENT_TYPE_CONDITION_TYPE;
+
+    static {
+        Condition parentCondition = new Condition(EVENT_PROPERTY_CONDITION_TYPE);
+        parentCondition.setParameter("propertyName", "eventType");
+        parentCondition.setParameter("comparisonOperator", "equals");
+        parentCondition.setParameter("propertyValue", "parameter::eventTypeId");
+        EVENT_TYPE_CONDITION_TYPE = conditionType("eventTypeCondition", null, parentCondition, "eventCondition");
+    }
+
+    private static ConditionType conditionType(String id, String conditionEvaluator, Condition parentCondition, String... tags) {
+        Metadata metadata = new Metadata(null, id, id, null);
+        Set<String> systemTags = new HashSet<>(Arrays.asList(tags));
+        systemTags.add("condition");
+        metadata.setSystemTags(systemTags);
+        ConditionType conditionType = new ConditionType(metadata);
+        conditionType.setConditionEvaluator(conditionEvaluator);
+        conditionType.setParentCondition(parentCondition);
+        return conditionType;
+    }
+
+    public static Condition propertyCondition(String propertyName, Object propertyValue) {
+        Condition condition = new Condition(PROFILE_PROPERTY_CONDITION_TYPE);
+        condition.setParameter("propertyName", "properties." + propertyName);
+        condition.setParameter("comparisonOperator", "equals");
+        condition.setParameter("propertyValue", propertyValue);
+        return condition;
+    }
+
+    public static Condition eventTypeCondition(String eventTypeId) {
+        Condition condition = new Condition(EVENT_TYPE_CONDITION_TYPE);
+        condition.setParameter("eventTypeId", eventTypeId);
+        return condition;
+    }
+
+    public static Condition eventPropertyCondition(String propertyName, String operator, Object value) {
+        Condition condition = new Condition(EVENT_PROPERTY_CONDITION_TYPE);
+        condition.setParameter("propertyName", propertyName);
+        condition.setParameter("comparisonOperator", operator);
+        condition.setParameter(value instanceof List ? "propertyValues" : "propertyValue", value);
+        return condition;
+    }
+
+    public static Condition andCondition(List<Condition> subConditions) {
+        return booleanCondition("and", subConditions);
+    }
+
+    public static Condition booleanCondition(String operator, List<Condition> subConditions) {
+        Condition condition = new Condition(BOOLEAN_CONDITION_TYPE);
+        condition.setParameter("operator", operator);
+        condition.setParameter("subConditions", subConditions);
+        return condition;
+    }
+
+    public static Condition notCondition(Condition subCondition) {
+        Condition condition = new Condition(NOT_CONDITION_TYPE);
+        condition.setParameter("subCondition", subCondition);
+        return condition;
+    }
+
+    public static boolean evaluate(Condition condition, Item item) {
+        return evaluate(condition, item, new HashMap<>());
+    }
+
+    /**
+     * A simplified version of the condition evaluators, only supporting the condition types defined here. Strings are
+     * compared ignoring their case.
+     */
+    @SuppressWarnings("unchecked")
+    public static boolean evaluate(Condition condition, Item item, Map<String, Object> context) {
+        ConditionType conditionType = condition.getConditionType();
+        if (conditionType.getParentCondition() != null) {
+            context.putAll(condition.getParameterValues());
+            return evaluate(conditionType.getParentCondition(), item, context);
+        }
+        switch (conditionType.getConditionEvaluator()) {
+            case "booleanConditionEvaluator":
+                boolean isAnd = "and".equals(condition.getParameter("operator"));
+                for (Condition subCondition : (List<Condition>) condition.getParameter("subConditions")) {
+                    boolean result = evaluate(subCondition, item, context);
+                    if (result != isAnd) {
+                        return result;
+                    }
+                }
+                return isAnd;
+            case "notConditionEvaluator":
+                return !evaluate((Condition) condition.getParameter("subCondition"), item, context);
+            default:
+                Object actualValue = normalize(getPropertyValue(item, (String) condition.getParameter("propertyName")));
+                Object expectedValue = condition.getParameter("propertyValue");
+                if (expectedValue instanceof String && ((String) expectedValue).startsWith("parameter::")) {
+                    expectedValue = context.get(((String) expectedValue).substring("parameter::".length()));
+                }
+                if (actualValue == null) {
+                    return false;
+                } else if ("in".equals(condition.getParameter("comparisonOperator"))) {
+                    return ((List<?>) condition.getParameter("propertyValues")).contains(actualValue);
+                }
+                return actualValue.equals(normalize(expectedValue));
+        }
+    }
+
+    private static Object getPropertyValue(Item item, String propertyName) {
+        Object value = item;
+        for (String name : propertyName.split("\\.")) {
+            if (value instanceof Map) {
+                value = ((Map<?, ?>) value).get(name);
+            } else if (value instanceof Event && "eventType".equals(name)) {
+                value = ((Event) value).getEventType();
+            } else if (value instanceof Event && "target".equals(name)) {
+                value = ((Event) value).getTarget();
+            } else if (value instanceof Event && "properties".equals(name)) {
+                value = ((Event) value).getProperties();
+            } else if (value instanceof Profile && "properties".equals(name)) {
+                value = ((Profile) value).getProperties();
+            } else if (value instanceof CustomItem && "properties".equals(name)) {
+                value = ((CustomItem) value).getProperties();
+            } else if (value instanceof Item && "itemId".equals(name)) {
+                value = ((Item) value).getItemId();
+            } else {
+                return null;
+            }
+        }
+        return value;
+    }
+
+    private static Object normalize(Object value) {
+        return value instanceof String ? ((String) value).toLowerCase() : value;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.unomi.services.impl.events;
+
+import org.apache.unomi.api.Event;
+import org.apache.unomi.api.Profile;
+import org.apache.unomi.api.services.EventService;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class EventIngestionPipelineTest {
+
+    @Test
+    public void testEventsOfAProfileAreProcessedInOrder() throws Exception {
+        final Map<String, List<String>> processedEvents = new ConcurrentHashMap<>();
+        EventIngestionPipeline pipeline = new EventIngestionPipeline(4, 10000, 10, events -> {
+            for (Event event : events) {
+                processedEvents.computeIfAbsent(event.getProfileId(), profileId -> Collections.synchronizedList(new ArrayList<>()))
+                        .add(event.getEventType());
+            }
+            return EventService.NO_CHANGE;
+        });
+        pipeline.start();
+        int eventsPerProfile = 500;
+        final CountDownLatch latch = new CountDownLatch(10 * eventsPerProfile);
+        for (int i = 0; i < eventsPerProfile; i++) {
+            for (int profile = 0; profile < 10; profile++) {
+                String profileId = "profile" + profile;
+                assertTrue(pipeline.submit(profileId, Collections.singletonList(event(profileId, "event" + i)), changes -> latch.countDown()));
+            }
+        }
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        pipeline.stop(1000);
+
+        assertEquals(10, processedEvents.size());
+        for (List<String> eventTypes : processedEvents.values()) {
+            assertEquals(eventsPerProfile, eventTypes.size());
+            for (int i = 0; i < eventsPerProfile; i++) {
+                assertEquals("event" + i, eventTypes.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void testEventsAreRejectedWhenTheQueueIsFull() throws Exception {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger processedCount = new AtomicInteger();
+        EventIngestionPipeline pipeline = new EventIngestionPipeline(1, 2, 1, events -> {
+            blocked.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            processedCount.incrementAndGet();
+            return EventService.NO_CHANGE;
+        });
+        List<Event> events = Collections.singletonList(event("profile", "view"));
+        assertFalse(pipeline.submit("profile", events, null));
+
+        pipeline.start();
+        assertTrue(pipeline.submit("profile", events, null));
+        assertTrue(blocked.await(10, TimeUnit.SECONDS));
+        assertTrue(pipeline.submit("profile", events, null));
+        assertTrue(pipeline.submit("profile", events, null));
+        assertFalse(pipeline.submit("profile", events, null));
+        assertEquals(2, pipeline.getQueuedCount());
+
+        release.countDown();
+        pipeline.stop(10000);
+        assertEquals(3, processedCount.get());
+    }
+
+    private static Event event(String profileId, String eventType) {
+        return new Event(eventType, null, new Profile(profileId), "site", null, null, new Date());
+    }
+}
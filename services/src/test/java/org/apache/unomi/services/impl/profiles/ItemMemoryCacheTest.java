@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.unomi.services.impl.profiles;
+
+import org.apache.unomi.api.Profile;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class ItemMemoryCacheTest {
+
+    @Test
+    public void testCachedItemsAreCopies() {
+        ItemMemoryCache<Profile> cache = new ItemMemoryCache<>(Profile.class, 1024 * 1024, 60000);
+        Profile profile = profile("profile", 1L);
+        profile.setProperty("firstName", "John");
+        cache.put(profile);
+
+        Profile cachedProfile = cache.get("profile");
+        assertNotSame(profile, cachedProfile);
+        assertEquals("John", cachedProfile.getProperty("firstName"));
+        assertEquals(Long.valueOf(1), cachedProfile.getVersion());
+
+        cachedProfile.setProperty("firstName", "Jane");
+        assertEquals("John", cache.get("profile").getProperty("firstName"));
+    }
+
+    @Test
+    public void testOlderVersionsDoNotReplaceCachedItems() {
+        ItemMemoryCache<Profile> cache = new ItemMemoryCache<>(Profile.class, 1024 * 1024, 60000);
+        cache.put(profile("profile", 2L));
+        cache.put(profile("profile", 1L));
+        assertEquals(Long.valueOf(2), cache.get("profile").getVersion());
+        cache.put(profile("profile", 3L));
+        assertEquals(Long.valueOf(3), cache.get("profile").getVersion());
+
+        cache.invalidate("profile");
+        assertNull(cache.get("profile"));
+        assertEquals(0, cache.getMemory());
+    }
+
+    @Test
+    public void testMemoryIsBounded() {
+        ItemMemoryCache<Profile> cache = new ItemMemoryCache<>(Profile.class, 20000, 60000);
+        for (int i = 0; i < 1000; i++) {
+            cache.put(profile("profile" + i, 1L));
+        }
+        assertTrue(cache.getMemory() <= 20000);
+        assertTrue(cache.size() > 0 && cache.size() < 1000);
+        assertNotNull(cache.get("profile999"));
+        assertNull(cache.get("profile0"));
+    }
+
+    @Test
+    public void testItemsExpireEvenWhenUsed() {
+        AtomicLong time = new AtomicLong(1000);
+        ItemMemoryCache<Profile> cache = new ItemMemoryCache<>(Profile.class, 1024 * 1024, 300, time::get);
+        cache.put(profile("profile", 1L));
+        assertNotNull(cache.get("profile"));
+        time.addAndGet(200);
+        assertNotNull(cache.get("profile"));
+        time.addAndGet(100);
+        assertNotNull(cache.get("profile"));
+        time.addAndGet(1);
+        assertNull(cache.get("profile"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testExpiredItemsAreEvictedWhenItemsAreAdded() {
+        AtomicLong time = new AtomicLong(1000);
+        ItemMemoryCache<Profile> cache = new ItemMemoryCache<>(Profile.class, 1024 * 1024, 300, time::get);
+        cache.put(profile("profile1", 1L));
+        time.addAndGet(200);
+        cache.put(profile("profile2", 1L));
+        time.addAndGet(200);
+        cache.put(profile("profile3", 1L));
+
+        assertEquals(2, cache.size());
+        assertNull(cache.get("profile1"));
+        assertNotNull(cache.get("profile2"));
+    }
+
+    private static Profile profile(String profileId, Long version) {
+        Profile profile = new Profile(profileId);
+        profile.setVersion(version);
+        return profile;
+    }
+}
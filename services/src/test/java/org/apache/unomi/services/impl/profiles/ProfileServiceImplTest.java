@@ -0,0 +1,157 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.unomi.services.impl.profiles;
+
+import org.apache.unomi.api.Profile;
+import org.apache.unomi.api.Session;
+import org.apache.unomi.api.utils.RequestScopedCache;
+import org.apache.unomi.persistence.spi.PersistenceService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ProfileServiceImplTest {
+
+    private ProfileServiceImpl profileService;
+    private ExecutorService clientExecutor;
+    private Map<String, Session> storedSessions;
+    private List<Date> loadDateHints;
+
+    @Before
+    public void setUp() {
+        clientExecutor = Executors.newSingleThreadExecutor();
+        storedSessions = new HashMap<>();
+        loadDateHints = Collections.synchronizedList(new ArrayList<>());
+        PersistenceService persistenceService = (PersistenceService) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[]{PersistenceService.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "load":
+                            return loadSession((String) args[0], (Date) args[1]);
+                        case "loadAsync":
+                            // the responses are completed by another thread, as they are by the persistence service
+                            return CompletableFuture.supplyAsync(() -> loadSession((String) args[0], (Date) args[1]), clientExecutor);
+                        default:
+                            return null;
+                    }
+                });
+        profileService = new ProfileServiceImpl();
+        profileService.setPersistenceService(persistenceService);
+    }
+
+    @After
+    public void tearDown() {
+        clientExecutor.shutdownNow();
+    }
+
+    @Test
+    public void testSessionOfThePreviousMonthIsLoadedOnTheFirstDayOfAMonth() throws Exception {
+        storeSession("session", date("2020-09-30"));
+
+        assertEquals("session", profileService.loadSession("session", date("2020-10-01")).getItemId());
+        assertEquals(Arrays.asList(date("2020-10-01"), date("2020-09-30")), loadDateHints);
+
+        loadDateHints.clear();
+        assertEquals("session", profileService.loadSessionAsync("session", date("2020-10-01")).get(10, TimeUnit.SECONDS).getItemId());
+        assertEquals(Arrays.asList(date("2020-10-01"), date("2020-09-30")), loadDateHints);
+    }
+
+    @Test
+    public void testPreviousMonthIsOnlyLoadedOnTheFirstDayOfAMonth() throws Exception {
+        storeSession("session", date("2020-09-30"));
+
+        assertNull(profileService.loadSession("session", date("2020-10-02")));
+        assertNull(profileService.loadSessionAsync("session", date("2020-10-02")).get(10, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(date("2020-10-02"), date("2020-10-02")), loadDateHints);
+
+        loadDateHints.clear();
+        assertNull(profileService.loadSessionAsync("session", null).get(10, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList(null), loadDateHints);
+    }
+
+    @Test
+    public void testSessionFoundInTheDateHintMonthIsLoadedOnce() throws Exception {
+        storeSession("session", date("2020-10-01"));
+
+        assertEquals("session", profileService.loadSessionAsync("session", date("2020-10-01")).get(10, TimeUnit.SECONDS).getItemId());
+        assertEquals(Collections.singletonList(date("2020-10-01")), loadDateHints);
+    }
+
+    @Test
+    public void testAsyncLoadedSessionsAreCached() throws Exception {
+        profileService.setCacheEnabled(true);
+        profileService.initializeCaches();
+        storeSession("session", date("2020-09-30"));
+
+        Session session = profileService.loadSessionAsync("session", date("2020-10-01")).get(10, TimeUnit.SECONDS);
+        assertEquals(2, loadDateHints.size());
+
+        CompletableFuture<Session> cachedSession = profileService.loadSessionAsync("session", date("2020-10-01"));
+        assertTrue(cachedSession.isDone());
+        assertNotSame(session, cachedSession.get());
+        assertEquals("session", cachedSession.get().getItemId());
+        assertEquals(2, loadDateHints.size());
+
+        // sessions which are not found are not cached
+        assertNull(profileService.loadSessionAsync("unknown", date("2020-10-02")).get(10, TimeUnit.SECONDS));
+        assertNull(profileService.loadSessionAsync("unknown", date("2020-10-02")).get(10, TimeUnit.SECONDS));
+        assertEquals(4, loadDateHints.size());
+    }
+
+    @Test
+    public void testSessionsNotFoundWithADateHintAreNotKeptForTheRequest() throws Exception {
+        storeSession("session", date("2020-09-15"));
+
+        try (RequestScopedCache ignored = RequestScopedCache.open()) {
+            assertNull(profileService.loadSession("session", date("2020-10-15")));
+            Session session = profileService.loadSession("session", date("2020-09-15"));
+            assertEquals("session", session.getItemId());
+
+            // a session which was found is the same whatever the date hint
+            assertSame(session, profileService.loadSession("session", date("2020-10-15")));
+            assertEquals(Arrays.asList(date("2020-10-15"), date("2020-09-15")), loadDateHints);
+        }
+    }
+
+    private Session loadSession(String sessionId, Date dateHint) {
+        loadDateHints.add(dateHint);
+        return storedSessions.get(sessionId + "-" + month(dateHint));
+    }
+
+    private void storeSession(String sessionId, Date date) {
+        Session session = new Session(sessionId, new Profile("profile"), date, "scope");
+        storedSessions.put(sessionId + "-" + month(date), session);
+    }
+
+    private static String month(Date date) {
+        return date != null ? new SimpleDateFormat("yyyy-MM").format(date) : null;
+    }
+
+    private static Date date(String date) throws Exception {
+        return new SimpleDateFormat("yyyy-MM-dd").parse(date);
+    }
+}
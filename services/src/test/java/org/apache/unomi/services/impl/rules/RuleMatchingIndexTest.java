@@ -0,0 +1,139 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.unomi.services.impl.rules;
+
+import org.apache.unomi.api.CustomItem;
+import org.apache.unomi.api.Event;
+import org.apache.unomi.api.Metadata;
+import org.apache.unomi.api.Profile;
+import org.apache.unomi.api.actions.Action;
+import org.apache.unomi.api.actions.ActionType;
+import org.apache.unomi.api.conditions.Condition;
+import org.apache.unomi.api.rules.Rule;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.apache.unomi.services.impl.TestConditions.*;
+import static org.junit.Assert.*;
+
+public class RuleMatchingIndexTest {
+
+    @Test
+    public void testCandidatesAreFilteredOnEventTypeAndIndexedProperties() {
+        Rule homeViews = rule("homeViews", Metadata.SYSTEM_SCOPE, andCondition(Arrays.asList(
+                eventTypeCondition("view"), eventPropertyCondition("target.itemId", "equals", "Home"))));
+        Rule campaignViews = rule("campaignViews", Metadata.SYSTEM_SCOPE, andCondition(Arrays.asList(
+                eventTypeCondition("view"), eventPropertyCondition("properties.utm.campaign", "in", Arrays.asList("spring", "summer")))));
+        Rule allClicks = rule("allClicks", Metadata.SYSTEM_SCOPE, eventTypeCondition("click"));
+        RuleMatchingIndex index = RuleMatchingIndex.build(compile(homeViews, campaignViews, allClicks));
+
+        assertEquals(Collections.singletonList(homeViews), candidates(index, event("view", "site", "home", null)));
+        assertEquals(Collections.singletonList(campaignViews), candidates(index, event("view", "site", "about", "Summer")));
+        assertEquals(Collections.singletonList(allClicks), candidates(index, event("click", "site", "home", "spring")));
+        assertTrue(index.getCandidateRules(event("login", "site", "home", "spring")).isEmpty());
+        assertEquals(new HashSet<>(Arrays.asList("eventType", "target.itemId", "properties.utm.campaign")), index.getIndexedPropertyNames());
+    }
+
+    @Test
+    public void testCandidatesAreFilteredOnScope() {
+        Rule siteRule = rule("siteRule", "site", eventTypeCondition("view"));
+        Rule otherSiteRule = rule("otherSiteRule", "otherSite", eventTypeCondition("view"));
+        RuleMatchingIndex index = RuleMatchingIndex.build(compile(siteRule, otherSiteRule));
+
+        assertEquals(Collections.singletonList(siteRule), candidates(index, event("view", "site", "home", null)));
+    }
+
+    @Test
+    public void testNonIndexablePredicatesKeepRulesAsCandidates() {
+        Rule orRule = rule("orRule", Metadata.SYSTEM_SCOPE, booleanCondition("or", Arrays.asList(
+                eventTypeCondition("view"), eventPropertyCondition("target.itemId", "equals", "home"))));
+        Rule notRule = rule("notRule", Metadata.SYSTEM_SCOPE, andCondition(Arrays.asList(eventTypeCondition("view"),
+                notCondition(eventPropertyCondition("target.itemId", "equals", "home")))));
+        Rule accentRule = rule("accentRule", Metadata.SYSTEM_SCOPE, andCondition(Arrays.asList(eventTypeCondition("view"),
+                eventPropertyCondition("target.itemId", "equals", "café"))));
+        RuleMatchingIndex index = RuleMatchingIndex.build(compile(orRule, notRule, accentRule));
+
+        assertEquals(Arrays.asList(orRule, notRule, accentRule), candidates(index, event("view", "site", "about", null)));
+    }
+
+    @Test
+    public void testNonAsciiEventValuesKeepIndexedRulesAsCandidates() {
+        Rule cafeRule = rule("cafeRule", Metadata.SYSTEM_SCOPE, andCondition(Arrays.asList(eventTypeCondition("view"),
+                eventPropertyCondition("target.itemId", "equals", "cafe"))));
+        RuleMatchingIndex index = RuleMatchingIndex.build(compile(cafeRule));
+
+        assertEquals(Collections.singletonList(cafeRule), candidates(index, event("view", "site", "Café", null)));
+        assertTrue(index.getCandidateRules(event("view", "site", "tea", null)).isEmpty());
+    }
+
+    @Test
+    public void testRulesWithoutEventConditionAreNotIndexed() {
+        Rule rule = rule("rule", Metadata.SYSTEM_SCOPE, eventTypeCondition("view"));
+        RuleMatchingIndex index = RuleMatchingIndex.build(Collections.singletonList(new CompiledRule(rule, null, null, null, null, null)));
+
+        assertEquals(0, index.size());
+        assertTrue(index.getCandidateRules(event("view", "site", "home", null)).isEmpty());
+    }
+
+    @Test
+    public void testRulesWithRequestActionsRequireTheRequest() {
+        ActionType remoteHostInfoActionType = new ActionType(new Metadata(null, "setRemoteHostInfoAction", null, null));
+        remoteHostInfoActionType.getMetadata().setSystemTags(new HashSet<>(Arrays.asList("event", CompiledRule.HTTP_REQUEST_TAG)));
+        ActionType incrementActionType = new ActionType(new Metadata(null, "incrementPropertyAction", null, null));
+        incrementActionType.getMetadata().setSystemTags(Collections.singleton("event"));
+
+        Rule remoteHostInfoRule = rule("remoteHostInfoRule", Metadata.SYSTEM_SCOPE, eventTypeCondition("sessionCreated"));
+        remoteHostInfoRule.setActions(Arrays.asList(new Action(incrementActionType), new Action(remoteHostInfoActionType)));
+        Rule incrementRule = rule("incrementRule", Metadata.SYSTEM_SCOPE, eventTypeCondition("view"));
+        incrementRule.setActions(Collections.singletonList(new Action(incrementActionType)));
+
+        assertTrue(compile(remoteHostInfoRule).get(0).isRequestRequired());
+        assertFalse(compile(incrementRule).get(0).isRequestRequired());
+    }
+
+    private static List<CompiledRule> compile(Rule... rules) {
+        List<CompiledRule> compiledRules = new ArrayList<>();
+        for (Rule rule : rules) {
+            compiledRules.add(new CompiledRule(rule, rule.getCondition(), null, null, null, null));
+        }
+        return compiledRules;
+    }
+
+    private static List<Rule> candidates(RuleMatchingIndex index, Event event) {
+        List<Rule> rules = new ArrayList<>();
+        for (CompiledRule compiledRule : index.getCandidateRules(event)) {
+            rules.add(compiledRule.getRule());
+        }
+        return rules;
+    }
+
+    private static Rule rule(String id, String scope, Condition condition) {
+        Rule rule = new Rule(new Metadata(scope, id, id, null));
+        rule.setCondition(condition);
+        return rule;
+    }
+
+    private static Event event(String eventType, String scope, String targetId, String campaign) {
+        Map<String, Object> properties = new HashMap<>();
+        if (campaign != null) {
+            properties.put("utm", Collections.singletonMap("campaign", campaign));
+        }
+        return new Event(eventType, null, new Profile("profile"), scope, null, new CustomItem(targetId, "page"), properties, new Date(), false);
+    }
+}
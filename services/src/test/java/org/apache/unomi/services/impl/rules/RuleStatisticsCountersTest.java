@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.unomi.services.impl.rules;
+
+import org.apache.unomi.api.rules.RuleStatistics;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class RuleStatisticsCountersTest {
+
+    @Test
+    public void testHistogramBuckets() {
+        for (long value = 0; value < 100000; value++) {
+            int index = LatencyHistogram.getBucketIndex(value);
+            long upperBound = LatencyHistogram.getBucketUpperBound(index);
+            assertTrue(value <= upperBound);
+            assertTrue(upperBound <= value + value / 4);
+            assertTrue(index == 0 || LatencyHistogram.getBucketUpperBound(index - 1) < value);
+        }
+        assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.getBucketIndex(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        for (int i = 0; i < 98; i++) {
+            histogram.record(1000);
+        }
+        histogram.record(1000000);
+        histogram.record(2000000);
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(1023, histogram.getValueAtPercentile(50));
+        assertEquals(1048575, histogram.getValueAtPercentile(99));
+        assertEquals(2097151, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void testConcurrentUpdatesAreNotLost() throws Exception {
+        final RuleStatisticsCounters counters = new RuleStatisticsCounters();
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            futures.add(executorService.submit(() -> {
+                for (int j = 0; j < 100000; j++) {
+                    counters.recordConditions(500);
+                    counters.recordExecution(1500);
+                }
+            }));
+        }
+        long drainedExecutionCount = 0;
+        long drainedConditionsTime = 0;
+        for (Future<?> future : futures) {
+            drainedExecutionCount += counters.drainExecutionCount();
+            drainedConditionsTime += counters.drainConditionsTime();
+            future.get();
+        }
+        executorService.shutdown();
+        executorService.awaitTermination(10, TimeUnit.SECONDS);
+        drainedExecutionCount += counters.drainExecutionCount();
+        drainedConditionsTime += counters.drainConditionsTime();
+
+        assertEquals(400000, drainedExecutionCount);
+        // 400000 evaluations of 500ns, sub-millisecond durations are accumulated instead of being rounded to 0
+        assertEquals(200, drainedConditionsTime);
+        assertEquals(600, counters.drainActionsTime());
+
+        RuleStatistics ruleStatistics = new RuleStatistics("rule");
+        counters.copyPercentiles(ruleStatistics);
+        assertEquals(511, ruleStatistics.getConditionsTimeP99());
+        assertEquals(1535, ruleStatistics.getActionsTimeP50());
+    }
+
+    @Test
+    public void testPercentilesAreResetAtTheEndOfEachPeriod() {
+        RuleStatisticsCounters counters = new RuleStatisticsCounters();
+        RuleStatistics ruleStatistics = new RuleStatistics("rule");
+        counters.recordConditions(1000000);
+        counters.recordExecution(1000000);
+
+        // until a period ends, the percentiles are those of the durations recorded so far
+        counters.copyPercentiles(ruleStatistics);
+        assertEquals(1048575, ruleStatistics.getConditionsTimeP50());
+
+        counters.endPeriod();
+        counters.recordConditions(1000);
+        counters.copyPercentiles(ruleStatistics);
+        assertEquals(1048575, ruleStatistics.getConditionsTimeP50());
+        assertEquals(1048575, ruleStatistics.getActionsTimeP99());
+
+        // the durations of the previous period are not kept
+        counters.endPeriod();
+        counters.copyPercentiles(ruleStatistics);
+        assertEquals(1023, ruleStatistics.getConditionsTimeP50());
+        assertEquals(1023, ruleStatistics.getConditionsTimeP99());
+        assertEquals(0, ruleStatistics.getActionsTimeP99());
+    }
+
+    @Test
+    public void testDrainedHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1000);
+        histogram.record(2000);
+
+        LatencyHistogram drainedHistogram = histogram.drain();
+        assertEquals(0, histogram.getCount());
+        assertEquals(2, drainedHistogram.getCount());
+        assertEquals(2047, drainedHistogram.getValueAtPercentile(100));
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.unomi.services.impl.segments;
+
+import org.apache.unomi.api.Metadata;
+import org.apache.unomi.api.conditions.Condition;
+import org.apache.unomi.api.conditions.ConditionType;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Date;
+
+import static org.apache.unomi.services.impl.TestConditions.PROFILE_PROPERTY_CONDITION_TYPE;
+import static org.apache.unomi.services.impl.TestConditions.booleanCondition;
+import static org.apache.unomi.services.impl.TestConditions.notCondition;
+import static org.apache.unomi.services.impl.TestConditions.propertyCondition;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SegmentConditionChangeTest {
+
+    private final Condition age = propertyCondition("age", 30);
+    private final Condition city = propertyCondition("city", "Geneva");
+    private final Condition country = propertyCondition("country", "Switzerland");
+
+    @Test
+    public void testUnchangedCondition() {
+        assertEquals(SegmentConditionChange.UNCHANGED, SegmentConditionChange.of(age, propertyCondition("age", 30)));
+        assertEquals(SegmentConditionChange.UNCHANGED, SegmentConditionChange.of(and(age, notCondition(city)), and(age, notCondition(city))));
+    }
+
+    @Test
+    public void testNarrowedCondition() {
+        assertEquals(SegmentConditionChange.NARROWED, SegmentConditionChange.of(age, and(age, city)));
+        assertEquals(SegmentConditionChange.NARROWED, SegmentConditionChange.of(and(age, city), and(city, age, country)));
+        assertEquals(SegmentConditionChange.NARROWED, SegmentConditionChange.of(or(age, city), age));
+    }
+
+    @Test
+    public void testWidenedCondition() {
+        assertEquals(SegmentConditionChange.WIDENED, SegmentConditionChange.of(and(age, city), age));
+        assertEquals(SegmentConditionChange.WIDENED, SegmentConditionChange.of(or(age, city), or(age, city, country)));
+    }
+
+    @Test
+    public void testChangedCondition() {
+        assertEquals(SegmentConditionChange.CHANGED, SegmentConditionChange.of(age, propertyCondition("age", 40)));
+        assertEquals(SegmentConditionChange.CHANGED, SegmentConditionChange.of(null, age));
+        assertEquals(SegmentConditionChange.CHANGED, SegmentConditionChange.of(age, null));
+        assertEquals(SegmentConditionChange.CHANGED, SegmentConditionChange.of(and(age, city), and(age, country)));
+        assertEquals(SegmentConditionChange.CHANGED, SegmentConditionChange.of(and(age, city), or(age, city)));
+        // a negated condition is not known to be narrowed or widened
+        assertEquals(SegmentConditionChange.CHANGED, SegmentConditionChange.of(notCondition(age), notCondition(and(age, city))));
+    }
+
+    @Test
+    public void testTimeDependentConditions() {
+        assertTrue(SegmentConditionChange.isTimeDependent(and(age, dateCondition("propertyValueDateExpr", "now-1d"))));
+        assertTrue(SegmentConditionChange.isTimeDependent(notCondition(dateCondition("propertyValueDate", "now-30d/d"))));
+        assertTrue(SegmentConditionChange.isTimeDependent(dateCondition("propertyValuesDate", Arrays.asList("2020-01-01T00:00:00Z", "now"))));
+        assertTrue(SegmentConditionChange.isTimeDependent(dateCondition("propertyValuesDateExpr", Arrays.asList("now-7d", "now"))));
+
+        Condition pastEventCondition = new Condition(conditionType("pastEventCondition", null));
+        pastEventCondition.setParameter("eventCondition", city);
+        pastEventCondition.setParameter("numberOfDays", 30);
+        assertTrue(SegmentConditionChange.isTimeDependent(or(age, pastEventCondition)));
+
+        // the relative date is in the parent condition of the condition type
+        Condition newVisitorCondition = new Condition(conditionType("newVisitorCondition",
+                dateCondition("propertyValueDateExpr", "script::'now-'+since+'d'")));
+        newVisitorCondition.setParameter("since", 30);
+        assertTrue(SegmentConditionChange.isTimeDependent(and(age, newVisitorCondition)));
+    }
+
+    @Test
+    public void testConditionsWhichAreNotTimeDependent() {
+        assertFalse(SegmentConditionChange.isTimeDependent(null));
+        assertFalse(SegmentConditionChange.isTimeDependent(and(age, notCondition(city))));
+        assertFalse(SegmentConditionChange.isTimeDependent(dateCondition("propertyValueDate", new Date())));
+        assertFalse(SegmentConditionChange.isTimeDependent(dateCondition("propertyValuesDate", Arrays.asList("2020-01-01T00:00:00Z", "2021-01-01T00:00:00Z"))));
+        // only date parameters are relative to the current time
+        assertFalse(SegmentConditionChange.isTimeDependent(propertyCondition("nickname", "now")));
+
+        Condition pastEventCondition = new Condition(conditionType("pastEventCondition", null));
+        pastEventCondition.setParameter("eventCondition", city);
+        pastEventCondition.setParameter("fromDate", "2020-01-01T00:00:00Z");
+        assertFalse(SegmentConditionChange.isTimeDependent(pastEventCondition));
+    }
+
+    private static Condition dateCondition(String parameterName, Object date) {
+        Condition condition = new Condition(PROFILE_PROPERTY_CONDITION_TYPE);
+        condition.setParameter("propertyName", "properties.lastVisit");
+        condition.setParameter("comparisonOperator", "greaterThan");
+        condition.setParameter(parameterName, date);
+        return condition;
+    }
+
+    private static ConditionType conditionType(String id, Condition parentCondition) {
+        ConditionType conditionType = new ConditionType(new Metadata(id));
+        conditionType.setParentCondition(parentCondition);
+        return conditionType;
+    }
+
+    private static Condition and(Condition... subConditions) {
+        return booleanCondition("and", Arrays.asList(subConditions));
+    }
+
+    private static Condition or(Condition... subConditions) {
+        return booleanCondition("or", Arrays.asList(subConditions));
+    }
+}
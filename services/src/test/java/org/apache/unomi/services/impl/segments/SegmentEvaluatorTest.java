@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.unomi.services.impl.segments;
+
+import org.apache.unomi.api.Item;
+import org.apache.unomi.api.Metadata;
+import org.apache.unomi.api.Profile;
+import org.apache.unomi.api.conditions.Condition;
+import org.apache.unomi.api.segments.Scoring;
+import org.apache.unomi.api.segments.ScoringElement;
+import org.apache.unomi.api.segments.Segment;
+import org.apache.unomi.api.segments.SegmentsAndScores;
+import org.apache.unomi.services.impl.TestConditions;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.function.BiPredicate;
+
+import static org.apache.unomi.services.impl.TestConditions.*;
+import static org.junit.Assert.*;
+
+public class SegmentEvaluatorTest {
+
+    @Test
+    public void testSegmentsAndScoresAreEvaluated() {
+        Condition adult = propertyCondition("age", 30);
+        Condition geneva = propertyCondition("city", "Geneva");
+        Segment adults = segment("adults", adult, true);
+        Segment genevaAdults = segment("genevaAdults", booleanCondition("and", Arrays.asList(adult, geneva)), true);
+        Segment notGeneva = segment("notGeneva", notCondition(geneva), true);
+        Segment adultsOrGeneva = segment("adultsOrGeneva", booleanCondition("or", Arrays.asList(geneva, adult)), true);
+        Segment disabled = segment("disabled", adult, false);
+        Scoring scoring = scoring("scoring", scoringElement(adult, 10), scoringElement(geneva, 5), scoringElement(notCondition(adult), 1));
+        SegmentEvaluator evaluator = SegmentEvaluator.build(Arrays.asList(adults, genevaAdults, notGeneva, adultsOrGeneva, disabled),
+                Collections.singletonList(scoring));
+
+        Profile profile = new Profile("profile");
+        profile.setProperty("age", 30);
+        profile.setProperty("city", "Lausanne");
+        SegmentsAndScores segmentsAndScores = evaluator.evaluate(profile, TestConditions::evaluate);
+        assertEquals(new HashSet<>(Arrays.asList("adults", "notGeneva", "adultsOrGeneva")), segmentsAndScores.getSegments());
+        assertEquals(Collections.singletonMap("scoring", 10), segmentsAndScores.getScores());
+
+        List<Metadata> metadatas = evaluator.getMatchingSegmentMetadatas(profile, TestConditions::evaluate);
+        assertEquals(Arrays.asList(adults.getMetadata(), notGeneva.getMetadata(), adultsOrGeneva.getMetadata()), metadatas);
+    }
+
+    @Test
+    public void testSharedConditionsAreEvaluatedOncePerProfile() {
+        List<Segment> segments = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            segments.add(segment("segment" + i, booleanCondition("and", Arrays.asList(propertyCondition("age", 30),
+                    propertyCondition("city", "Geneva"), propertyCondition("score", i))), true));
+        }
+        SegmentEvaluator evaluator = SegmentEvaluator.build(segments, Collections.<Scoring>emptyList());
+        assertEquals(202, evaluator.getNodeCount());
+
+        Profile profile = new Profile("profile");
+        profile.setProperty("age", 30);
+        profile.setProperty("city", "Geneva");
+        profile.setProperty("score", 42);
+        Map<Condition, Integer> evaluations = new HashMap<>();
+        BiPredicate<Condition, Item> countingEvaluator = (condition, item) -> {
+            evaluations.merge(condition, 1, Integer::sum);
+            return TestConditions.evaluate(condition, item);
+        };
+        assertEquals(Collections.singleton("segment42"), evaluator.evaluate(profile, countingEvaluator).getSegments());
+        assertEquals(102, evaluations.size());
+        for (Integer count : evaluations.values()) {
+            assertEquals(Integer.valueOf(1), count);
+        }
+    }
+
+    private static Segment segment(String segmentId, Condition condition, boolean enabled) {
+        Segment segment = new Segment(new Metadata(null, segmentId, segmentId, null));
+        segment.getMetadata().setEnabled(enabled);
+        segment.setCondition(condition);
+        return segment;
+    }
+
+    private static Scoring scoring(String scoringId, ScoringElement... elements) {
+        Scoring scoring = new Scoring(new Metadata(null, scoringId, scoringId, null));
+        scoring.getMetadata().setEnabled(true);
+        scoring.setElements(Arrays.asList(elements));
+        return scoring;
+    }
+
+    private static ScoringElement scoringElement(Condition condition, int value) {
+        ScoringElement element = new ScoringElement();
+        element.setCondition(condition);
+        element.setValue(value);
+        return element;
+    }
+}